@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.library;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.spark.broadcast.Broadcast;
+import org.cqframework.cql.elm.execution.IncludeDef;
+import org.cqframework.cql.elm.execution.Library;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.cohort.cql.OptimizedCqlLibraryReader;
+import com.ibm.cohort.cql.library.CqlLibraryDescriptor.Format;
+
+/**
+ * Library provider that serves ELM libraries that were translated once on the
+ * Spark driver and shipped to the executors as a broadcast variable. Executors
+ * only deserialize the ELM, so no CQL translation happens on the executors as
+ * long as every library that the evaluation loads is part of the broadcast
+ * (see {@link #collectElm(CqlLibraryProvider, Collection)}).
+ *
+ * Requests for libraries that are not part of the broadcast, including
+ * requests for CQL source, are passed to a fallback provider that is only
+ * created on first use.
+ */
+public class BroadcastCqlLibraryProvider implements CqlLibraryProvider {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BroadcastCqlLibraryProvider.class);
+
+	private final Broadcast<Map<CqlLibraryDescriptor, String>> elmLibraries;
+	private final Supplier<CqlLibraryProvider> fallbackProvider;
+
+	/**
+	 * @param elmLibraries     Broadcast map of ELM library descriptor to ELM content
+	 * @param fallbackProvider Supplier of the provider used for libraries that are
+	 *                         not part of the broadcast
+	 */
+	public BroadcastCqlLibraryProvider(Broadcast<Map<CqlLibraryDescriptor, String>> elmLibraries, Supplier<CqlLibraryProvider> fallbackProvider) {
+		this.elmLibraries = elmLibraries;
+		this.fallbackProvider = fallbackProvider;
+	}
+
+	/**
+	 * Translate the provided libraries and every library that they include,
+	 * directly or indirectly, to ELM.
+	 *
+	 * @param provider  Library provider that translates CQL to ELM
+	 * @param libraries Descriptors of the top level libraries. The format of the
+	 *                  descriptors is ignored.
+	 * @return map of ELM library descriptor to ELM content
+	 */
+	public static Map<CqlLibraryDescriptor, String> collectElm(CqlLibraryProvider provider, Collection<CqlLibraryDescriptor> libraries) {
+		Map<CqlLibraryDescriptor, String> result = new HashMap<>();
+
+		Deque<CqlLibraryDescriptor> pending = new ArrayDeque<>();
+		for (CqlLibraryDescriptor library : libraries) {
+			pending.add(toElmDescriptor(library.getLibraryId(), library.getVersion()));
+		}
+
+		while (!pending.isEmpty()) {
+			CqlLibraryDescriptor descriptor = pending.remove();
+			if (result.containsKey(descriptor)) {
+				continue;
+			}
+
+			CqlLibrary library = provider.getLibrary(descriptor);
+			if (library == null) {
+				throw new IllegalArgumentException(String.format("Library '%s' version '%s' format '%s' not found",
+						descriptor.getLibraryId(), descriptor.getVersion(), descriptor.getFormat().name()));
+			}
+			result.put(descriptor, library.getContent());
+
+			Library elm;
+			try {
+				elm = OptimizedCqlLibraryReader.read(library.getContentAsStream());
+			} catch (Exception ex) {
+				throw new CqlLibraryDeserializationException(ex);
+			}
+			if (elm.getIncludes() != null) {
+				for (IncludeDef include : elm.getIncludes().getDef()) {
+					pending.add(toElmDescriptor(include.getPath(), include.getVersion()));
+				}
+			}
+		}
+		return result;
+	}
+
+	private static CqlLibraryDescriptor toElmDescriptor(String libraryId, String version) {
+		return new CqlLibraryDescriptor()
+				.setLibraryId(libraryId)
+				.setVersion(version)
+				.setFormat(Format.ELM);
+	}
+
+	@Override
+	public Collection<CqlLibraryDescriptor> listLibraries() {
+		return fallbackProvider.get().listLibraries();
+	}
+
+	@Override
+	public CqlLibrary getLibrary(CqlLibraryDescriptor libraryDescriptor) {
+		CqlLibrary library = null;
+
+		String content = (libraryDescriptor.getFormat() == Format.ELM) ? elmLibraries.value().get(libraryDescriptor) : null;
+		if (content != null) {
+			library = new CqlLibrary()
+					.setDescriptor(libraryDescriptor)
+					.setContent(content);
+		} else {
+			LOG.debug("Library {} is not part of the broadcast libraries", libraryDescriptor);
+			library = fallbackProvider.get().getLibrary(libraryDescriptor);
+		}
+		return library;
+	}
+}
@@ -0,0 +1,502 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import javax.xml.bind.JAXB;
+import javax.xml.namespace.QName;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.Metadata;
+import org.apache.spark.sql.types.MetadataBuilder;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.util.LongAccumulator;
+import org.apache.spark.util.SerializableConfiguration;
+import org.hl7.elm_modelinfo.r1.ClassInfo;
+import org.hl7.elm_modelinfo.r1.ClassInfoElement;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import com.beust.jcommander.JCommander;
+import com.ibm.cohort.cql.spark.aggregation.ContextDefinition;
+import com.ibm.cohort.cql.spark.aggregation.ContextDefinitions;
+import com.ibm.cohort.cql.spark.aggregation.LocalContextRetriever;
+import com.ibm.cohort.cql.spark.data.CsvRowReader;
+import com.ibm.cohort.cql.spark.data.FileRowReader;
+import com.ibm.cohort.cql.spark.data.MetadataUtils;
+import com.ibm.cohort.cql.spark.data.ParquetRowReader;
+import com.ibm.cohort.cql.spark.data.ParquetRowWriteSupport;
+import com.ibm.cohort.cql.spark.data.QNameToDataTypeConverter;
+import com.ibm.cohort.cql.spark.data.SparkOutputColumnEncoder;
+import com.ibm.cohort.cql.spark.data.SparkTypeConverter;
+import com.ibm.cohort.cql.spark.evaluation.ContextEvaluationResult;
+import com.ibm.cohort.cql.spark.metadata.ContextCommit;
+import com.ibm.cohort.cql.spark.metadata.ContextCommitLog;
+import com.ibm.cohort.cql.spark.metadata.CqlProfileReport;
+import com.ibm.cohort.cql.spark.metadata.EvaluationSummary;
+import com.ibm.cohort.cql.spark.metadata.OutputMetadataWriter;
+import com.ibm.cohort.cql.spark.metrics.CqlProfileAccumulator;
+import com.ibm.cohort.cql.spark.metrics.EvaluationErrorAccumulator;
+import com.ibm.cohort.cql.spark.metrics.EvaluationStatisticsAccumulator;
+import com.ibm.cohort.cql.spark.optimizer.ModelUtils;
+import com.ibm.cohort.cql.translation.CqlToElmTranslator;
+import com.ibm.cohort.cql.util.MapUtils;
+import com.ibm.cohort.cql.util.StringMatcher;
+
+import scala.Tuple2;
+
+/**
+ * Evaluate the same jobs as {@link SparkCqlEvaluator} in a single JVM without
+ * starting Spark. The parquet or CSV input of each context is read into memory,
+ * joined and grouped by context value with hash tables, and the context
+ * values are evaluated on a fixed thread pool. Each thread writes one parquet
+ * file with the output schema that {@link SparkCqlEvaluator} would write.
+ *
+ * This is intended for datasets that fit in the memory of one machine, where
+ * the time spent starting Spark and shuffling the input outweighs the time
+ * spent evaluating CQL.
+ */
+public class LocalCqlEvaluator extends SparkCqlEvaluator {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalCqlEvaluator.class);
+    private static final long serialVersionUID = 1L;
+    private static final String PARQUET_FORMAT = "parquet";
+    private static final String CSV_FORMAT = "csv";
+    private static final String SYSTEM_TYPE_PREFIX = "System.";
+
+    private final int threads;
+
+    /**
+     * The statistics of each thread are kept separate while the contexts are
+     * evaluated and are merged when the program finishes.
+     */
+    private final transient List<EvaluationStatisticsAccumulator> threadStatistics = Collections.synchronizedList(new ArrayList<>());
+    private final transient ThreadLocal<EvaluationStatisticsAccumulator> localStatistics = ThreadLocal.withInitial(() -> {
+        EvaluationStatisticsAccumulator result = new EvaluationStatisticsAccumulator();
+        threadStatistics.add(result);
+        return result;
+    });
+
+    public LocalCqlEvaluator(LocalCqlEvaluatorArgs args) {
+        super(args);
+        this.threads = (args.threads > 0) ? args.threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public void run(PrintStream out) throws Exception {
+        EvaluationSummary evaluationSummary = new EvaluationSummary();
+        long startTimeMillis = System.currentTimeMillis();
+        evaluationSummary.setStartTimeMillis(startTimeMillis);
+        evaluationSummary.setCorrelationId(MDC.get(CORRELATION_ID));
+        String applicationId = "local-" + startTimeMillis;
+        evaluationSummary.setApplicationId(applicationId);
+
+        validateArgs();
+
+        this.typeConverter = new SparkTypeConverter(false);
+        this.hadoopConfiguration = new SerializableConfiguration(new Configuration());
+
+        CqlToElmTranslator cqlTranslator = getCqlTranslator();
+
+        SparkOutputColumnEncoder columnEncoder = getSparkOutputColumnEncoder();
+
+        ContextDefinitions contexts = readContextDefinitions(args.contextDefinitionPath);
+
+        List<ContextDefinition> filteredContexts = getFilteredContexts(contexts);
+
+        Map<String, StructType> resultSchemas = calculateSparkSchema(
+                filteredContexts.stream().map(ContextDefinition::getName).collect(Collectors.toList()),
+                contexts,
+                columnEncoder,
+                cqlTranslator
+        );
+
+        ZonedDateTime batchRunTime = ZonedDateTime.now();
+
+        final EvaluationErrorAccumulator errorAccumulator = args.haltOnError ? null : new EvaluationErrorAccumulator(args.errorSampleSize);
+        if (args.profile) {
+            profileAccum = new CqlProfileAccumulator();
+        }
+
+        long totalContexts = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (ContextDefinition context : filteredContexts) {
+                StructType resultsSchema = resultSchemas.get(context.getName());
+                if (resultsSchema == null || resultsSchema.fields().length == 0) {
+                    LOG.warn("Context " + context.getName() + " has no defines configured. Skipping.");
+                }
+                else if (args.resume && isCommitted(context, resultsSchema)) {
+                    ContextCommit commit = getContextCommitLog().getCommit(context.getName());
+                    LOG.info("Context {} was committed by application {}. Skipping.", context.getName(), commit.getApplicationId());
+                    evaluationSummary.addContextCount(context.getName(), commit.getExecutions());
+                    evaluationSummary.addResumedContext(context.getName());
+                }
+                else {
+                    ContextEvaluationResult result = evaluateContext(executor, applicationId, context, resultsSchema,
+                            errorAccumulator, batchRunTime);
+                    evaluationSummary.addContextCount(result.getContextName(), result.getExecutions());
+                    evaluationSummary.addContextRuntime(result.getContextName(), result.getRuntimeMillis());
+                    totalContexts++;
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            releaseSharedObjects();
+        }
+
+        long endTimeMillis = System.currentTimeMillis();
+        evaluationSummary.setEndTimeMillis(endTimeMillis);
+        evaluationSummary.setRuntimeMillis(endTimeMillis - startTimeMillis);
+
+        if (args.metadataOutputPath != null) {
+            if (errorAccumulator != null) {
+                evaluationSummary.setErrorGroups(errorAccumulator.value());
+                evaluationSummary.setErrorList(errorAccumulator.getSampledErrors());
+            }
+            EvaluationStatisticsAccumulator statistics = new EvaluationStatisticsAccumulator();
+            synchronized (threadStatistics) {
+                threadStatistics.forEach(statistics::merge);
+            }
+            evaluationSummary.setEvaluationStatisticsPerContext(new HashMap<>(statistics.value()));
+
+            evaluationSummary.setTotalContexts(totalContexts);
+
+            OutputMetadataWriter writer = getOutputMetadataWriter();
+            writer.writeMetadata(evaluationSummary);
+        }
+
+        if (profileAccum != null) {
+            CqlProfileReport profileReport = new CqlProfileReport(applicationId, profileAccum.value().values());
+            out.print(profileReport.format(args.profileReportLimit));
+            if (args.metadataOutputPath != null) {
+                getOutputMetadataWriter().writeProfileReport(profileReport);
+            }
+        }
+    }
+
+    /**
+     * Reject the options that change the results or the output of a run but
+     * that require Spark. Options that only tune how Spark evaluates a context
+     * are ignored.
+     */
+    protected void validateArgs() {
+        if (args.inputFormat != null && !args.inputFormat.equals(PARQUET_FORMAT) && !args.inputFormat.equals(CSV_FORMAT)) {
+            throw new IllegalArgumentException("The local evaluator only reads parquet or csv input, not " + args.inputFormat);
+        }
+        if (args.outputFormat != null && !args.outputFormat.equals(PARQUET_FORMAT)) {
+            throw new IllegalArgumentException("The local evaluator only writes parquet output, not " + args.outputFormat);
+        }
+        if (args.explain) {
+            throw new IllegalArgumentException("Explain mode is not supported by the local evaluator");
+        }
+        if (args.sampleFraction != null || args.sampleSize != null) {
+            throw new IllegalArgumentException("Context sampling is not supported by the local evaluator");
+        }
+        if (args.incrementalStatePath != null) {
+            throw new IllegalArgumentException("Incremental evaluation is not supported by the local evaluator");
+        }
+    }
+
+    /**
+     * Evaluate a single aggregation context and write its results. The context
+     * values are distributed round robin across one partition per thread, or
+     * across the configured number of output partitions, and each partition is
+     * evaluated and written to its own file by a thread of the executor.
+     *
+     * @param executor         Thread pool used to read and evaluate the context
+     * @param applicationId    Identifier of the run that is recorded in the commit log
+     * @param context          Aggregation context
+     * @param resultsSchema    Output schema for the aggregation context
+     * @param errorAccumulator Accumulator that collects CQL evaluation errors or
+     *                         null to halt on the first error
+     * @param batchRunTime     Single unified timestamp for all contexts
+     * @return result of the context evaluation
+     * @throws Exception any failure
+     */
+    protected ContextEvaluationResult evaluateContext(ExecutorService executor, String applicationId, ContextDefinition context,
+            StructType resultsSchema, EvaluationErrorAccumulator errorAccumulator, ZonedDateTime batchRunTime) throws Exception {
+        final String contextName = context.getName();
+        final String outputPath = MapUtils.getRequiredKey(args.outputPaths, contextName, "outputPath");
+
+        LOG.info("Evaluating context " + contextName);
+        long contextStartMillis = System.currentTimeMillis();
+
+        ContextCommitLog commitLog = getContextCommitLog();
+        commitLog.removeCommit(contextName);
+
+        Map<String, Set<StringMatcher>> columnFilters = args.disableColumnFiltering ? null : getDataRequirementsForContext(context);
+        LocalContextRetriever contextRetriever = new LocalContextRetriever(args.inputPaths, getRowReader(executor), columnFilters);
+        List<Tuple2<Object, List<Row>>> rowsByContext = contextRetriever.retrieveContext(context);
+
+        int partitions = (args.outputPartitions != null) ? args.outputPartitions : threads;
+        List<List<Tuple2<Object, List<Row>>>> partitionedRows = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            partitionedRows.add(new ArrayList<>());
+        }
+        for (int i = 0; i < rowsByContext.size(); i++) {
+            partitionedRows.get(i % partitions).add(rowsByContext.get(i));
+        }
+
+        Path outputDir = prepareOutputPath(outputPath);
+        String jobId = UUID.randomUUID().toString();
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            Path file = new Path(outputDir, String.format("part-%05d-%s-c000.snappy.parquet", i, jobId));
+            List<Tuple2<Object, List<Row>>> partition = partitionedRows.get(i);
+            futures.add(executor.submit(() -> evaluateAndWritePartition(contextName, resultsSchema, partition, file, errorAccumulator, batchRunTime)));
+        }
+
+        long executions = 0;
+        try {
+            for (Future<Long> future : futures) {
+                executions += future.get();
+            }
+        } catch (ExecutionException ex) {
+            futures.forEach(future -> future.cancel(true));
+            throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        }
+        outputDir.getFileSystem(getHadoopConfiguration()).create(new Path(outputDir, "_SUCCESS")).close();
+        long contextEndMillis = System.currentTimeMillis();
+
+        LOG.info(String.format("Wrote results for context %s to %s", contextName, outputPath));
+
+        ContextCommit commit = new ContextCommit();
+        commit.setContextName(contextName);
+        commit.setOutputPath(outputPath);
+        commit.setExecutions(executions);
+        commit.setRuntimeMillis(contextEndMillis - contextStartMillis);
+        commit.setSpecFingerprint(getSpecFingerprint(context, resultsSchema));
+        commit.setApplicationId(applicationId);
+        commit.setCommitTimeMillis(System.currentTimeMillis());
+        commitLog.commit(commit);
+
+        return new ContextEvaluationResult(contextName, executions, contextEndMillis - contextStartMillis);
+    }
+
+    /**
+     * @param executor Thread pool used to read the files of a dataset
+     * @return the reader for the configured input format
+     * @throws IOException if the model info cannot be read
+     */
+    protected FileRowReader getRowReader(ExecutorService executor) throws IOException {
+        FileRowReader result;
+        if (CSV_FORMAT.equals(args.inputFormat)) {
+            result = new CsvRowReader(getHadoopConfiguration(), executor, getCsvSchemas());
+        }
+        else {
+            result = new ParquetRowReader(getHadoopConfiguration(), executor);
+        }
+        return result;
+    }
+
+    /**
+     * CSV input has no types, so the columns of each input path are typed with
+     * the elements of the model info class that has the same name as the
+     * datatype of the path. Elements of type System.Code are read as code
+     * columns without a system or display column. Datatypes that are not
+     * found in the model info are read as strings.
+     *
+     * @return the schema of each input path that has a model info class
+     * @throws IOException if the model info cannot be read
+     */
+    protected Map<String, StructType> getCsvSchemas() throws IOException {
+        List<ModelInfo> modelInfos = new ArrayList<>();
+        if (args.modelInfoPaths != null) {
+            for (String path : args.modelInfoPaths) {
+                Path filePath = new Path(path);
+                FileSystem modelInfoFilesystem = filePath.getFileSystem(getHadoopConfiguration());
+                try (Reader r = new InputStreamReader(modelInfoFilesystem.open(filePath), StandardCharsets.UTF_8)) {
+                    modelInfos.add(JAXB.unmarshal(r, ModelInfo.class));
+                }
+            }
+        }
+
+        Map<String, StructType> result = new HashMap<>();
+        for (Map.Entry<String, String> entry : args.inputPaths.entrySet()) {
+            for (ModelInfo modelInfo : modelInfos) {
+                List<ClassInfoElement> elements = getClassElements(modelInfo, entry.getKey());
+                if (elements != null) {
+                    List<StructField> fields = new ArrayList<>();
+                    for (ClassInfoElement element : elements) {
+                        fields.add(getCsvField(element));
+                    }
+                    result.put(entry.getValue(), DataTypes.createStructType(fields));
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param modelInfo Model info
+     * @param className Name of a class of the model
+     * @return the elements of the class and of its base classes in the same
+     *         model or null if the model has no class with that name
+     */
+    protected List<ClassInfoElement> getClassElements(ModelInfo modelInfo, String className) {
+        Map<String, ClassInfo> classInfos = modelInfo.getTypeInfo().stream()
+                .filter(ClassInfo.class::isInstance)
+                .map(ClassInfo.class::cast)
+                .collect(Collectors.toMap(ClassInfo::getName, classInfo -> classInfo, (first, second) -> first));
+
+        ClassInfo classInfo = classInfos.get(className);
+        if (classInfo == null) {
+            return null;
+        }
+
+        List<ClassInfoElement> result = new ArrayList<>();
+        while (classInfo != null) {
+            result.addAll(classInfo.getElement());
+            ClassInfo baseClassInfo = null;
+            if (classInfo.getBaseType() != null) {
+                QName baseType = ModelUtils.getBaseTypeName(modelInfo, classInfo);
+                if (baseType.getNamespaceURI().equals(modelInfo.getUrl())) {
+                    baseClassInfo = classInfos.get(baseType.getLocalPart());
+                }
+            }
+            classInfo = baseClassInfo;
+        }
+        return result;
+    }
+
+    protected StructField getCsvField(ClassInfoElement element) {
+        String elementType = element.getElementType();
+        DataType dataType = DataTypes.StringType;
+        Metadata metadata = Metadata.empty();
+        if (elementType != null && elementType.startsWith(SYSTEM_TYPE_PREFIX)) {
+            String localType = elementType.substring(SYSTEM_TYPE_PREFIX.length());
+            if (localType.equals("Code")) {
+                metadata = new MetadataBuilder().putBoolean(MetadataUtils.IS_CODE_COL, true).build();
+            }
+            else {
+                try {
+                    dataType = QNameToDataTypeConverter.getFieldType(QNameToDataTypeConverter.createQNameForElmNamespace(localType));
+                } catch (UnsupportedOperationException ex) {
+                    LOG.debug("Reading element {} of type {} as a string", element.getName(), elementType);
+                }
+            }
+        }
+        return DataTypes.createStructField(element.getName(), dataType, true, metadata);
+    }
+
+    /**
+     * Evaluate the context values of a partition and write the results to a
+     * single parquet file.
+     *
+     * @param contextName      Aggregation context name
+     * @param resultsSchema    Output schema for the aggregation context
+     * @param partition        Rows of each context value of the partition
+     * @param file             Output file
+     * @param errorAccumulator Accumulator that collects CQL evaluation errors or
+     *                         null to halt on the first error
+     * @param batchRunTime     Single unified timestamp for all contexts
+     * @return number of context evaluations
+     * @throws Exception any failure
+     */
+    protected long evaluateAndWritePartition(String contextName, StructType resultsSchema, List<Tuple2<Object, List<Row>>> partition,
+            Path file, EvaluationErrorAccumulator errorAccumulator, ZonedDateTime batchRunTime) throws Exception {
+        LongAccumulator perPartitionAccum = new LongAccumulator();
+        Iterator<Row> results = newPartitionEvaluator(contextName, resultsSchema, perPartitionAccum, errorAccumulator, batchRunTime)
+                .evaluatePartition(partition.iterator());
+
+        try (ParquetWriter<Row> writer = ParquetRowWriteSupport.builder(file, resultsSchema)
+                .withConf(getHadoopConfiguration())
+                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                .build()) {
+            while (results.hasNext()) {
+                writer.write(results.next());
+            }
+        }
+        return perPartitionAccum.value();
+    }
+
+    /**
+     * @param outputPath Output folder of a context
+     * @return the empty output folder
+     * @throws IOException if the folder exists and results may not be
+     *                     overwritten or the folder cannot be created
+     */
+    protected Path prepareOutputPath(String outputPath) throws IOException {
+        Path path = new Path(outputPath);
+        FileSystem fileSystem = path.getFileSystem(getHadoopConfiguration());
+        if (fileSystem.exists(path)) {
+            if (!args.overwriteResults) {
+                throw new FileAlreadyExistsException("Output path " + outputPath + " already exists");
+            }
+            fileSystem.delete(path, true);
+        }
+        fileSystem.mkdirs(path);
+        return path;
+    }
+
+    /**
+     * Each evaluation thread records its statistics in its own accumulator,
+     * and the accumulators are merged when the run ends. This method must be
+     * called by the thread that evaluates the partition.
+     */
+    @Override
+    protected EvaluationStatisticsAccumulator getEvaluationStatisticsAccumulator() {
+        return localStatistics.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LocalCqlEvaluatorArgs programArgs = new LocalCqlEvaluatorArgs();
+
+        JCommander commander = JCommander.newBuilder()
+                .programName("LocalCqlEvaluator")
+                .addObject(programArgs)
+                .build();
+        commander.parse(args);
+
+        try {
+            if (programArgs.correlationId != null) {
+                MDC.put(CORRELATION_ID, programArgs.correlationId);
+            }
+
+            LocalCqlEvaluator evaluator = new LocalCqlEvaluator(programArgs);
+            if (programArgs.help) {
+                commander.usage();
+            } else {
+                evaluator.run(System.out);
+            }
+        }
+        finally {
+            MDC.remove(CORRELATION_ID);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Command-line arguments for the LocalCqlEvaluator program. The program
+ * accepts the same arguments as the SparkCqlEvaluator program.
+ */
+public class LocalCqlEvaluatorArgs extends SparkCqlEvaluatorArgs {
+    private static final long serialVersionUID = 1L;
+
+    @Parameter(names = { "--threads" }, description = "Number of threads that read the input files and evaluate context values. Defaults to the number of available processors.", required = false)
+    public int threads = 0;
+}
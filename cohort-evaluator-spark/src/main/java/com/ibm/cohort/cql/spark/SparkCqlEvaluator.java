@@ -12,6 +12,7 @@ import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.io.Serializable;
+import java.math.BigInteger;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -19,87 +20,105 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
-import javax.validation.ConstraintViolation;
-import javax.validation.Validation;
-import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
-
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.network.util.JavaUtils;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.RowFactory;
 import org.apache.spark.sql.SaveMode;
 import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.functions;
 import org.apache.spark.sql.types.StructType;
-import org.apache.spark.util.CollectionAccumulator;
+import org.apache.spark.storage.StorageLevel;
 import org.apache.spark.util.LongAccumulator;
 import org.apache.spark.util.SerializableConfiguration;
 import org.opencds.cqf.cql.engine.data.ExternalFunctionProvider;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
 import com.beust.jcommander.JCommander;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.ibm.cohort.cql.data.CqlDataProvider;
-import com.ibm.cohort.cql.evaluation.CqlDebug;
+import com.ibm.cohort.cql.evaluation.CqlContextFactory;
 import com.ibm.cohort.cql.evaluation.CqlEvaluationRequest;
 import com.ibm.cohort.cql.evaluation.CqlEvaluationRequests;
-import com.ibm.cohort.cql.evaluation.CqlEvaluationResult;
-import com.ibm.cohort.cql.evaluation.CqlEvaluator;
-import com.ibm.cohort.cql.evaluation.CqlExpressionConfiguration;
-import com.ibm.cohort.cql.evaluation.parameters.Parameter;
-import com.ibm.cohort.cql.functions.AnyColumnFunctions;
-import com.ibm.cohort.cql.functions.CohortExternalFunctionProvider;
-import com.ibm.cohort.cql.library.ClasspathCqlLibraryProvider;
+import com.ibm.cohort.cql.library.BroadcastCqlLibraryProvider;
+import com.ibm.cohort.cql.library.CqlLibrary;
 import com.ibm.cohort.cql.library.CqlLibraryDescriptor;
-import com.ibm.cohort.cql.library.CqlLibraryDescriptor.Format;
 import com.ibm.cohort.cql.library.CqlLibraryProvider;
-import com.ibm.cohort.cql.library.HadoopBasedCqlLibraryProvider;
-import com.ibm.cohort.cql.library.PriorityCqlLibraryProvider;
 import com.ibm.cohort.cql.spark.aggregation.ContextDefinition;
 import com.ibm.cohort.cql.spark.aggregation.ContextDefinitions;
+import com.ibm.cohort.cql.spark.aggregation.ContextGroupingStrategy;
 import com.ibm.cohort.cql.spark.aggregation.ContextRetriever;
+import com.ibm.cohort.cql.spark.aggregation.ContextSampler;
+import com.ibm.cohort.cql.spark.aggregation.HotKeyDetector;
 import com.ibm.cohort.cql.spark.aggregation.Join;
 import com.ibm.cohort.cql.spark.aggregation.ManyToMany;
-import com.ibm.cohort.cql.spark.data.ConfigurableOutputColumnNameEncoder;
+import com.ibm.cohort.cql.spark.aggregation.SharedDatasetPlan;
+import com.ibm.cohort.cql.spark.aggregation.SortedContextIterator;
+import com.ibm.cohort.cql.spark.data.CodeFilteredDatasetRetriever;
 import com.ibm.cohort.cql.spark.data.DatasetRetriever;
 import com.ibm.cohort.cql.spark.data.DefaultDatasetRetriever;
 import com.ibm.cohort.cql.spark.data.FilteredDatasetRetriever;
-import com.ibm.cohort.cql.spark.data.SparkDataRow;
+import com.ibm.cohort.cql.spark.data.SharedDatasetRetriever;
 import com.ibm.cohort.cql.spark.data.SparkOutputColumnEncoder;
 import com.ibm.cohort.cql.spark.data.SparkSchemaCreator;
 import com.ibm.cohort.cql.spark.data.SparkTypeConverter;
-import com.ibm.cohort.cql.spark.errors.EvaluationError;
+import com.ibm.cohort.cql.spark.evaluation.ContextEvaluationPlan;
+import com.ibm.cohort.cql.spark.evaluation.ContextEvaluationResult;
+import com.ibm.cohort.cql.spark.evaluation.ContextFingerprinter;
+import com.ibm.cohort.cql.spark.evaluation.IncrementalContextPlan;
+import com.ibm.cohort.cql.spark.evaluation.PartitionEvaluator;
+import com.ibm.cohort.cql.spark.evaluation.SharedEvaluationObjects;
+import com.ibm.cohort.cql.spark.evaluation.SharedObjectRegistry;
+import com.ibm.cohort.cql.spark.metadata.ContextCommit;
+import com.ibm.cohort.cql.spark.metadata.ContextCommitLog;
+import com.ibm.cohort.cql.spark.metadata.ContextExplanation;
+import com.ibm.cohort.cql.spark.metadata.CqlProfileReport;
+import com.ibm.cohort.cql.spark.metadata.DataTypeExplanation;
 import com.ibm.cohort.cql.spark.metadata.EvaluationSummary;
+import com.ibm.cohort.cql.spark.metadata.ExplainReport;
+import com.ibm.cohort.cql.spark.metadata.HadoopPathContextCommitLog;
 import com.ibm.cohort.cql.spark.metadata.HadoopPathOutputMetadataWriter;
+import com.ibm.cohort.cql.spark.metadata.IncrementalStatistics;
 import com.ibm.cohort.cql.spark.metadata.OutputMetadataWriter;
+import com.ibm.cohort.cql.spark.metadata.SamplingSettings;
+import com.ibm.cohort.cql.spark.metadata.SharedDatasetStatistics;
+import com.ibm.cohort.cql.spark.metrics.CqlProfileAccumulator;
 import com.ibm.cohort.cql.spark.metrics.CustomMetricSparkPlugin;
+import com.ibm.cohort.cql.spark.metrics.EvaluationErrorAccumulator;
+import com.ibm.cohort.cql.spark.metrics.EvaluationStatisticsAccumulator;
+import com.ibm.cohort.cql.spark.optimizer.DataTypeCodeFilter;
 import com.ibm.cohort.cql.spark.optimizer.DataTypeRequirementsProcessor;
 import com.ibm.cohort.cql.spark.util.EncodedParametersCache;
+import com.ibm.cohort.cql.terminology.BroadcastTerminologyProvider;
 import com.ibm.cohort.cql.terminology.CqlTerminologyProvider;
-import com.ibm.cohort.cql.terminology.R4FileSystemFhirTerminologyProvider;
-import com.ibm.cohort.cql.terminology.UnsupportedTerminologyProvider;
+import com.ibm.cohort.cql.terminology.TerminologyIndex;
 import com.ibm.cohort.cql.translation.CqlToElmTranslator;
-import com.ibm.cohort.cql.translation.TranslatingCqlLibraryProvider;
 import com.ibm.cohort.cql.util.EqualsStringMatcher;
 import com.ibm.cohort.cql.util.MapUtils;
 import com.ibm.cohort.cql.util.StringMatcher;
-import com.ibm.cohort.datarow.engine.DataRowDataProvider;
-import com.ibm.cohort.datarow.engine.DataRowRetrieveProvider;
-import com.ibm.cohort.datarow.model.DataRow;
-
-import scala.Tuple2;
 
 /**
  * Given knowledge and configuration artifacts available under local storage and
@@ -109,46 +128,67 @@ import scala.Tuple2;
 public class SparkCqlEvaluator implements Serializable {
     private static final Logger LOG = LoggerFactory.getLogger(SparkCqlEvaluator.class);
     private static final long serialVersionUID = 1L;
-    private static final String CORRELATION_ID = "CorrelationId";
+    protected static final String CORRELATION_ID = "CorrelationId";
 
     protected SparkCqlEvaluatorArgs args;
 
     protected SparkTypeConverter typeConverter;
 
-    protected SerializableConfiguration hadoopConfiguration;
+    /*
+     * The Hadoop configuration is broadcast rather than serialized with every
+     * task closure that references the evaluator. The driver and the local
+     * evaluator set the configuration field directly.
+     */
+    protected transient SerializableConfiguration hadoopConfiguration;
+
+    protected Broadcast<SerializableConfiguration> broadcastHadoopConfiguration;
     
-    protected static ThreadLocal<SparkOutputColumnEncoder> sparkOutputColumnEncoder = new ThreadLocal<>();
+    /*
+     * The job specification, column encoder, and library, terminology, and function
+     * providers (see SharedEvaluationObjects) are stored once per JVM in the
+     * SharedObjectRegistry and are shared by every task thread of an executor. This
+     * allows the job specification to be read, each library to be translated, and
+     * each value set to be parsed only once per executor. The providers must also remain the same from one context to the next
+     * so that the CQL context objects, which are inherently slow to initialize, can be
+     * reused. Each thread still keeps its own CQL context objects (see
+     * CqlContextFactory). The objects belong to a single run and are released with
+     * their cached contexts when the run ends (see releaseSharedObjects), so a later
+     * run in the same JVM does not use stale copies.
+     */
+    
+    /**
+     * Cache the JSON-encoded value of the request parameters for each request so that 
+     * we don't have to recreate this value for each context evaluation.
+     */
+    protected EncodedParametersCache encodedParametersCache;
 
     /**
-     * Store a single copy of the job specification data per thread. This allows the data
-     * to be read once from underlying storage and reused across each context
-     * evaluation (of which there are many).
+     * Spark accumulators that count the row values converted and reused by
+     * memoizing data rows. Only set when row value memoization is enabled.
      */
-    protected static ThreadLocal<CqlEvaluationRequests> jobSpecification = new ThreadLocal<>();
-    
+    protected LongAccumulator rowValueConversionsAccum;
+    protected LongAccumulator rowValueReusesAccum;
+
     /**
-     * Store a single configured copy of the library provider per thread. This allows the
-     * library provider to be reused which impacts the ability of the CQL context objects to
-     * be reused. CQL context object reuse is important for performance reasons. Context
-     * objects are inherently slow to initialize. It is important that this and the 
-     * terminologyProvider instances remain the same from one run to the next or unnecessary
-     * Context initializations will occur.
+     * Spark accumulator that rolls up the executor evaluation statistics of each
+     * context. Only set while the program is running.
      */
-    protected static ThreadLocal<CqlLibraryProvider> libraryProvider = new ThreadLocal<>();
-    
+    protected EvaluationStatisticsAccumulator evaluationStatisticsAccum;
+
     /**
-     * Store a single configured copy of the terminology provider per thread. See the 
-     * discussion in the libraryProvider documentation for complete reasoning.
+     * Spark accumulator that rolls up the CQL profile entries recorded by the
+     * executors. Only set when profiling is enabled.
      */
-    protected static ThreadLocal<CqlTerminologyProvider> terminologyProvider = new ThreadLocal<>();
+    protected CqlProfileAccumulator profileAccum;
 
-    protected static ThreadLocal<ExternalFunctionProvider> functionProvider = new ThreadLocal<>();
-    
     /**
-     * Cache the JSON-encoded value of the request parameters for each request so that 
-     * we don't have to recreate this value for each context evaluation.
+     * ELM for every library used by the job, translated once on the driver, and
+     * the key of the library provider that serves it in the SharedObjectRegistry.
      */
-    protected EncodedParametersCache encodedParametersCache;
+    protected Broadcast<Map<CqlLibraryDescriptor, String>> broadcastLibraries;
+    protected String broadcastLibrariesKey;
+    protected Broadcast<TerminologyIndex> broadcastTerminology;
+    protected String broadcastTerminologyKey;
 
     /**
      * Auto-detect an output schema for 1 or more contexts using program metadata files
@@ -167,11 +207,7 @@ public class SparkCqlEvaluator implements Serializable {
      *         or if inferring an output schema fails for any reason.
      */
     protected Map<String, StructType> calculateSparkSchema(List<String> contextNames, ContextDefinitions contextDefinitions, SparkOutputColumnEncoder encoder, CqlToElmTranslator cqlTranslator) throws Exception {
-        CqlLibraryProvider libProvider = SparkCqlEvaluator.libraryProvider.get();
-        if (libProvider == null) {
-            libProvider = createLibraryProvider();
-            SparkCqlEvaluator.libraryProvider.set(libProvider);
-        }
+        CqlLibraryProvider libProvider = getLibraryProvider();
 
         CqlEvaluationRequests cqlEvaluationRequests = getFilteredJobSpecificationWithIds();
 
@@ -186,13 +222,33 @@ public class SparkCqlEvaluator implements Serializable {
                 .setKeyParameterNames(args.keyParameterNames);
     }
     
+    /**
+     * Get the job specification, column encoder, and providers of the current
+     * run. The returned object only holds the arguments, Hadoop configuration,
+     * and broadcast handles needed to create the objects, so it can be
+     * serialized with a task instead of the evaluator.
+     *
+     * @return shared objects of the current run
+     */
+    protected SharedEvaluationObjects getSharedObjects() {
+        return new SharedEvaluationObjects(getClass().getName(), args, encodedParametersCache, hadoopConfiguration, broadcastHadoopConfiguration)
+                .setBroadcastLibraries(broadcastLibraries, broadcastLibrariesKey)
+                .setBroadcastTerminology(broadcastTerminology, broadcastTerminologyKey);
+    }
+
+    /**
+     * @return the unfiltered job specification, reading it if necessary
+     * @throws Exception if there was an error reading the job specification.
+     */
     public CqlEvaluationRequests getJobSpecification() throws Exception {
-        CqlEvaluationRequests requests = jobSpecification.get();
-        if (requests == null) {
-            requests = readJobSpecification(args.jobSpecPath);
-            jobSpecification.set(requests);
-        }
-        return requests;
+        return getSharedObjects().getJobSpecification();
+    }
+
+    /**
+     * @return key of the unfiltered job specification in the shared object registry
+     */
+    protected String getJobSpecificationKey() {
+        return getSharedObjects().getJobSpecificationKey();
     }
 
     /**
@@ -207,24 +263,24 @@ public class SparkCqlEvaluator implements Serializable {
      * @throws Exception if there was an error reading the job specification.
      */
     public CqlEvaluationRequests getFilteredJobSpecificationWithIds() throws Exception {
-        CqlEvaluationRequests filteredRequests = getFilteredRequests(getJobSpecification(), args.libraries, args.expressions);
+        return getSharedObjects().getFilteredJobSpecificationWithIds();
+    }
 
-        List<CqlEvaluationRequest> evaluations = filteredRequests.getEvaluations();
-        if (evaluations != null && !evaluations.isEmpty()) {
-            int i = 1;
-            for (CqlEvaluationRequest evaluation : evaluations) {
-                evaluation.setId(i);
-                i++;
-            }
-            filteredRequests.setEvaluations(evaluations);
-        }
-        return filteredRequests;
+    /**
+     * @return key of the filtered job specification in the shared object registry
+     */
+    protected String getFilteredJobSpecificationKey() {
+        return getSharedObjects().getFilteredJobSpecificationKey();
     }
     
     public OutputMetadataWriter getOutputMetadataWriter() {
-    	return new HadoopPathOutputMetadataWriter(new Path(args.metadataOutputPath), hadoopConfiguration.value());
+    	return new HadoopPathOutputMetadataWriter(new Path(args.metadataOutputPath), getHadoopConfiguration());
 	}
 
+    public ContextCommitLog getContextCommitLog() {
+        return new HadoopPathContextCommitLog(new Path(args.metadataOutputPath), getHadoopConfiguration());
+    }
+
     /**
      * @param requests     Request object to filter.
      * @param libraries    Map of library id to version used for filtering
@@ -243,44 +299,18 @@ public class SparkCqlEvaluator implements Serializable {
      *         parameters set on each individual CqlEvaluationRequest.
      */
     protected CqlEvaluationRequests getFilteredRequests(CqlEvaluationRequests requests, Map<String, String> libraries, Collection<String> expressions) {
-        if (requests != null) {
-            List<CqlEvaluationRequest> evaluations = requests.getEvaluations();
-            if (libraries != null && !libraries.isEmpty()) {
-                evaluations = evaluations.stream()
-                        .filter(r -> libraries.keySet().contains(r.getDescriptor().getLibraryId()))
-                        .collect(Collectors.toList());
-            }
-            if (expressions != null && !expressions.isEmpty()) {
-                evaluations.forEach(x -> x.setExpressions( x.getExpressions().stream().filter( e -> expressions.contains(e.getName()) ).collect(Collectors.toSet()) ));
-            }
-
-            if (requests.getGlobalParameters() != null) {
-                for (CqlEvaluationRequest evaluation : evaluations) {
-                    for (Map.Entry<String, Parameter> globalParameter : requests.getGlobalParameters().entrySet()) {
-                        Map<String, Parameter> parameters = evaluation.getParameters();
-                        if (parameters == null) {
-                            evaluation.setParameters(new HashMap<>());
-                            parameters = evaluation.getParameters();
-                        }
-                        parameters.putIfAbsent(globalParameter.getKey(), globalParameter.getValue());
-                    }
-                }
-            }
-            requests.setEvaluations(evaluations);
-
-            jobSpecification.set(requests);
-        }
-        return requests;
+        return SharedEvaluationObjects.getFilteredRequests(requests, libraries, expressions);
     }
     
     public SparkOutputColumnEncoder getSparkOutputColumnEncoder() throws Exception {
-        SparkOutputColumnEncoder columnEncoder = sparkOutputColumnEncoder.get();
-        if (columnEncoder == null) {
-            columnEncoder = ConfigurableOutputColumnNameEncoder.create(getFilteredJobSpecificationWithIds()
-                    , encodedParametersCache, args.defaultOutputColumnDelimiter);
-            sparkOutputColumnEncoder.set(columnEncoder);
-        }
-        return columnEncoder;
+        return getSharedObjects().getSparkOutputColumnEncoder();
+    }
+
+    /**
+     * @return key of the output column encoder in the shared object registry
+     */
+    protected String getSparkOutputColumnEncoderKey() {
+        return getSharedObjects().getSparkOutputColumnEncoderKey();
     }
     
     public void run(PrintStream out) throws Exception {
@@ -290,128 +320,861 @@ public class SparkCqlEvaluator implements Serializable {
         
         SparkSession.Builder sparkBuilder = SparkSession.builder();
         try (SparkSession spark = sparkBuilder.getOrCreate()) {
-            spark.sparkContext().setLocalProperty("mdc." + CORRELATION_ID, MDC.get(CORRELATION_ID));
-            evaluationSummary.setCorrelationId(MDC.get(CORRELATION_ID));
-            boolean useJava8API = Boolean.valueOf(spark.conf().get("spark.sql.datetime.java8API.enabled"));
-            this.typeConverter = new SparkTypeConverter(useJava8API);
-            this.hadoopConfiguration = new SerializableConfiguration(spark.sparkContext().hadoopConfiguration());
-            evaluationSummary.setApplicationId(spark.sparkContext().applicationId());
-
-            CqlToElmTranslator cqlTranslator = getCqlTranslator();
+            try {
+                spark.sparkContext().setLocalProperty("mdc." + CORRELATION_ID, MDC.get(CORRELATION_ID));
+                evaluationSummary.setCorrelationId(MDC.get(CORRELATION_ID));
+                boolean useJava8API = Boolean.valueOf(spark.conf().get("spark.sql.datetime.java8API.enabled"));
+                this.typeConverter = new SparkTypeConverter(useJava8API);
+                this.hadoopConfiguration = new SerializableConfiguration(spark.sparkContext().hadoopConfiguration());
+                this.broadcastHadoopConfiguration = JavaSparkContext.fromSparkContext(spark.sparkContext()).broadcast(hadoopConfiguration);
+                evaluationSummary.setApplicationId(spark.sparkContext().applicationId());
+
+                ContextSampler contextSampler = getContextSampler();
+                if (contextSampler != null) {
+                    if (args.incrementalStatePath != null) {
+                        throw new IllegalArgumentException("Context sampling cannot be combined with incremental evaluation");
+                    }
+                    LOG.info("Evaluating a sample of the context values of each context (fraction {}, size {}, seed {})",
+                            contextSampler.getFraction(), contextSampler.getSize(), contextSampler.getSeed());
+                    evaluationSummary.setSampling(new SamplingSettings(contextSampler.getFraction(), contextSampler.getSize(), contextSampler.getSeed()));
+                }
+
+                CqlToElmTranslator cqlTranslator = getCqlTranslator();
             
-            SparkOutputColumnEncoder columnEncoder = getSparkOutputColumnEncoder();
+                SparkOutputColumnEncoder columnEncoder = getSparkOutputColumnEncoder();
             
-            ContextDefinitions contexts = readContextDefinitions(args.contextDefinitionPath);
+                ContextDefinitions contexts = readContextDefinitions(args.contextDefinitionPath);
 
-            List<ContextDefinition> filteredContexts = contexts.getContextDefinitions();
-            if (args.aggregationContexts != null && !args.aggregationContexts.isEmpty()) {
-                filteredContexts = filteredContexts.stream().filter(def -> args.aggregationContexts.contains(def.getName()))
-                        .collect(Collectors.toList());
-            }
-            if (filteredContexts.isEmpty()) {
-                throw new IllegalArgumentException(
-                        "At least one context definition is required (after filtering if enabled).");
-            }
+                List<ContextDefinition> filteredContexts = getFilteredContexts(contexts);
             
-            Map<String, StructType> resultSchemas = calculateSparkSchema(
-                    filteredContexts.stream().map(ContextDefinition::getName).collect(Collectors.toList()),
-                    contexts,
-                    columnEncoder,
-                    cqlTranslator
-            );
-
-            ZonedDateTime batchRunTime = ZonedDateTime.now();
-
-            final LongAccumulator contextAccum = spark.sparkContext().longAccumulator("Context");
-            final LongAccumulator perContextAccum = spark.sparkContext().longAccumulator("PerContext");
-            final CollectionAccumulator<EvaluationError> errorAccumulator = args.haltOnError ? null : spark.sparkContext().collectionAccumulator("EvaluationErrors");
+                Map<String, StructType> resultSchemas = calculateSparkSchema(
+                        filteredContexts.stream().map(ContextDefinition::getName).collect(Collectors.toList()),
+                        contexts,
+                        columnEncoder,
+                        cqlTranslator
+                );
+
+                if (args.explain) {
+                    ExplainReport explainReport = explain(spark, filteredContexts, resultSchemas);
+                    out.print(explainReport.format());
+                    if (args.metadataOutputPath != null) {
+                        getOutputMetadataWriter().writeExplainReport(explainReport);
+                    }
+                    return;
+                }
+
+                broadcastLibraries = broadcastElmLibraries(spark);
+                broadcastLibrariesKey = SharedObjectRegistry.getKey("BroadcastCqlLibraryProvider", getClass().getName(),
+                        spark.sparkContext().applicationId(), broadcastLibraries.id());
+                if (args.terminologyPath != null && !args.terminologyPath.isEmpty()) {
+                    broadcastTerminology = broadcastTerminologyIndex(spark, broadcastLibraries.value());
+                    broadcastTerminologyKey = SharedObjectRegistry.getKey("BroadcastTerminologyProvider", getClass().getName(),
+                            spark.sparkContext().applicationId(), broadcastTerminology.id());
+                }
+
+                ZonedDateTime batchRunTime = ZonedDateTime.now();
+
+                final LongAccumulator contextAccum = spark.sparkContext().longAccumulator("Context");
+                final EvaluationErrorAccumulator errorAccumulator = args.haltOnError ? null : new EvaluationErrorAccumulator(args.errorSampleSize);
+                if (errorAccumulator != null) {
+                    spark.sparkContext().register(errorAccumulator, "EvaluationErrors");
+                }
             
-            CustomMetricSparkPlugin.contextAccumGauge.setAccumulator(contextAccum);
-            CustomMetricSparkPlugin.perContextAccumGauge.setAccumulator(perContextAccum);
-            CustomMetricSparkPlugin.totalContextsToProcessCounter.inc(filteredContexts.size());
-            CustomMetricSparkPlugin.currentlyEvaluatingContextGauge.setValue(0);
+                CustomMetricSparkPlugin.contextAccumGauge.setAccumulator(contextAccum);
+                evaluationStatisticsAccum = new EvaluationStatisticsAccumulator();
+                spark.sparkContext().register(evaluationStatisticsAccum, "EvaluationStatistics");
+                if (args.profile) {
+                    profileAccum = new CqlProfileAccumulator();
+                    spark.sparkContext().register(profileAccum, "CqlProfile");
+                }
+                if (args.memoizeRowValues) {
+                    rowValueConversionsAccum = spark.sparkContext().longAccumulator("RowValueConversions");
+                    rowValueReusesAccum = spark.sparkContext().longAccumulator("RowValueReuses");
+                    CustomMetricSparkPlugin.rowValueConversionsGauge.setAccumulator(rowValueConversionsAccum);
+                    CustomMetricSparkPlugin.rowValueReusesGauge.setAccumulator(rowValueReusesAccum);
+                }
+                CustomMetricSparkPlugin.totalContextsToProcessCounter.inc(filteredContexts.size());
+                CustomMetricSparkPlugin.currentlyEvaluatingContextGauge.setValue(0);
+
+                List<ContextDefinition> evaluatedContexts = new ArrayList<>();
+                for (ContextDefinition context : filteredContexts) {
+                    StructType resultsSchema = resultSchemas.get(context.getName());
+                    if (resultsSchema == null || resultsSchema.fields().length == 0) {
+                        LOG.warn("Context " + context.getName() + " has no defines configured. Skipping.");
+                    }
+                    else if (args.resume && isCommitted(context, resultsSchema)) {
+                        ContextCommit commit = getContextCommitLog().getCommit(context.getName());
+                        LOG.info("Context {} was committed by application {}. Skipping.", context.getName(), commit.getApplicationId());
+                        evaluationSummary.addContextCount(context.getName(), commit.getExecutions());
+                        evaluationSummary.addResumedContext(context.getName());
+                    }
+                    else {
+                        evaluatedContexts.add(context);
+                    }
+                }
 
-            for (ContextDefinition context : filteredContexts) {
-                final String contextName = context.getName();
-                
-                DatasetRetriever datasetRetriever = getDatasetRetrieverForContext(spark, context); 
-                ContextRetriever contextRetriever = new ContextRetriever(args.inputPaths, datasetRetriever);
+                SharedDatasetPlan sharedDatasetPlan = null;
+                SharedDatasetRetriever sharedDatasetRetriever = null;
+                if (args.enableDatasetSharing) {
+                    sharedDatasetPlan = new SharedDatasetPlan(evaluatedContexts);
+                    if (sharedDatasetPlan.hasSharedDataTypes()) {
+                        LOG.info("Datatypes {} are shared by more than one context and will be read once", sharedDatasetPlan.getSharedDataTypeUses().keySet());
+                        sharedDatasetRetriever = createSharedDatasetRetriever(spark, evaluatedContexts, sharedDatasetPlan);
+                    }
+                }
 
-                StructType resultsSchema = resultSchemas.get(contextName);
-                
-                if (resultsSchema == null || resultsSchema.fields().length == 0) {
-                    LOG.warn("Context " + contextName + " has no defines configured. Skipping.");
+                List<Callable<ContextEvaluationResult>> contextTasks = new ArrayList<>();
+                for (ContextDefinition context : evaluatedContexts) {
+                    final SharedDatasetPlan plan = sharedDatasetPlan;
+                    final SharedDatasetRetriever sharedRetriever = sharedDatasetRetriever;
+                    contextTasks.add(() -> {
+                        CustomMetricSparkPlugin.currentlyEvaluatingContextGauge.increment();
+                        try {
+                            return evaluateContext(spark, context, resultSchemas.get(context.getName()), plan,
+                                    sharedRetriever, contextAccum, errorAccumulator, batchRunTime);
+                        } finally {
+                            CustomMetricSparkPlugin.currentlyEvaluatingContextGauge.decrement();
+                        }
+                    });
                 }
-                else {
-                    LOG.info("Evaluating context " + contextName);
-                    long contextStartMillis = System.currentTimeMillis();
 
-                    final String outputPath = MapUtils.getRequiredKey(args.outputPaths, context.getName(), "outputPath");
+                List<ContextEvaluationResult> contextResults;
+                try {
+                    contextResults = runContextTasks(spark, contextTasks);
+                } finally {
+                    if (sharedDatasetRetriever != null) {
+                        sharedDatasetRetriever.releaseAll();
+                    }
+                }
+
+                for (ContextEvaluationResult result : contextResults) {
+                    evaluationSummary.addContextCount(result.getContextName(), result.getExecutions());
+                    evaluationSummary.addContextRuntime(result.getContextName(), result.getRuntimeMillis());
+                    if (result.getSkewStatistics() != null) {
+                        evaluationSummary.addContextSkewStatistics(result.getContextName(), result.getSkewStatistics());
+                    }
+                    if (result.getJoinPlan() != null) {
+                        evaluationSummary.addContextJoinPlan(result.getContextName(), result.getJoinPlan());
+                    }
+                    if (result.getSharedDatasetStatistics() != null) {
+                        evaluationSummary.addSharedDatasetStatistics(result.getContextName(), result.getSharedDatasetStatistics());
+                    }
+                    if (result.getIncrementalStatistics() != null) {
+                        evaluationSummary.addIncrementalStatistics(result.getContextName(), result.getIncrementalStatistics());
+                    }
+                }
 
-                    JavaPairRDD<Object, List<Row>> rowsByContextId = contextRetriever.retrieveContext(context);
+                long endTimeMillis = System.currentTimeMillis();
+                evaluationSummary.setEndTimeMillis(endTimeMillis);
+                evaluationSummary.setRuntimeMillis(endTimeMillis - startTimeMillis);
 
-                    CustomMetricSparkPlugin.currentlyEvaluatingContextGauge.setValue(CustomMetricSparkPlugin.currentlyEvaluatingContextGauge.getValue() + 1);
-                    JavaPairRDD<Object, Row> resultsByContext = rowsByContextId
-                            .flatMapToPair(x -> evaluate(contextName, resultsSchema, x, perContextAccum, errorAccumulator, batchRunTime));
-                    
-                    writeResults(spark, resultsSchema, resultsByContext, outputPath);
-                    long contextEndMillis = System.currentTimeMillis();
+                if (args.metadataOutputPath != null) {
+                    if (errorAccumulator != null) {
+                        evaluationSummary.setErrorGroups(errorAccumulator.value());
+                        evaluationSummary.setErrorList(errorAccumulator.getSampledErrors());
+                    }
+                    evaluationSummary.setEvaluationStatisticsPerContext(new HashMap<>(evaluationStatisticsAccum.value()));
 
-                    LOG.info(String.format("Wrote results for context %s to %s", contextName, outputPath));
-                    
-                    evaluationSummary.addContextCount(contextName, perContextAccum.value());
-                    evaluationSummary.addContextRuntime(contextName, contextEndMillis - contextStartMillis);
+                    evaluationSummary.setTotalContexts(contextAccum.value());
 
-                    contextAccum.add(1);
-                    perContextAccum.reset();
+                    OutputMetadataWriter writer = getOutputMetadataWriter();
+                    writer.writeMetadata(evaluationSummary);
                 }
+
+                if (profileAccum != null) {
+                    CqlProfileReport profileReport = new CqlProfileReport(evaluationSummary.getApplicationId(), profileAccum.value().values());
+                    out.print(profileReport.format(args.profileReportLimit));
+                    if (args.metadataOutputPath != null) {
+                        getOutputMetadataWriter().writeProfileReport(profileReport);
+                    }
+                }
+            
+                CustomMetricSparkPlugin.currentlyEvaluatingContextGauge.setValue(0);
+            
+                try {
+                    Boolean metricsEnabledStr = Boolean.valueOf(spark.conf().get("spark.ui.prometheus.enabled"));
+                    if(metricsEnabledStr) {
+                        LOG.info("Prometheus metrics enabled, sleeping for 7 seconds to finish gathering metrics");
+                        //sleep for over 5 seconds because Prometheus only polls
+                        //every 5 seconds. If spark finishes and goes away immediately after completing,
+                        //Prometheus will never be able to poll for the final set of metrics for the spark-submit
+                        //The default promtheus config map was changed from 2 minute scrape interval to 5 seconds for spark pods
+                        Thread.sleep(7000);
+                    }else {
+                        LOG.info("Prometheus metrics not enabled");
+                    }
+                } catch (NoSuchElementException e) {
+                    LOG.info("spark.ui.prometheus.enabled is not set");
+                }
+            } finally {
+                releaseSharedObjects();
+            }
+        }
+    }
+
+    /**
+     * @param contexts All context definitions
+     * @return the context definitions selected by the aggregation context
+     *         arguments or every context definition when none are selected
+     * @throws IllegalArgumentException if no context definition is selected
+     */
+    protected List<ContextDefinition> getFilteredContexts(ContextDefinitions contexts) {
+        List<ContextDefinition> filteredContexts = contexts.getContextDefinitions();
+        if (args.aggregationContexts != null && !args.aggregationContexts.isEmpty()) {
+            filteredContexts = filteredContexts.stream().filter(def -> args.aggregationContexts.contains(def.getName()))
+                    .collect(Collectors.toList());
+        }
+        if (filteredContexts.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "At least one context definition is required (after filtering if enabled).");
+        }
+        return filteredContexts;
+    }
+
+    /**
+     * Describe how each aggregation context would be evaluated without evaluating
+     * any CQL. The libraries are translated and their data requirements are
+     * calculated, but the input datasets are only planned and never read, so the
+     * work is done on the driver.
+     * 
+     * @param spark SparkSession
+     * @param contexts Contexts to describe
+     * @param resultSchemas Output schema for each context
+     * @return explanation of every context that has at least one define
+     * @throws Exception any failure
+     */
+    protected ExplainReport explain(SparkSession spark, List<ContextDefinition> contexts, Map<String, StructType> resultSchemas) throws Exception {
+        List<ContextExplanation> explanations = new ArrayList<>();
+        for (ContextDefinition context : contexts) {
+            StructType resultsSchema = resultSchemas.get(context.getName());
+            if (resultsSchema == null || resultsSchema.fields().length == 0) {
+                LOG.warn("Context " + context.getName() + " has no defines configured. Skipping.");
+            }
+            else {
+                explanations.add(explainContext(spark, context, resultsSchema));
+            }
+        }
+        return new ExplainReport(spark.sparkContext().applicationId(), explanations);
+    }
+
+    /**
+     * Describe how a single aggregation context would be evaluated.
+     * 
+     * @param spark SparkSession
+     * @param context Context to describe
+     * @param resultsSchema Output schema for the context
+     * @return explanation of the context
+     * @throws Exception any failure
+     */
+    protected ContextExplanation explainContext(SparkSession spark, ContextDefinition context, StructType resultsSchema) throws Exception {
+        DatasetRetriever baseRetriever = new DefaultDatasetRetriever(spark, args.inputFormat);
+        DatasetRetriever datasetRetriever = getDatasetRetrieverForContext(baseRetriever, context);
+        HotKeyDetector hotKeyDetector = args.detectSkew
+                ? new HotKeyDetector(args.skewSampleFraction, args.skewHotKeyFactor, args.skewMaxHotKeys, context.getName().hashCode())
+                : null;
+        ContextRetriever contextRetriever = new ContextRetriever(args.inputPaths, datasetRetriever, hotKeyDetector, getContextSampler(),
+                getBroadcastJoinThreshold(), args.enableCoPartitionedGrouping);
+
+        ContextExplanation explanation = new ContextExplanation();
+        explanation.setContextName(context.getName());
+        explanation.setPrimaryDataType(context.getPrimaryDataType());
+        explanation.setPrimaryKeyColumn(context.getPrimaryKeyColumn());
+        explanation.setGroupingStrategy(args.contextGrouping.name());
+        if (context.getRelationships() != null) {
+            explanation.setJoins(new ArrayList<>(context.getRelationships()));
+        }
+
+        Set<String> dataTypes = new LinkedHashSet<>();
+        dataTypes.add(context.getPrimaryDataType());
+        for (Join join : explanation.getJoins()) {
+            if (join instanceof ManyToMany) {
+                dataTypes.add(((ManyToMany) join).getAssociationDataType());
             }
+            dataTypes.add(join.getRelatedDataType());
+        }
 
-            long endTimeMillis = System.currentTimeMillis();
-            evaluationSummary.setEndTimeMillis(endTimeMillis);
-            evaluationSummary.setRuntimeMillis(endTimeMillis - startTimeMillis);
+        long estimatedInputBytes = 0;
+        for (String dataType : dataTypes) {
+            String path = MapUtils.getRequiredKey(args.inputPaths, dataType, "inputPath");
+            Dataset<Row> available = baseRetriever.readDataset(dataType, path);
+            Dataset<Row> retained = datasetRetriever.readDataset(dataType, path);
+
+            DataTypeExplanation dataTypeExplanation = new DataTypeExplanation();
+            dataTypeExplanation.setDataType(dataType);
+            dataTypeExplanation.setPath(path);
+            dataTypeExplanation.setAvailableColumns(available.columns().length);
+            dataTypeExplanation.setAvailableEstimatedBytes(getEstimatedSizeInBytes(available));
+            if (retained != null) {
+                long estimatedBytes = getEstimatedSizeInBytes(retained);
+                dataTypeExplanation.setRead(true);
+                dataTypeExplanation.setRetainedColumns(Arrays.asList(retained.columns()));
+                dataTypeExplanation.setEstimatedBytes(estimatedBytes);
+                estimatedInputBytes = (Long.MAX_VALUE - estimatedInputBytes < estimatedBytes) ? Long.MAX_VALUE : estimatedInputBytes + estimatedBytes;
+            }
+            explanation.getDataTypes().add(dataTypeExplanation);
+        }
+        explanation.setEstimatedInputBytes(estimatedInputBytes);
 
-            if (args.metadataOutputPath != null) {
-                if (errorAccumulator != null) {
-                    evaluationSummary.setErrorList(errorAccumulator.value());
-                }
+        explanation.setPhysicalPlan(contextRetriever.explainContext(context, args.contextGrouping));
+        explanation.setOutputColumns(Arrays.asList(resultsSchema.fieldNames()));
+        explanation.setEstimatedOutputRowBytes(resultsSchema.defaultSize());
+        return explanation;
+    }
 
-                evaluationSummary.setTotalContexts(contextAccum.value());
+    /**
+     * @param dataset Dataset to measure
+     * @return Spark's estimate of the size of the dataset, which is based on the
+     *         size of the input files and the columns that are read until the
+     *         dataset is cached
+     */
+    protected long getEstimatedSizeInBytes(Dataset<Row> dataset) {
+        return dataset.queryExecution().optimizedPlan().stats().sizeInBytes().bigInteger()
+                .min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+    }
 
-                OutputMetadataWriter writer = getOutputMetadataWriter();
-                writer.writeMetadata(evaluationSummary);
+    /**
+     * Run the evaluation of each aggregation context. When more than one
+     * concurrent context is configured, the contexts are submitted from a
+     * bounded pool of driver threads and the jobs of each context are assigned
+     * to a scheduler pool named after the context. Otherwise, the contexts are
+     * evaluated one at a time on the calling thread.
+     * 
+     * @param spark SparkSession
+     * @param contextTasks Evaluation task for each context
+     * @return Result of each context evaluation in the same order as the tasks
+     * @throws Exception the first failure of any context evaluation
+     */
+    protected List<ContextEvaluationResult> runContextTasks(SparkSession spark, List<Callable<ContextEvaluationResult>> contextTasks) throws Exception {
+        List<ContextEvaluationResult> results = new ArrayList<>();
+        
+        int threads = Math.min(args.concurrentContexts, contextTasks.size());
+        if (threads <= 1) {
+            for (Callable<ContextEvaluationResult> task : contextTasks) {
+                results.add(task.call());
             }
+        }
+        else {
+            String schedulerMode = spark.sparkContext().getConf().get("spark.scheduler.mode", "FIFO");
+            if (!"FAIR".equalsIgnoreCase(schedulerMode)) {
+                LOG.warn("Contexts are submitted concurrently, but spark.scheduler.mode is {}. Set spark.scheduler.mode=FAIR to share the cluster between contexts.", schedulerMode);
+            }
+            LOG.info("Evaluating {} contexts using {} concurrent driver threads", contextTasks.size(), threads);
             
-            CustomMetricSparkPlugin.currentlyEvaluatingContextGauge.setValue(0);
-            
+            final Map<String, String> mdcContext = MDC.getCopyOfContextMap();
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
             try {
-                Boolean metricsEnabledStr = Boolean.valueOf(spark.conf().get("spark.ui.prometheus.enabled"));
-                if(metricsEnabledStr) {
-                    LOG.info("Prometheus metrics enabled, sleeping for 7 seconds to finish gathering metrics");
-                    //sleep for over 5 seconds because Prometheus only polls
-                    //every 5 seconds. If spark finishes and goes away immediately after completing,
-                    //Prometheus will never be able to poll for the final set of metrics for the spark-submit
-                    //The default promtheus config map was changed from 2 minute scrape interval to 5 seconds for spark pods
-                    Thread.sleep(7000);
-                }else {
-                    LOG.info("Prometheus metrics not enabled");
+                List<Future<ContextEvaluationResult>> futures = new ArrayList<>();
+                for (Callable<ContextEvaluationResult> task : contextTasks) {
+                    futures.add(executor.submit(() -> {
+                        if (mdcContext != null) {
+                            MDC.setContextMap(mdcContext);
+                        }
+                        try {
+                            return task.call();
+                        } finally {
+                            MDC.clear();
+                        }
+                    }));
+                }
+                
+                for (Future<ContextEvaluationResult> future : futures) {
+                    try {
+                        results.add(future.get());
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        throw (cause instanceof Exception) ? (Exception) cause : ex;
+                    }
                 }
-            } catch (NoSuchElementException e) {
-                LOG.info("spark.ui.prometheus.enabled is not set");
+            } finally {
+                executor.shutdownNow();
             }
         }
+        return results;
+    }
+
+    /**
+     * Evaluate and write the results of a single aggregation context.
+     * 
+     * @param spark SparkSession
+     * @param context Context to evaluate
+     * @param resultsSchema Output schema for the context
+     * @param sharedDatasetPlan Datatype sharing plan or null if dataset sharing is disabled
+     * @param sharedDatasetRetriever Retriever for shared datasets or null if no datasets are shared
+     * @param contextAccum Spark accumulator that tracks the number of completed contexts
+     * @param errorAccumulator Spark accumulator for evaluation errors or null if the program halts on error
+     * @param batchRunTime Single unified timestamp for all contexts
+     * @return statistics describing the context evaluation
+     * @throws Exception any failure
+     */
+    protected ContextEvaluationResult evaluateContext(SparkSession spark, ContextDefinition context, StructType resultsSchema,
+            SharedDatasetPlan sharedDatasetPlan, SharedDatasetRetriever sharedDatasetRetriever, LongAccumulator contextAccum,
+            EvaluationErrorAccumulator errorAccumulator, ZonedDateTime batchRunTime) throws Exception {
+        final String contextName = context.getName();
+        
+        if (args.concurrentContexts > 1) {
+            spark.sparkContext().setLocalProperty("spark.scheduler.pool", contextName);
+        }
+        
+        DatasetRetriever baseRetriever = (sharedDatasetRetriever != null) ? sharedDatasetRetriever : new DefaultDatasetRetriever(spark, args.inputFormat);
+        DatasetRetriever datasetRetriever = getDatasetRetrieverForContext(baseRetriever, context); 
+        HotKeyDetector hotKeyDetector = args.detectSkew
+                ? new HotKeyDetector(args.skewSampleFraction, args.skewHotKeyFactor, args.skewMaxHotKeys, contextName.hashCode())
+                : null;
+        ContextRetriever contextRetriever = new ContextRetriever(args.inputPaths, datasetRetriever, hotKeyDetector, getContextSampler(),
+                getBroadcastJoinThreshold(), args.enableCoPartitionedGrouping);
+
+        LOG.info("Evaluating context " + contextName);
+        long contextStartMillis = System.currentTimeMillis();
+
+        final LongAccumulator perContextAccum = spark.sparkContext().longAccumulator("PerContext-" + contextName);
+        CustomMetricSparkPlugin.getPerContextAccumGauge(contextName).setAccumulator(perContextAccum);
+        if (args.concurrentContexts <= 1) {
+            // The shared gauge can only follow one context at a time
+            CustomMetricSparkPlugin.perContextAccumGauge.setAccumulator(perContextAccum);
+        }
+
+        Set<String> sharedDataTypes = Collections.emptySet();
+        SharedDatasetStatistics sharedDatasetStatistics = null;
+        if (sharedDatasetRetriever != null) {
+            sharedDataTypes = sharedDatasetPlan.getSharedDataTypes(contextName);
+            sharedDatasetStatistics = getSharedDatasetStatistics(sharedDatasetRetriever, sharedDataTypes);
+        }
+
+        final String outputPath = MapUtils.getRequiredKey(args.outputPaths, context.getName(), "outputPath");
+
+        ContextCommitLog commitLog = getContextCommitLog();
+        commitLog.removeCommit(contextName);
+
+        // An incremental evaluation flags the result rows of the context values
+        // that failed, so their fingerprints can be left out of the state.
+        final StructType evaluationSchema = (args.incrementalStatePath != null)
+                ? ContextEvaluationPlan.withFailedColumn(resultsSchema)
+                : resultsSchema;
+
+        // The closures below only capture local variables, so the tasks do not
+        // serialize this evaluator.
+        final PartitionEvaluator partitionEvaluator = newPartitionEvaluator(contextName, evaluationSchema, perContextAccum,
+                errorAccumulator, batchRunTime);
+
+        JavaRDD<Row> results;
+        IncrementalContextPlan incrementalPlan = null;
+        // The context data is read twice by an incremental evaluation, once to
+        // fingerprint it and once to evaluate it, so it is persisted in between.
+        JavaPairRDD<Object, ?> persistedContext = null;
+        if (args.contextGrouping == ContextGroupingStrategy.SORT) {
+            final int spillThreshold = args.contextSpillThreshold;
+            JavaPairRDD<Object, Row> sortedContext = contextRetriever.retrieveSortedContext(context);
+            if (args.incrementalStatePath != null) {
+                persistedContext = sortedContext.persist(StorageLevel.MEMORY_AND_DISK());
+                incrementalPlan = createIncrementalContextPlan(spark, context, resultsSchema, outputPath,
+                        sortedContext.mapPartitionsToPair(x -> ContextFingerprinter.fingerprintPartition(SortedContextIterator.spilling(x, spillThreshold))));
+                sortedContext = filterChangedContexts(sortedContext, incrementalPlan);
+            }
+            results = sortedContext
+                    .mapPartitions(x -> partitionEvaluator.evaluatePartition(SortedContextIterator.spilling(x, spillThreshold)));
+        }
+        else {
+            JavaPairRDD<Object, List<Row>> groupedContext = contextRetriever.retrieveContext(context);
+            if (args.incrementalStatePath != null) {
+                persistedContext = groupedContext.persist(StorageLevel.MEMORY_AND_DISK());
+                incrementalPlan = createIncrementalContextPlan(spark, context, resultsSchema, outputPath,
+                        groupedContext.mapPartitionsToPair(ContextFingerprinter::fingerprintPartition));
+                groupedContext = filterChangedContexts(groupedContext, incrementalPlan);
+            }
+            results = groupedContext
+                    .mapPartitions(partitionEvaluator::evaluatePartition);
+        }
+        
+        // The result values were already converted to their Spark types by the
+        // precompiled SparkOutputConverter of the evaluation plan, so the rows
+        // only need to be paired with the output schema.
+        Dataset<Row> resultsDataset = spark.createDataFrame(results, evaluationSchema);
+        
+        IncrementalStatistics incrementalStatistics = null;
+        if (incrementalPlan != null) {
+            incrementalStatistics = writeIncrementalResults(spark, context, resultsSchema, resultsDataset, outputPath, incrementalPlan);
+        }
+        else {
+            writeResults(spark, resultsDataset, outputPath);
+        }
+        if (persistedContext != null) {
+            persistedContext.unpersist();
+        }
+        contextRetriever.release(contextName);
+        long contextEndMillis = System.currentTimeMillis();
+
+        LOG.info(String.format("Wrote results for context %s to %s", contextName, outputPath));
+
+        ContextCommit commit = new ContextCommit();
+        commit.setContextName(contextName);
+        commit.setOutputPath(outputPath);
+        commit.setExecutions(perContextAccum.value());
+        commit.setRuntimeMillis(contextEndMillis - contextStartMillis);
+        commit.setSpecFingerprint(getSpecFingerprint(context, resultsSchema));
+        commit.setApplicationId(spark.sparkContext().applicationId());
+        commit.setCommitTimeMillis(System.currentTimeMillis());
+        commitLog.commit(commit);
+
+        if (sharedDatasetRetriever != null) {
+            sharedDatasetRetriever.release(sharedDataTypes);
+        }
+
+        synchronized (contextAccum) {
+            contextAccum.add(1);
+        }
+        
+        ContextEvaluationResult result = new ContextEvaluationResult(contextName, perContextAccum.value(), contextEndMillis - contextStartMillis);
+        result.setSkewStatistics(contextRetriever.getSkewStatistics(contextName));
+        result.setJoinPlan(contextRetriever.getJoinPlan(contextName));
+        if (!sharedDataTypes.isEmpty()) {
+            result.setSharedDatasetStatistics(sharedDatasetStatistics);
+        }
+        result.setIncrementalStatistics(incrementalStatistics);
+        return result;
+    }
+
+    /**
+     * Check whether the output of an aggregation context was already committed
+     * by an earlier run with an identical specification and the output still
+     * exists.
+     * 
+     * @param context       Aggregation context
+     * @param resultsSchema Output schema for the aggregation context
+     * @return true if the context does not need to be evaluated again
+     * @throws Exception any failure
+     */
+    protected boolean isCommitted(ContextDefinition context, StructType resultsSchema) throws Exception {
+        boolean result = false;
+        ContextCommit commit = getContextCommitLog().getCommit(context.getName());
+        if (commit != null) {
+            Path outputPath = new Path(MapUtils.getRequiredKey(args.outputPaths, context.getName(), "outputPath"));
+            if (!getSpecFingerprint(context, resultsSchema).equals(commit.getSpecFingerprint())) {
+                LOG.info("The specification of context {} changed since it was committed. The context will be evaluated.", context.getName());
+            }
+            else if (!outputPath.getFileSystem(getHadoopConfiguration()).exists(outputPath)) {
+                LOG.info("The committed output of context {} no longer exists. The context will be evaluated.", context.getName());
+            }
+            else {
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculate the specification fingerprint that is recorded when an
+     * aggregation context is committed. The specification fingerprint extends the
+     * job fingerprint (see {@link #getJobFingerprint(ContextDefinition, StructType)})
+     * with the input and output locations and formats of the context.
+     * 
+     * @param context       Aggregation context
+     * @param resultsSchema Output schema for the aggregation context
+     * @return specification fingerprint
+     * @throws Exception if the job specification or libraries cannot be read
+     */
+    protected String getSpecFingerprint(ContextDefinition context, StructType resultsSchema) throws Exception {
+        List<String> parts = new ArrayList<>();
+        parts.add(getJobFingerprint(context, resultsSchema));
+        parts.add(args.inputFormat);
+        for (String dataType : new TreeSet<>(SharedDatasetPlan.getDataTypes(context))) {
+            parts.add(dataType + "=" + args.inputPaths.get(dataType));
+        }
+        parts.add(args.outputFormat);
+        parts.add(args.outputPaths.get(context.getName()));
+        ContextSampler contextSampler = getContextSampler();
+        if (contextSampler != null) {
+            parts.add("sample=" + contextSampler.getFraction() + "," + contextSampler.getSize() + "," + contextSampler.getSeed());
+        }
+        return ContextFingerprinter.jobFingerprint(parts);
+    }
+
+    /**
+     * Calculate the job fingerprint for an aggregation context. The job
+     * fingerprint covers the context definition, the output schema, and the
+     * library, library version, expressions, and parameters of every request
+     * that is evaluated for the context. The content of each requested library is
+     * included as well, so a library that is changed without a version change
+     * still forces a full recompute. Included libraries are covered through the
+     * versioned include statements of the requested libraries.
+     * 
+     * @param context       Aggregation context
+     * @param resultsSchema Output schema for the aggregation context
+     * @return job fingerprint
+     * @throws Exception if the job specification or libraries cannot be read
+     */
+    protected String getJobFingerprint(ContextDefinition context, StructType resultsSchema) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        CqlLibraryProvider provider = getLibraryProvider();
+
+        List<String> parts = new ArrayList<>();
+        parts.add(mapper.writeValueAsString(context));
+        parts.add(resultsSchema.json());
+        
+        Set<CqlLibraryDescriptor> descriptors = new LinkedHashSet<>();
+        for (CqlEvaluationRequest request : getFilteredJobSpecificationWithIds().getEvaluationsForContext(context.getName())) {
+            parts.add(mapper.writeValueAsString(request));
+            descriptors.add(request.getDescriptor());
+        }
+        for (CqlLibraryDescriptor descriptor : descriptors) {
+            CqlLibrary library = provider.getLibrary(descriptor);
+            parts.add(library != null ? library.getContent() : null);
+        }
+        
+        return ContextFingerprinter.jobFingerprint(parts);
+    }
+
+    /**
+     * Compare the current input fingerprints of an aggregation context with the
+     * fingerprint table of the previous run. The previous fingerprint table is
+     * only used if the previous output of the context still exists.
+     * 
+     * @param spark                 SparkSession
+     * @param context               Aggregation context
+     * @param resultsSchema         Output schema for the aggregation context
+     * @param outputPath            Output path for the aggregation context
+     * @param fingerprintsByContext Input fingerprint of each context value
+     * @return incremental evaluation plan for the context
+     * @throws Exception any failure
+     */
+    protected IncrementalContextPlan createIncrementalContextPlan(SparkSession spark, ContextDefinition context, StructType resultsSchema,
+            String outputPath, JavaPairRDD<Object, Long> fingerprintsByContext) throws Exception {
+        final String jobFingerprint = getJobFingerprint(context, resultsSchema);
+
+        Dataset<Row> fingerprints = spark.createDataFrame(
+                fingerprintsByContext.map(t -> RowFactory.create(t._1(), t._2(), jobFingerprint)),
+                IncrementalContextPlan.getFingerprintSchema(resultsSchema.fields()[0]));
+        fingerprints.persist(StorageLevel.MEMORY_AND_DISK());
+
+        Dataset<Row> previousFingerprints = null;
+        Path statePath = getIncrementalStatePath(context);
+        FileSystem fileSystem = statePath.getFileSystem(getHadoopConfiguration());
+        if (fileSystem.exists(statePath) && fileSystem.exists(new Path(outputPath))) {
+            previousFingerprints = spark.read().parquet(statePath.toString());
+        }
+
+        IncrementalContextPlan plan = new IncrementalContextPlan(fingerprints, previousFingerprints, jobFingerprint);
+        if (plan.isFullRecompute()) {
+            LOG.info("No matching fingerprints from a previous run for context {}. All context values will be evaluated.", context.getName());
+        }
+        return plan;
+    }
+
+    /**
+     * Limit the input data of an aggregation context to the context values that
+     * are new or changed since the previous run.
+     * 
+     * @param rowsByContext   Input data keyed by context value
+     * @param incrementalPlan Incremental evaluation plan for the context
+     * @return input data for the context values that need to be evaluated
+     */
+    protected <T> JavaPairRDD<Object, T> filterChangedContexts(JavaPairRDD<Object, T> rowsByContext, IncrementalContextPlan incrementalPlan) {
+        if (!incrementalPlan.isFullRecompute()) {
+            LOG.info("Evaluating only the new or changed context values");
+        }
+        return incrementalPlan.filterChanged(rowsByContext);
+    }
+
+    /**
+     * Write the results of an incremental evaluation. The new results are
+     * combined with the previous results of the unchanged context values and
+     * written next to the output path along with the new fingerprint table.
+     * The previous output and fingerprint table are then replaced. The output is
+     * replaced first, so a failure between the two steps leaves an older
+     * fingerprint table that only causes extra context values to be evaluated
+     * by the next run. Context values that had evaluation errors are flagged in
+     * the results and anti-joined out of the new fingerprint table, so they are
+     * evaluated again by the next run. The results are persisted while they are
+     * read by both steps so that the context values are only evaluated once.
+     * 
+     * @param spark            SparkSession
+     * @param context          Aggregation context
+     * @param schema           Output schema for the aggregation context
+     * @param results          Results for the new and changed context values
+     *                         with a trailing {@link ContextEvaluationPlan#FAILED_COLUMN}
+     * @param outputURI        Output path for the aggregation context
+     * @param incrementalPlan  Incremental evaluation plan for the context
+     * @return statistics for the incremental evaluation
+     * @throws Exception any failure
+     */
+    protected IncrementalStatistics writeIncrementalResults(SparkSession spark, ContextDefinition context, StructType schema,
+            Dataset<Row> results, String outputURI, IncrementalContextPlan incrementalPlan) throws Exception {
+        Dataset<Row> fingerprints = incrementalPlan.getFingerprints();
+        results.persist(StorageLevel.MEMORY_AND_DISK());
+        try {
+            Dataset<Row> dataFrame = results.drop(ContextEvaluationPlan.FAILED_COLUMN);
+            long carriedForward = 0;
+            if (!incrementalPlan.isFullRecompute()) {
+                carriedForward = incrementalPlan.getUnchangedKeys().count();
+
+                Dataset<Row> previousResults = spark.read()
+                        .format(args.outputFormat != null ? args.outputFormat : spark.conf().get("spark.sql.sources.default"))
+                        .schema(schema)
+                        .load(outputURI);
+                dataFrame = dataFrame.union(incrementalPlan.selectCarriedForward(previousResults));
+            }
+            
+            Path outputPath = new Path(outputURI);
+            Path pendingOutputPath = getPendingPath(outputPath);
+            writeResults(spark, dataFrame, pendingOutputPath.toString(), SaveMode.Overwrite);
+
+            String keyColumn = incrementalPlan.getKeyColumn();
+            Dataset<Row> failedKeys = results
+                    .filter(functions.col(ContextEvaluationPlan.FAILED_COLUMN))
+                    .select(keyColumn)
+                    .distinct();
+            fingerprints = fingerprints.join(failedKeys, fingerprints.col(keyColumn).equalTo(failedKeys.col(keyColumn)), "left_anti");
+
+            Path statePath = getIncrementalStatePath(context);
+            Path pendingStatePath = getPendingPath(statePath);
+            fingerprints.write().mode(SaveMode.Overwrite).parquet(pendingStatePath.toString());
+
+            IncrementalStatistics statistics = new IncrementalStatistics();
+            statistics.setFullRecompute(incrementalPlan.isFullRecompute());
+            statistics.setContextsEvaluated(incrementalPlan.isFullRecompute() ? incrementalPlan.getFingerprints().count() : incrementalPlan.getChangedKeys().count());
+            statistics.setContextsCarriedForward(carriedForward);
+            statistics.setContextsRemoved(incrementalPlan.getRemovedCount());
+
+            replacePath(pendingOutputPath, outputPath);
+            replacePath(pendingStatePath, statePath);
+            
+            return statistics;
+        } finally {
+            results.unpersist();
+            incrementalPlan.getFingerprints().unpersist();
+        }
+    }
+
+    /**
+     * @param context Aggregation context
+     * @return location of the fingerprint table for the context
+     */
+    protected Path getIncrementalStatePath(ContextDefinition context) {
+        return new Path(args.incrementalStatePath, context.getName());
+    }
+
+    /**
+     * @param path Final location of a dataset
+     * @return hidden sibling location where the dataset is written before it
+     *         replaces the final location
+     */
+    protected Path getPendingPath(Path path) {
+        return new Path(path.getParent(), "_" + path.getName() + "_pending");
+    }
+
+    /**
+     * Replace the contents of a path with a dataset that was written to a
+     * pending location.
+     * 
+     * @param source Pending location
+     * @param target Final location
+     * @throws IOException if the target cannot be replaced
+     */
+    protected void replacePath(Path source, Path target) throws IOException {
+        FileSystem fileSystem = target.getFileSystem(getHadoopConfiguration());
+        if (fileSystem.exists(target) && !fileSystem.delete(target, true)) {
+            throw new IOException("Failed to delete " + target);
+        }
+        if (!fileSystem.rename(source, target)) {
+            throw new IOException("Failed to rename " + source + " to " + target);
+        }
+    }
+
+    /**
+     * @return sampler that selects the context values of each context that are
+     *         evaluated or null if every context value is evaluated
+     */
+    protected ContextSampler getContextSampler() {
+        ContextSampler result = null;
+        if (args.sampleFraction != null || args.sampleSize != null) {
+            result = new ContextSampler(args.sampleFraction, args.sampleSize, args.sampleSeed);
+        }
+        return result;
+    }
+
+    /**
+     * @return maximum estimated size in bytes of a related or association
+     *         dataset that is broadcast to a join or null to leave the choice to
+     *         Spark
+     */
+    protected Long getBroadcastJoinThreshold() {
+        return (args.broadcastJoinThreshold != null) ? JavaUtils.byteStringAsBytes(args.broadcastJoinThreshold) : null;
     }
 
     public DatasetRetriever getDatasetRetrieverForContext(SparkSession spark, ContextDefinition context) throws Exception {
-        DatasetRetriever defaultDatasetRetriever = new DefaultDatasetRetriever(spark, args.inputFormat);
-        DatasetRetriever datasetRetriever = defaultDatasetRetriever;
-        if( ! args.disableColumnFiltering ) {
-            Map<String, Set<StringMatcher>> pathsByDataType = getDataRequirementsForContext(context);
-            datasetRetriever = new FilteredDatasetRetriever(defaultDatasetRetriever, pathsByDataType);
+        return getDatasetRetrieverForContext(new DefaultDatasetRetriever(spark, args.inputFormat), context);
+    }
+
+    /**
+     * Layer the context-specific column and code filters on top of a base
+     * {@link DatasetRetriever}.
+     * 
+     * @param baseRetriever Retriever used to read the input data
+     * @param context ContextDefinition whose CQL jobs will be interrogated for data requirements
+     * @return configured DatasetRetriever
+     * @throws Exception any failure
+     */
+    protected DatasetRetriever getDatasetRetrieverForContext(DatasetRetriever baseRetriever, ContextDefinition context) throws Exception {
+        DatasetRetriever datasetRetriever = baseRetriever;
+        if( ! args.disableColumnFiltering || args.enableCodeFilterPushdown ) {
+            List<DataTypeRequirementsProcessor.DataTypeRequirements> requirements = getDataTypeRequirements();
+            if( ! args.disableColumnFiltering ) {
+                Map<String, Set<StringMatcher>> pathsByDataType = getDataRequirementsForContext(context, requirements);
+                datasetRetriever = new FilteredDatasetRetriever(datasetRetriever, pathsByDataType);
+            }
+            if( args.enableCodeFilterPushdown ) {
+                Map<String, Map<String, Set<String>>> codesByPathByDataType = getCodeFiltersForContext(context, requirements);
+                datasetRetriever = new CodeFilteredDatasetRetriever(datasetRetriever, codesByPathByDataType);
+            }
         }
         return datasetRetriever;
     }
 
+    /**
+     * Create a retriever that reads each datatype that is shared by more than
+     * one context once, with the union of the columns needed by every context
+     * that uses it, and persists it until the last of those contexts completes.
+     * 
+     * @param spark SparkSession
+     * @param contexts Contexts that will be evaluated
+     * @param plan Datatype sharing plan for the contexts
+     * @return configured SharedDatasetRetriever
+     * @throws Exception any failure
+     */
+    protected SharedDatasetRetriever createSharedDatasetRetriever(SparkSession spark, List<ContextDefinition> contexts, SharedDatasetPlan plan) throws Exception {
+        DatasetRetriever datasetRetriever = new DefaultDatasetRetriever(spark, args.inputFormat);
+        if( ! args.disableColumnFiltering ) {
+            List<DataTypeRequirementsProcessor.DataTypeRequirements> requirements = getDataTypeRequirements();
+            
+            Map<String, Set<StringMatcher>> pathsByDataType = new HashMap<>();
+            for( ContextDefinition context : contexts ) {
+                getDataRequirementsForContext(context, requirements).forEach( (key,value) -> {
+                    pathsByDataType.computeIfAbsent(key, dt -> new HashSet<>()).addAll(value);
+                });
+            }
+            datasetRetriever = new FilteredDatasetRetriever(datasetRetriever, pathsByDataType);
+        }
+        
+        StorageLevel storageLevel = StorageLevel.fromString(args.sharedDatasetStorageLevel);
+        return new SharedDatasetRetriever(datasetRetriever, plan.getSharedDataTypeUses(), storageLevel);
+    }
+    
+    /**
+     * Describe the shared datasets that are used by a context before the context
+     * is evaluated.
+     * 
+     * @param retriever Shared dataset retriever
+     * @param sharedDataTypes Shared datatypes used by the context
+     * @return statistics describing the shared dataset use of the context
+     */
+    protected SharedDatasetStatistics getSharedDatasetStatistics(SharedDatasetRetriever retriever, Set<String> sharedDataTypes) {
+        SharedDatasetStatistics statistics = new SharedDatasetStatistics();
+        statistics.setStorageLevel(args.sharedDatasetStorageLevel);
+        statistics.setSharedDataTypes(new ArrayList<>(sharedDataTypes));
+        statistics.setCachedDataTypes(sharedDataTypes.stream().filter(retriever::isPersisted).collect(Collectors.toList()));
+        statistics.setInputScansAvoided(statistics.getCachedDataTypes().size());
+        return statistics;
+    }
+
     /**
      * Retrieve the merged set of data type and column filters for all CQL jobs that will
      * be evaluated for a given aggregation context.
@@ -422,7 +1185,16 @@ public class SparkCqlEvaluator implements Serializable {
      */
     protected Map<String, Set<StringMatcher>> getDataRequirementsForContext(ContextDefinition context)
             throws Exception {
-        
+        return getDataRequirementsForContext(context, getDataTypeRequirements());
+    }
+
+    /**
+     * Calculate the data requirements of each CQL library used by the CQL jobs.
+     * 
+     * @return data requirements for each library in the job specification
+     * @throws Exception any failure
+     */
+    protected List<DataTypeRequirementsProcessor.DataTypeRequirements> getDataTypeRequirements() throws Exception {
         List<CqlEvaluationRequest> requests = getFilteredJobSpecificationWithIds().getEvaluations();
         
         Map<CqlLibraryDescriptor,Set<String>> expressionsByLibrary = new HashMap<>();
@@ -435,12 +1207,26 @@ public class SparkCqlEvaluator implements Serializable {
         CqlLibraryProvider libraryProvider = createLibraryProvider();
         DataTypeRequirementsProcessor requirementsProcessor = new DataTypeRequirementsProcessor(cqlTranslator);
         
-        Map<String,Set<StringMatcher>> pathsByDataType = new HashMap<>();
+        List<DataTypeRequirementsProcessor.DataTypeRequirements> result = new ArrayList<>();
         for( Map.Entry<CqlLibraryDescriptor, Set<String>> entry : expressionsByLibrary.entrySet() ) {
             LOG.debug("Extracting data requirements for {}", entry.getKey());
-            
-            DataTypeRequirementsProcessor.DataTypeRequirements requirements = requirementsProcessor.getDataRequirements(libraryProvider, entry.getKey(), entry.getValue());            
+            result.add(requirementsProcessor.getDataRequirements(libraryProvider, entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
 
+    /**
+     * Retrieve the merged set of data type and column filters for a precalculated
+     * set of library data requirements.
+     * 
+     * @param context ContextDefinition whose CQL jobs will be interrogated for data requirements
+     * @param requirementsByLibrary Data requirements of each library used by the CQL jobs
+     * @return Map of data type to the fields in that datatype that are used by the CQL jobs
+     */
+    protected Map<String, Set<StringMatcher>> getDataRequirementsForContext(ContextDefinition context,
+            List<DataTypeRequirementsProcessor.DataTypeRequirements> requirementsByLibrary) {
+        Map<String,Set<StringMatcher>> pathsByDataType = new HashMap<>();
+        for( DataTypeRequirementsProcessor.DataTypeRequirements requirements : requirementsByLibrary ) {
             Map<String,Set<StringMatcher>> newPaths = requirements.allAsStringMatcher();
             
             newPaths.forEach( (key,value) -> {
@@ -474,6 +1260,73 @@ public class SparkCqlEvaluator implements Serializable {
         return pathsByDataType;
     }
 
+    /**
+     * Calculate the code filters that can be safely pushed down to the input data of
+     * a context. A datatype is only filtered when every Retrieve of that datatype in
+     * the CQL jobs is filtered by a statically resolvable set of codes and/or value sets
+     * and all of those value sets can be expanded using the configured terminology.
+     * The primary datatype and the association datatypes of a context are never filtered
+     * because their rows determine which contexts exist and how related rows are joined.
+     * 
+     * @param context ContextDefinition whose related datatypes are considered for filtering
+     * @param requirementsByLibrary Data requirements of each library used by the CQL jobs
+     * @return Map of data type to code column to the codes that are retrieved from that
+     *         column
+     */
+    protected Map<String, Map<String, Set<String>>> getCodeFiltersForContext(ContextDefinition context,
+            List<DataTypeRequirementsProcessor.DataTypeRequirements> requirementsByLibrary) {
+        Map<String, DataTypeCodeFilter> codeFiltersByDataType = new HashMap<>();
+        for( DataTypeRequirementsProcessor.DataTypeRequirements requirements : requirementsByLibrary ) {
+            requirements.getCodeFiltersByDataType().forEach( (key,value) -> {
+                codeFiltersByDataType.merge(key, value, DataTypeCodeFilter::merge);
+            });
+        }
+        
+        Set<String> unfilterableDataTypes = new HashSet<>();
+        unfilterableDataTypes.add(context.getPrimaryDataType());
+        Set<String> relatedDataTypes = new HashSet<>();
+        if( context.getRelationships() != null ) {
+            for( Join join : context.getRelationships() ) {
+                relatedDataTypes.add(join.getRelatedDataType());
+                if( join instanceof ManyToMany ) {
+                    unfilterableDataTypes.add(((ManyToMany) join).getAssociationDataType());
+                }
+            }
+        }
+        relatedDataTypes.removeAll(unfilterableDataTypes);
+        
+        CqlTerminologyProvider termProvider = null;
+        Map<String, Map<String, Set<String>>> codesByPathByDataType = new HashMap<>();
+        for( String dataType : relatedDataTypes ) {
+            DataTypeCodeFilter filter = codeFiltersByDataType.get(dataType);
+            if( filter == null || ! filter.isComplete() ) {
+                LOG.debug("Datatype {} has one or more retrieves without a code filter", dataType);
+                continue;
+            }
+            
+            Map<String, Set<String>> codesByPath = new HashMap<>();
+            filter.getCodesByPath().forEach( (path,codes) -> codesByPath.computeIfAbsent(path, key -> new HashSet<>()).addAll(codes) );
+            try {
+                for( Map.Entry<String, Set<String>> entry : filter.getValueSetsByPath().entrySet() ) {
+                    Set<String> codes = codesByPath.computeIfAbsent(entry.getKey(), key -> new HashSet<>());
+                    for( String valueSetId : entry.getValue() ) {
+                        if( termProvider == null ) {
+                            termProvider = createTerminologyProvider();
+                        }
+                        for( Code code : termProvider.expand(new ValueSetInfo().withId(valueSetId)) ) {
+                            codes.add(code.getCode());
+                        }
+                    }
+                }
+                codesByPathByDataType.put(dataType, codesByPath);
+            } catch( RuntimeException ex ) {
+                LOG.warn("Failed to expand value sets for datatype {}. Code filtering is disabled for this datatype.", dataType, ex);
+            }
+        }
+        
+        return codesByPathByDataType;
+    }
+
     /**
      * Deserialize ContextDefinitions from JSON file.
      * 
@@ -484,196 +1337,174 @@ public class SparkCqlEvaluator implements Serializable {
     protected ContextDefinitions readContextDefinitions(String path) throws Exception {
         ObjectMapper mapper = new ObjectMapper();
         Path filePath = new Path(path);
-        FileSystem fileSystem = filePath.getFileSystem(this.hadoopConfiguration.value());
+        FileSystem fileSystem = filePath.getFileSystem(getHadoopConfiguration());
         try (Reader r = new InputStreamReader(fileSystem.open(filePath))) {
             return mapper.readValue(r, ContextDefinitions.class);
         }
     }
 
     /**
-     * Evaluate the input CQL for a single context + data pair.
+     * Create the evaluator for the partitions of an aggregation context. The
+     * task closures only capture the partition evaluator, which carries the
+     * type converter, the shared object and broadcast handles, the
+     * accumulators, and the program arguments used during evaluation rather
+     * than this evaluator.
      *
      * @param contextName     Context name corresponding to the library context key
      *                        currently under evaluation.
      * @param resultsSchema   StructType containing the schema data for the output table
      *                        that will be created.
-     * @param rowsByContext   Data for a single evaluation context
      * @param perContextAccum Spark accumulator that tracks each individual context
      *                        evaluation
-     * @param errorAccum Spark accumulator that tracks CQL evaluation errors
+     * @param errorAccum      Spark accumulator that tracks CQL evaluation errors
      * @param batchRunTime    Single unified timestamp for all contexts
-     * @return Evaluation results for all expressions evaluated keyed by the context
-     *         ID. Expression names are automatically namespaced according to the
-     *         library name to avoid issues arising for expression names matching
-     *         between libraries (e.g. LibraryName.ExpressionName).
-     * @throws Exception if the model info or CQL libraries cannot be loaded for any
-     *                   reason
-     */
-    protected Iterator<Tuple2<Object, Row>> evaluate(String contextName, StructType resultsSchema, Tuple2<Object, List<Row>> rowsByContext,
-            LongAccumulator perContextAccum, CollectionAccumulator<EvaluationError> errorAccum, ZonedDateTime batchRunTime)throws Exception {
-        CqlLibraryProvider provider = libraryProvider.get();
-        if (provider == null) {
-            provider = createLibraryProvider();
-            libraryProvider.set(provider);
-        }
-        
-        CqlTerminologyProvider termProvider = terminologyProvider.get();
-        if( termProvider == null ) {
-            termProvider = createTerminologyProvider();
-            terminologyProvider.set(termProvider);
-        }
+     * @return partition evaluator for the aggregation context
+     */
+    protected PartitionEvaluator newPartitionEvaluator(String contextName, StructType resultsSchema, LongAccumulator perContextAccum,
+            EvaluationErrorAccumulator errorAccum, ZonedDateTime batchRunTime) {
+        return new PartitionEvaluator(contextName, resultsSchema, batchRunTime, getSharedObjects(), getSparkTypeConverter(),
+                    encodedParametersCache, perContextAccum, errorAccum)
+                .setBatchExpressions(args.batchExpressions)
+                .setDebug(args.debug)
+                .setProfile(args.profile)
+                .setMemoizeRowValues(args.memoizeRowValues)
+                .setStatisticsAccumulator(getEvaluationStatisticsAccumulator())
+                .setProfileAccumulator(profileAccum)
+                .setRowValueAccumulators(rowValueConversionsAccum, rowValueReusesAccum);
+    }
 
-        ExternalFunctionProvider funProvider = functionProvider.get();
-        if( funProvider == null ) {
-            funProvider = createExternalFunctionProvider();
-            functionProvider.set(funProvider);
+    /**
+     * @return Spark accumulator that the partition evaluators record the
+     *         evaluation statistics of each context in or null if evaluation
+     *         statistics are not collected
+     */
+    protected EvaluationStatisticsAccumulator getEvaluationStatisticsAccumulator() {
+        return evaluationStatisticsAccum;
+    }
+
+    /**
+     * Translate every library used by the filtered job specification, including
+     * the libraries they include, and broadcast the ELM to the executors.
+     * 
+     * @param spark SparkSession
+     * @return broadcast map of ELM library descriptor to ELM content
+     * @throws Exception if the job specification cannot be read or a library
+     *                   cannot be translated
+     */
+    protected Broadcast<Map<CqlLibraryDescriptor, String>> broadcastElmLibraries(SparkSession spark) throws Exception {
+        Set<CqlLibraryDescriptor> descriptors = new LinkedHashSet<>();
+        List<CqlEvaluationRequest> evaluations = getFilteredJobSpecificationWithIds().getEvaluations();
+        if (evaluations != null) {
+            for (CqlEvaluationRequest evaluation : evaluations) {
+                descriptors.add(evaluation.getDescriptor());
+            }
         }
 
-        return evaluate(provider, termProvider, funProvider, contextName, resultsSchema, rowsByContext, perContextAccum, errorAccum, batchRunTime);
+        Map<CqlLibraryDescriptor, String> elmLibraries = BroadcastCqlLibraryProvider.collectElm(getTranslatingLibraryProvider(), descriptors);
+        LOG.info("Broadcasting {} translated libraries", elmLibraries.size());
+        return JavaSparkContext.fromSparkContext(spark.sparkContext()).broadcast(elmLibraries);
     }
 
-
     /**
-     * Evaluate the input CQL for a single context + data pair.
+     * Load every ValueSet defined by the broadcast libraries and broadcast a
+     * compact index of their codes to the executors.
      * 
-     * @param libraryProvider Library provider providing CQL/ELM content
-     * @param termProvider    Terminology provider providing terminology resources
-     * @param funProvider     External function provider providing static CQL functions
-     * @param contextName     Context name corresponding to the library context key
-     *                        currently under evaluation.
-     * @param resultsSchema   StructType containing the schema data for the output table
-     *                        that will be created.
-     * @param rowsByContext   Data for a single evaluation context
-     * @param perContextAccum Spark accumulator that tracks each individual context
-     *                        evaluation
-     * @param errorAccum      Spark accumulator that tracks CQL evaluation errors
-     * @param batchRunTime    Single unified timestamp for all contexts
-     * @return Evaluation results for all expressions evaluated keyed by the context
-     *         ID. Expression names are automatically namespaced according to the
-     *         library name to avoid issues arising for expression names matching
-     *         between libraries (e.g. LibraryName.ExpressionName).
-     * @throws Exception on general failure including CQL library loading issues
+     * @param spark        SparkSession
+     * @param elmLibraries map of ELM library descriptor to ELM content
+     * @return broadcast terminology index
      */
-    protected Iterator<Tuple2<Object, Row>> evaluate(CqlLibraryProvider libraryProvider,
-                                                           CqlTerminologyProvider termProvider,
-                                                           ExternalFunctionProvider funProvider,
-                                                           String contextName, 
-                                                           StructType resultsSchema, 
-                                                           Tuple2<Object, List<Row>> rowsByContext,
-                                                           LongAccumulator perContextAccum,
-                                                           CollectionAccumulator<EvaluationError> errorAccum,
-                                                           ZonedDateTime batchRunTime) throws Exception {
+    protected Broadcast<TerminologyIndex> broadcastTerminologyIndex(SparkSession spark, Map<CqlLibraryDescriptor, String> elmLibraries) {
+        TerminologyIndex index = BroadcastTerminologyProvider.buildIndex(getFileSystemTerminologyProvider(), elmLibraries.values());
+        LOG.info("Broadcasting {} value sets with {} distinct terminology strings", index.getValueSetCount(), index.getDictionarySize());
+        return JavaSparkContext.fromSparkContext(spark.sparkContext()).broadcast(index);
+    }
 
-        // Convert the Spark objects to the cohort Java model
-        List<DataRow> datarows = rowsByContext._2().stream().map(getDataRowFactory()).collect(Collectors.toList());
+    /**
+     * Get the library provider used for evaluation. Once the libraries have been
+     * broadcast, the provider serves the broadcast ELM and only translates
+     * libraries that are not part of the broadcast.
+     * 
+     * @return the library provider shared by all threads of the JVM, creating it if necessary
+     * @throws IOException when model info cannot be read
+     */
+    protected CqlLibraryProvider getLibraryProvider() throws IOException {
+        return getSharedObjects().getLibraryProvider();
+    }
 
-        Map<String, List<Object>> dataByDataType = new HashMap<>();
-        for (DataRow datarow : datarows) {
-            String dataType = (String) datarow.getValue(ContextRetriever.SOURCE_FACT_IDX);
-            List<Object> mappedRows = dataByDataType.computeIfAbsent(dataType, x -> new ArrayList<>());
-            mappedRows.add(datarow);
-        }
+    /**
+     * Release the shared objects that belong to this run. The job
+     * specification, the column encoder, and the providers are removed from the
+     * SharedObjectRegistry, so a later run in the same JVM reads the current
+     * files again. The broadcasts of the libraries and terminology index are
+     * destroyed, and the CQL contexts that were cached for the providers are
+     * discarded. Executors of a cluster end with the application, so only the
+     * objects of the driver JVM, which also runs the tasks in local mode, have
+     * to be released.
+     */
+    protected void releaseSharedObjects() {
+        getSharedObjects().release();
+        broadcastLibraries = null;
+        broadcastLibrariesKey = null;
+        broadcastTerminology = null;
+        broadcastTerminologyKey = null;
+        CqlContextFactory.invalidateContextCaches();
+    }
 
-        DataRowRetrieveProvider retrieveProvider = new DataRowRetrieveProvider(dataByDataType, termProvider);
-        CqlDataProvider dataProvider = new DataRowDataProvider(getDataRowClass(), retrieveProvider);
+    /**
+     * @return the translating library provider shared by all threads of the JVM, creating it if necessary
+     * @throws IOException when model info cannot be read
+     */
+    protected CqlLibraryProvider getTranslatingLibraryProvider() throws IOException {
+        return getSharedObjects().getTranslatingLibraryProvider();
+    }
 
-        CqlEvaluator evaluator = new CqlEvaluator()
-            .setLibraryProvider(libraryProvider)
-            .setDataProvider(dataProvider)
-            .setTerminologyProvider(termProvider)
-            .setExternalFunctionProvider(funProvider);
+    /**
+     * @return key of the translating library provider in the shared object registry
+     */
+    protected String getTranslatingLibraryProviderKey() {
+        return getSharedObjects().getTranslatingLibraryProviderKey();
+    }
 
-        CqlEvaluationRequests requests = getFilteredJobSpecificationWithIds();
+    /**
+     * Get the terminology provider used for evaluation. Once the terminology
+     * index has been broadcast, the provider answers from the index and only
+     * reads ValueSets that are not part of the index.
+     * 
+     * @return the terminology provider shared by all threads of the JVM, creating it if necessary
+     */
+    protected CqlTerminologyProvider getTerminologyProvider() {
+        return getSharedObjects().getTerminologyProvider();
+    }
 
-        SparkOutputColumnEncoder columnEncoder = getSparkOutputColumnEncoder();
+    /**
+     * @return the terminology provider that reads the configured terminology
+     *         path, shared by all threads of the JVM and created if necessary
+     */
+    protected CqlTerminologyProvider getFileSystemTerminologyProvider() {
+        return getSharedObjects().getFileSystemTerminologyProvider();
+    }
 
-        return evaluate(rowsByContext, contextName, resultsSchema, evaluator, requests, columnEncoder, perContextAccum, errorAccum, batchRunTime);
+    /**
+     * @return key of the file system terminology provider in the shared object registry
+     */
+    protected String getFileSystemTerminologyProviderKey() {
+        return getSharedObjects().getFileSystemTerminologyProviderKey();
     }
 
     /**
-     * Evaluate the input CQL for a single context + data pair.
-     * 
-     * @param rowsByContext   In-memory data for all datatypes related to a single
-     *                        context
-     * @param contextName     Name of the context used to select measure evaluations.
-     * @param resultsSchema   StructType containing the schema data for the output table
-     *                        that will be created.
-     * @param evaluator       configured CQLEvaluator (data provider, term provider,
-     *                        library provider all previously setup)
-     * @param requests        CqlEvaluationRequests containing lists of libraries,
-     *                        expressions, and parameters to evaluate
-     * @param columnEncoder   Encoder used to calculate output column names for
-     *                        evaluation results
-     * @param perContextAccum Spark accumulator that tracks each individual context
-     *                        evaluation
-     * @param errorAccum       Spark accumulator that tracks CQL evaluation errors
-     * @param batchRunTime    Single unified timestamp for all contexts
-     * @return Evaluation results for all expressions evaluated keyed by the context
-     *         ID. Expression names are automatically namespaced according to the
-     *         library name to avoid issues arising for expression names matching
-     *         between libraries (e.g. LibraryName.ExpressionName).
-     */
-    protected Iterator<Tuple2<Object, Row>> evaluate(Tuple2<Object, List<Row>> rowsByContext,
-                                                           String contextName,
-                                                           StructType resultsSchema,
-                                                           CqlEvaluator evaluator,
-                                                           CqlEvaluationRequests requests,
-                                                           SparkOutputColumnEncoder columnEncoder,
-                                                           LongAccumulator perContextAccum,
-                                                           CollectionAccumulator<EvaluationError> errorAccum,
-                                                           ZonedDateTime batchRunTime) {
-        perContextAccum.add(1);
-        
-        List<CqlEvaluationRequest> requestsForContext = requests.getEvaluationsForContext(contextName);
-        
-        // parameters json -> {columnName, result}
-        Map<String,Map<String, Object>> expressionResultsByParameters = new HashMap<>();
-        for (CqlEvaluationRequest request : requestsForContext) {
-            
-            String parametersJson = encodedParametersCache.getKeyParametersColumnData(request);
-            
-            Map<String,Object> expressionResults = expressionResultsByParameters.computeIfAbsent(parametersJson, x -> new HashMap<>());
-            for (CqlExpressionConfiguration expression : request.getExpressions()) {
-                CqlEvaluationRequest singleRequest = new CqlEvaluationRequest(request);
-                singleRequest.setExpressions(Collections.singleton(expression));
-                try {
-                    CqlEvaluationResult result = evaluator.evaluate(singleRequest, args.debug ? CqlDebug.DEBUG : CqlDebug.NONE, batchRunTime);
-                    for (Map.Entry<String, Object> entry : result.getExpressionResults().entrySet()) {
-                        String outputColumnKey = columnEncoder.getColumnName(request, entry.getKey());
-                        expressionResults.put(outputColumnKey, typeConverter.toSparkType(entry.getValue()));
-                    }
-                } catch (Throwable th) {
-                    if (errorAccum != null) {
-                        Object contextId = rowsByContext._1();
-                        errorAccum.add(new EvaluationError(contextName, contextId, singleRequest.getExpressionNames().iterator().next(), th.getMessage()));
-                    }
-                    else {
-                        throw new RuntimeException(String.format("CQL evaluation failed for ContextName: %s, OutputColumn: %s",
-                                                                 String.valueOf(contextName),
-                                                                 singleRequest.getExpressionNames()), th);
-                    }
-                }
-            }
-        }
-        
-        List<Tuple2<Object,Row>> rows = new ArrayList<>();
-        for( Map.Entry<String, Map<String,Object>> entry : expressionResultsByParameters.entrySet() ) {
-            Object contextKey = rowsByContext._1();
-            Map<String, Object> results = entry.getValue();
-
-            Object[] data = new Object[resultsSchema.fields().length];
-            data[0] = contextKey;
-            data[1] = entry.getKey();
-            for (int i = 2; i < resultsSchema.fieldNames().length; i++) {
-                data[i] = results.get(resultsSchema.fieldNames()[i]);
-            }
-            rows.add( new Tuple2<Object,Row>( contextKey, RowFactory.create(data) ) );
-        }
-        return rows.iterator();
+     * @return the external function provider shared by all threads of the JVM, creating it if necessary
+     */
+    protected ExternalFunctionProvider getExternalFunctionProvider() {
+        return getSharedObjects().getExternalFunctionProvider();
     }
 
+    /**
+     * @return key of the external function provider in the shared object registry
+     */
+    protected String getExternalFunctionProviderKey() {
+        return getSharedObjects().getExternalFunctionProviderKey();
+    }
 
-    
     /**
      * Initialize a library provider that will load resources from the configured path
      * in local storage or from the well-known classpath locations. The library provider
@@ -685,30 +1516,11 @@ public class SparkCqlEvaluator implements Serializable {
      * @throws FileNotFoundException when a specified model info file cannot be found
      */
     protected CqlLibraryProvider createLibraryProvider() throws IOException, FileNotFoundException {
-        
-        CqlLibraryProvider hadoopBasedLp = new HadoopBasedCqlLibraryProvider(new Path(args.cqlPath), this.hadoopConfiguration.value());
-        // we are excluding the pre-compiled FHIRHelpers libraries because they were not compiled
-        // with the EnableResultTypes option that is required for some of the features of this program.
-        ClasspathCqlLibraryProvider cpBasedLp = new ClasspathCqlLibraryProvider("org.hl7.fhir");
-        cpBasedLp.setSupportedFormats(Format.CQL);
-        CqlLibraryProvider priorityLp = new PriorityCqlLibraryProvider( hadoopBasedLp, cpBasedLp );
-
-        return new TranslatingCqlLibraryProvider(priorityLp, getCqlTranslator());
+        return getSharedObjects().createLibraryProvider();
     }
     
     protected CqlToElmTranslator getCqlTranslator() throws IOException {
-        // TODO - replace with cohort shared translation component
-        final CqlToElmTranslator translator = new CqlToElmTranslator();
-        if (args.modelInfoPaths != null && !args.modelInfoPaths.isEmpty()) {
-            for (String path : args.modelInfoPaths) {
-                Path filePath = new Path(path);
-                FileSystem modelInfoFilesystem = filePath.getFileSystem(this.hadoopConfiguration.value());
-                try (Reader r = new InputStreamReader(modelInfoFilesystem.open(filePath))) {
-                    translator.registerModelInfo(r);
-                }
-            }
-        }
-        return translator;
+        return getSharedObjects().getCqlTranslator();
     }
     
     /**
@@ -717,12 +1529,7 @@ public class SparkCqlEvaluator implements Serializable {
      * @return configured terminology provider.
      */
     protected CqlTerminologyProvider createTerminologyProvider() {
-    	if(args.terminologyPath != null && !args.terminologyPath.isEmpty()) {
-    		return new R4FileSystemFhirTerminologyProvider(new Path(args.terminologyPath), this.hadoopConfiguration.value());
-    	}
-    	else {
-    		return new UnsupportedTerminologyProvider();
-    	}
+        return getSharedObjects().createTerminologyProvider();
     }
 
     /**
@@ -732,12 +1539,9 @@ public class SparkCqlEvaluator implements Serializable {
      *          from {@link com.ibm.cohort.cql.functions.AnyColumnFunctions }
      */
     protected ExternalFunctionProvider createExternalFunctionProvider() {
-        ExternalFunctionProvider functionProvider =
-            new CohortExternalFunctionProvider(Arrays.asList(AnyColumnFunctions.class.getDeclaredMethods()));
-        return functionProvider;
+        return getSharedObjects().createExternalFunctionProvider();
     }
 
-
     /**
      * Deserialize CQL Job requests.
      * 
@@ -746,82 +1550,101 @@ public class SparkCqlEvaluator implements Serializable {
      * @throws Exception when deserialization fails for any reason
      */
     protected CqlEvaluationRequests readJobSpecification(String path) throws Exception {
-        ObjectMapper mapper = new ObjectMapper();
-        Path filePath = new Path(path);
-        FileSystem fileSystem = filePath.getFileSystem(this.hadoopConfiguration.value());
-        CqlEvaluationRequests requests;
-        try (Reader r = new InputStreamReader(fileSystem.open(filePath))) {
-            requests = mapper.readValue(r, CqlEvaluationRequests.class);
-        }
-
-        try( ValidatorFactory factory = Validation.buildDefaultValidatorFactory() ) { 
-            Validator validator = factory.getValidator();
-            
-            Set<ConstraintViolation<CqlEvaluationRequests>> violations = validator.validate( requests );
-            if( ! violations.isEmpty() ) {
-                StringBuffer sb = new StringBuffer();
-                for( ConstraintViolation<CqlEvaluationRequests> violation : violations ) { 
-                    sb.append(System.lineSeparator())
-                        .append(violation.getPropertyPath().toString())
-                        .append(": ")
-                        .append(violation.getMessage());
-                }
-                throw new IllegalArgumentException("Invalid Job Specification: " + sb.toString());
-            }
-        }
-        
-        return requests;
+        return getSharedObjects().readJobSpecification(path);
     }
 
     /**
      * Write the results of CQL evaluation to a given storage location.
      *
-     * @param spark            Active Spark session
-     * @param schema           Schema of the output rows being output.
-     * @param resultsByContext CQL evaluation results mapped from context value to a
-     *                         map of define to define result.
-     * @param outputURI        URI pointing at the location where output data should
-     *                         be written.
-     */
-    protected void writeResults(SparkSession spark, StructType schema, JavaPairRDD<Object, Row> resultsByContext,
-            String outputURI) {
-        Dataset<Row> dataFrame = spark.createDataFrame(
-                resultsByContext.values(),
-                schema
-        );
+     * @param spark     Active Spark session
+     * @param results   CQL evaluation results with one row per context value and
+     *                  parameter group
+     * @param outputURI URI pointing at the location where output data should
+     *                  be written.
+     */
+    protected void writeResults(SparkSession spark, Dataset<Row> results, String outputURI) {
+        writeResults(spark, results, outputURI, args.overwriteResults ? SaveMode.Overwrite : SaveMode.ErrorIfExists);
+    }
 
+    /**
+     * Write a results dataset to a given storage location using the configured
+     * output format and partitioning.
+     *
+     * @param spark     Active Spark session
+     * @param dataFrame Results dataset
+     * @param outputURI URI pointing at the location where output data should
+     *                  be written.
+     * @param saveMode  Behavior when the output location already exists
+     */
+    protected void writeResults(SparkSession spark, Dataset<Row> dataFrame, String outputURI, SaveMode saveMode) {
+        Dataset<Row> cached = null;
         if (args.outputPartitions != null) {
             dataFrame = dataFrame.repartition(args.outputPartitions);
         }
+        else if (args.targetOutputFileSize != null) {
+            cached = dataFrame.persist(StorageLevel.MEMORY_AND_DISK());
+            dataFrame = partitionByTargetFileSize(cached, JavaUtils.byteStringAsBytes(args.targetOutputFileSize));
+        }
 
-        dataFrame.write()
-                .mode(args.overwriteResults ? SaveMode.Overwrite : SaveMode.ErrorIfExists)
-                .format(args.outputFormat != null ? args.outputFormat : spark.conf().get("spark.sql.sources.default"))
-                .save(outputURI);
+        try {
+            dataFrame.write()
+                    .mode(saveMode)
+                    .format(args.outputFormat != null ? args.outputFormat : spark.conf().get("spark.sql.sources.default"))
+                    .save(outputURI);
+        }
+        finally {
+            if (cached != null) {
+                cached.unpersist();
+            }
+        }
     }
 
     /**
-     * Get the class object that will represent the individual data rows that will
-     * be created and used in the CQL runtime. This is important as the CQL engine
-     * uses the package of model classes to map to data provider implementations.
-     * This method is provided to allow subclasses to override the data row
-     * implementation as needed.
-     * 
-     * @return data row implementation class
+     * Partition a results dataset so that each output file is close to a target
+     * size. The dataset must be persisted, because it is materialized once to
+     * count the rows and measure the size of the cached data before it is
+     * written. Partitions are merged without a shuffle when the dataset has more
+     * partitions than needed and only split with a shuffle when it has fewer.
+     *
+     * @param results     Persisted results dataset
+     * @param targetBytes Target size of each output file
+     * @return results dataset with the number of partitions for the target size
      */
-    protected Class<? extends DataRow> getDataRowClass() {
-        return SparkDataRow.class;
+    protected Dataset<Row> partitionByTargetFileSize(Dataset<Row> results, long targetBytes) {
+        long rows = results.count();
+        // Once the cache is materialized, the statistics of the cached relation
+        // report the actual size of the cached rows
+        long estimatedBytes = getEstimatedSizeInBytes(results);
+        int currentPartitions = results.javaRDD().getNumPartitions();
+        int partitions = getOutputPartitionCount(rows, estimatedBytes, targetBytes);
+
+        LOG.info("Writing {} result rows of approximately {} bytes to {} files ({} partitions before repartitioning)",
+                rows, estimatedBytes, partitions, currentPartitions);
+
+        Dataset<Row> result = results;
+        if (partitions < currentPartitions) {
+            result = results.coalesce(partitions);
+        }
+        else if (partitions > currentPartitions) {
+            result = results.repartition(partitions);
+        }
+        return result;
     }
 
     /**
-     * Get a function that will produce the data row classes described by the
-     * getDataRowClass method. This allows subclasses to override data row creation
-     * as needed.
-     * 
-     * @return data row factory function
+     * @param rows           Number of result rows
+     * @param estimatedBytes Estimated size of the result rows
+     * @param targetBytes    Target size of each output file
+     * @return number of output files that keeps each file close to the target
+     *         size, at least one and at most one per row
      */
-    protected Function<Row, DataRow> getDataRowFactory() {
-        return (row) -> new SparkDataRow(getSparkTypeConverter(), row);
+    protected static int getOutputPartitionCount(long rows, long estimatedBytes, long targetBytes) {
+        if (targetBytes <= 0) {
+            throw new IllegalArgumentException("The target output file size must be greater than zero");
+        }
+        long files = estimatedBytes / targetBytes + ((estimatedBytes % targetBytes > 0) ? 1 : 0);
+        files = Math.min(files, Math.min(rows, Integer.MAX_VALUE));
+        return (int) Math.max(files, 1);
     }
 
     /**
@@ -835,6 +1658,17 @@ public class SparkCqlEvaluator implements Serializable {
         return this.typeConverter;
     }
 
+    /**
+     * Get the Hadoop configuration. On the driver, this is the configuration
+     * of the Spark context. In a task, the configuration is read from the
+     * broadcast variable.
+     *
+     * @return Hadoop configuration
+     */
+    protected Configuration getHadoopConfiguration() {
+        return (hadoopConfiguration != null) ? hadoopConfiguration.value() : broadcastHadoopConfiguration.value().value();
+    }
+
     public static void main(String[] args) throws Exception {
         SparkCqlEvaluatorArgs programArgs = new SparkCqlEvaluatorArgs();
 
@@ -13,6 +13,7 @@ import java.util.Map;
 
 import com.beust.jcommander.DynamicParameter;
 import com.beust.jcommander.Parameter;
+import com.ibm.cohort.cql.spark.aggregation.ContextGroupingStrategy;
 
 /**
  * Command-line arguments for the SparkCqlEvaluator program.
@@ -70,6 +71,9 @@ public class SparkCqlEvaluatorArgs implements Serializable {
     @Parameter(names = { "-n",
             "--output-partitions" }, description = "Number of partitions to use when storing data", required = false)
     public Integer outputPartitions = null;
+
+    @Parameter(names = { "--target-output-file-size" }, description = "Approximate size of each output file, e.g. 128m or 1g. When provided, the results of each context are cached, measured, and written to as many files as the target size requires. The number of partitions is reduced without a shuffle when possible. Ignored when --output-partitions is specified.", required = false)
+    public String targetOutputFileSize = null;
     
     @Parameter(names = {"--overwrite-output-for-contexts"}, description = "WARNING: NOT RECOMMENDED FOR PRODUCTION USE. If option is set, program overwrites existing output when writing result data.")
     public boolean overwriteResults = false;
@@ -86,10 +90,82 @@ public class SparkCqlEvaluatorArgs implements Serializable {
 
     @Parameter(names = {"--halt-on-error"}, description = "If set, errors during CQL evaluations will cause the program to halt. Otherwise, errors are collected and reported in the program's batch summary file and will not cause the program to halt.")
     public Boolean haltOnError = false;
+
+    @Parameter(names = { "--error-sample-size" }, description = "Maximum number of failed context values that are reported in the batch summary file for each combination of context, library, output column, and exception class. Errors are always counted exactly.", required = false)
+    public int errorSampleSize = 10;
     
     @Parameter(names = { "--debug" }, description = "Enables CQL debug logging")
     public boolean debug = false;
 
+    @Parameter(names = { "--profile" }, description = "Record the time spent in each CQL expression definition and retrieve across all context values and report the definitions ranked by their own (self) time. The report is printed when the program finishes and written to the metadata output path when one is specified.", required = false)
+    public boolean profile = false;
+
+    @Parameter(names = { "--profile-report-limit" }, description = "Maximum number of expression definitions and retrieves that are printed in the profile report. The report written to the metadata output path always includes every entry.", required = false)
+    public int profileReportLimit = 25;
+
+    @Parameter(names = { "--explain" }, description = "Print how each aggregation context would be evaluated without evaluating any CQL: the datatypes that are read, the columns retained out of the columns available, the joins, the physical plan of the inputs that are grouped by context value, the estimated input size, and the output schema width. The report is also written to the metadata output path. No results or batch summary are written.", required = false)
+    public boolean explain = false;
+
+    @Parameter(names = { "--batch-expressions" }, description = "Evaluate all expressions of the CQL evaluation requests that share a library and parameter set in a single CQL context per aggregation context value. Shared defines and retrieves are then only computed once instead of once per output column.", required = false)
+    public boolean batchExpressions = false;
+
+    @Parameter(names = { "--concurrent-contexts" }, description = "Maximum number of aggregation contexts that are evaluated and written at the same time. Each context is submitted from its own driver thread and its jobs are assigned to a scheduler pool named after the context. Set spark.scheduler.mode=FAIR so that concurrent contexts share the cluster. A value of 1 evaluates the contexts one at a time.", required = false)
+    public int concurrentContexts = 1;
+
+    @Parameter(names = { "--context-grouping" }, description = "Strategy used to collect the rows for each aggregation context value. COMBINE groups the rows of each context in memory using a shuffle-side combine. SORT partitions and sorts the rows by context value and streams one context at a time to the evaluator, spilling the rows of very large contexts to local disk.", required = false)
+    public ContextGroupingStrategy contextGrouping = ContextGroupingStrategy.COMBINE;
+
+    @Parameter(names = { "--context-spill-threshold" }, description = "Maximum number of rows for a single context value that are held in memory before the remaining rows are spilled to local disk. Only used when --context-grouping is SORT.", required = false)
+    public int contextSpillThreshold = 100000;
+
+    @Parameter(names = { "--detect-skew" }, description = "Sample the context value frequencies of the joined input data before grouping it by context. Context values that own a disproportionate share of the rows are isolated in dedicated partitions and the sampled skew statistics are reported in the batch summary file.", required = false)
+    public boolean detectSkew = false;
+
+    @Parameter(names = { "--skew-sample-fraction" }, description = "Fraction of input rows sampled when --detect-skew is enabled.", required = false)
+    public double skewSampleFraction = 0.01;
+
+    @Parameter(names = { "--skew-hot-key-factor" }, description = "A context value is considered hot when its sampled row count is at least this multiple of the mean sampled row count per context value.", required = false)
+    public double skewHotKeyFactor = 10.0;
+
+    @Parameter(names = { "--skew-max-hot-keys" }, description = "Maximum number of hot context values that are isolated in dedicated partitions.", required = false)
+    public int skewMaxHotKeys = 100;
+
+    @Parameter(names = { "--broadcast-join-threshold" }, description = "Maximum estimated size of a related or association dataset, e.g. 10m, that is broadcast to the join of a context instead of being shuffled. If not provided, the choice is left to spark.sql.autoBroadcastJoinThreshold. The join strategy of each context is reported in the batch summary file.", required = false)
+    public String broadcastJoinThreshold = null;
+
+    @Parameter(names = { "--enable-co-partitioned-grouping" }, description = "When an input of a context is already hash partitioned by context value, such as the output of a sort-merge join on the primary key column, repartition the remaining inputs the same way, sort each input within its partitions, and merge them by context value without shuffling the input that is already partitioned. Co-partitioned grouping is not used with --detect-skew or adaptive query execution.", required = false)
+    public boolean enableCoPartitionedGrouping = false;
+
+    @Parameter(names = { "--enable-code-filter-pushdown" }, description = "Filter the input rows of related datatypes by the codes used in the CQL retrieves before the context data is joined and grouped. A datatype is only filtered when every retrieve of that datatype is filtered by code or value set. Value sets are expanded using the terminology path.", required = false)
+    public boolean enableCodeFilterPushdown = false;
+
+    @Parameter(names = { "--enable-date-range-optimization" }, description = "Translate CQL query where clauses that compare a date of a retrieved item to a date interval into date-filtered retrieves. Date-filtered retrieves are answered using a sorted date index instead of a scan of every retrieved row. This option has no effect on libraries that are provided as ELM.", required = false)
+    public boolean enableDateRangeOptimization = false;
+
+    @Parameter(names = { "--enable-dataset-sharing" }, description = "Read each input datatype that is used by more than one aggregation context only once, with the union of the columns required by those contexts, and persist it until the last context that uses it has been evaluated.", required = false)
+    public boolean enableDatasetSharing = false;
+
+    @Parameter(names = { "--shared-dataset-storage-level" }, description = "Spark storage level used to persist shared input datasets when --enable-dataset-sharing is specified.", required = false)
+    public String sharedDatasetStorageLevel = "MEMORY_AND_DISK";
+
+    @Parameter(names = { "--sample-fraction" }, description = "Evaluate only this fraction, greater than 0 and no more than 1, of the context values of each aggregation context. Context values are selected by a seeded hash of the value, so repeated runs select the same context values. The sample is applied to the primary datatype before related datatypes are joined. Cannot be combined with --sample-size or --incremental-state-path.", required = false)
+    public Double sampleFraction = null;
+
+    @Parameter(names = { "--sample-size" }, description = "Evaluate only this number of context values of each aggregation context. The context values with the lowest seeded hash are selected, so repeated runs select the same context values. The sample is applied to the primary datatype before related datatypes are joined. Cannot be combined with --sample-fraction or --incremental-state-path.", required = false)
+    public Integer sampleSize = null;
+
+    @Parameter(names = { "--sample-seed" }, description = "Seed of the hash that selects the context values when --sample-fraction or --sample-size is specified. Change the seed to select a different sample.", required = false)
+    public long sampleSeed = 0;
+
+    @Parameter(names = { "--memoize-row-values" }, description = "Convert each field of an input row to its CQL value at most once and reuse the converted value every time an expression reads the field. Uses more memory per row in exchange for fewer conversions when expressions read the same fields repeatedly.", required = false)
+    public boolean memoizeRowValues = false;
+
+    @Parameter(names = { "--incremental-state-path" }, description = "Folder where a fingerprint table of the input data for each context value is kept between runs. When provided, only context values whose input data changed since the previous run are evaluated and the previous results of all other context values are carried forward. A change to the libraries, library versions, or parameters used by a context forces a full recompute of that context.", required = false)
+    public String incrementalStatePath = null;
+
+    @Parameter(names = { "--resume" }, description = "Skip aggregation contexts whose output was committed by an earlier run with an identical job specification, libraries, and input and output locations. A commit record is written under the metadata output path after the output of each context is complete.", required = false)
+    public boolean resume = false;
+
     @Parameter(names = { "--disable-result-grouping" }, description = "Disable use of CQL parameters to group context results into separate rows", required = false)
     public boolean disableResultGrouping = false;
     
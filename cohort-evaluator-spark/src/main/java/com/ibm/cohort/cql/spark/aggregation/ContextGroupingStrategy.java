@@ -0,0 +1,28 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+/**
+ * Strategies for grouping the input rows of an aggregation context by
+ * context value.
+ */
+public enum ContextGroupingStrategy {
+    /**
+     * Group all rows for a context value into an in-memory list using
+     * combineByKey. This is the fastest option for datasets where every
+     * context comfortably fits in executor memory.
+     */
+    COMBINE,
+
+    /**
+     * Shuffle and sort rows by context value and stream the contiguous rows
+     * for each context value to the evaluator. Contexts that exceed the
+     * configured spill threshold are buffered on local disk. This is the
+     * recommended option for datasets with heavily skewed contexts.
+     */
+    SORT
+}
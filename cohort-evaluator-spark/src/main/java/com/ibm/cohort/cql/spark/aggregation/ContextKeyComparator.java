@@ -0,0 +1,38 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+import org.apache.spark.unsafe.types.UTF8String;
+
+/**
+ * Orders context values using their natural ordering with null values sorted
+ * first. Context values are read from Spark columns, so they are expected to
+ * be one of the comparable Spark SQL external types (String, Integer, Long,
+ * Date, etc.). Strings are compared by their UTF-8 bytes like Spark SQL does,
+ * so rows that were sorted by a Spark SQL sort can be merged with this order.
+ */
+public class ContextKeyComparator implements Comparator<Object>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public int compare(Object o1, Object o2) {
+        if (o1 == o2) {
+            return 0;
+        } else if (o1 == null) {
+            return -1;
+        } else if (o2 == null) {
+            return 1;
+        } else if (o1 instanceof String && o2 instanceof String) {
+            return UTF8String.fromString((String) o1).compareTo(UTF8String.fromString((String) o2));
+        }
+        return ((Comparable) o1).compareTo(o2);
+    }
+}
@@ -6,24 +6,48 @@
 
 package com.ibm.cohort.cql.spark.aggregation;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.Partitioner;
 import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
 import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.expressions.Expression;
+import org.apache.spark.sql.catalyst.plans.physical.HashPartitioning;
+import org.apache.spark.sql.catalyst.plans.physical.Partitioning;
+import org.apache.spark.sql.catalyst.plans.physical.PartitioningCollection;
+import org.apache.spark.sql.execution.SparkPlan;
+import org.apache.spark.sql.execution.adaptive.AdaptiveSparkPlanExec;
+import org.apache.spark.sql.execution.joins.HashJoin;
 import org.apache.spark.sql.functions;
+import org.apache.spark.storage.StorageLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ibm.cohort.cql.spark.data.DatasetRetriever;
+import com.ibm.cohort.cql.spark.metadata.ContextJoinPlan;
+import com.ibm.cohort.cql.spark.metadata.ContextSkewStatistics;
+import com.ibm.cohort.cql.spark.metadata.JoinStrategy;
 
 import scala.Tuple2;
+import scala.collection.JavaConverters;
 
 /**
  * Handles the retrieval and organization of context data.
@@ -46,14 +70,104 @@ public class ContextRetriever {
 
     private final Map<String, String> inputPaths;
     private final DatasetRetriever datasetRetriever;
+    private final HotKeyDetector hotKeyDetector;
+    private final ContextSampler contextSampler;
+    private final Long broadcastThreshold;
+    private final boolean coPartitionedGrouping;
+    private final Map<String, ContextSkewStatistics> skewStatistics = new HashMap<>();
+    private final Map<String, ContextJoinPlan> joinPlans = new HashMap<>();
+    private final Map<String, JavaPairRDD<Object, Row>> persistedData = new HashMap<>();
 
     /**
      * @param inputPaths A mapping from datatype to Hadoop compatible path
      * @param datasetRetriever A {@link DatasetRetriever} for low level data retrieval
      */
     public ContextRetriever(Map<String, String> inputPaths, DatasetRetriever datasetRetriever) {
+        this(inputPaths, datasetRetriever, null);
+    }
+
+    /**
+     * @param inputPaths A mapping from datatype to Hadoop compatible path
+     * @param datasetRetriever A {@link DatasetRetriever} for low level data retrieval
+     * @param hotKeyDetector A {@link HotKeyDetector} used to sample the joined data
+     *                       for hot context values before the data is grouped, or
+     *                       null to disable skew detection
+     */
+    public ContextRetriever(Map<String, String> inputPaths, DatasetRetriever datasetRetriever, HotKeyDetector hotKeyDetector) {
+        this(inputPaths, datasetRetriever, hotKeyDetector, null);
+    }
+
+    /**
+     * @param inputPaths A mapping from datatype to Hadoop compatible path
+     * @param datasetRetriever A {@link DatasetRetriever} for low level data retrieval
+     * @param hotKeyDetector A {@link HotKeyDetector} used to sample the joined data
+     *                       for hot context values before the data is grouped, or
+     *                       null to disable skew detection
+     * @param contextSampler A {@link ContextSampler} used to select a subset of the
+     *                       context values before the related data is joined, or
+     *                       null to retrieve every context value
+     */
+    public ContextRetriever(Map<String, String> inputPaths, DatasetRetriever datasetRetriever, HotKeyDetector hotKeyDetector,
+            ContextSampler contextSampler) {
+        this(inputPaths, datasetRetriever, hotKeyDetector, contextSampler, null, false);
+    }
+
+    /**
+     * @param inputPaths A mapping from datatype to Hadoop compatible path
+     * @param datasetRetriever A {@link DatasetRetriever} for low level data retrieval
+     * @param hotKeyDetector A {@link HotKeyDetector} used to sample the joined data
+     *                       for hot context values before the data is grouped, or
+     *                       null to disable skew detection
+     * @param contextSampler A {@link ContextSampler} used to select a subset of the
+     *                       context values before the related data is joined, or
+     *                       null to retrieve every context value
+     * @param broadcastThreshold Related and association datasets with an estimated
+     *                           size of at most this many bytes are broadcast to the
+     *                           join, or null to leave the choice to Spark
+     * @param coPartitionedGrouping Group the joined data without a shuffle when
+     *                              some of the inputs are already hash partitioned
+     *                              by context value. Each partition is grouped
+     *                              in memory.
+     */
+    public ContextRetriever(Map<String, String> inputPaths, DatasetRetriever datasetRetriever, HotKeyDetector hotKeyDetector,
+            ContextSampler contextSampler, Long broadcastThreshold, boolean coPartitionedGrouping) {
         this.inputPaths = inputPaths;
         this.datasetRetriever = datasetRetriever;
+        this.hotKeyDetector = hotKeyDetector;
+        this.contextSampler = contextSampler;
+        this.broadcastThreshold = broadcastThreshold;
+        this.coPartitionedGrouping = coPartitionedGrouping;
+    }
+
+    /**
+     * @param contextName The name of a previously retrieved context
+     * @return the skew statistics that were sampled for the context or null if
+     *         skew detection was not performed for the context
+     */
+    public ContextSkewStatistics getSkewStatistics(String contextName) {
+        return skewStatistics.get(contextName);
+    }
+
+    /**
+     * @param contextName The name of a previously retrieved context
+     * @return how the data of the context was joined and grouped or null if the
+     *         context has not been retrieved
+     */
+    public ContextJoinPlan getJoinPlan(String contextName) {
+        return joinPlans.get(contextName);
+    }
+
+    /**
+     * Releases the joined data of a context that was persisted for skew
+     * detection. Does nothing if no data was persisted for the context.
+     *
+     * @param contextName The name of a previously retrieved context
+     */
+    public void release(String contextName) {
+        JavaPairRDD<Object, Row> allData = persistedData.remove(contextName);
+        if (allData != null) {
+            allData.unpersist(false);
+        }
     }
 
     /**
@@ -64,45 +178,204 @@ public class ContextRetriever {
      * @return A {@link JavaPairRDD} linking contextValue to a {@link List} of {@link Row}s
      */
     public JavaPairRDD<Object, List<Row>> retrieveContext(ContextDefinition contextDefinition) {
-        List<JavaPairRDD<Object, Row>> rddList = gatherRDDs(contextDefinition);
+        List<Tuple2<String, Dataset<Row>>> datasets = gatherDatasets(contextDefinition);
+
+        JavaPairRDD<Object, List<Row>> retVal;
+        boolean groupContext = contextDefinition.getRelationships() != null
+                && contextDefinition.getRelationships().size() > 0;
+        int coPartitions = groupContext ? planCoPartitionedGrouping(contextDefinition, datasets) : 0;
+        if (coPartitions > 0) {
+            LOG.info("Context {} has inputs that are hash partitioned by context value into {} partitions. Grouping the inputs without a shuffle.",
+                    contextDefinition.getName(), coPartitions);
+            retVal = sortCoPartitioned(datasets, coPartitions).mapPartitionsToPair(ContextRetriever::groupSortedPartition);
+        }
+        else {
+            JavaPairRDD<Object, Row> allData = unionPairRDDs(toPairRDDs(datasets));
+            if (groupContext) {
+                retVal = groupPairRDDs(allData, detectSkew(contextDefinition, allData));
+            }
+            else {
+                // If no actual relationships are defined, then create a
+                // single record context for the primary row.
+                retVal = allData.mapToPair(
+                        (tuple2) -> new Tuple2<>(tuple2._1(), Collections.singletonList(tuple2._2()))
+                );
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Retrieves and joins all data for a {@link ContextDefinition} and then
+     * partitions and sorts the data by context value. All rows for a single
+     * context value end up contiguous within a single partition, so that they
+     * can be streamed to the evaluator one context at a time (see
+     * {@link SortedContextIterator}) without materializing the full list of rows
+     * for every context in memory.
+     *
+     * @param contextDefinition The {@link ContextDefinition} to process
+     * @return A {@link JavaPairRDD} mapping context value to {@link Row} that is
+     *         sorted by context value within each partition
+     */
+    public JavaPairRDD<Object, Row> retrieveSortedContext(ContextDefinition contextDefinition) {
+        List<Tuple2<String, Dataset<Row>>> datasets = gatherDatasets(contextDefinition);
+        boolean groupContext = contextDefinition.getRelationships() != null
+                && contextDefinition.getRelationships().size() > 0;
+        int coPartitions = groupContext ? planCoPartitionedGrouping(contextDefinition, datasets) : 0;
+        if (coPartitions > 0) {
+            LOG.info("Context {} has inputs that are hash partitioned by context value into {} partitions. Sorting the inputs without a shuffle.",
+                    contextDefinition.getName(), coPartitions);
+            return sortCoPartitioned(datasets, coPartitions);
+        }
+
+        JavaPairRDD<Object, Row> allData = retrieveAllData(contextDefinition, datasets);
+
+        Partitioner partitioner = detectSkew(contextDefinition, allData);
+        if (partitioner == null) {
+            partitioner = new HashPartitioner(allData.getNumPartitions());
+        }
+
+        return allData.repartitionAndSortWithinPartitions(
+                partitioner,
+                new ContextKeyComparator()
+        );
+    }
+
+    /**
+     * Samples the joined data for a context to find hot context values when skew
+     * detection is enabled. The sampled statistics are recorded for later
+     * reporting. The joined data is persisted before it is sampled, so that the
+     * inputs are read and joined only once for the sampling job and the job that
+     * groups the data. Call {@link #release(String)} once the grouped data of the
+     * context has been consumed.
+     *
+     * @param contextDefinition The {@link ContextDefinition} being processed
+     * @param allData Rows mapped from context value to a single data row.
+     * @return A {@link SkewAwarePartitioner} that isolates each hot context value
+     *         in its own partition, or null if skew detection is disabled or no
+     *         hot context values were found.
+     */
+    private Partitioner detectSkew(ContextDefinition contextDefinition, JavaPairRDD<Object, Row> allData) {
+        if (hotKeyDetector == null) {
+            return null;
+        }
+
+        persistedData.put(contextDefinition.getName(), allData.persist(StorageLevel.MEMORY_AND_DISK()));
+        HotKeyDetector.Result result = hotKeyDetector.detect(allData);
+        ContextSkewStatistics statistics = result.getStatistics();
+        skewStatistics.put(contextDefinition.getName(), statistics);
+
+        Partitioner retVal = null;
+        if (!result.getHotKeys().isEmpty()) {
+            retVal = new SkewAwarePartitioner(allData.getNumPartitions(), result.getHotKeys());
+            statistics.setPartitions(retVal.numPartitions());
+            LOG.info("Context {} has {} hot context values with an estimated {} rows. Isolating them in dedicated partitions.",
+                    contextDefinition.getName(), statistics.getHotContexts(), statistics.getEstimatedHotContextRows());
+        }
+        return retVal;
+    }
+
+    /**
+     * Retrieves and joins all data for a {@link ContextDefinition} into a single
+     * {@link JavaPairRDD} of context value to data row.
+     *
+     * @param contextDefinition The {@link ContextDefinition} to process
+     * @param datasets The inputs of the context
+     * @return A {@link JavaPairRDD} mapping context value to {@link Row}.
+     */
+    private JavaPairRDD<Object, Row> retrieveAllData(ContextDefinition contextDefinition, List<Tuple2<String, Dataset<Row>>> datasets) {
+        List<JavaPairRDD<Object, Row>> rddList = toPairRDDs(datasets);
 		if(rddList.isEmpty()){
 			throw new IllegalStateException("Provided context " + contextDefinition.getName() + " returned zero readable RDDs");
 		}
 
-        JavaPairRDD<Object, Row> allData = unionPairRDDs(rddList);
+        return unionPairRDDs(rddList);
+    }
 
-        JavaPairRDD<Object, List<Row>> retVal;
+    /**
+     * Describes how the data for a {@link ContextDefinition} is retrieved, joined,
+     * and grouped without running any Spark jobs. The description lists the
+     * operation that groups the rows by context value followed by the physical
+     * plan of each input that is unioned into that operation.
+     *
+     * @param contextDefinition The {@link ContextDefinition} to describe
+     * @param groupingStrategy The strategy used to organize the rows by context value
+     * @return A human readable description of the retrieval of the context data
+     */
+    public String explainContext(ContextDefinition contextDefinition, ContextGroupingStrategy groupingStrategy) {
+        List<Tuple2<String, Dataset<Row>>> datasets = gatherDatasets(contextDefinition);
+
+        String partitioner = (hotKeyDetector != null) ? "a skew-aware partitioner" : "a hash partitioner";
         boolean groupContext = contextDefinition.getRelationships() != null
                 && contextDefinition.getRelationships().size() > 0;
-        if (groupContext) {
-            retVal = groupPairRDDs(allData);
+        int coPartitions = groupContext ? planCoPartitionedGrouping(contextDefinition, datasets) : 0;
+
+        StringBuilder sb = new StringBuilder();
+        if (coPartitions > 0) {
+            sb.append("sortWithinPartitions and merge by context value of ").append(coPartitions)
+                    .append(" co-partitioned partitions (no shuffle of inputs that are already partitioned by context value)");
+        }
+        else if (groupingStrategy == ContextGroupingStrategy.SORT) {
+            sb.append("repartitionAndSortWithinPartitions by context value using ").append(partitioner);
+        }
+        else if (groupContext) {
+            sb.append("combineByKey by context value using ").append(partitioner);
         }
         else {
-            // If no actual relationships are defined, then create a
-            // single record context for the primary row.
-            retVal = allData.mapToPair(
-                    (tuple2) -> new Tuple2<>(tuple2._1(), Collections.singletonList(tuple2._2()))
-            );
+            sb.append("mapToPair of each row to a single row context (no shuffle)");
         }
+        sb.append(" over the union of ").append(datasets.size()).append(" input(s)");
 
-        return retVal;
+        int index = 1;
+        for (Tuple2<String, Dataset<Row>> dataset : datasets) {
+            sb.append(System.lineSeparator())
+                    .append("Input ").append(index++).append(" keyed by ").append(dataset._1()).append(":")
+                    .append(System.lineSeparator())
+                    .append(dataset._2().queryExecution().executedPlan().toString().trim());
+        }
+        return sb.toString();
     }
 
     /**
-     * Creates a {@link JavaPairRDD} for a context's primary datatype and all
-     * underlying joins.
+     * Creates a {@link JavaPairRDD} for each input of a context.
      *
-     * @param contextDefinition The {@link ContextDefinition} to process
+     * @param datasets The inputs of a context as returned by {@link #gatherDatasets(ContextDefinition)}
      * @return A {@link List} of {@link JavaPairRDD}s mapping context value to {@link Row}.
      *         It is expected for a context value to have multiple mappings within an RDD.
      */
-    private List<JavaPairRDD<Object, Row>> gatherRDDs(ContextDefinition contextDefinition) {
-        List<JavaPairRDD<Object, Row>> retVal = new ArrayList<>();
+    private List<JavaPairRDD<Object, Row>> toPairRDDs(List<Tuple2<String, Dataset<Row>>> datasets) {
+        return datasets.stream()
+                .map(dataset -> toPairRDD(dataset._2(), dataset._1()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Creates a {@link Dataset} for a context's primary datatype and all
+     * underlying joins. Related and association datasets that are estimated to
+     * be no larger than the broadcast threshold are marked for broadcast, and
+     * the join strategy of each relationship is recorded in the
+     * {@link ContextJoinPlan} of the context.
+     *
+     * @param contextDefinition The {@link ContextDefinition} to process
+     * @return A {@link List} of pairs of the name of the column that holds the
+     *         context value and the {@link Dataset} that holds the rows. The
+     *         primary dataset is first, followed by one dataset for each
+     *         {@link JoinStrategy} of the {@link ContextJoinPlan}.
+     */
+    private List<Tuple2<String, Dataset<Row>>> gatherDatasets(ContextDefinition contextDefinition) {
+        List<Tuple2<String, Dataset<Row>>> retVal = new ArrayList<>();
+        ContextJoinPlan joinPlan = new ContextJoinPlan();
+        joinPlan.setGrouping(ContextJoinPlan.GROUPING_SHUFFLE);
+        joinPlans.put(contextDefinition.getName(), joinPlan);
 
         String primaryKeyColumn = contextDefinition.getPrimaryKeyColumn();
         String primaryDataType = contextDefinition.getPrimaryDataType();
         Dataset<Row> primaryDataset = readDataset(primaryDataType);
-        retVal.add(toPairRDD(primaryDataset, primaryKeyColumn));
+        if (contextSampler != null) {
+            primaryDataset = contextSampler.sample(primaryDataset, primaryKeyColumn);
+        }
+        retVal.add(new Tuple2<>(primaryKeyColumn, primaryDataset));
 
         // We need to retain the original context value from the primary datatype.
         // This is done by adding a "placeholder column" that selects the context value.
@@ -121,25 +394,28 @@ public class ContextRetriever {
             Dataset<Row> relatedDataset = readDataset(relatedDataType);
             if( relatedDataset != null ) {
                 Dataset<Row> joinedDataset;
+                JoinStrategy joinStrategy = new JoinStrategy();
+                joinStrategy.setRelatedDataType(relatedDataType);
     
                 if (join.getClass() == OneToMany.class) {
                     Column joinCriteria = primaryDataset.col(primaryJoinColumn)
                             .equalTo(relatedDataset.col(relatedColumnName));
-                    joinedDataset = primaryDataset.join(relatedDataset, joinCriteria);
+                    joinedDataset = primaryDataset.join(planBroadcast(relatedDataType, relatedDataset, joinStrategy), joinCriteria);
                 } else if (join.getClass() == ManyToMany.class) {
                     ManyToMany manyToMany = (ManyToMany) join;
                     String assocDataType = manyToMany.getAssociationDataType();
                     Dataset<Row> assocDataset = readDataset(assocDataType);
                     String assocPrimaryColumnName = manyToMany.getAssociationOneKeyColumn();
                     String assocRelatedColumnName = manyToMany.getAssociationManyKeyColumn();
+                    joinStrategy.setAssociationDataType(assocDataType);
     
                     Column primaryJoinCriteria = primaryDataset.col(primaryJoinColumn)
                             .equalTo(assocDataset.col(assocPrimaryColumnName));
-                    joinedDataset = primaryDataset.join(assocDataset, primaryJoinCriteria);
+                    joinedDataset = primaryDataset.join(planBroadcast(assocDataType, assocDataset, joinStrategy), primaryJoinCriteria);
     
                     Column relatedJoinCriteria = joinedDataset.col(assocRelatedColumnName)
                             .equalTo(relatedDataset.col(relatedColumnName));
-                    joinedDataset = joinedDataset.join(relatedDataset, relatedJoinCriteria);
+                    joinedDataset = joinedDataset.join(planBroadcast(relatedDataType, relatedDataset, joinStrategy), relatedJoinCriteria);
                 } else {
                     throw new IllegalArgumentException("Unexpected Join Type: " + join.getClass().getName());
                 }
@@ -150,8 +426,12 @@ public class ContextRetriever {
                 retainedColumns.add(joinContextColumn);
                 Column[] columnArray = retainedColumns.toArray(new Column[0]);
                 joinedDataset = joinedDataset.select(columnArray);
+
+                joinStrategy.setPhysicalJoins(getPhysicalJoins(joinedDataset.queryExecution().executedPlan()));
+                LOG.info("Context {} joins datatype {} using {}", contextDefinition.getName(), relatedDataType, joinStrategy.getPhysicalJoins());
+                joinPlan.getJoins().add(joinStrategy);
     
-                retVal.add(toPairRDD(joinedDataset, JOIN_CONTEXT_VALUE_IDX));
+                retVal.add(new Tuple2<>(JOIN_CONTEXT_VALUE_IDX, joinedDataset));
             } else { 
                 LOG.info("No data was read for context {}, datatype {}. This happens natually when CQL-based column filtering is enabled and no data is required from the specified datatype.", contextDefinition.getName(), relatedDataType);
             }
@@ -160,35 +440,262 @@ public class ContextRetriever {
         return retVal;
     }
 
+    /**
+     * Marks a related or association dataset for broadcast when Spark estimates
+     * that it is no larger than the broadcast threshold.
+     *
+     * @param dataType The datatype of the dataset
+     * @param dataset The dataset that is joined
+     * @param joinStrategy The {@link JoinStrategy} that records the broadcast
+     * @return The dataset, marked for broadcast if it is small enough
+     */
+    private Dataset<Row> planBroadcast(String dataType, Dataset<Row> dataset, JoinStrategy joinStrategy) {
+        Dataset<Row> retVal = dataset;
+        if (broadcastThreshold != null) {
+            long estimatedBytes = dataset.queryExecution().optimizedPlan().stats().sizeInBytes().bigInteger()
+                    .min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+            if (estimatedBytes <= broadcastThreshold) {
+                LOG.info("Broadcasting datatype {} with an estimated size of {} bytes", dataType, estimatedBytes);
+                joinStrategy.getBroadcastDataTypes().add(dataType);
+                retVal = functions.broadcast(dataset);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Lists the physical join operators of a plan in the order they are applied.
+     *
+     * @param plan The physical plan of a joined dataset
+     * @return The name of each join operator along with the build side of hash joins
+     */
+    private List<String> getPhysicalJoins(SparkPlan plan) {
+        List<String> retVal = new ArrayList<>();
+        if (plan instanceof AdaptiveSparkPlanExec) {
+            retVal.addAll(getPhysicalJoins(((AdaptiveSparkPlanExec) plan).executedPlan()));
+        }
+        for (SparkPlan child : JavaConverters.seqAsJavaList(plan.children())) {
+            retVal.addAll(getPhysicalJoins(child));
+        }
+        if (plan instanceof HashJoin) {
+            retVal.add(plan.nodeName() + "(" + ((HashJoin) plan).buildSide() + ")");
+        }
+        else if (plan.nodeName().endsWith("Join") || plan.nodeName().equals("CartesianProduct")) {
+            retVal.add(plan.nodeName());
+        }
+        return retVal;
+    }
+
+    /**
+     * Decides whether the inputs of a context can be grouped by context value
+     * without a shuffle. That is possible when at least one input is already hash
+     * partitioned by context value, e.g. a related dataset that was sort-merge
+     * joined on the primary key column or a bucketed primary table. The other
+     * inputs are then repartitioned the same way, so the rows of a context value
+     * are in the partition with the same index in every input.
+     *
+     * Co-partitioned grouping is not used with skew detection, which needs its
+     * own partitioner, or with adaptive query execution, which may coalesce the
+     * partitions of each input differently.
+     *
+     * @param contextDefinition The {@link ContextDefinition} being processed
+     * @param datasets The inputs of the context
+     * @return The number of co-partitioned partitions or 0 if the inputs need to
+     *         be shuffled
+     */
+    private int planCoPartitionedGrouping(ContextDefinition contextDefinition, List<Tuple2<String, Dataset<Row>>> datasets) {
+        if (!coPartitionedGrouping || hotKeyDetector != null) {
+            return 0;
+        }
+        Dataset<Row> primaryDataset = datasets.get(0)._2();
+        if (primaryDataset.sparkSession().sessionState().conf().adaptiveExecutionEnabled()) {
+            LOG.info("Adaptive query execution is enabled, so context {} is grouped with a shuffle", contextDefinition.getName());
+            return 0;
+        }
+
+        Expression primaryKey = primaryDataset.col(datasets.get(0)._1()).expr();
+        int[] inputPartitions = new int[datasets.size()];
+        int retVal = 0;
+        for (int i = 0; i < datasets.size(); i++) {
+            inputPartitions[i] = getContextPartitions(datasets.get(i), primaryKey);
+            if (retVal == 0) {
+                retVal = inputPartitions[i];
+            }
+        }
+
+        ContextJoinPlan joinPlan = joinPlans.get(contextDefinition.getName());
+        if (retVal > 0) {
+            joinPlan.setGrouping(ContextJoinPlan.GROUPING_CO_PARTITIONED);
+            joinPlan.setPartitions(retVal);
+            joinPlan.setPrimaryPartitionedByContext(inputPartitions[0] == retVal);
+            for (int i = 1; i < datasets.size(); i++) {
+                joinPlan.getJoins().get(i - 1).setPartitionedByContext(inputPartitions[i] == retVal);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @param input The name of the column that holds the context value and the
+     *              {@link Dataset} that holds the rows
+     * @param primaryKey The primary key column of the primary dataset, which is
+     *                   the source of the context value of every input
+     * @return The number of partitions if the rows are hash partitioned by
+     *         context value or 0 otherwise
+     */
+    private int getContextPartitions(Tuple2<String, Dataset<Row>> input, Expression primaryKey) {
+        List<Expression> keys = Arrays.asList(primaryKey, input._2().col(input._1()).expr());
+        return getContextPartitions(input._2().queryExecution().executedPlan().outputPartitioning(), keys);
+    }
+
+    private int getContextPartitions(Partitioning partitioning, List<Expression> keys) {
+        if (partitioning instanceof PartitioningCollection) {
+            for (Partitioning child : JavaConverters.seqAsJavaList(((PartitioningCollection) partitioning).partitionings())) {
+                int retVal = getContextPartitions(child, keys);
+                if (retVal > 0) {
+                    return retVal;
+                }
+            }
+        }
+        else if (partitioning instanceof HashPartitioning) {
+            List<Expression> expressions = JavaConverters.seqAsJavaList(((HashPartitioning) partitioning).expressions());
+            if (expressions.size() == 1 && keys.stream().anyMatch(key -> key.semanticEquals(expressions.get(0)))) {
+                return partitioning.numPartitions();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sorts the rows of co-partitioned inputs by context value. Inputs that are
+     * not already hash partitioned by context value into the given number of
+     * partitions are repartitioned, which uses the same hash as the joins. Each
+     * input is then sorted within its partitions by its context column, which
+     * keeps the partitioning and spills to disk like any other Spark sort, and
+     * the partitions with the same index are merged in context value order. All
+     * rows for a single context value end up contiguous within a single
+     * partition, so they can be streamed one context at a time (see
+     * {@link SortedContextIterator}) without holding a whole partition in memory.
+     *
+     * @param datasets The inputs of a context
+     * @param partitions The number of co-partitioned partitions
+     * @return A {@link JavaPairRDD} mapping context value to {@link Row} that is
+     *         sorted by context value within each partition
+     */
+    private JavaPairRDD<Object, Row> sortCoPartitioned(List<Tuple2<String, Dataset<Row>>> datasets, int partitions) {
+        Expression primaryKey = datasets.get(0)._2().col(datasets.get(0)._1()).expr();
+
+        JavaPairRDD<Object, Row> allData = null;
+        for (Tuple2<String, Dataset<Row>> input : datasets) {
+            Dataset<Row> dataset = input._2();
+            if (getContextPartitions(input, primaryKey) != partitions) {
+                dataset = dataset.repartition(partitions, dataset.col(input._1()));
+            }
+            dataset = dataset.sortWithinPartitions(dataset.col(input._1()));
+            JavaPairRDD<Object, Row> rdd = toPairRDD(dataset, input._1());
+            allData = (allData == null)
+                    ? rdd
+                    : JavaPairRDD.fromJavaRDD(allData.zipPartitions(rdd, ContextRetriever::merge));
+        }
+        return allData;
+    }
+
+    /**
+     * Merges two partitions that are sorted by context value. Rows of the first
+     * partition come first when both partitions have rows for a context value.
+     *
+     * @param first Rows sorted by context value
+     * @param second Rows sorted by context value
+     * @return The rows of both partitions sorted by context value
+     */
+    private static Iterator<Tuple2<Object, Row>> merge(Iterator<Tuple2<Object, Row>> first, Iterator<Tuple2<Object, Row>> second) {
+        Comparator<Object> comparator = new ContextKeyComparator();
+        return new Iterator<Tuple2<Object, Row>>() {
+            private Tuple2<Object, Row> nextFirst;
+            private Tuple2<Object, Row> nextSecond;
+
+            @Override
+            public boolean hasNext() {
+                if (nextFirst == null && first.hasNext()) {
+                    nextFirst = first.next();
+                }
+                if (nextSecond == null && second.hasNext()) {
+                    nextSecond = second.next();
+                }
+                return nextFirst != null || nextSecond != null;
+            }
+
+            @Override
+            public Tuple2<Object, Row> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple2<Object, Row> retVal;
+                if (nextSecond == null || (nextFirst != null && comparator.compare(nextFirst._1(), nextSecond._1()) <= 0)) {
+                    retVal = nextFirst;
+                    nextFirst = null;
+                }
+                else {
+                    retVal = nextSecond;
+                    nextSecond = null;
+                }
+                return retVal;
+            }
+        };
+    }
+
+    /**
+     * Groups a partition of rows that is sorted by context value into one list
+     * of rows per context value. Only the rows of the current context value are
+     * held in memory.
+     *
+     * @param sortedRows Rows sorted by context value
+     * @return The rows of each context value of the partition
+     */
+    private static Iterator<Tuple2<Object, List<Row>>> groupSortedPartition(Iterator<Tuple2<Object, Row>> sortedRows) {
+        SortedContextIterator contexts = new SortedContextIterator(sortedRows, () -> new SpillableRowBuffer(Integer.MAX_VALUE, null, null));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(contexts, Spliterator.ORDERED), false)
+                .map(context -> {
+                    List<Row> rows = new ArrayList<>();
+                    context._2().forEach(rows::add);
+                    return new Tuple2<Object, List<Row>>(context._1(), rows);
+                })
+                .iterator();
+    }
+
     /**
      * Given a set of rows that are indexed by context value, reorganize the data so
      * that all rows related to the same context are grouped into a single pair.
      *
      * @param allData Rows mapped from context value to a single data row.
+     * @param partitioner The {@link Partitioner} used to distribute the grouped
+     *                    data or null to use the default partitioner.
      * @return A single {@link JavaPairRDD} mapping context value to
      *         the list of all data for that context.
      */
-    private JavaPairRDD<Object, List<Row>> groupPairRDDs(JavaPairRDD<Object, Row> allData) {
+    private JavaPairRDD<Object, List<Row>> groupPairRDDs(JavaPairRDD<Object, Row> allData, Partitioner partitioner) {
         // Regroup data by context ID so that all input data for the same
         // context is represented as a single key mapped to a list of rows
-        return allData.combineByKey(
-                (val) -> {
-                    List<Row> retVal = new ArrayList<>();
-                    retVal.add(val);
-                    return retVal;
-                },
-                (list, val) -> {
-                    list.add(val);
-                    return list;
-                },
-                (list1, list2) -> {
-                    int numRows = list1.size() + list2.size();
-                    List<Row> retVal = new ArrayList<>(numRows);
-                    retVal.addAll(list1);
-                    retVal.addAll(list2);
-                    return retVal;
-                }
-        );
+        Function<Row, List<Row>> createCombiner = (val) -> {
+            List<Row> retVal = new ArrayList<>();
+            retVal.add(val);
+            return retVal;
+        };
+        Function2<List<Row>, Row, List<Row>> mergeValue = (list, val) -> {
+            list.add(val);
+            return list;
+        };
+        Function2<List<Row>, List<Row>, List<Row>> mergeCombiners = (list1, list2) -> {
+            int numRows = list1.size() + list2.size();
+            List<Row> retVal = new ArrayList<>(numRows);
+            retVal.addAll(list1);
+            retVal.addAll(list2);
+            return retVal;
+        };
+
+        return partitioner == null
+                ? allData.combineByKey(createCombiner, mergeValue, mergeCombiners)
+                : allData.combineByKey(createCombiner, mergeValue, mergeCombiners, partitioner);
     }
 
     /**
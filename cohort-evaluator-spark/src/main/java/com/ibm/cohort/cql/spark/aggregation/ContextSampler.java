@@ -0,0 +1,111 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.io.Serializable;
+
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.functions;
+
+/**
+ * Selects a deterministic subset of the context values of an aggregation
+ * context. Context values are ranked by a seeded 64-bit hash of the value, so
+ * repeated runs over the same data select the same context values and every
+ * context value selected by a smaller sample is also selected by a larger one.
+ *
+ * The sample is applied to the primary datatype before any related datatype is
+ * joined, so the joins discard the related rows of the context values that were
+ * not selected before the data is grouped by context value.
+ */
+public class ContextSampler implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of hash buckets used to select a fraction of the context values.
+     */
+    static final long HASH_BUCKETS = 1L << 32;
+
+    private static final String SAMPLE_KEY = "__SAMPLE_KEY";
+    private static final String SAMPLE_HASH = "__SAMPLE_HASH";
+
+    private final Double fraction;
+    private final Integer size;
+    private final long seed;
+
+    /**
+     * @param fraction Fraction of context values, greater than 0 and no more
+     *                 than 1, that are selected or null to select a fixed number
+     *                 of context values
+     * @param size     Number of context values that are selected or null to
+     *                 select a fraction of the context values
+     * @param seed     Seed of the hash that ranks the context values
+     */
+    public ContextSampler(Double fraction, Integer size, long seed) {
+        if ((fraction == null) == (size == null)) {
+            throw new IllegalArgumentException("Exactly one of a sample fraction or a sample size must be provided");
+        }
+        if (fraction != null && (fraction <= 0 || fraction > 1)) {
+            throw new IllegalArgumentException("Sample fraction must be greater than 0 and no more than 1");
+        }
+        if (size != null && size <= 0) {
+            throw new IllegalArgumentException("Sample size must be greater than 0");
+        }
+        this.fraction = fraction;
+        this.size = size;
+        this.seed = seed;
+    }
+
+    /**
+     * Keep only the rows of the sampled context values. When a fixed number
+     * of context values is selected, a Spark job is run over the distinct
+     * context values to find the values with the lowest hash.
+     *
+     * @param primaryDataset Rows of the primary datatype of a context
+     * @param keyColumn      Column of the primary datatype that holds the
+     *                       context value
+     * @return rows of the primary datatype for the sampled context values
+     */
+    public Dataset<Row> sample(Dataset<Row> primaryDataset, String keyColumn) {
+        Dataset<Row> result;
+        if (fraction != null) {
+            Column bucket = functions.pmod(hash(primaryDataset.col(keyColumn)), functions.lit(HASH_BUCKETS));
+            result = primaryDataset.filter(bucket.lt(functions.lit((long) (fraction * HASH_BUCKETS))));
+        }
+        else {
+            Dataset<Row> keys = primaryDataset.select(primaryDataset.col(keyColumn).as(SAMPLE_KEY))
+                    .distinct();
+            keys = keys.withColumn(SAMPLE_HASH, hash(keys.col(SAMPLE_KEY)))
+                    .orderBy(functions.col(SAMPLE_HASH), functions.col(SAMPLE_KEY))
+                    .limit(size)
+                    .select(SAMPLE_KEY);
+
+            // The keys are derived from the primary dataset, so the join criteria
+            // refer to the columns by name to avoid an ambiguous self join
+            Column joinCriteria = functions.col(keyColumn).equalTo(functions.col(SAMPLE_KEY));
+            result = primaryDataset.join(keys, joinCriteria, "left_semi");
+        }
+        return result;
+    }
+
+    private Column hash(Column contextValue) {
+        return functions.xxhash64(functions.lit(seed), contextValue);
+    }
+
+    public Double getFraction() {
+        return fraction;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
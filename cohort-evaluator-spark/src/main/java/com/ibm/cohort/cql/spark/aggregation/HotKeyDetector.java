@@ -0,0 +1,149 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.sql.Row;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.util.StatCounter;
+
+import com.ibm.cohort.cql.spark.metadata.ContextSkewStatistics;
+
+import scala.Tuple2;
+
+/**
+ * Samples the context value frequencies of the joined input data for an
+ * aggregation context and identifies the hot context values that own a
+ * disproportionate share of the rows. A context value is considered hot when
+ * its sampled row count is at least <code>hotKeyFactor</code> times the mean
+ * sampled row count per context value.
+ */
+public class HotKeyDetector implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Result of a hot key detection pass.
+     */
+    public static class Result {
+        private final List<Object> hotKeys;
+        private final ContextSkewStatistics statistics;
+
+        public Result(List<Object> hotKeys, ContextSkewStatistics statistics) {
+            this.hotKeys = hotKeys;
+            this.statistics = statistics;
+        }
+
+        /**
+         * @return hot context values ordered from most to least rows
+         */
+        public List<Object> getHotKeys() {
+            return hotKeys;
+        }
+
+        public ContextSkewStatistics getStatistics() {
+            return statistics;
+        }
+    }
+
+    private final double sampleFraction;
+    private final double hotKeyFactor;
+    private final int maxHotKeys;
+    private final long seed;
+
+    /**
+     * @param sampleFraction Fraction of rows, between 0 and 1, that are sampled
+     * @param hotKeyFactor   Multiple of the mean sampled rows per context at
+     *                       which a context is considered hot
+     * @param maxHotKeys     Maximum number of hot contexts that are reported
+     * @param seed           Random seed used for sampling
+     */
+    public HotKeyDetector(double sampleFraction, double hotKeyFactor, int maxHotKeys, long seed) {
+        if (sampleFraction <= 0 || sampleFraction > 1) {
+            throw new IllegalArgumentException("Sample fraction must be greater than 0 and no more than 1");
+        }
+        this.sampleFraction = sampleFraction;
+        this.hotKeyFactor = hotKeyFactor;
+        this.maxHotKeys = maxHotKeys;
+        this.seed = seed;
+    }
+
+    /**
+     * Sample the context value frequencies of the provided data. This runs a
+     * Spark job over the data, so data that is used again afterwards should be
+     * persisted by the caller.
+     *
+     * @param allData Rows mapped from context value to a single data row.
+     * @return hot context values and the sampled skew statistics
+     */
+    public Result detect(JavaPairRDD<Object, Row> allData) {
+        JavaPairRDD<Object, Long> sampledCounts = allData
+                .sample(false, sampleFraction, seed)
+                .mapToPair(tuple2 -> new Tuple2<>(tuple2._1(), 1L))
+                .reduceByKey(Long::sum)
+                .persist(StorageLevel.MEMORY_AND_DISK());
+
+        try {
+            StatCounter stats = sampledCounts.mapToDouble(tuple2 -> tuple2._2().doubleValue()).stats();
+
+            ContextSkewStatistics statistics = new ContextSkewStatistics();
+            statistics.setSampleFraction(sampleFraction);
+            statistics.setSampledContexts(stats.count());
+            statistics.setPartitions(allData.getNumPartitions());
+
+            List<Object> hotKeys = Collections.emptyList();
+            if (stats.count() > 0) {
+                long threshold = (long) Math.ceil(stats.mean() * hotKeyFactor);
+                statistics.setSampledRows((long) stats.sum());
+                statistics.setSampledMeanRowsPerContext(stats.mean());
+                statistics.setEstimatedMaxRowsPerContext(estimate(stats.max()));
+                statistics.setSkewRatio(stats.max() / stats.mean());
+                statistics.setHotContextThreshold(threshold);
+
+                List<Tuple2<Object, Long>> hotCounts = new ArrayList<>();
+                if (maxHotKeys > 0) {
+                    hotCounts = sampledCounts
+                            .filter(tuple2 -> tuple2._2() >= threshold)
+                            .takeOrdered(maxHotKeys, new SampledCountComparator());
+                }
+
+                hotKeys = hotCounts.stream().map(Tuple2::_1).collect(Collectors.toList());
+                statistics.setHotContexts(hotKeys.size());
+                statistics.setEstimatedHotContextRows(estimate(hotCounts.stream().mapToLong(Tuple2::_2).sum()));
+                statistics.setHotContextValues(hotKeys.stream().map(String::valueOf).collect(Collectors.toList()));
+            }
+
+            return new Result(hotKeys, statistics);
+        } finally {
+            sampledCounts.unpersist(false);
+        }
+    }
+
+    private long estimate(double sampledRows) {
+        return Math.round(sampledRows / sampleFraction);
+    }
+
+    /**
+     * Orders sampled counts from largest to smallest. The comparator is public
+     * so that it can be registered with Kryo, which serializes it as part of the
+     * partial results of takeOrdered.
+     */
+    public static class SampledCountComparator implements Comparator<Tuple2<Object, Long>>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int compare(Tuple2<Object, Long> o1, Tuple2<Object, Long> o2) {
+            return Long.compare(o2._2(), o1._2());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.Metadata;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.cohort.cql.spark.data.FileRowReader;
+import com.ibm.cohort.cql.spark.data.MetadataUtils;
+import com.ibm.cohort.cql.util.StringMatcher;
+
+import scala.Tuple2;
+
+/**
+ * Handles the retrieval and organization of context data in a single JVM
+ * without Spark.
+ *
+ * The rows of every datatype of a context are read into memory, joined to the
+ * primary datatype with hash lookups, and grouped by context value. The rows
+ * have the same columns, including the {@value ContextRetriever#SOURCE_FACT_IDX}
+ * and {@value ContextRetriever#JOIN_CONTEXT_VALUE_IDX} columns, as the rows
+ * produced by {@link ContextRetriever}, so they can be evaluated the same way.
+ */
+public class LocalContextRetriever {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalContextRetriever.class);
+
+    private final Map<String, String> inputPaths;
+    private final FileRowReader rowReader;
+    private final Map<String, Set<StringMatcher>> columnFilters;
+
+    /**
+     * @param inputPaths A mapping from datatype to Hadoop compatible path
+     * @param rowReader Reader used to read the rows of each datatype
+     * @param columnFilters The columns that are read for each datatype or null
+     *                      to read every column of every datatype. Datatypes that
+     *                      have no columns are not read.
+     */
+    public LocalContextRetriever(Map<String, String> inputPaths, FileRowReader rowReader, Map<String, Set<StringMatcher>> columnFilters) {
+        this.inputPaths = inputPaths;
+        this.rowReader = rowReader;
+        this.columnFilters = columnFilters;
+    }
+
+    /**
+     * Retrieves, joins, and organizes all data for a {@link ContextDefinition}.
+     *
+     * @param contextDefinition The {@link ContextDefinition} to process
+     * @return The rows of each context value in the order the context values
+     *         were first read
+     * @throws Exception if the data cannot be read
+     */
+    public List<Tuple2<Object, List<Row>>> retrieveContext(ContextDefinition contextDefinition) throws Exception {
+        String primaryKeyColumn = contextDefinition.getPrimaryKeyColumn();
+        List<Row> primaryRows = readDataset(contextDefinition.getPrimaryDataType());
+        if (primaryRows == null) {
+            throw new IllegalStateException("Provided context " + contextDefinition.getName() + " did not read its primary datatype");
+        }
+
+        List<Join> joins = contextDefinition.getRelationships() == null
+                ? Collections.emptyList()
+                : contextDefinition.getRelationships();
+
+        List<Tuple2<Object, List<Row>>> retVal = new ArrayList<>();
+        if (joins.isEmpty()) {
+            // If no actual relationships are defined, then create a
+            // single record context for the primary row.
+            for (Row row : primaryRows) {
+                retVal.add(new Tuple2<>(row.getAs(primaryKeyColumn), Collections.singletonList(row)));
+            }
+            return retVal;
+        }
+
+        Map<Object, List<Row>> rowsByContext = new LinkedHashMap<>();
+        for (Row row : primaryRows) {
+            rowsByContext.computeIfAbsent(row.getAs(primaryKeyColumn), x -> new ArrayList<>()).add(row);
+        }
+
+        StructField primaryKeyField = primaryRows.isEmpty() ? null : primaryRows.get(0).schema().apply(primaryKeyColumn);
+        for (Join join : joins) {
+            String primaryJoinColumn = join.getPrimaryDataTypeColumn() == null
+                    ? primaryKeyColumn
+                    : join.getPrimaryDataTypeColumn();
+            String relatedDataType = join.getRelatedDataType();
+            List<Row> relatedRows = readDataset(relatedDataType);
+            if (relatedRows == null) {
+                LOG.info("No data was read for context {}, datatype {}. This happens natually when CQL-based column filtering is enabled and no data is required from the specified datatype.", contextDefinition.getName(), relatedDataType);
+                continue;
+            }
+            if (primaryKeyField == null || relatedRows.isEmpty()) {
+                continue;
+            }
+
+            Map<Object, List<Row>> relatedByKey = indexRows(relatedRows, join.getRelatedKeyColumn());
+            StructType joinedSchema = relatedRows.get(0).schema()
+                    .add(ContextRetriever.JOIN_CONTEXT_VALUE_IDX, primaryKeyField.dataType(), primaryKeyField.nullable());
+
+            if (join.getClass() == OneToMany.class) {
+                for (Row primaryRow : primaryRows) {
+                    Object contextValue = primaryRow.getAs(primaryKeyColumn);
+                    addJoinedRows(rowsByContext, contextValue, relatedByKey.get(joinKey(primaryRow.getAs(primaryJoinColumn))), joinedSchema);
+                }
+            } else if (join.getClass() == ManyToMany.class) {
+                ManyToMany manyToMany = (ManyToMany) join;
+                List<Row> assocRows = readDataset(manyToMany.getAssociationDataType());
+                if (assocRows == null) {
+                    continue;
+                }
+                Map<Object, List<Row>> assocByKey = indexRows(assocRows, manyToMany.getAssociationOneKeyColumn());
+                String assocRelatedColumnName = manyToMany.getAssociationManyKeyColumn();
+
+                for (Row primaryRow : primaryRows) {
+                    Object contextValue = primaryRow.getAs(primaryKeyColumn);
+                    List<Row> matchingAssocRows = assocByKey.get(joinKey(primaryRow.getAs(primaryJoinColumn)));
+                    if (matchingAssocRows != null) {
+                        for (Row assocRow : matchingAssocRows) {
+                            addJoinedRows(rowsByContext, contextValue, relatedByKey.get(joinKey(assocRow.getAs(assocRelatedColumnName))), joinedSchema);
+                        }
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Unexpected Join Type: " + join.getClass().getName());
+            }
+        }
+
+        rowsByContext.forEach((contextValue, rows) -> retVal.add(new Tuple2<>(contextValue, rows)));
+        return retVal;
+    }
+
+    private void addJoinedRows(Map<Object, List<Row>> rowsByContext, Object contextValue, Collection<Row> relatedRows, StructType joinedSchema) {
+        if (relatedRows != null) {
+            List<Row> contextRows = rowsByContext.get(contextValue);
+            for (Row relatedRow : relatedRows) {
+                contextRows.add(withColumn(relatedRow, contextValue, joinedSchema));
+            }
+        }
+    }
+
+    /**
+     * Index rows by the value of a join column. Rows with a null value never
+     * match a join and are not indexed.
+     */
+    private Map<Object, List<Row>> indexRows(List<Row> rows, String column) {
+        Map<Object, List<Row>> result = new HashMap<>();
+        for (Row row : rows) {
+            Object key = joinKey(row.getAs(column));
+            if (key != null) {
+                result.computeIfAbsent(key, x -> new ArrayList<>()).add(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Integral join values are compared as longs so that columns of different
+     * integral types join the same way they do in Spark.
+     */
+    private Object joinKey(Object value) {
+        return (value instanceof Byte || value instanceof Short || value instanceof Integer)
+                ? Long.valueOf(((Number) value).longValue())
+                : value;
+    }
+
+    private Row withColumn(Row row, Object value, StructType schema) {
+        Object[] values = new Object[row.length() + 1];
+        for (int i = 0; i < row.length(); i++) {
+            values[i] = row.get(i);
+        }
+        values[row.length()] = value;
+        return new GenericRowWithSchema(values, schema);
+    }
+
+    /**
+     * Reads the rows for the specified datatype. Adds the special
+     * {@value ContextRetriever#SOURCE_FACT_IDX} column to track what
+     * datatype a particular {@link Row} came from.
+     *
+     * @param dataType The datatype to read.
+     * @return The rows of the datatype or null if no columns of the datatype are needed
+     * @throws Exception if the data cannot be read
+     */
+    private List<Row> readDataset(String dataType) throws Exception {
+        String path = inputPaths.get(dataType);
+        if (path == null) {
+            throw new IllegalArgumentException(String.format("No path mapping found for datatype %s", dataType));
+        }
+
+        Collection<StringMatcher> columnNameMatchers = (columnFilters != null) ? columnFilters.get(dataType) : null;
+        if (columnFilters != null && CollectionUtils.isEmpty(columnNameMatchers)) {
+            return null;
+        }
+
+        StructType schema = rowReader.readSchema(path);
+        if (columnNameMatchers != null) {
+            schema = filterColumns(schema, columnNameMatchers);
+        }
+        LOG.info("Reading dataset {} from {} with columns {}", dataType, path, Arrays.toString(schema.fieldNames()));
+
+        StructType schemaWithSource = schema.add(ContextRetriever.SOURCE_FACT_IDX, DataTypes.StringType, false);
+        List<Row> rows = rowReader.read(path, schema);
+        List<Row> result = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            result.add(withColumn(row, dataType, schemaWithSource));
+        }
+        return result;
+    }
+
+    /**
+     * Keep the columns that match a column name filter along with the system and
+     * display columns of any matching code column.
+     */
+    private StructType filterColumns(StructType schema, Collection<StringMatcher> columnNameMatchers) {
+        Set<String> columnNames = new LinkedHashSet<>();
+        for (StringMatcher colNameMatcher : columnNameMatchers) {
+            for (String fieldName : schema.fieldNames()) {
+                if (colNameMatcher.test(fieldName)) {
+                    columnNames.add(fieldName);
+
+                    Metadata metadata = MetadataUtils.getColumnMetadata(schema, fieldName);
+                    if (metadata != null && MetadataUtils.isCodeCol(metadata)) {
+                        String systemCol = MetadataUtils.getSystemCol(metadata);
+                        if (systemCol != null) {
+                            columnNames.add(systemCol);
+                        }
+
+                        String displayCol = MetadataUtils.getDisplayCol(metadata);
+                        if (displayCol != null) {
+                            columnNames.add(displayCol);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<StructField> fields = new ArrayList<>();
+        for (String columnName : columnNames) {
+            fields.add(schema.apply(columnName));
+        }
+        return DataTypes.createStructType(fields);
+    }
+}
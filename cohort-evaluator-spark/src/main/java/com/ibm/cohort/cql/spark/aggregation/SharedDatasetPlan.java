@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Plan for sharing input datasets between the aggregation contexts of a single
+ * run. A datatype is shared when it is read by more than one of the planned
+ * contexts, whether as the primary datatype, a related datatype, or the
+ * association datatype of a {@link ManyToMany} join.
+ */
+public class SharedDatasetPlan {
+
+    private final Map<String, Set<String>> dataTypesByContext = new LinkedHashMap<>();
+    private final Map<String, Integer> usesByDataType = new LinkedHashMap<>();
+
+    /**
+     * @param contextDefinitions Contexts that will be evaluated, in evaluation
+     *                           order
+     */
+    public SharedDatasetPlan(List<ContextDefinition> contextDefinitions) {
+        for (ContextDefinition contextDefinition : contextDefinitions) {
+            Set<String> dataTypes = getDataTypes(contextDefinition);
+            dataTypesByContext.put(contextDefinition.getName(), dataTypes);
+            for (String dataType : dataTypes) {
+                usesByDataType.merge(dataType, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * @param contextDefinition Context definition
+     * @return every datatype that is read for the context
+     */
+    public static Set<String> getDataTypes(ContextDefinition contextDefinition) {
+        Set<String> dataTypes = new LinkedHashSet<>();
+        dataTypes.add(contextDefinition.getPrimaryDataType());
+        if (contextDefinition.getRelationships() != null) {
+            for (Join join : contextDefinition.getRelationships()) {
+                dataTypes.add(join.getRelatedDataType());
+                if (join instanceof ManyToMany) {
+                    dataTypes.add(((ManyToMany) join).getAssociationDataType());
+                }
+            }
+        }
+        return dataTypes;
+    }
+
+    /**
+     * @return number of planned contexts that use each shared datatype
+     */
+    public Map<String, Integer> getSharedDataTypeUses() {
+        return usesByDataType.entrySet().stream()
+                .filter(e -> e.getValue() > 1)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * @param contextName Name of a planned context
+     * @return shared datatypes that are used by the context
+     */
+    public Set<String> getSharedDataTypes(String contextName) {
+        Set<String> dataTypes = dataTypesByContext.getOrDefault(contextName, Collections.emptySet());
+        return dataTypes.stream()
+                .filter(dt -> usesByDataType.get(dt) > 1)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * @return true if at least one datatype is used by more than one context
+     */
+    public boolean hasSharedDataTypes() {
+        return usesByDataType.values().stream().anyMatch(uses -> uses > 1);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.spark.Partitioner;
+
+/**
+ * Partitions context values by hash code except for a set of known hot
+ * context values, each of which is routed to a dedicated partition. This
+ * keeps a context that owns a very large share of the data from sharing a
+ * task with the many other contexts that would normally hash to the same
+ * partition.
+ *
+ * Partitions <code>0</code> through <code>basePartitions - 1</code> hold the
+ * hash-partitioned contexts. The hot contexts are assigned the partitions that
+ * follow in the order they were provided.
+ */
+public class SkewAwarePartitioner extends Partitioner {
+    private static final long serialVersionUID = 1L;
+
+    private final int basePartitions;
+    private final Map<Object, Integer> hotKeyPartitions;
+
+    /**
+     * @param basePartitions Number of partitions used for non-hot contexts
+     * @param hotKeys        Context values that should receive dedicated
+     *                       partitions
+     */
+    public SkewAwarePartitioner(int basePartitions, Collection<?> hotKeys) {
+        if (basePartitions <= 0) {
+            throw new IllegalArgumentException("Number of base partitions must be positive");
+        }
+        this.basePartitions = basePartitions;
+
+        this.hotKeyPartitions = new HashMap<>();
+        for (Object hotKey : hotKeys) {
+            hotKeyPartitions.putIfAbsent(hotKey, basePartitions + hotKeyPartitions.size());
+        }
+    }
+
+    @Override
+    public int numPartitions() {
+        return basePartitions + hotKeyPartitions.size();
+    }
+
+    @Override
+    public int getPartition(Object key) {
+        Integer hotPartition = hotKeyPartitions.get(key);
+        if (hotPartition != null) {
+            return hotPartition;
+        }
+        else if (key == null) {
+            return 0;
+        }
+        int mod = key.hashCode() % basePartitions;
+        return mod < 0 ? mod + basePartitions : mod;
+    }
+
+    public int getBasePartitions() {
+        return basePartitions;
+    }
+
+    public int getHotPartitions() {
+        return hotKeyPartitions.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SkewAwarePartitioner that = (SkewAwarePartitioner) o;
+        return basePartitions == that.basePartitions && hotKeyPartitions.equals(that.hotKeyPartitions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(basePartitions, hotKeyPartitions);
+    }
+}
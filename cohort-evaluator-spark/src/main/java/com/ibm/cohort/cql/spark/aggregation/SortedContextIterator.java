@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.apache.spark.SparkEnv;
+import org.apache.spark.TaskContext;
+import org.apache.spark.serializer.SerializerInstance;
+import org.apache.spark.sql.Row;
+import org.apache.spark.util.TaskCompletionListener;
+import org.apache.spark.util.Utils;
+
+import scala.Tuple2;
+
+/**
+ * Groups a partition of rows that are sorted by context value into one
+ * element per context value. The rows for each context value are collected
+ * into a {@link SpillableRowBuffer}, so that a single very large context does
+ * not need to fit into executor memory.
+ *
+ * The buffer returned for a context value is only valid until the next call
+ * to {@link #next()} at which point it is closed and its resources released.
+ * The last buffer is closed when the iterator is exhausted or closed.
+ */
+public class SortedContextIterator implements Iterator<Tuple2<Object, Iterable<Row>>>, Closeable {
+    private final Iterator<Tuple2<Object, Row>> sortedRows;
+    private final Supplier<SpillableRowBuffer> bufferFactory;
+
+    private Tuple2<Object, Row> pending;
+    private SpillableRowBuffer current;
+
+    /**
+     * @param sortedRows    Rows keyed by context value where all rows for a context
+     *                      value are contiguous
+     * @param bufferFactory Factory for the per-context row buffers
+     */
+    public SortedContextIterator(Iterator<Tuple2<Object, Row>> sortedRows, Supplier<SpillableRowBuffer> bufferFactory) {
+        this.sortedRows = sortedRows;
+        this.bufferFactory = bufferFactory;
+    }
+
+    /**
+     * Create an iterator for a partition of a Spark task that buffers the rows
+     * beyond the spill threshold for a single context in one of the Spark local
+     * directories using the Spark serializer. The iterator is closed when the
+     * task completes, so the spill file of the current context is removed even
+     * if the task fails or does not consume the whole partition.
+     *
+     * @param sortedRows     Rows keyed by context value where all rows for a
+     *                       context value are contiguous
+     * @param spillThreshold Maximum number of rows per context that are held in
+     *                       memory
+     * @return iterator of context value to the rows for that context
+     */
+    public static SortedContextIterator spilling(Iterator<Tuple2<Object, Row>> sortedRows, int spillThreshold) {
+        SparkEnv env = SparkEnv.get();
+        SerializerInstance serializer = env.serializer().newInstance();
+        File spillDirectory = new File(Utils.getLocalDir(env.conf()));
+        SortedContextIterator iterator = new SortedContextIterator(sortedRows, () -> new SpillableRowBuffer(spillThreshold, serializer, spillDirectory));
+
+        TaskContext taskContext = TaskContext.get();
+        if (taskContext != null) {
+            taskContext.addTaskCompletionListener((TaskCompletionListener) context -> iterator.close());
+        }
+        return iterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null && sortedRows.hasNext()) {
+            pending = sortedRows.next();
+        }
+
+        boolean hasNext = pending != null;
+        if (!hasNext) {
+            closeCurrent();
+        }
+        return hasNext;
+    }
+
+    @Override
+    public Tuple2<Object, Iterable<Row>> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        closeCurrent();
+
+        Object contextValue = pending._1();
+        current = bufferFactory.get();
+        current.add(pending._2());
+        pending = null;
+
+        while (sortedRows.hasNext()) {
+            Tuple2<Object, Row> next = sortedRows.next();
+            if (Objects.equals(contextValue, next._1())) {
+                current.add(next._2());
+            }
+            else {
+                pending = next;
+                break;
+            }
+        }
+
+        return new Tuple2<>(contextValue, current);
+    }
+
+    @Override
+    public void close() {
+        closeCurrent();
+    }
+
+    private void closeCurrent() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
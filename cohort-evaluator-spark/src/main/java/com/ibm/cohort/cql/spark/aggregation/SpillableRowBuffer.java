@@ -0,0 +1,234 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.spark.serializer.DeserializationStream;
+import org.apache.spark.serializer.SerializationStream;
+import org.apache.spark.serializer.SerializerInstance;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.StructType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import scala.Option;
+import scala.collection.JavaConverters;
+import scala.reflect.ClassTag;
+import scala.reflect.ClassTag$;
+
+/**
+ * Buffers the rows for a single context value. Rows are held in memory until
+ * the configured spill threshold is reached. Any additional rows are written to
+ * a temporary file on local disk using the provided Spark serializer.
+ *
+ * The buffer can be iterated any number of times once all rows have been
+ * added. Iterating a spilled buffer replays the in-memory rows and then reads
+ * the remaining rows back from disk, so every iteration deserializes the
+ * spilled rows again. The reader of an iteration is closed as soon as the
+ * iteration is exhausted, and the temporary file is removed when the buffer is
+ * closed. Buffers that are used by a Spark task should be closed by a task
+ * completion listener, so the file is also removed when the task fails.
+ *
+ * The number of rows of each source datatype, which is read from the
+ * {@value ContextRetriever#SOURCE_FACT_IDX} column of the rows, is recorded as
+ * the rows are added, so the datatypes of a spilled context are known without
+ * reading the spilled rows again.
+ */
+public class SpillableRowBuffer implements Iterable<Row>, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SpillableRowBuffer.class);
+
+    private static final ClassTag<Row> ROW_TAG = ClassTag$.MODULE$.apply(Row.class);
+
+    private final int spillThreshold;
+    private final SerializerInstance serializer;
+    private final File spillDirectory;
+
+    private final List<Row> memoryRows = new ArrayList<>();
+    private final List<DeserializationStream> openReaders = new ArrayList<>();
+    private final Map<String, Integer> dataTypeCounts = new LinkedHashMap<>();
+
+    private File spillFile;
+    private SerializationStream spillStream;
+    private long spilledRows = 0;
+
+    /**
+     * @param spillThreshold  Number of rows held in memory before rows are spilled
+     *                        to disk
+     * @param serializer      Spark serializer used to write spilled rows
+     * @param spillDirectory  Directory for the temporary spill file, e.g. one of
+     *                        the Spark local directories. If null, the default
+     *                        temporary-file directory is used.
+     */
+    public SpillableRowBuffer(int spillThreshold, SerializerInstance serializer, File spillDirectory) {
+        this.spillThreshold = spillThreshold;
+        this.serializer = serializer;
+        this.spillDirectory = spillDirectory;
+    }
+
+    public void add(Row row) {
+        String dataType = getDataType(row);
+        if (dataType != null) {
+            dataTypeCounts.merge(dataType, 1, Integer::sum);
+        }
+
+        if (memoryRows.size() < spillThreshold) {
+            memoryRows.add(row);
+        }
+        else {
+            try {
+                if (spillStream == null) {
+                    spillFile = File.createTempFile("cohort-context-", ".spill", spillDirectory);
+                    LOG.debug("Context exceeded {} rows. Spilling to {}", spillThreshold, spillFile);
+                    spillStream = serializer.serializeStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+                }
+                spillStream.writeObject(row, ROW_TAG);
+                spilledRows++;
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to spill context rows to disk", ex);
+            }
+        }
+    }
+
+    /**
+     * @return total number of rows in the buffer
+     */
+    public long size() {
+        return memoryRows.size() + spilledRows;
+    }
+
+    /**
+     * @return number of rows of each source datatype in the order the
+     *         datatypes were first added
+     */
+    public Map<String, Integer> getDataTypeCounts() {
+        return Collections.unmodifiableMap(dataTypeCounts);
+    }
+
+    /**
+     * Read the source datatype of a row without converting the row.
+     *
+     * @param row Context row
+     * @return value of the {@value ContextRetriever#SOURCE_FACT_IDX} column or
+     *         null if the row does not have the column
+     */
+    public static String getDataType(Row row) {
+        String result = null;
+        StructType schema = row.schema();
+        if (schema != null) {
+            Option<Object> index = schema.getFieldIndex(ContextRetriever.SOURCE_FACT_IDX);
+            if (index.isDefined()) {
+                result = (String) row.get((Integer) index.get());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if one or more rows were written to disk
+     */
+    public boolean isSpilled() {
+        return spilledRows > 0;
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        if (!isSpilled()) {
+            return Collections.unmodifiableList(memoryRows).iterator();
+        }
+
+        spillStream.flush();
+        DeserializationStream reader;
+        try {
+            reader = serializer.deserializeStream(new BufferedInputStream(new FileInputStream(spillFile)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to read spilled context rows", ex);
+        }
+        openReaders.add(reader);
+
+        return new SpilledRowIterator(reader);
+    }
+
+    /**
+     * Iterates the in-memory rows followed by the spilled rows. The reader is
+     * closed when the iteration is exhausted, or when the iterator is closed by
+     * a caller that stops before the end of the rows.
+     */
+    private class SpilledRowIterator implements Iterator<Row>, Closeable {
+        private final DeserializationStream reader;
+        private final Iterator<Row> memoryIterator = memoryRows.iterator();
+        private final Iterator<Object> spillIterator;
+
+        SpilledRowIterator(DeserializationStream reader) {
+            this.reader = reader;
+            this.spillIterator = JavaConverters.asJavaIterator(reader.asIterator());
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = memoryIterator.hasNext() || spillIterator.hasNext();
+            if (!hasNext) {
+                close();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public Row next() {
+            return memoryIterator.hasNext() ? memoryIterator.next() : (Row) spillIterator.next();
+        }
+
+        @Override
+        public void close() {
+            if (openReaders.remove(reader)) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * @return number of iterations of the spilled rows that have not been
+     *         exhausted yet
+     */
+    public int getOpenReaderCount() {
+        return openReaders.size();
+    }
+
+    @Override
+    public void close() {
+        memoryRows.clear();
+        dataTypeCounts.clear();
+        for (DeserializationStream reader : openReaders) {
+            reader.close();
+        }
+        openReaders.clear();
+        if (spillStream != null) {
+            spillStream.close();
+            spillStream = null;
+        }
+        if (spillFile != null) {
+            if (!spillFile.delete()) {
+                LOG.warn("Failed to delete context spill file {}", spillFile);
+            }
+            spillFile = null;
+        }
+        spilledRows = 0;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.apache.spark.sql.Row;
+
+import com.ibm.cohort.datarow.engine.StreamingRows;
+import com.ibm.cohort.datarow.model.DataRow;
+
+/**
+ * The rows of a single datatype of a spilled context. Every iteration reads
+ * the buffer again, skips the rows of the other datatypes by reading their
+ * source datatype column directly, and only converts the rows of this
+ * datatype to data rows. None of the converted rows are kept, so the retrieve
+ * provider indexes these rows by position and {@link #select(int[])} only
+ * converts the rows at the requested positions.
+ */
+public class SpilledDataTypeRows implements StreamingRows {
+    private final SpillableRowBuffer buffer;
+    private final String dataType;
+    private final Function<Row, DataRow> dataRowFactory;
+
+    /**
+     * @param buffer         Spilled rows for a single context
+     * @param dataType       Datatype of the rows to return
+     * @param dataRowFactory Factory used to convert Spark rows to data rows
+     */
+    public SpilledDataTypeRows(SpillableRowBuffer buffer, String dataType, Function<Row, DataRow> dataRowFactory) {
+        this.buffer = buffer;
+        this.dataType = dataType;
+        this.dataRowFactory = dataRowFactory;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return select(null).iterator();
+    }
+
+    /**
+     * @param positions Positions of the rows of this datatype in ascending
+     *                  order or null to return every row of this datatype
+     */
+    @Override
+    public Iterable<Object> select(int[] positions) {
+        return () -> new Iterator<Object>() {
+            private final Iterator<Row> rows = buffer.iterator();
+            private int position = -1;
+            private int nextIndex = 0;
+            private Row current;
+            private Row next;
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) {
+                    return true;
+                }
+                if (positions != null && nextIndex >= positions.length) {
+                    // stop reading the buffer once every position was returned
+                    closeRows();
+                    return false;
+                }
+                // a repeated position selects the current row again
+                if (positions != null && nextIndex > 0 && current != null && positions[nextIndex] == position) {
+                    next = current;
+                    return true;
+                }
+                while (rows.hasNext()) {
+                    Row row = rows.next();
+                    if (dataType.equals(SpillableRowBuffer.getDataType(row))) {
+                        position++;
+                        if (positions == null || positions[nextIndex] == position) {
+                            current = row;
+                            next = row;
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+
+            private void closeRows() {
+                if (rows instanceof Closeable) {
+                    try {
+                        ((Closeable) rows).close();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Row row = next;
+                next = null;
+                if (positions != null) {
+                    nextIndex++;
+                }
+                return dataRowFactory.apply(row);
+            }
+        };
+    }
+}
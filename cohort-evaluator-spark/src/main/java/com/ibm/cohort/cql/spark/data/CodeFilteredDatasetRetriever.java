@@ -0,0 +1,104 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.functions;
+import org.apache.spark.sql.types.DataTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DatasetRetriever} that discards input rows that cannot be returned
+ * by any code-filtered CQL Retrieve. For each filtered datatype, a row is kept
+ * when the value of at least one of the datatype's code columns is in the set of
+ * codes retrieved for that column. Code values are compared as strings, which
+ * keeps every row that the retrieve provider could match on code and system.
+ *
+ * Small code sets are applied as an <code>isin</code> predicate so that they can
+ * be pushed down to the underlying data source. Larger code sets for a single
+ * code column are applied as a left semi join against a broadcast dataset of
+ * codes.
+ */
+public class CodeFilteredDatasetRetriever implements DatasetRetriever {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodeFilteredDatasetRetriever.class);
+
+    /**
+     * Largest code set that is applied as an <code>isin</code> predicate.
+     */
+    public static final int MAX_IN_LIST_CODES = 1000;
+
+    private static final String CODE_COLUMN = "__CODE";
+
+    private DatasetRetriever retriever;
+    private Map<String, Map<String, Set<String>>> codesByPathByDataType;
+
+    /**
+     * @param retriever             Retriever used to read the unfiltered data
+     * @param codesByPathByDataType Map of datatype to code column to the
+     *                              expanded set of codes that are retrieved from
+     *                              that column. Datatypes that are not present are
+     *                              not filtered.
+     */
+    public CodeFilteredDatasetRetriever(DatasetRetriever retriever, Map<String, Map<String, Set<String>>> codesByPathByDataType) {
+        this.retriever = retriever;
+        this.codesByPathByDataType = codesByPathByDataType;
+    }
+
+    @Override
+    public Dataset<Row> readDataset(String dataType, String path) {
+        Dataset<Row> result = retriever.readDataset(dataType, path);
+
+        Map<String, Set<String>> codesByPath = codesByPathByDataType.get(dataType);
+        if (result != null && codesByPath != null) {
+            Set<String> fieldNames = new HashSet<>(Arrays.asList(result.schema().fieldNames()));
+            if (!fieldNames.containsAll(codesByPath.keySet())) {
+                LOG.warn("Dataset {} is missing one or more code columns {}. Code filtering is disabled for this datatype.", dataType, codesByPath.keySet());
+            }
+            else {
+                LOG.info("Filtering dataset {} by codes in columns {}", dataType, codesByPath.keySet());
+                result = filter(result, codesByPath);
+            }
+        }
+
+        return result;
+    }
+
+    protected Dataset<Row> filter(Dataset<Row> dataset, Map<String, Set<String>> codesByPath) {
+        Dataset<Row> result;
+        if (codesByPath.size() == 1 && codesByPath.values().iterator().next().size() > MAX_IN_LIST_CODES) {
+            Map.Entry<String, Set<String>> entry = codesByPath.entrySet().iterator().next();
+            Dataset<Row> codes = dataset.sparkSession()
+                    .createDataset(new ArrayList<>(entry.getValue()), Encoders.STRING())
+                    .toDF(CODE_COLUMN);
+
+            Column joinCriteria = dataset.col(entry.getKey()).cast(DataTypes.StringType).equalTo(codes.col(CODE_COLUMN));
+            result = dataset.join(functions.broadcast(codes), joinCriteria, "left_semi");
+        }
+        else {
+            List<Column> predicates = new ArrayList<>();
+            for (Map.Entry<String, Set<String>> entry : codesByPath.entrySet()) {
+                predicates.add(dataset.col(entry.getKey()).cast(DataTypes.StringType).isin(entry.getValue().toArray()));
+            }
+
+            Column predicate = predicates.stream().reduce(Column::or).orElse(functions.lit(false));
+            result = dataset.filter(predicate);
+        }
+        return result;
+    }
+}
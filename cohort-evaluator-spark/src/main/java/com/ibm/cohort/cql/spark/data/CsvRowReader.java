@@ -0,0 +1,199 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
+import org.apache.spark.sql.types.BooleanType;
+import org.apache.spark.sql.types.ByteType;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.DateType;
+import org.apache.spark.sql.types.DecimalType;
+import org.apache.spark.sql.types.DoubleType;
+import org.apache.spark.sql.types.FloatType;
+import org.apache.spark.sql.types.IntegerType;
+import org.apache.spark.sql.types.LongType;
+import org.apache.spark.sql.types.ShortType;
+import org.apache.spark.sql.types.StringType;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.types.TimestampType;
+
+/**
+ * Reads CSV files into Spark {@link Row}s without a Spark session. Each file
+ * must start with a header row that names its columns.
+ *
+ * CSV files carry no types, so the columns of a dataset are typed with the
+ * schema that is provided for its path, which is usually derived from the
+ * model info of the data type. Columns that are not part of the provided
+ * schema are read as strings. Empty values are read as null, and dates and
+ * timestamps are parsed from the ISO-8601 formats that Spark writes.
+ */
+public class CsvRowReader extends FileRowReader {
+
+    private static final CSVFormat FORMAT = CSVFormat.DEFAULT.withFirstRecordAsHeader();
+
+    private final Map<String, StructType> schemasByPath;
+
+    /**
+     * @param configuration Hadoop configuration used to access the files
+     * @param executor      Executor used to read the files of a dataset in
+     *                      parallel or null to read them one at a time
+     * @param schemasByPath Column types of each dataset path. Datasets without
+     *                      a schema are read as strings.
+     */
+    public CsvRowReader(Configuration configuration, ExecutorService executor, Map<String, StructType> schemasByPath) {
+        super(configuration, executor);
+        this.schemasByPath = (schemasByPath != null) ? schemasByPath : Collections.emptyMap();
+    }
+
+    /**
+     * @param path CSV file or folder of CSV files
+     * @return the columns of the header of the first file of the dataset,
+     *         typed with the schema of the dataset
+     * @throws IOException if the dataset cannot be read
+     */
+    @Override
+    public StructType readSchema(String path) throws IOException {
+        StructType headerSchema = super.readSchema(path);
+        StructType typedSchema = schemasByPath.get(path);
+        if (typedSchema == null) {
+            return headerSchema;
+        }
+
+        List<String> typedColumns = Arrays.asList(typedSchema.fieldNames());
+        StructField[] fields = headerSchema.fields();
+        for (int i = 0; i < fields.length; i++) {
+            if (typedColumns.contains(fields[i].name())) {
+                fields[i] = typedSchema.apply(fields[i].name());
+            }
+        }
+        return new StructType(fields);
+    }
+
+    @Override
+    protected StructType readSchema(Path file) throws IOException {
+        try (CSVParser parser = openParser(file)) {
+            List<StructField> fields = new ArrayList<>();
+            for (String name : parser.getHeaderNames()) {
+                fields.add(DataTypes.createStructField(name, DataTypes.StringType, true));
+            }
+            return DataTypes.createStructType(fields);
+        }
+    }
+
+    @Override
+    protected List<Row> readFile(Path file, StructType schema) throws IOException {
+        StructField[] fields = schema.fields();
+
+        List<Row> result = new ArrayList<>();
+        try (CSVParser parser = openParser(file)) {
+            for (CSVRecord record : parser) {
+                Object[] values = new Object[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    String name = fields[i].name();
+                    if (record.isMapped(name) && record.isSet(name)) {
+                        values[i] = parseValue(record.get(name), fields[i].dataType());
+                    }
+                }
+                result.add(new GenericRowWithSchema(values, schema));
+            }
+        }
+        return result;
+    }
+
+    protected CSVParser openParser(Path file) throws IOException {
+        Reader reader = new InputStreamReader(file.getFileSystem(getConfiguration()).open(file), StandardCharsets.UTF_8);
+        try {
+            return FORMAT.parse(reader);
+        } catch (IOException | RuntimeException ex) {
+            reader.close();
+            throw ex;
+        }
+    }
+
+    protected Object parseValue(String value, DataType dataType) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+
+        Object result;
+        if (dataType instanceof StringType) {
+            result = value;
+        }
+        else if (dataType instanceof BooleanType) {
+            result = Boolean.parseBoolean(value.trim());
+        }
+        else if (dataType instanceof ByteType) {
+            result = Byte.parseByte(value.trim());
+        }
+        else if (dataType instanceof ShortType) {
+            result = Short.parseShort(value.trim());
+        }
+        else if (dataType instanceof IntegerType) {
+            result = Integer.parseInt(value.trim());
+        }
+        else if (dataType instanceof LongType) {
+            result = Long.parseLong(value.trim());
+        }
+        else if (dataType instanceof FloatType) {
+            result = Float.parseFloat(value.trim());
+        }
+        else if (dataType instanceof DoubleType) {
+            result = Double.parseDouble(value.trim());
+        }
+        else if (dataType instanceof DecimalType) {
+            result = new BigDecimal(value.trim());
+        }
+        else if (dataType instanceof DateType) {
+            result = java.sql.Date.valueOf(LocalDate.parse(value.trim()));
+        }
+        else if (dataType instanceof TimestampType) {
+            result = parseTimestamp(value.trim());
+        }
+        else {
+            throw new UnsupportedOperationException("Reading CSV columns of type " + dataType.simpleString() + " is not supported");
+        }
+        return result;
+    }
+
+    /**
+     * @param value Timestamp with an offset, which is the format that Spark
+     *              writes, or a local date and time in the default time zone
+     * @return the timestamp
+     */
+    protected Timestamp parseTimestamp(String value) {
+        try {
+            return Timestamp.from(OffsetDateTime.parse(value).toInstant());
+        } catch (DateTimeParseException ex) {
+            return Timestamp.valueOf(LocalDateTime.parse(value.replace(' ', 'T')));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.StructType;
+
+/**
+ * Reads the files of a dataset into Spark {@link Row}s without a Spark
+ * session. A dataset is either a single file or a folder of files, and the
+ * files of a folder are read in parallel when an executor is provided.
+ * Subclasses read the schema and the rows of a single file.
+ */
+public abstract class FileRowReader {
+
+    private final Configuration configuration;
+    private final ExecutorService executor;
+
+    /**
+     * @param configuration Hadoop configuration used to access the files
+     * @param executor      Executor used to read the files of a dataset in
+     *                      parallel or null to read them one at a time
+     */
+    protected FileRowReader(Configuration configuration, ExecutorService executor) {
+        this.configuration = configuration;
+        this.executor = executor;
+    }
+
+    protected Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @param path File or folder of files
+     * @return the Spark schema of the first file of the dataset
+     * @throws IOException if the dataset cannot be read
+     */
+    public StructType readSchema(String path) throws IOException {
+        List<Path> files = listFiles(path);
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No input files were found at " + path);
+        }
+        return readSchema(files.get(0));
+    }
+
+    /**
+     * Read every row of a dataset.
+     *
+     * @param path   File or folder of files
+     * @param schema Columns to read, which must be a subset of the columns of
+     *               the dataset. Columns that are missing from a file are null.
+     * @return rows of every file of the dataset in file name order
+     * @throws Exception if the dataset cannot be read
+     */
+    public List<Row> read(String path, StructType schema) throws Exception {
+        List<Path> files = listFiles(path);
+
+        List<Callable<List<Row>>> tasks = files.stream()
+                .<Callable<List<Row>>>map(file -> () -> readFile(file, schema))
+                .collect(Collectors.toList());
+
+        List<Row> result = new ArrayList<>();
+        if (executor != null) {
+            List<Future<List<Row>>> futures = new ArrayList<>();
+            for (Callable<List<Row>> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            try {
+                for (Future<List<Row>> future : futures) {
+                    result.addAll(future.get());
+                }
+            } catch (ExecutionException ex) {
+                futures.forEach(future -> future.cancel(true));
+                throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+            }
+        }
+        else {
+            for (Callable<List<Row>> task : tasks) {
+                result.addAll(task.call());
+            }
+        }
+        return result;
+    }
+
+    protected List<Path> listFiles(String pathString) throws IOException {
+        Path path = new Path(pathString);
+        FileSystem fileSystem = path.getFileSystem(configuration);
+
+        List<Path> result = new ArrayList<>();
+        if (fileSystem.getFileStatus(path).isDirectory()) {
+            for (FileStatus status : fileSystem.listStatus(path)) {
+                String name = status.getPath().getName();
+                if (status.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                    result.add(status.getPath());
+                }
+            }
+            result.sort(null);
+        }
+        else {
+            result.add(path);
+        }
+        return result;
+    }
+
+    /**
+     * @param file A single file of a dataset
+     * @return the Spark schema of the file
+     * @throws IOException if the file cannot be read
+     */
+    protected abstract StructType readSchema(Path file) throws IOException;
+
+    /**
+     * @param file   A single file of a dataset
+     * @param schema Columns to read
+     * @return rows of the file with the provided schema
+     * @throws IOException if the file cannot be read
+     */
+    protected abstract List<Row> readFile(Path file, StructType schema) throws IOException;
+}
@@ -0,0 +1,49 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import org.apache.spark.sql.Row;
+
+import com.ibm.cohort.datarow.model.ConversionCounter;
+import com.ibm.cohort.datarow.model.ValueSlots;
+
+/**
+ * SparkDataRow that converts each field value at most once. Converted values
+ * are kept in a {@link ValueSlots} array indexed by the ordinal of the field in
+ * the Spark schema, which is already resolved by the {@link SparkSchemaAccessor}.
+ *
+ * This is the Spark variant of
+ * {@link com.ibm.cohort.datarow.model.MemoizingDataRow}. It stays in the
+ * package of SparkDataRow so that the CQL engine maps it to the same data
+ * provider.
+ */
+public class MemoizingSparkDataRow extends SparkDataRow {
+
+    private final ValueSlots values;
+
+    /**
+     * @param accessor Precompiled accessor for the schema of the row
+     * @param sparkRow Spark row
+     * @param counter  Counter that tracks conversions and reuse or null
+     */
+    public MemoizingSparkDataRow(SparkSchemaAccessor accessor, Row sparkRow, ConversionCounter counter) {
+        super(accessor, sparkRow);
+        this.values = new ValueSlots(accessor.getSchema().length(), counter);
+    }
+
+    @Override
+    public Object getValue(String fieldName) {
+        SparkSchemaAccessor.FieldAccessor field = getAccessor().getField(fieldName);
+
+        Object result = values.lookup(field.getIndex());
+        if (result == ValueSlots.MISSING) {
+            result = field.getValue(getRow());
+            values.store(field.getIndex(), result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.FileMetaData;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
+import org.apache.spark.sql.types.ArrayType;
+import org.apache.spark.sql.types.BinaryType;
+import org.apache.spark.sql.types.BooleanType;
+import org.apache.spark.sql.types.ByteType;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.DateType;
+import org.apache.spark.sql.types.DecimalType;
+import org.apache.spark.sql.types.DoubleType;
+import org.apache.spark.sql.types.FloatType;
+import org.apache.spark.sql.types.IntegerType;
+import org.apache.spark.sql.types.LongType;
+import org.apache.spark.sql.types.MapType;
+import org.apache.spark.sql.types.ShortType;
+import org.apache.spark.sql.types.StringType;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.types.TimestampType;
+
+import scala.collection.JavaConverters;
+
+/**
+ * Reads parquet files into Spark {@link Row}s without a Spark session. The
+ * rows carry the same schema and external value types that Spark would
+ * produce when reading the files with the Java 8 datetime API disabled, so
+ * they can be evaluated with the same data row implementation.
+ *
+ * The Spark schema is taken from the metadata that Spark writes to the footer
+ * of each parquet file, which preserves the column metadata used to describe
+ * code columns. Files that were not written by Spark are limited to primitive
+ * columns.
+ */
+public class ParquetRowReader extends FileRowReader {
+
+    /**
+     * Footer metadata key under which Spark stores the schema of a parquet file.
+     */
+    public static final String SPARK_METADATA_KEY = "org.apache.spark.sql.parquet.row.metadata";
+
+    static final long MICROS_PER_DAY = 86400L * 1000 * 1000;
+    static final int JULIAN_DAY_OF_EPOCH = 2440588;
+
+    /**
+     * @param configuration Hadoop configuration used to access the files
+     * @param executor      Executor used to read the files of a dataset in
+     *                      parallel or null to read them one at a time
+     */
+    public ParquetRowReader(Configuration configuration, ExecutorService executor) {
+        super(configuration, executor);
+    }
+
+    @Override
+    protected StructType readSchema(Path file) throws IOException {
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(file, getConfiguration()))) {
+            FileMetaData metadata = reader.getFooter().getFileMetaData();
+            String sparkSchema = metadata.getKeyValueMetaData().get(SPARK_METADATA_KEY);
+            return (sparkSchema != null) ? (StructType) DataType.fromJson(sparkSchema) : toStructType(metadata.getSchema());
+        }
+    }
+
+    @Override
+    protected List<Row> readFile(Path file, StructType schema) throws IOException {
+        MessageType fileSchema;
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(file, getConfiguration()))) {
+            fileSchema = reader.getFooter().getFileMetaData().getSchema();
+        }
+
+        // Only the requested columns are decoded
+        List<Type> projectedFields = Arrays.stream(schema.fieldNames())
+                .filter(fileSchema::containsField)
+                .map(fileSchema::getType)
+                .collect(Collectors.toList());
+        MessageType projection = new MessageType(fileSchema.getName(), projectedFields);
+
+        Configuration readConfiguration = new Configuration(getConfiguration());
+        readConfiguration.set(ReadSupport.PARQUET_READ_SCHEMA, projection.toString());
+
+        List<Row> result = new ArrayList<>();
+        try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), file).withConf(readConfiguration).build()) {
+            Group group;
+            while ((group = reader.read()) != null) {
+                result.add(toRow(group, schema));
+            }
+        }
+        return result;
+    }
+
+    protected Row toRow(Group group, StructType schema) {
+        GroupType groupType = group.getType();
+        StructField[] fields = schema.fields();
+        Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            String name = fields[i].name();
+            if (groupType.containsField(name)) {
+                int fieldIndex = groupType.getFieldIndex(name);
+                if (fields[i].dataType() instanceof ArrayType && groupType.getType(fieldIndex).isRepetition(Type.Repetition.REPEATED)) {
+                    // legacy two-level list without an enclosing group
+                    values[i] = readRepeated(group, fieldIndex, ((ArrayType) fields[i].dataType()).elementType());
+                }
+                else if (group.getFieldRepetitionCount(fieldIndex) > 0) {
+                    values[i] = readValue(group, fieldIndex, 0, fields[i].dataType());
+                }
+            }
+        }
+        return new GenericRowWithSchema(values, schema);
+    }
+
+    protected Object readValue(Group group, int fieldIndex, int index, DataType dataType) {
+        Object result;
+        if (dataType instanceof StructType) {
+            result = toRow(group.getGroup(fieldIndex, index), (StructType) dataType);
+        }
+        else if (dataType instanceof ArrayType) {
+            result = readList(group.getGroup(fieldIndex, index), ((ArrayType) dataType).elementType());
+        }
+        else if (dataType instanceof MapType) {
+            result = readMap(group.getGroup(fieldIndex, index), (MapType) dataType);
+        }
+        else {
+            result = readPrimitive(group, fieldIndex, index, dataType);
+        }
+        return result;
+    }
+
+    protected Object readList(Group listGroup, DataType elementType) {
+        GroupType listType = listGroup.getType();
+        if (listType.getFieldCount() != 1 || !listType.getType(0).isRepetition(Type.Repetition.REPEATED)) {
+            throw new UnsupportedOperationException("Unsupported parquet list structure " + listType);
+        }
+
+        Type repeatedType = listType.getType(0);
+        boolean threeLevel = !repeatedType.isPrimitive()
+                && repeatedType.asGroupType().getFieldCount() == 1
+                && !repeatedType.getName().equals("array")
+                && !repeatedType.getName().endsWith("_tuple");
+
+        Object result;
+        if (threeLevel) {
+            int count = listGroup.getFieldRepetitionCount(0);
+            List<Object> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Group element = listGroup.getGroup(0, i);
+                values.add(element.getFieldRepetitionCount(0) > 0 ? readValue(element, 0, 0, elementType) : null);
+            }
+            result = JavaConverters.asScalaBufferConverter(values).asScala();
+        }
+        else {
+            result = readRepeated(listGroup, 0, elementType);
+        }
+        return result;
+    }
+
+    protected Object readRepeated(Group group, int fieldIndex, DataType elementType) {
+        int count = group.getFieldRepetitionCount(fieldIndex);
+        List<Object> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readValue(group, fieldIndex, i, elementType));
+        }
+        return JavaConverters.asScalaBufferConverter(values).asScala();
+    }
+
+    protected Object readMap(Group mapGroup, MapType mapType) {
+        int count = mapGroup.getFieldRepetitionCount(0);
+        Map<Object, Object> values = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            Group entry = mapGroup.getGroup(0, i);
+            Object key = readValue(entry, 0, 0, mapType.keyType());
+            Object value = entry.getFieldRepetitionCount(1) > 0 ? readValue(entry, 1, 0, mapType.valueType()) : null;
+            values.put(key, value);
+        }
+        return JavaConverters.mapAsScalaMapConverter(values).asScala();
+    }
+
+    protected Object readPrimitive(Group group, int fieldIndex, int index, DataType dataType) {
+        PrimitiveType type = group.getType().getType(fieldIndex).asPrimitiveType();
+
+        Object result;
+        if (dataType instanceof BooleanType) {
+            result = group.getBoolean(fieldIndex, index);
+        }
+        else if (dataType instanceof ByteType) {
+            result = (byte) group.getInteger(fieldIndex, index);
+        }
+        else if (dataType instanceof ShortType) {
+            result = (short) group.getInteger(fieldIndex, index);
+        }
+        else if (dataType instanceof IntegerType) {
+            result = group.getInteger(fieldIndex, index);
+        }
+        else if (dataType instanceof LongType) {
+            result = group.getLong(fieldIndex, index);
+        }
+        else if (dataType instanceof FloatType) {
+            result = group.getFloat(fieldIndex, index);
+        }
+        else if (dataType instanceof DoubleType) {
+            result = group.getDouble(fieldIndex, index);
+        }
+        else if (dataType instanceof StringType) {
+            result = group.getString(fieldIndex, index);
+        }
+        else if (dataType instanceof BinaryType) {
+            result = group.getBinary(fieldIndex, index).getBytes();
+        }
+        else if (dataType instanceof DecimalType) {
+            int scale = ((DecimalType) dataType).scale();
+            switch (type.getPrimitiveTypeName()) {
+            case INT32:
+                result = BigDecimal.valueOf(group.getInteger(fieldIndex, index), scale);
+                break;
+            case INT64:
+                result = BigDecimal.valueOf(group.getLong(fieldIndex, index), scale);
+                break;
+            default:
+                result = new BigDecimal(new BigInteger(group.getBinary(fieldIndex, index).getBytes()), scale);
+                break;
+            }
+        }
+        else if (dataType instanceof DateType) {
+            result = java.sql.Date.valueOf(LocalDate.ofEpochDay(group.getInteger(fieldIndex, index)));
+        }
+        else if (dataType instanceof TimestampType) {
+            long micros;
+            if (type.getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.INT96) {
+                ByteBuffer buffer = group.getInt96(fieldIndex, index).toByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+                long nanosOfDay = buffer.getLong();
+                int julianDay = buffer.getInt();
+                micros = (julianDay - JULIAN_DAY_OF_EPOCH) * MICROS_PER_DAY + nanosOfDay / 1000;
+            }
+            else if (type.getOriginalType() == OriginalType.TIMESTAMP_MILLIS) {
+                micros = group.getLong(fieldIndex, index) * 1000;
+            }
+            else {
+                micros = group.getLong(fieldIndex, index);
+            }
+            Timestamp timestamp = new Timestamp(Math.floorDiv(micros, 1000L));
+            timestamp.setNanos((int) Math.floorMod(micros, 1000000L) * 1000);
+            result = timestamp;
+        }
+        else {
+            throw new UnsupportedOperationException("Reading columns of type " + dataType.simpleString() + " is not supported");
+        }
+        return result;
+    }
+
+    /**
+     * Derive the Spark schema of a parquet file that was not written by Spark.
+     *
+     * @param schema Parquet schema
+     * @return Spark schema of the primitive columns
+     */
+    protected StructType toStructType(MessageType schema) {
+        List<StructField> fields = new ArrayList<>();
+        for (Type type : schema.getFields()) {
+            if (!type.isPrimitive() || type.isRepetition(Type.Repetition.REPEATED)) {
+                throw new UnsupportedOperationException("Column " + type.getName()
+                        + " is not a primitive column and the parquet file has no Spark schema metadata");
+            }
+            fields.add(DataTypes.createStructField(type.getName(), toDataType(type.asPrimitiveType()),
+                    !type.isRepetition(Type.Repetition.REQUIRED)));
+        }
+        return DataTypes.createStructType(fields);
+    }
+
+    protected DataType toDataType(PrimitiveType type) {
+        OriginalType originalType = type.getOriginalType();
+        if (originalType == OriginalType.DECIMAL) {
+            return DataTypes.createDecimalType(type.getDecimalMetadata().getPrecision(), type.getDecimalMetadata().getScale());
+        }
+
+        DataType result;
+        switch (type.getPrimitiveTypeName()) {
+        case BOOLEAN:
+            result = DataTypes.BooleanType;
+            break;
+        case INT32:
+            if (originalType == OriginalType.DATE) {
+                result = DataTypes.DateType;
+            }
+            else if (originalType == OriginalType.INT_8) {
+                result = DataTypes.ByteType;
+            }
+            else if (originalType == OriginalType.INT_16) {
+                result = DataTypes.ShortType;
+            }
+            else {
+                result = DataTypes.IntegerType;
+            }
+            break;
+        case INT64:
+            result = (originalType == OriginalType.TIMESTAMP_MILLIS || originalType == OriginalType.TIMESTAMP_MICROS)
+                    ? DataTypes.TimestampType : DataTypes.LongType;
+            break;
+        case INT96:
+            result = DataTypes.TimestampType;
+            break;
+        case FLOAT:
+            result = DataTypes.FloatType;
+            break;
+        case DOUBLE:
+            result = DataTypes.DoubleType;
+            break;
+        default:
+            result = (originalType == OriginalType.UTF8 || originalType == OriginalType.ENUM || originalType == OriginalType.JSON)
+                    ? DataTypes.StringType : DataTypes.BinaryType;
+            break;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.BinaryType;
+import org.apache.spark.sql.types.BooleanType;
+import org.apache.spark.sql.types.ByteType;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DateType;
+import org.apache.spark.sql.types.DecimalType;
+import org.apache.spark.sql.types.DoubleType;
+import org.apache.spark.sql.types.FloatType;
+import org.apache.spark.sql.types.IntegerType;
+import org.apache.spark.sql.types.LongType;
+import org.apache.spark.sql.types.ShortType;
+import org.apache.spark.sql.types.StringType;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.types.TimestampType;
+
+/**
+ * Writes Spark {@link Row}s with primitive columns to parquet without a Spark
+ * session. Columns are encoded the way Spark encodes them by default, with
+ * timestamps stored as INT96, and the Spark schema is stored in the footer
+ * metadata, so the files can be read by Spark as if Spark had written them.
+ */
+public class ParquetRowWriteSupport extends WriteSupport<Row> {
+
+    private final StructType schema;
+    private final MessageType messageType;
+    private RecordConsumer recordConsumer;
+
+    /**
+     * @param schema Spark schema of the rows
+     */
+    public ParquetRowWriteSupport(StructType schema) {
+        this.schema = schema;
+        this.messageType = toMessageType(schema);
+    }
+
+    /**
+     * @param file   Parquet file that is written
+     * @param schema Spark schema of the rows
+     * @return builder for a writer of the file
+     */
+    public static Builder builder(Path file, StructType schema) {
+        return new Builder(file, schema);
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        return new WriteContext(messageType, Collections.singletonMap(ParquetRowReader.SPARK_METADATA_KEY, schema.json()));
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+        this.recordConsumer = recordConsumer;
+    }
+
+    @Override
+    public void write(Row row) {
+        StructField[] fields = schema.fields();
+        recordConsumer.startMessage();
+        for (int i = 0; i < fields.length; i++) {
+            if (!row.isNullAt(i)) {
+                writeValue(fields[i], i, row.get(i));
+            }
+        }
+        recordConsumer.endMessage();
+    }
+
+    protected void writeValue(StructField field, int index, Object value) {
+        DataType dataType = field.dataType();
+        if (dataType instanceof DecimalType) {
+            DecimalType decimalType = (DecimalType) dataType;
+            BigDecimal decimal = ((BigDecimal) value).setScale(decimalType.scale(), RoundingMode.HALF_UP);
+            if (decimal.precision() > decimalType.precision()) {
+                // Spark writes null for a decimal that overflows the column type
+                return;
+            }
+            value = decimal;
+        }
+
+        recordConsumer.startField(field.name(), index);
+        if (dataType instanceof BooleanType) {
+            recordConsumer.addBoolean((Boolean) value);
+        }
+        else if (dataType instanceof ByteType || dataType instanceof ShortType || dataType instanceof IntegerType) {
+            recordConsumer.addInteger(((Number) value).intValue());
+        }
+        else if (dataType instanceof LongType) {
+            recordConsumer.addLong(((Number) value).longValue());
+        }
+        else if (dataType instanceof FloatType) {
+            recordConsumer.addFloat(((Number) value).floatValue());
+        }
+        else if (dataType instanceof DoubleType) {
+            recordConsumer.addDouble(((Number) value).doubleValue());
+        }
+        else if (dataType instanceof StringType) {
+            recordConsumer.addBinary(Binary.fromString((String) value));
+        }
+        else if (dataType instanceof BinaryType) {
+            recordConsumer.addBinary(Binary.fromConstantByteArray((byte[]) value));
+        }
+        else if (dataType instanceof DecimalType) {
+            writeDecimal((DecimalType) dataType, (BigDecimal) value);
+        }
+        else if (dataType instanceof DateType) {
+            LocalDate date = (value instanceof java.sql.Date) ? ((java.sql.Date) value).toLocalDate() : (LocalDate) value;
+            recordConsumer.addInteger((int) date.toEpochDay());
+        }
+        else if (dataType instanceof TimestampType) {
+            Instant instant = (value instanceof Timestamp) ? ((Timestamp) value).toInstant() : (Instant) value;
+            long micros = Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1000000L), instant.getNano() / 1000);
+            ByteBuffer buffer = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(Math.floorMod(micros, ParquetRowReader.MICROS_PER_DAY) * 1000);
+            buffer.putInt((int) (Math.floorDiv(micros, ParquetRowReader.MICROS_PER_DAY) + ParquetRowReader.JULIAN_DAY_OF_EPOCH));
+            recordConsumer.addBinary(Binary.fromConstantByteArray(buffer.array()));
+        }
+        else {
+            throw new UnsupportedOperationException("Writing columns of type " + dataType.simpleString() + " is not supported");
+        }
+        recordConsumer.endField(field.name(), index);
+    }
+
+    protected void writeDecimal(DecimalType decimalType, BigDecimal value) {
+        BigInteger unscaled = value.unscaledValue();
+        if (decimalType.precision() <= 9) {
+            recordConsumer.addInteger(unscaled.intValue());
+        }
+        else if (decimalType.precision() <= 18) {
+            recordConsumer.addLong(unscaled.longValue());
+        }
+        else {
+            byte[] bytes = unscaled.toByteArray();
+            byte[] fixed = new byte[minBytesForPrecision(decimalType.precision())];
+            Arrays.fill(fixed, 0, fixed.length - bytes.length, (byte) (unscaled.signum() < 0 ? -1 : 0));
+            System.arraycopy(bytes, 0, fixed, fixed.length - bytes.length, bytes.length);
+            recordConsumer.addBinary(Binary.fromConstantByteArray(fixed));
+        }
+    }
+
+    /**
+     * @param schema Spark schema with primitive columns
+     * @return parquet schema that Spark writes for the Spark schema
+     */
+    public static MessageType toMessageType(StructType schema) {
+        Types.MessageTypeBuilder builder = Types.buildMessage();
+        for (StructField field : schema.fields()) {
+            builder.addField(toParquetType(field));
+        }
+        return builder.named("spark_schema");
+    }
+
+    protected static Type toParquetType(StructField field) {
+        Type.Repetition repetition = field.nullable() ? Type.Repetition.OPTIONAL : Type.Repetition.REQUIRED;
+        DataType dataType = field.dataType();
+
+        Type result;
+        if (dataType instanceof BooleanType) {
+            result = Types.primitive(PrimitiveTypeName.BOOLEAN, repetition).named(field.name());
+        }
+        else if (dataType instanceof ByteType) {
+            result = Types.primitive(PrimitiveTypeName.INT32, repetition).as(OriginalType.INT_8).named(field.name());
+        }
+        else if (dataType instanceof ShortType) {
+            result = Types.primitive(PrimitiveTypeName.INT32, repetition).as(OriginalType.INT_16).named(field.name());
+        }
+        else if (dataType instanceof IntegerType) {
+            result = Types.primitive(PrimitiveTypeName.INT32, repetition).named(field.name());
+        }
+        else if (dataType instanceof LongType) {
+            result = Types.primitive(PrimitiveTypeName.INT64, repetition).named(field.name());
+        }
+        else if (dataType instanceof FloatType) {
+            result = Types.primitive(PrimitiveTypeName.FLOAT, repetition).named(field.name());
+        }
+        else if (dataType instanceof DoubleType) {
+            result = Types.primitive(PrimitiveTypeName.DOUBLE, repetition).named(field.name());
+        }
+        else if (dataType instanceof StringType) {
+            result = Types.primitive(PrimitiveTypeName.BINARY, repetition).as(OriginalType.UTF8).named(field.name());
+        }
+        else if (dataType instanceof BinaryType) {
+            result = Types.primitive(PrimitiveTypeName.BINARY, repetition).named(field.name());
+        }
+        else if (dataType instanceof DecimalType) {
+            DecimalType decimalType = (DecimalType) dataType;
+            if (decimalType.precision() <= 9) {
+                result = Types.primitive(PrimitiveTypeName.INT32, repetition).as(OriginalType.DECIMAL)
+                        .precision(decimalType.precision()).scale(decimalType.scale()).named(field.name());
+            }
+            else if (decimalType.precision() <= 18) {
+                result = Types.primitive(PrimitiveTypeName.INT64, repetition).as(OriginalType.DECIMAL)
+                        .precision(decimalType.precision()).scale(decimalType.scale()).named(field.name());
+            }
+            else {
+                result = Types.primitive(PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY, repetition)
+                        .length(minBytesForPrecision(decimalType.precision())).as(OriginalType.DECIMAL)
+                        .precision(decimalType.precision()).scale(decimalType.scale()).named(field.name());
+            }
+        }
+        else if (dataType instanceof DateType) {
+            result = Types.primitive(PrimitiveTypeName.INT32, repetition).as(OriginalType.DATE).named(field.name());
+        }
+        else if (dataType instanceof TimestampType) {
+            result = Types.primitive(PrimitiveTypeName.INT96, repetition).named(field.name());
+        }
+        else {
+            throw new UnsupportedOperationException("Writing columns of type " + dataType.simpleString() + " is not supported");
+        }
+        return result;
+    }
+
+    /**
+     * @param precision Decimal precision
+     * @return number of bytes of the two's complement representation of the
+     *         largest unscaled value of the precision
+     */
+    protected static int minBytesForPrecision(int precision) {
+        int numBytes = 1;
+        while (Math.pow(2.0, 8 * numBytes - 1) < Math.pow(10.0, precision)) {
+            numBytes++;
+        }
+        return numBytes;
+    }
+
+    public static class Builder extends ParquetWriter.Builder<Row, Builder> {
+        private final StructType schema;
+
+        private Builder(Path file, StructType schema) {
+            super(file);
+            this.schema = schema;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<Row> getWriteSupport(Configuration conf) {
+            return new ParquetRowWriteSupport(schema);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.storage.StorageLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DatasetRetriever} that reads each shared datatype only once and
+ * persists the result so that it can be reused by every aggregation context
+ * that needs the datatype. The number of contexts that use each shared datatype
+ * is provided up front and each context releases its datatypes when it is
+ * complete. A persisted dataset is unpersisted when its last context releases
+ * it. Datatypes that are not shared are passed through to the underlying
+ * retriever without being persisted.
+ *
+ * The underlying retriever is expected to return a dataset that satisfies the
+ * data requirements of every context that uses the datatype (e.g. a
+ * {@link FilteredDatasetRetriever} configured with the union of the columns
+ * required by each context). Per-context filtering can then be layered on top
+ * of this retriever.
+ *
+ * The retriever is safe to use from multiple driver threads so that
+ * aggregation contexts that are evaluated concurrently share a single
+ * persisted dataset.
+ */
+public class SharedDatasetRetriever implements DatasetRetriever {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedDatasetRetriever.class);
+
+    private final DatasetRetriever retriever;
+    private final StorageLevel storageLevel;
+    private final Map<String, Integer> remainingUsesByDataType;
+    private final Map<String, Dataset<Row>> persistedByDataType = new HashMap<>();
+
+    /**
+     * @param retriever      Retriever used to read shared and unshared datatypes
+     * @param usesByDataType Map of shared datatype to the number of contexts that
+     *                       will use the datatype
+     * @param storageLevel   Storage level used to persist shared datasets
+     */
+    public SharedDatasetRetriever(DatasetRetriever retriever, Map<String, Integer> usesByDataType, StorageLevel storageLevel) {
+        this.retriever = retriever;
+        this.remainingUsesByDataType = new HashMap<>(usesByDataType);
+        this.storageLevel = storageLevel;
+    }
+
+    @Override
+    public synchronized Dataset<Row> readDataset(String dataType, String path) {
+        Dataset<Row> result;
+        if (remainingUsesByDataType.containsKey(dataType)) {
+            result = persistedByDataType.get(dataType);
+            if (result == null) {
+                result = retriever.readDataset(dataType, path);
+                if (result != null) {
+                    LOG.info("Persisting shared dataset {} with storage level {}", dataType, storageLevel.description());
+                    result = result.persist(storageLevel);
+                    persistedByDataType.put(dataType, result);
+                }
+            }
+        } else {
+            result = retriever.readDataset(dataType, path);
+        }
+        return result;
+    }
+
+    /**
+     * @param dataType datatype
+     * @return true if a persisted dataset is currently available for the datatype
+     */
+    public synchronized boolean isPersisted(String dataType) {
+        return persistedByDataType.containsKey(dataType);
+    }
+
+    public StorageLevel getStorageLevel() {
+        return storageLevel;
+    }
+
+    /**
+     * Record that a context has finished using a set of datatypes. Shared
+     * datasets that have no remaining uses are unpersisted.
+     *
+     * @param dataTypes datatypes used by the context
+     */
+    public synchronized void release(Collection<String> dataTypes) {
+        for (String dataType : dataTypes) {
+            Integer remaining = remainingUsesByDataType.computeIfPresent(dataType, (key, uses) -> uses - 1);
+            if (remaining != null && remaining <= 0) {
+                remainingUsesByDataType.remove(dataType);
+                unpersist(dataType);
+            }
+        }
+    }
+
+    /**
+     * Unpersist every shared dataset regardless of remaining uses.
+     */
+    public synchronized void releaseAll() {
+        remainingUsesByDataType.clear();
+        for (String dataType : persistedByDataType.keySet().toArray(new String[0])) {
+            unpersist(dataType);
+        }
+    }
+
+    private void unpersist(String dataType) {
+        Dataset<Row> dataset = persistedByDataType.remove(dataType);
+        if (dataset != null) {
+            LOG.info("Unpersisting shared dataset {}", dataType);
+            dataset.unpersist(false);
+        }
+    }
+}
@@ -6,14 +6,9 @@
 
 package com.ibm.cohort.cql.spark.data;
 
-import java.util.Arrays;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.apache.spark.sql.Row;
-import org.apache.spark.sql.types.Metadata;
-import org.apache.spark.sql.types.StructField;
-import org.opencds.cqf.cql.engine.runtime.Code;
 
 import com.ibm.cohort.datarow.model.DataRow;
 
@@ -36,14 +31,34 @@ import com.ibm.cohort.datarow.model.DataRow;
  * 
  * Conversion of other CQL-native types, such as interval and ratio, are left to
  * the CQL author to handle.
+ * 
+ * Field lookups, column metadata, and the choice of type conversion are
+ * resolved once per schema by a {@link SparkSchemaAccessor}.
  */
 public class SparkDataRow implements DataRow {
 
-    private final SparkTypeConverter typeConverter;
+    private final SparkSchemaAccessor accessor;
     private final Row sparkRow;
 
+    /**
+     * Create a data row that compiles its own schema accessor. Prefer
+     * {@link #SparkDataRow(SparkSchemaAccessor, Row)} with an accessor that is
+     * shared by all the rows of a schema (see {@link SparkSchemaAccessorCache})
+     * when many rows are read.
+     * 
+     * @param typeConverter Converter used for the field values
+     * @param sparkRow      Spark row
+     */
     public SparkDataRow(SparkTypeConverter typeConverter, Row sparkRow) {
-        this.typeConverter = typeConverter;
+        this(new SparkSchemaAccessor(typeConverter, sparkRow.schema()), sparkRow);
+    }
+
+    /**
+     * @param accessor Precompiled accessor for the schema of the row
+     * @param sparkRow Spark row
+     */
+    public SparkDataRow(SparkSchemaAccessor accessor, Row sparkRow) {
+        this.accessor = accessor;
         this.sparkRow = sparkRow;
     }
     
@@ -51,62 +66,21 @@ public class SparkDataRow implements DataRow {
         return this.sparkRow;
     }
 
-    @Override
-    public Object getValue(String fieldName) {
-        Object result = null;
-
-        Object sparkVal = sparkRow.getAs(fieldName);
-
-        if (sparkVal != null) {
-            boolean isCode = false;
-
-            /**
-             * The following logic uses column metadata fields provided in the Spark schema
-             * to identify columns
-             */
-            Metadata metadata = MetadataUtils.getColumnMetadata(sparkRow.schema(), fieldName);
-            isCode = MetadataUtils.isCodeCol(metadata);
-            if (isCode) {
-                    Code code = new Code().withCode((String) sparkVal);
-                    
-                    String system = MetadataUtils.getDefaultSystem(metadata);
-                    if( system != null ) {
-                        code.withSystem( system );
-                    }
- 
-                    String systemCol = MetadataUtils.getSystemCol(metadata);
-                    if (systemCol != null) {
-                        code.withSystem(sparkRow.getAs(systemCol));
-                    }
-
-                    String displayCol = MetadataUtils.getDisplayCol(metadata);
-                    if (displayCol != null) {
-                        code.withDisplay(sparkRow.getAs(displayCol));
-                    }
-
-                    result = code;
-            } else {
-                result = doDefaultConversion(sparkVal);
-            }
-        }
-
-        return result;
+    /**
+     * @return precompiled accessor for the schema of the row
+     */
+    protected SparkSchemaAccessor getAccessor() {
+        return accessor;
     }
 
-    protected Object doDefaultConversion(Object sparkVal) {
-        Object result = null;
-
-        try {
-            result = typeConverter.toCqlType(sparkVal);
-        } catch (IllegalArgumentException ex) {
-            throw new IllegalArgumentException(String.format("Failed to convert field '%s': %s", sparkVal, ex.getMessage()), ex);
-        }
-        return result;
+    @Override
+    public Object getValue(String fieldName) {
+        return accessor.getField(fieldName).getValue(sparkRow);
     }
 
     @Override
     public Set<String> getFieldNames() {
-        return Arrays.stream(sparkRow.schema().fields()).map(StructField::name).collect(Collectors.toSet());
+        return accessor.getFieldNames();
     }
     
     @Override
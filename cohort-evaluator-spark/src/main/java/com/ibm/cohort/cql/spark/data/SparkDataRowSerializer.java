@@ -0,0 +1,36 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import org.apache.spark.sql.Row;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Kryo serializer for {@link SparkDataRow}. Only the type converter and the
+ * Spark row are written. The schema accessor is compiled again from the schema
+ * of the row when it is read, so the precompiled field converters, which are
+ * method references, never have to be serialized.
+ */
+public class SparkDataRowSerializer extends Serializer<SparkDataRow> {
+
+    @Override
+    public void write(Kryo kryo, Output output, SparkDataRow dataRow) {
+        kryo.writeClassAndObject(output, dataRow.getAccessor().getTypeConverter());
+        kryo.writeClassAndObject(output, dataRow.getRow());
+    }
+
+    @Override
+    public SparkDataRow read(Kryo kryo, Input input, Class<SparkDataRow> type) {
+        SparkTypeConverter typeConverter = (SparkTypeConverter) kryo.readClassAndObject(input);
+        Row sparkRow = (Row) kryo.readClassAndObject(input);
+        return new SparkDataRow(typeConverter, sparkRow);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import java.math.BigDecimal;
+
+import org.apache.spark.sql.types.BooleanType;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DateType;
+import org.apache.spark.sql.types.DecimalType;
+import org.apache.spark.sql.types.IntegerType;
+import org.apache.spark.sql.types.LongType;
+import org.apache.spark.sql.types.StringType;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.types.TimestampType;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+
+import com.ibm.cohort.cql.spark.data.SparkSchemaAccessor.ValueConverter;
+
+/**
+ * Precompiled conversion of CQL results to the Spark values of an output
+ * schema (see {@link SparkSchemaCreator}). The converter method of each output
+ * column is selected once per schema from the Spark data type of the column,
+ * so the CQL result of a column is converted without testing it against every
+ * CQL type that {@link SparkTypeConverter#toSparkType(Object)} supports.
+ *
+ * A result whose Java type does not match the type expected for its column is
+ * converted with {@link SparkTypeConverter#toSparkType(Object)}, so the
+ * converted values are always the same as those of the generic conversion.
+ */
+public class SparkOutputConverter {
+
+    private final ValueConverter[] converters;
+
+    /**
+     * @param typeConverter Converter used for the result values
+     * @param schema        Output schema of the results
+     */
+    public SparkOutputConverter(SparkTypeConverter typeConverter, StructType schema) {
+        StructField[] fields = schema.fields();
+        this.converters = new ValueConverter[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            converters[i] = getConverter(typeConverter, fields[i].dataType());
+        }
+    }
+
+    /**
+     * Select the converter method for the Spark data type of an output column.
+     *
+     * @param typeConverter Converter used for the result values
+     * @param dataType      Spark data type of an output column
+     * @return converter for results of the column
+     */
+    protected static ValueConverter getConverter(SparkTypeConverter typeConverter, DataType dataType) {
+        ValueConverter result;
+        if (dataType instanceof StringType) {
+            result = obj -> (obj instanceof String) ? typeConverter.toSparkString(obj) : typeConverter.toSparkType(obj);
+        } else if (dataType instanceof IntegerType) {
+            result = obj -> (obj instanceof Integer) ? typeConverter.toSparkInteger(obj) : typeConverter.toSparkType(obj);
+        } else if (dataType instanceof LongType) {
+            result = obj -> (obj instanceof Long) ? typeConverter.toSparkLong(obj) : typeConverter.toSparkType(obj);
+        } else if (dataType instanceof BooleanType) {
+            result = obj -> (obj instanceof Boolean) ? typeConverter.toSparkBoolean(obj) : typeConverter.toSparkType(obj);
+        } else if (dataType instanceof DecimalType) {
+            result = obj -> (obj instanceof BigDecimal || obj instanceof Double) ? typeConverter.toSparkDecimal(obj) : typeConverter.toSparkType(obj);
+        } else if (dataType instanceof DateType) {
+            result = obj -> (obj instanceof Date) ? typeConverter.toSparkDate(obj) : typeConverter.toSparkType(obj);
+        } else if (dataType instanceof TimestampType) {
+            result = obj -> (obj instanceof DateTime) ? typeConverter.toSparkDateTime(obj) : typeConverter.toSparkType(obj);
+        } else {
+            result = typeConverter::toSparkType;
+        }
+        return result;
+    }
+
+    /**
+     * Convert a CQL result to the Spark value of an output column.
+     *
+     * @param columnIndex Index of the column in the output schema
+     * @param value       CQL result
+     * @return Spark value or null if the result is null
+     */
+    public Object convert(int columnIndex, Object value) {
+        return (value != null) ? converters[columnIndex].convert(value) : null;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.BooleanType;
+import org.apache.spark.sql.types.ByteType;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DateType;
+import org.apache.spark.sql.types.DecimalType;
+import org.apache.spark.sql.types.DoubleType;
+import org.apache.spark.sql.types.FloatType;
+import org.apache.spark.sql.types.IntegerType;
+import org.apache.spark.sql.types.LongType;
+import org.apache.spark.sql.types.Metadata;
+import org.apache.spark.sql.types.ShortType;
+import org.apache.spark.sql.types.StringType;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.types.TimestampType;
+import org.opencds.cqf.cql.engine.runtime.Code;
+
+/**
+ * Precompiled plan for reading CQL values out of Spark rows that share a
+ * single schema. The plan resolves the ordinal of each field, the code column
+ * metadata (see {@link MetadataUtils}) of each field, and a converter that is
+ * specialized for the Spark data type of each field once per schema, so that
+ * none of that work is repeated when a field is read from an individual row.
+ *
+ * Conversion is still performed by the methods of the provided
+ * {@link SparkTypeConverter}, so subclasses of the converter keep working as
+ * expected.
+ */
+public class SparkSchemaAccessor {
+
+    /**
+     * Conversion of a non-null Spark value to a CQL value.
+     */
+    @FunctionalInterface
+    public interface ValueConverter {
+        Object convert(Object sparkVal);
+    }
+
+    /**
+     * Precompiled details for a single field of the schema.
+     */
+    public static class FieldAccessor {
+        private final String name;
+        private final int index;
+        private final ValueConverter converter;
+        private final boolean isCode;
+        private final String defaultSystem;
+        private final String systemCol;
+        private final int systemIndex;
+        private final String displayCol;
+        private final int displayIndex;
+
+        protected FieldAccessor(StructType schema, StructField field, int index, ValueConverter converter) {
+            this.name = field.name();
+            this.index = index;
+            this.converter = converter;
+
+            Metadata metadata = field.metadata();
+            this.isCode = MetadataUtils.isCodeCol(metadata);
+            this.defaultSystem = isCode ? MetadataUtils.getDefaultSystem(metadata) : null;
+            this.systemCol = isCode ? MetadataUtils.getSystemCol(metadata) : null;
+            this.systemIndex = indexOf(schema, systemCol);
+            this.displayCol = isCode ? MetadataUtils.getDisplayCol(metadata) : null;
+            this.displayIndex = indexOf(schema, displayCol);
+        }
+
+        private static int indexOf(StructType schema, String fieldName) {
+            return (fieldName != null) ? Arrays.asList(schema.fieldNames()).indexOf(fieldName) : -1;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public boolean isCode() {
+            return isCode;
+        }
+
+        /**
+         * Read the field from a row.
+         *
+         * @param row Spark row with the compiled schema
+         * @return the CQL value of the field or null if the field value is null
+         */
+        public Object getValue(Row row) {
+            Object result = null;
+
+            Object sparkVal = row.get(index);
+            if (sparkVal != null) {
+                if (isCode) {
+                    result = toCode(row, (String) sparkVal);
+                }
+                else {
+                    try {
+                        result = converter.convert(sparkVal);
+                    } catch (IllegalArgumentException ex) {
+                        throw new IllegalArgumentException(String.format("Failed to convert field '%s': %s", sparkVal, ex.getMessage()), ex);
+                    }
+                }
+            }
+            return result;
+        }
+
+        protected Code toCode(Row row, String value) {
+            Code code = new Code().withCode(value);
+
+            if (defaultSystem != null) {
+                code.withSystem(defaultSystem);
+            }
+
+            if (systemCol != null) {
+                // a missing column fails the same way as a lookup by name
+                code.withSystem(systemIndex >= 0 ? (String) row.get(systemIndex) : row.getAs(systemCol));
+            }
+
+            if (displayCol != null) {
+                code.withDisplay(displayIndex >= 0 ? (String) row.get(displayIndex) : row.getAs(displayCol));
+            }
+
+            return code;
+        }
+    }
+
+    private final SparkTypeConverter typeConverter;
+    private final StructType schema;
+    private final Map<String, FieldAccessor> fieldsByName;
+    private final Set<String> fieldNames;
+
+    /**
+     * @param typeConverter Converter used for the field values
+     * @param schema        Schema of the rows that will be read
+     */
+    public SparkSchemaAccessor(SparkTypeConverter typeConverter, StructType schema) {
+        this.typeConverter = typeConverter;
+        this.schema = schema;
+
+        StructField[] fields = schema.fields();
+        Map<String, FieldAccessor> byName = new HashMap<>(fields.length * 2);
+        Set<String> names = new LinkedHashSet<>(fields.length * 2);
+        for (int i = 0; i < fields.length; i++) {
+            StructField field = fields[i];
+            // keep the first field of a duplicated name to match Row.fieldIndex
+            byName.putIfAbsent(field.name(), new FieldAccessor(schema, field, i, getConverter(typeConverter, field.dataType())));
+            names.add(field.name());
+        }
+        this.fieldsByName = byName;
+        this.fieldNames = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Select the converter method for a Spark data type. Data types without a
+     * dedicated conversion use the generic conversion that dispatches on the
+     * runtime type of each value.
+     *
+     * @param typeConverter Converter used for the field values
+     * @param dataType      Spark data type of a field
+     * @return converter for values of the data type
+     */
+    protected static ValueConverter getConverter(SparkTypeConverter typeConverter, DataType dataType) {
+        ValueConverter result;
+        if (dataType instanceof StringType) {
+            result = typeConverter::toCqlString;
+        } else if (dataType instanceof IntegerType) {
+            result = typeConverter::toCqlInteger;
+        } else if (dataType instanceof LongType) {
+            result = typeConverter::toCqlLong;
+        } else if (dataType instanceof BooleanType) {
+            result = typeConverter::toCqlBoolean;
+        } else if (dataType instanceof DecimalType) {
+            result = typeConverter::toCqlDecimal;
+        } else if (dataType instanceof DoubleType) {
+            result = typeConverter::toCqlDouble;
+        } else if (dataType instanceof FloatType) {
+            result = typeConverter::toCqlFloat;
+        } else if (dataType instanceof ShortType) {
+            result = typeConverter::toCqlShort;
+        } else if (dataType instanceof ByteType) {
+            result = typeConverter::toCqlByte;
+        } else if (dataType instanceof DateType) {
+            result = typeConverter::toCqlDate;
+        } else if (dataType instanceof TimestampType) {
+            result = typeConverter::toCqlDateTime;
+        } else {
+            result = typeConverter::toCqlType;
+        }
+        return result;
+    }
+
+    public SparkTypeConverter getTypeConverter() {
+        return typeConverter;
+    }
+
+    public StructType getSchema() {
+        return schema;
+    }
+
+    /**
+     * @param fieldName Field name
+     * @return precompiled details for the field
+     * @throws IllegalArgumentException if the field does not exist in the schema
+     */
+    public FieldAccessor getField(String fieldName) {
+        FieldAccessor field = fieldsByName.get(fieldName);
+        if (field == null) {
+            throw new IllegalArgumentException(String.format("%s does not exist. Available: %s", fieldName, String.join(", ", schema.fieldNames())));
+        }
+        return field;
+    }
+
+    /**
+     * @return immutable set of the field names in the schema
+     */
+    public Set<String> getFieldNames() {
+        return fieldNames;
+    }
+}
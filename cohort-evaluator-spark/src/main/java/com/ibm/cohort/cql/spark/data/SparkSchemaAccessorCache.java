@@ -0,0 +1,52 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.spark.sql.types.StructType;
+
+/**
+ * Cache of {@link SparkSchemaAccessor} objects keyed by schema. Rows that are
+ * deserialized after a shuffle each carry their own copy of an identical
+ * schema, so the cache first checks the most recently used schema by identity
+ * and then falls back to a lookup by schema equality.
+ *
+ * The cache is not thread-safe and is intended to be used for the rows of a
+ * single Spark partition.
+ */
+public class SparkSchemaAccessorCache {
+
+    private final SparkTypeConverter typeConverter;
+    private final Map<StructType, SparkSchemaAccessor> accessors = new HashMap<>();
+    private StructType lastSchema;
+    private SparkSchemaAccessor lastAccessor;
+
+    public SparkSchemaAccessorCache(SparkTypeConverter typeConverter) {
+        this.typeConverter = typeConverter;
+    }
+
+    /**
+     * @param schema Row schema
+     * @return accessor for the schema, compiling it on first use
+     */
+    public SparkSchemaAccessor getAccessor(StructType schema) {
+        if (schema != lastSchema) {
+            lastAccessor = accessors.computeIfAbsent(schema, s -> new SparkSchemaAccessor(typeConverter, s));
+            lastSchema = schema;
+        }
+        return lastAccessor;
+    }
+
+    /**
+     * @return number of distinct schemas that were compiled
+     */
+    public int size() {
+        return accessors.size();
+    }
+}
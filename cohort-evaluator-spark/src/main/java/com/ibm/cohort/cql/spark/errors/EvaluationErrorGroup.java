@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.errors;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * The CQL evaluation errors of one aggregation context, library, output column,
+ * and exception class. The group keeps an exact count of the errors and a
+ * bounded sample of the errors of distinct context values, so the memory used by
+ * a group does not grow with the number of errors.
+ *
+ * The sample keeps the context values with the lowest hash of the context value.
+ * The same context values are kept no matter the order in which errors are added
+ * and groups are merged, so every context value in the sample of a group is
+ * equally likely to be any of the failed context values and repeated runs over
+ * the same data report the same sample.
+ */
+@JsonPropertyOrder({"contextName", "libraryId", "outputColumn", "exceptionClass", "count", "sampleTruncated", "samples"})
+public class EvaluationErrorGroup implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final Comparator<EvaluationError> SAMPLE_ORDER = Comparator
+			.comparingLong((EvaluationError error) -> sampleHash(error.getContextId()))
+			.thenComparing(error -> String.valueOf(error.getContextId()));
+
+	private String contextName;
+	private String libraryId;
+	private String outputColumn;
+	private String exceptionClass;
+	private long count;
+	private boolean sampleTruncated;
+	private List<EvaluationError> samples = new ArrayList<>();
+
+	public EvaluationErrorGroup() {
+
+	}
+
+	public EvaluationErrorGroup(String contextName, String libraryId, String outputColumn, String exceptionClass) {
+		this.contextName = contextName;
+		this.libraryId = libraryId;
+		this.outputColumn = outputColumn;
+		this.exceptionClass = exceptionClass;
+	}
+
+	/**
+	 * Count an error and offer it to the sample.
+	 *
+	 * @param error      Error of a single context value
+	 * @param sampleSize Maximum number of context values that are sampled
+	 */
+	public void add(EvaluationError error, int sampleSize) {
+		count++;
+		if (sampleSize == 0 || samples.size() >= sampleSize && SAMPLE_ORDER.compare(error, samples.get(samples.size() - 1)) > 0) {
+			sampleTruncated = true;
+			return;
+		}
+		List<EvaluationError> offered = new ArrayList<>(samples);
+		offered.add(error);
+		samples = sample(offered, sampleSize);
+	}
+
+	/**
+	 * Add the errors counted and sampled by another group of the same key.
+	 *
+	 * @param other      Group with the same context name, library, output column,
+	 *                   and exception class
+	 * @param sampleSize Maximum number of context values that are sampled
+	 */
+	public void merge(EvaluationErrorGroup other, int sampleSize) {
+		count += other.count;
+		sampleTruncated |= other.sampleTruncated;
+		List<EvaluationError> offered = new ArrayList<>(samples);
+		offered.addAll(other.samples);
+		samples = sample(offered, sampleSize);
+	}
+
+	private List<EvaluationError> sample(List<EvaluationError> offered, int sampleSize) {
+		// Keep one error per context value so that a context value that fails
+		// for several parameter sets takes one place in the sample
+		Map<String, EvaluationError> distinct = new LinkedHashMap<>();
+		offered.stream()
+				.sorted(SAMPLE_ORDER)
+				.forEach(error -> distinct.putIfAbsent(String.valueOf(error.getContextId()), error));
+
+		List<EvaluationError> result = new ArrayList<>(distinct.values());
+		if (result.size() > sampleSize) {
+			sampleTruncated = true;
+			result = new ArrayList<>(result.subList(0, sampleSize));
+		}
+		return result;
+	}
+
+	/**
+	 * Stable 64-bit hash of a context value that orders the context values of
+	 * the sample. The string hash is mixed with the MurmurHash3 finalizer so that
+	 * similar context values, such as sequential numbers, are spread uniformly.
+	 */
+	static long sampleHash(Object contextId) {
+		long hash = String.valueOf(contextId).hashCode();
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	public String getContextName() {
+		return contextName;
+	}
+
+	public String getLibraryId() {
+		return libraryId;
+	}
+
+	public String getOutputColumn() {
+		return outputColumn;
+	}
+
+	/**
+	 * @return name of the class of the exception that was thrown
+	 */
+	public String getExceptionClass() {
+		return exceptionClass;
+	}
+
+	/**
+	 * @return exact number of errors in the group
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return true if failed context values were left out of the sample, false
+	 *         if the sample includes every failed context value
+	 */
+	public boolean isSampleTruncated() {
+		return sampleTruncated;
+	}
+
+	/**
+	 * @return one error for each sampled context value
+	 */
+	public List<EvaluationError> getSamples() {
+		return samples;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+
+		if (o == null || getClass() != o.getClass()) return false;
+
+		EvaluationErrorGroup that = (EvaluationErrorGroup) o;
+
+		return new EqualsBuilder()
+				.append(count, that.count)
+				.append(sampleTruncated, that.sampleTruncated)
+				.append(contextName, that.contextName)
+				.append(libraryId, that.libraryId)
+				.append(outputColumn, that.outputColumn)
+				.append(exceptionClass, that.exceptionClass)
+				.append(samples, that.samples)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(contextName)
+				.append(libraryId)
+				.append(outputColumn)
+				.append(exceptionClass)
+				.append(count)
+				.append(sampleTruncated)
+				.append(samples)
+				.toHashCode();
+	}
+}
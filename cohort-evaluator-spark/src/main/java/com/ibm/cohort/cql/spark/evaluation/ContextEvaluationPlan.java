@@ -0,0 +1,246 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequest;
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequests;
+import com.ibm.cohort.cql.spark.data.SparkOutputColumnEncoder;
+import com.ibm.cohort.cql.spark.data.SparkOutputConverter;
+import com.ibm.cohort.cql.spark.data.SparkTypeConverter;
+import com.ibm.cohort.cql.spark.util.EncodedParametersCache;
+
+/**
+ * Precompiled description of the CQL evaluations that are performed for every
+ * context value of a single aggregation context. The plan resolves the requests
+ * that apply to the aggregation context, the output column index of each
+ * request expression, the JSON-encoded parameter group of each request, and
+ * the conversion of the results of each output column to Spark values.
+ *
+ * A plan is calculated once (e.g. per Spark partition) and then reused for
+ * every context value that is evaluated so that request filtering, output column
+ * naming, and parameter encoding are not repeated for each individual context.
+ */
+public class ContextEvaluationPlan {
+
+    /**
+     * Index of the context key column in the output rows.
+     */
+    public static final int CONTEXT_KEY_IDX = 0;
+
+    /**
+     * Index of the parameters column in the output rows.
+     */
+    public static final int PARAMETERS_IDX = 1;
+
+    /**
+     * Name of the optional last column of the output rows that flags the rows
+     * of context values that had an evaluation error.
+     */
+    public static final String FAILED_COLUMN = "__failed";
+
+    /**
+     * Evaluation details for a single CqlEvaluationRequest.
+     */
+    public static class RequestPlan {
+        private final CqlEvaluationRequest request;
+        private final int parameterGroup;
+        private final Map<String, Integer> columnIndexByExpression;
+
+        public RequestPlan(CqlEvaluationRequest request, int parameterGroup, Map<String, Integer> columnIndexByExpression) {
+            this.request = request;
+            this.parameterGroup = parameterGroup;
+            this.columnIndexByExpression = columnIndexByExpression;
+        }
+
+        public CqlEvaluationRequest getRequest() {
+            return request;
+        }
+
+        /**
+         * @return index of the output row (parameter group) that receives the
+         *         results of this request
+         */
+        public int getParameterGroup() {
+            return parameterGroup;
+        }
+
+        /**
+         * @param expressionName expression name
+         * @return index of the output column for the expression or null if the
+         *         expression is not part of the output schema
+         */
+        public Integer getColumnIndex(String expressionName) {
+            return columnIndexByExpression.get(expressionName);
+        }
+    }
+
+    private final String contextName;
+    private final int rowWidth;
+    private final int failedColumnIdx;
+    private final List<String> parameterGroups;
+    private final List<RequestPlan> requestPlans;
+    private final List<List<RequestPlan>> evaluationContextGroups;
+    private final SparkOutputConverter outputConverter;
+
+    /**
+     * Create a plan without output conversion.
+     *
+     * @param contextName            Name of the aggregation context
+     * @param resultsSchema          Output schema for the aggregation context
+     * @param requests               Filtered job specification with request IDs assigned
+     * @param columnEncoder          Encoder used to calculate output column names
+     * @param encodedParametersCache Cache of JSON-encoded request parameters
+     */
+    public ContextEvaluationPlan(String contextName, StructType resultsSchema, CqlEvaluationRequests requests,
+            SparkOutputColumnEncoder columnEncoder, EncodedParametersCache encodedParametersCache) {
+        this(contextName, resultsSchema, requests, columnEncoder, encodedParametersCache, null);
+    }
+
+    /**
+     * @param contextName            Name of the aggregation context
+     * @param resultsSchema          Output schema for the aggregation context
+     * @param requests               Filtered job specification with request IDs assigned
+     * @param columnEncoder          Encoder used to calculate output column names
+     * @param encodedParametersCache Cache of JSON-encoded request parameters
+     * @param typeConverter          Converter used for the results or null if
+     *                               the results are not converted by the plan
+     */
+    public ContextEvaluationPlan(String contextName, StructType resultsSchema, CqlEvaluationRequests requests,
+            SparkOutputColumnEncoder columnEncoder, EncodedParametersCache encodedParametersCache, SparkTypeConverter typeConverter) {
+        this.contextName = contextName;
+        this.outputConverter = (typeConverter != null) ? new SparkOutputConverter(typeConverter, resultsSchema) : null;
+
+        String[] fieldNames = resultsSchema.fieldNames();
+        this.rowWidth = fieldNames.length;
+        this.failedColumnIdx = FAILED_COLUMN.equals(fieldNames[fieldNames.length - 1]) ? fieldNames.length - 1 : -1;
+
+        Map<String, Integer> indexByColumnName = new HashMap<>();
+        int outputColumns = (failedColumnIdx >= 0) ? failedColumnIdx : fieldNames.length;
+        for (int i = PARAMETERS_IDX + 1; i < outputColumns; i++) {
+            indexByColumnName.put(fieldNames[i], i);
+        }
+
+        Map<String, Integer> parameterGroupIndexes = new LinkedHashMap<>();
+        List<RequestPlan> plans = new ArrayList<>();
+        for (CqlEvaluationRequest request : requests.getEvaluationsForContext(contextName)) {
+            String parametersJson = encodedParametersCache.getKeyParametersColumnData(request);
+            int parameterGroup = parameterGroupIndexes.computeIfAbsent(parametersJson, x -> parameterGroupIndexes.size());
+
+            Map<String, Integer> columnIndexByExpression = new HashMap<>();
+            for (String expressionName : request.getExpressionNames()) {
+                Integer columnIndex = indexByColumnName.get(columnEncoder.getColumnName(request, expressionName));
+                if (columnIndex != null) {
+                    columnIndexByExpression.put(expressionName, columnIndex);
+                }
+            }
+
+            plans.add(new RequestPlan(request, parameterGroup, columnIndexByExpression));
+        }
+
+        this.parameterGroups = Collections.unmodifiableList(new ArrayList<>(parameterGroupIndexes.keySet()));
+        this.requestPlans = Collections.unmodifiableList(plans);
+        this.evaluationContextGroups = Collections.unmodifiableList(groupByEvaluationContext(plans));
+    }
+
+    /**
+     * @param resultsSchema Output schema for an aggregation context
+     * @return the output schema with a trailing {@link #FAILED_COLUMN}
+     */
+    public static StructType withFailedColumn(StructType resultsSchema) {
+        return resultsSchema.add(FAILED_COLUMN, DataTypes.BooleanType, false);
+    }
+
+    /**
+     * Group requests that can be evaluated against the same CQL context object.
+     * Requests share a context object when they reference the same library,
+     * parameters, and context key/value.
+     *
+     * @param plans Request plans to group
+     * @return Lists of request plans that share a CQL context in the order they
+     *         were first encountered
+     */
+    protected static List<List<RequestPlan>> groupByEvaluationContext(List<RequestPlan> plans) {
+        Map<List<Object>, List<RequestPlan>> groups = new LinkedHashMap<>();
+        for (RequestPlan plan : plans) {
+            CqlEvaluationRequest request = plan.getRequest();
+            List<Object> groupKey = Arrays.asList(request.getDescriptor(), request.getParameters(),
+                    request.getContextKey(), request.getContextValue());
+            groups.computeIfAbsent(groupKey, x -> new ArrayList<>()).add(plan);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    public String getContextName() {
+        return contextName;
+    }
+
+    /**
+     * @return JSON-encoded parameters for each output row in output row order
+     */
+    public List<String> getParameterGroups() {
+        return parameterGroups;
+    }
+
+    /**
+     * @return plans for each request that applies to the aggregation context
+     */
+    public List<RequestPlan> getRequestPlans() {
+        return requestPlans;
+    }
+
+    /**
+     * @return request plans grouped by the CQL context object they can share
+     */
+    public List<List<RequestPlan>> getEvaluationContextGroups() {
+        return evaluationContextGroups;
+    }
+
+    /**
+     * @return precompiled conversion of the results of each output column or
+     *         null if the plan was created without a type converter
+     */
+    public SparkOutputConverter getOutputConverter() {
+        return outputConverter;
+    }
+
+    /**
+     * @return index of the {@link #FAILED_COLUMN} or -1 if the output rows do
+     *         not flag failed context values
+     */
+    public int getFailedColumnIndex() {
+        return failedColumnIdx;
+    }
+
+    /**
+     * Allocate the output row data for a single context value. There is one row
+     * per parameter group with the context key and parameters columns populated.
+     *
+     * @param contextKey Context value of the context under evaluation
+     * @return array of output row data indexed by parameter group and then by
+     *         output column
+     */
+    public Object[][] newResultRows(Object contextKey) {
+        Object[][] rows = new Object[parameterGroups.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            Object[] data = new Object[rowWidth];
+            data[CONTEXT_KEY_IDX] = contextKey;
+            data[PARAMETERS_IDX] = parameterGroups.get(i);
+            rows[i] = data;
+        }
+        return rows;
+    }
+}
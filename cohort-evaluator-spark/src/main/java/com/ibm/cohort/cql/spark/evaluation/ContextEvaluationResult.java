@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import com.ibm.cohort.cql.spark.metadata.ContextJoinPlan;
+import com.ibm.cohort.cql.spark.metadata.ContextSkewStatistics;
+import com.ibm.cohort.cql.spark.metadata.IncrementalStatistics;
+import com.ibm.cohort.cql.spark.metadata.SharedDatasetStatistics;
+
+/**
+ * Statistics collected during the evaluation of a single aggregation context.
+ * Results are returned by each context evaluation, which may run on its own
+ * driver thread, and are added to the batch summary in context order once all
+ * contexts are complete.
+ */
+public class ContextEvaluationResult {
+    private final String contextName;
+    private final long executions;
+    private final long runtimeMillis;
+    private ContextSkewStatistics skewStatistics;
+    private ContextJoinPlan joinPlan;
+    private SharedDatasetStatistics sharedDatasetStatistics;
+    private IncrementalStatistics incrementalStatistics;
+
+    /**
+     * @param contextName   Name of the aggregation context
+     * @param executions    Number of context values that were evaluated
+     * @param runtimeMillis Wall clock time spent evaluating and writing the context
+     */
+    public ContextEvaluationResult(String contextName, long executions, long runtimeMillis) {
+        this.contextName = contextName;
+        this.executions = executions;
+        this.runtimeMillis = runtimeMillis;
+    }
+
+    public String getContextName() {
+        return contextName;
+    }
+
+    public long getExecutions() {
+        return executions;
+    }
+
+    public long getRuntimeMillis() {
+        return runtimeMillis;
+    }
+
+    public ContextSkewStatistics getSkewStatistics() {
+        return skewStatistics;
+    }
+
+    public void setSkewStatistics(ContextSkewStatistics skewStatistics) {
+        this.skewStatistics = skewStatistics;
+    }
+
+    public ContextJoinPlan getJoinPlan() {
+        return joinPlan;
+    }
+
+    public void setJoinPlan(ContextJoinPlan joinPlan) {
+        this.joinPlan = joinPlan;
+    }
+
+    public SharedDatasetStatistics getSharedDatasetStatistics() {
+        return sharedDatasetStatistics;
+    }
+
+    public void setSharedDatasetStatistics(SharedDatasetStatistics sharedDatasetStatistics) {
+        this.sharedDatasetStatistics = sharedDatasetStatistics;
+    }
+
+    public IncrementalStatistics getIncrementalStatistics() {
+        return incrementalStatistics;
+    }
+
+    public void setIncrementalStatistics(IncrementalStatistics incrementalStatistics) {
+        this.incrementalStatistics = incrementalStatistics;
+    }
+}
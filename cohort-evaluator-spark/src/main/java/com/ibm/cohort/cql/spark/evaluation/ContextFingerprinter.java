@@ -0,0 +1,152 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.StreamSupport;
+
+import org.apache.spark.sql.Row;
+
+import scala.Tuple2;
+
+/**
+ * Calculates stable fingerprints that are used to detect changes between
+ * evaluation runs.
+ *
+ * A context fingerprint summarizes the input rows of a single context value.
+ * Each row is hashed from the string form of its column values, so the hash
+ * does not depend on JVM identity hash codes, and the row hashes are combined
+ * in a way that does not depend on row order. The grouped rows for a context are
+ * not sorted, so two runs over the same data produce the same fingerprint even
+ * when the rows arrive in a different order.
+ *
+ * A job fingerprint summarizes everything other than the input data that
+ * determines the results of a context (e.g. library content and versions,
+ * parameters, and the output schema).
+ */
+public class ContextFingerprinter {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final char NULL_MARKER = '\u0000';
+    private static final char VALUE_SEPARATOR = '\u001f';
+
+    private ContextFingerprinter() {
+    }
+
+    /**
+     * Calculate the fingerprint of the input rows for a single context value.
+     *
+     * @param rows Input rows for the context value
+     * @return fingerprint that is independent of row order
+     */
+    public static long fingerprint(Iterable<Row> rows) {
+        long sum = 0;
+        long xor = 0;
+        long count = 0;
+        for (Row row : rows) {
+            long hash = fingerprint(row);
+            sum += hash;
+            xor ^= hash;
+            count++;
+        }
+        return mix(sum ^ mix(xor + count));
+    }
+
+    /**
+     * Calculate the input fingerprint of each context value in a partition.
+     *
+     * @param rowsByContextIterator Data for each evaluation context in the partition
+     * @return fingerprint of the input rows keyed by context value
+     */
+    public static <T extends Iterable<Row>> Iterator<Tuple2<Object, Long>> fingerprintPartition(Iterator<Tuple2<Object, T>> rowsByContextIterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rowsByContextIterator, Spliterator.ORDERED), false)
+                .map(rowsByContext -> new Tuple2<>(rowsByContext._1(), fingerprint(rowsByContext._2())))
+                .iterator();
+    }
+
+    /**
+     * Calculate the fingerprint of a single row.
+     *
+     * @param row Input row
+     * @return row fingerprint
+     */
+    public static long fingerprint(Row row) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < row.length(); i++) {
+            Object value = row.get(i);
+            if (value == null) {
+                hash = update(hash, NULL_MARKER);
+            }
+            else if (value instanceof byte[]) {
+                for (byte b : (byte[]) value) {
+                    hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+                }
+            }
+            else {
+                String text = value.toString();
+                for (int j = 0; j < text.length(); j++) {
+                    hash = update(hash, text.charAt(j));
+                }
+            }
+            hash = update(hash, VALUE_SEPARATOR);
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Calculate a fingerprint over a sequence of text parts using SHA-256.
+     *
+     * @param parts Text that describes the evaluation logic. Null parts are
+     *              allowed.
+     * @return hex encoded digest
+     */
+    public static String jobFingerprint(Iterable<String> parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        for (String part : parts) {
+            if (part != null) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) VALUE_SEPARATOR);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static long update(long hash, char c) {
+        hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+        return (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+
+    /**
+     * Finalization step of MurmurHash3 that spreads the bits of the hash so that
+     * row hashes can be combined by addition.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
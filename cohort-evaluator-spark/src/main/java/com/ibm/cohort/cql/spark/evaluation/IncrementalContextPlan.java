@@ -0,0 +1,248 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import static org.apache.spark.sql.functions.col;
+import static org.apache.spark.sql.functions.lit;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.Optional;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+
+import scala.Tuple2;
+
+/**
+ * Compares the input fingerprints of each context value in the current run
+ * with the fingerprint table written by a previous run of the same aggregation
+ * context and decides which context values need to be evaluated.
+ *
+ * A fingerprint table has one row per context value with the context key
+ * column, the fingerprint of the grouped input rows for the context value, and
+ * the job fingerprint of the run that produced it. When there is no previous
+ * table, the key column of the previous table does not match, or the previous
+ * table was written with a different job fingerprint (i.e. the libraries,
+ * parameters, or output schema have changed), every context value is
+ * evaluated. Otherwise only new context values and context values whose input
+ * fingerprint changed are evaluated and the previous results for the remaining
+ * context values can be carried forward.
+ */
+public class IncrementalContextPlan {
+
+    /**
+     * Column that holds the fingerprint of the input rows for each context value.
+     */
+    public static final String FINGERPRINT_COLUMN = "__FINGERPRINT";
+
+    /**
+     * Column that holds the job fingerprint of the run that wrote the table.
+     */
+    public static final String JOB_FINGERPRINT_COLUMN = "__JOB_FINGERPRINT";
+
+    private static final String PREVIOUS_KEY_COLUMN = "__PREVIOUS_KEY";
+    private static final String PREVIOUS_FINGERPRINT_COLUMN = "__PREVIOUS_FINGERPRINT";
+
+    private final Dataset<Row> fingerprints;
+    private final Dataset<Row> previousFingerprints;
+    private final String keyColumn;
+    private final boolean fullRecompute;
+
+    /**
+     * @param fingerprints         Fingerprint table for the current run
+     * @param previousFingerprints Fingerprint table written by the previous run or
+     *                             null if there is no previous run
+     * @param jobFingerprint       Job fingerprint of the current run
+     */
+    public IncrementalContextPlan(Dataset<Row> fingerprints, Dataset<Row> previousFingerprints, String jobFingerprint) {
+        this.fingerprints = fingerprints;
+        this.keyColumn = fingerprints.columns()[0];
+
+        boolean usePrevious = previousFingerprints != null
+                && keyColumnMatches(fingerprints.schema(), previousFingerprints.schema())
+                && previousFingerprints.filter(col(JOB_FINGERPRINT_COLUMN).notEqual(lit(jobFingerprint))).isEmpty();
+
+        this.previousFingerprints = usePrevious ? previousFingerprints : null;
+        this.fullRecompute = !usePrevious;
+    }
+
+    /**
+     * Create the schema of a fingerprint table.
+     *
+     * @param keyField Context key column of the aggregation context output
+     * @return fingerprint table schema
+     */
+    public static StructType getFingerprintSchema(StructField keyField) {
+        return new StructType()
+                .add(keyField)
+                .add(FINGERPRINT_COLUMN, DataTypes.LongType, false)
+                .add(JOB_FINGERPRINT_COLUMN, DataTypes.StringType, false);
+    }
+
+    private static boolean keyColumnMatches(StructType current, StructType previous) {
+        StructField currentKey = current.fields()[0];
+        StructField previousKey = previous.fields()[0];
+        return currentKey.name().equals(previousKey.name())
+                && currentKey.dataType().equals(previousKey.dataType())
+                && previous.getFieldIndex(FINGERPRINT_COLUMN).isDefined()
+                && previous.getFieldIndex(JOB_FINGERPRINT_COLUMN).isDefined();
+    }
+
+    /**
+     * @return true if every context value must be evaluated and no previous
+     *         results can be carried forward
+     */
+    public boolean isFullRecompute() {
+        return fullRecompute;
+    }
+
+    /**
+     * @return name of the context key column
+     */
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * @return fingerprint table for the current run
+     */
+    public Dataset<Row> getFingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * @return context values that are new or whose input fingerprint changed.
+     *         Every context value is returned for a full recompute.
+     */
+    public Dataset<Row> getChangedKeys() {
+        Dataset<Row> result;
+        if (fullRecompute) {
+            result = fingerprints.select(col(keyColumn));
+        }
+        else {
+            result = joinPrevious()
+                    .filter(col(PREVIOUS_FINGERPRINT_COLUMN).isNull()
+                            .or(col(PREVIOUS_FINGERPRINT_COLUMN).notEqual(col(FINGERPRINT_COLUMN))))
+                    .select(col(keyColumn));
+        }
+        return result;
+    }
+
+    /**
+     * @return context values whose input fingerprint is unchanged and whose
+     *         previous results can be carried forward. No context values are
+     *         returned for a full recompute.
+     */
+    public Dataset<Row> getUnchangedKeys() {
+        Dataset<Row> result;
+        if (fullRecompute) {
+            result = fingerprints.select(col(keyColumn)).limit(0);
+        }
+        else {
+            result = joinPrevious()
+                    .filter(col(PREVIOUS_FINGERPRINT_COLUMN).equalTo(col(FINGERPRINT_COLUMN)))
+                    .select(col(keyColumn));
+        }
+        return result;
+    }
+
+    /**
+     * @return number of context values that were present in the previous run,
+     *         but no longer have any input data
+     */
+    public long getRemovedCount() {
+        long result = 0;
+        if (!fullRecompute) {
+            Dataset<Row> currentKeys = fingerprints.select(col(keyColumn).as(PREVIOUS_KEY_COLUMN));
+            result = previousFingerprints
+                    .join(currentKeys, previousFingerprints.col(keyColumn).equalTo(currentKeys.col(PREVIOUS_KEY_COLUMN)), "left_anti")
+                    .count();
+        }
+        return result;
+    }
+
+    /**
+     * Collect the changed context values to the driver.
+     *
+     * @return context values that need to be evaluated
+     */
+    public List<Object> collectChangedKeys() {
+        return getChangedKeys().collectAsList().stream()
+                .map(row -> row.get(0))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Limit keyed input data to the context values that are new or changed. The
+     * changed context values are joined with the input data on the executors and
+     * are never collected to the driver. When the input data has a partitioner,
+     * such as the output of a grouping or sorting shuffle, only the changed
+     * context values are shuffled to match it and the input partitions are
+     * filtered in place, which keeps the order of the rows in each partition.
+     * Otherwise the input data is joined with the changed context values.
+     *
+     * @param rowsByContext Input data keyed by context value
+     * @return input data for the context values that need to be evaluated. The
+     *         input data is returned as-is for a full recompute.
+     */
+    public <T> JavaPairRDD<Object, T> filterChanged(JavaPairRDD<Object, T> rowsByContext) {
+        JavaPairRDD<Object, T> result = rowsByContext;
+        if (!fullRecompute) {
+            JavaPairRDD<Object, Boolean> changedKeys = getChangedKeys().javaRDD()
+                    .mapToPair(row -> new Tuple2<>(row.get(0), Boolean.TRUE));
+
+            Optional<Partitioner> partitioner = rowsByContext.partitioner();
+            if (partitioner.isPresent()) {
+                result = JavaPairRDD.fromJavaRDD(rowsByContext.zipPartitions(
+                        changedKeys.partitionBy(partitioner.get()), IncrementalContextPlan::filterPartition));
+            }
+            else {
+                result = rowsByContext.join(changedKeys).mapValues(Tuple2::_1);
+            }
+        }
+        return result;
+    }
+
+    private static <T> Iterator<Tuple2<Object, T>> filterPartition(Iterator<Tuple2<Object, T>> rows, Iterator<Tuple2<Object, Boolean>> changedKeys) {
+        Set<Object> keys = new HashSet<>();
+        changedKeys.forEachRemaining(key -> keys.add(key._1()));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED), false)
+                .filter(row -> keys.contains(row._1()))
+                .iterator();
+    }
+
+    /**
+     * Select the previous results of the unchanged context values.
+     *
+     * @param previousResults Results written by the previous run
+     * @return previous results that can be carried forward
+     */
+    public Dataset<Row> selectCarriedForward(Dataset<Row> previousResults) {
+        Dataset<Row> unchangedKeys = getUnchangedKeys().select(col(keyColumn).as(PREVIOUS_KEY_COLUMN));
+        return previousResults.join(unchangedKeys,
+                previousResults.col(keyColumn).equalTo(unchangedKeys.col(PREVIOUS_KEY_COLUMN)), "left_semi");
+    }
+
+    private Dataset<Row> joinPrevious() {
+        Dataset<Row> previous = previousFingerprints.select(
+                col(keyColumn).as(PREVIOUS_KEY_COLUMN),
+                col(FINGERPRINT_COLUMN).as(PREVIOUS_FINGERPRINT_COLUMN));
+        return fingerprints.join(previous,
+                fingerprints.col(keyColumn).equalTo(previous.col(PREVIOUS_KEY_COLUMN)), "left_outer");
+    }
+}
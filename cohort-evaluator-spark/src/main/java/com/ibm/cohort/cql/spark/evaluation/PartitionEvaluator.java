@@ -0,0 +1,571 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.util.LongAccumulator;
+
+import com.ibm.cohort.cql.data.CqlDataProvider;
+import com.ibm.cohort.cql.evaluation.CqlDebug;
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequest;
+import com.ibm.cohort.cql.evaluation.CqlEvaluationResult;
+import com.ibm.cohort.cql.evaluation.CqlEvaluator;
+import com.ibm.cohort.cql.evaluation.CqlExpressionConfiguration;
+import com.ibm.cohort.cql.profiling.CqlProfiler;
+import com.ibm.cohort.cql.spark.aggregation.ContextRetriever;
+import com.ibm.cohort.cql.spark.aggregation.SpillableRowBuffer;
+import com.ibm.cohort.cql.spark.aggregation.SpilledDataTypeRows;
+import com.ibm.cohort.cql.spark.data.MemoizingSparkDataRow;
+import com.ibm.cohort.cql.spark.data.SparkDataRow;
+import com.ibm.cohort.cql.spark.data.SparkSchemaAccessorCache;
+import com.ibm.cohort.cql.spark.data.SparkTypeConverter;
+import com.ibm.cohort.cql.spark.metadata.EvaluationStatistics;
+import com.ibm.cohort.cql.spark.metrics.CqlProfileAccumulator;
+import com.ibm.cohort.cql.spark.metrics.CustomMetricSparkPlugin;
+import com.ibm.cohort.cql.spark.metrics.EvaluationErrorAccumulator;
+import com.ibm.cohort.cql.spark.metrics.EvaluationStatisticsAccumulator;
+import com.ibm.cohort.cql.spark.metrics.MeteredDataRowRetrieveProvider;
+import com.ibm.cohort.cql.spark.util.EncodedParametersCache;
+import com.ibm.cohort.cql.terminology.CqlTerminologyProvider;
+import com.ibm.cohort.datarow.engine.DataRowDataProvider;
+import com.ibm.cohort.datarow.engine.DataRowRetrieveProvider;
+import com.ibm.cohort.datarow.model.ConversionCounter;
+import com.ibm.cohort.datarow.model.DataRow;
+
+import scala.Tuple2;
+
+/**
+ * Evaluates the contexts of a single Spark partition for one aggregation
+ * context. The task closures of an evaluation only reference this object, so
+ * each task carries the type converter, the handles of the shared objects and
+ * broadcasts, the accumulators, and the few program arguments used during
+ * evaluation instead of the whole evaluator.
+ */
+public class PartitionEvaluator implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String contextName;
+    private final StructType resultsSchema;
+    private final ZonedDateTime batchRunTime;
+    private final SharedEvaluationObjects sharedObjects;
+    private final SparkTypeConverter typeConverter;
+    private final EncodedParametersCache encodedParametersCache;
+    private final LongAccumulator perContextAccum;
+    private final EvaluationErrorAccumulator errorAccum;
+
+    private boolean batchExpressions;
+    private boolean debug;
+    private boolean profile;
+    private boolean memoizeRowValues;
+
+    private EvaluationStatisticsAccumulator statisticsAccum;
+    private CqlProfileAccumulator profileAccum;
+    private LongAccumulator rowValueConversionsAccum;
+    private LongAccumulator rowValueReusesAccum;
+
+    /**
+     * @param contextName            Context name corresponding to the library
+     *                               context key currently under evaluation.
+     * @param resultsSchema          StructType containing the schema data for the
+     *                               output table that will be created.
+     * @param batchRunTime           Single unified timestamp for all contexts
+     * @param sharedObjects          Job specification, column encoder, and providers
+     *                               of the run
+     * @param typeConverter          Converter used for Spark to CQL and CQL to Spark
+     *                               type conversions
+     * @param encodedParametersCache Cache of JSON-encoded request parameters
+     * @param perContextAccum        Spark accumulator that tracks each individual
+     *                               context evaluation
+     * @param errorAccum             Spark accumulator that tracks CQL evaluation
+     *                               errors or null if errors should halt evaluation
+     */
+    public PartitionEvaluator(String contextName, StructType resultsSchema, ZonedDateTime batchRunTime,
+            SharedEvaluationObjects sharedObjects, SparkTypeConverter typeConverter, EncodedParametersCache encodedParametersCache,
+            LongAccumulator perContextAccum, EvaluationErrorAccumulator errorAccum) {
+        this.contextName = contextName;
+        this.resultsSchema = resultsSchema;
+        this.batchRunTime = batchRunTime;
+        this.sharedObjects = sharedObjects;
+        this.typeConverter = typeConverter;
+        this.encodedParametersCache = encodedParametersCache;
+        this.perContextAccum = perContextAccum;
+        this.errorAccum = errorAccum;
+    }
+
+    public PartitionEvaluator setBatchExpressions(boolean batchExpressions) {
+        this.batchExpressions = batchExpressions;
+        return this;
+    }
+
+    public PartitionEvaluator setDebug(boolean debug) {
+        this.debug = debug;
+        return this;
+    }
+
+    public PartitionEvaluator setProfile(boolean profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    public PartitionEvaluator setMemoizeRowValues(boolean memoizeRowValues) {
+        this.memoizeRowValues = memoizeRowValues;
+        return this;
+    }
+
+    /**
+     * @param statisticsAccum Spark accumulator that rolls up the evaluation
+     *                        statistics of each context or null
+     * @return this object
+     */
+    public PartitionEvaluator setStatisticsAccumulator(EvaluationStatisticsAccumulator statisticsAccum) {
+        this.statisticsAccum = statisticsAccum;
+        return this;
+    }
+
+    /**
+     * @param profileAccum Spark accumulator that rolls up the CQL profile
+     *                     entries or null if profiling is disabled
+     * @return this object
+     */
+    public PartitionEvaluator setProfileAccumulator(CqlProfileAccumulator profileAccum) {
+        this.profileAccum = profileAccum;
+        return this;
+    }
+
+    /**
+     * @param rowValueConversionsAccum Spark accumulator that counts the row values
+     *                                 converted by memoizing data rows or null
+     * @param rowValueReusesAccum      Spark accumulator that counts the row values
+     *                                 reused by memoizing data rows or null
+     * @return this object
+     */
+    public PartitionEvaluator setRowValueAccumulators(LongAccumulator rowValueConversionsAccum, LongAccumulator rowValueReusesAccum) {
+        this.rowValueConversionsAccum = rowValueConversionsAccum;
+        this.rowValueReusesAccum = rowValueReusesAccum;
+        return this;
+    }
+
+    /**
+     * Evaluate the input CQL for all of the contexts in a single Spark partition.
+     * Providers, the job specification, and the {@link ContextEvaluationPlan} are
+     * resolved once for the partition and the retrieve provider, data provider, and
+     * evaluator objects are reused for every context in the partition. Contexts are
+     * evaluated lazily as the returned iterator is consumed.
+     *
+     * @param rowsByContextIterator Data for each evaluation context in the partition
+     * @param <T> type of the rows of a single context
+     * @return Evaluation results for all contexts in the partition with one row
+     *         per context and parameter group
+     * @throws Exception if the model info or CQL libraries cannot be loaded for any
+     *                   reason
+     */
+    public <T extends Iterable<Row>> Iterator<Row> evaluatePartition(Iterator<Tuple2<Object, T>> rowsByContextIterator) throws Exception {
+        CqlTerminologyProvider termProvider = sharedObjects.getTerminologyProvider();
+
+        DataRowRetrieveProvider retrieveProvider = new MeteredDataRowRetrieveProvider(Collections.emptyMap(), termProvider,
+                dataType -> recordRetrieve(dataType));
+        retrieveProvider.setEvaluationOffset(batchRunTime.getOffset());
+        CqlDataProvider dataProvider = new DataRowDataProvider(getDataRowClass(), retrieveProvider);
+
+        CqlEvaluator evaluator = new CqlEvaluator()
+            .setLibraryProvider(sharedObjects.getLibraryProvider())
+            .setDataProvider(dataProvider)
+            .setTerminologyProvider(termProvider)
+            .setExternalFunctionProvider(sharedObjects.getExternalFunctionProvider())
+            .setProfiling(profile);
+
+        ContextEvaluationPlan plan = new ContextEvaluationPlan(contextName, resultsSchema,
+                sharedObjects.getFilteredJobSpecificationWithIds(), sharedObjects.getSparkOutputColumnEncoder(), encodedParametersCache, typeConverter);
+
+        ConversionCounter conversionCounter = new ConversionCounter();
+        Function<Row, DataRow> dataRowFactory = getDataRowFactory(conversionCounter);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rowsByContextIterator, Spliterator.ORDERED), false)
+                .flatMap(rowsByContext -> {
+                    long startNanos = System.nanoTime();
+                    retrieveProvider.setData(getRetrieveData(rowsByContext._2(), dataRowFactory));
+                    List<Row> results = evaluateRows(rowsByContext._1(), plan, evaluator);
+                    recordContextEvaluation(countRows(rowsByContext._2()), System.nanoTime() - startNanos);
+                    reportConversions(conversionCounter);
+                    reportProfile();
+                    return results.stream();
+                })
+                .iterator();
+    }
+
+    /**
+     * Evaluate a precompiled evaluation plan for a single context. The evaluator
+     * must already be configured with a data provider that supplies the data for
+     * the context.
+     *
+     * @param contextKey Context value of the context under evaluation
+     * @param plan       Precompiled evaluation plan for the aggregation context
+     * @param evaluator  configured CQLEvaluator (data provider, term provider,
+     *                   library provider all previously setup)
+     * @return One output row per parameter group. The rows flag whether any
+     *         expression failed when the plan has a
+     *         {@link ContextEvaluationPlan#FAILED_COLUMN}.
+     */
+    protected List<Row> evaluateRows(Object contextKey, ContextEvaluationPlan plan, CqlEvaluator evaluator) {
+        perContextAccum.add(1);
+
+        Object[][] results = plan.newResultRows(contextKey);
+        boolean failed;
+        if (batchExpressions) {
+            failed = evaluateBatched(contextKey, plan, evaluator, results);
+        }
+        else {
+            failed = evaluateSingly(contextKey, plan, evaluator, results);
+        }
+
+        int failedColumnIdx = plan.getFailedColumnIndex();
+        List<Row> rows = new ArrayList<>(results.length);
+        for (Object[] data : results) {
+            if (failedColumnIdx >= 0) {
+                data[failedColumnIdx] = failed;
+            }
+            rows.add(RowFactory.create(data));
+        }
+        return rows;
+    }
+
+    /**
+     * Evaluate each expression of each request as a separate CQL evaluation. The
+     * CQL expression cache is cleared before each expression is evaluated.
+     *
+     * @param contextId Context value of the context under evaluation
+     * @param plan      Precompiled evaluation plan for the aggregation context
+     * @param evaluator configured CQLEvaluator
+     * @param results   Output row data indexed by parameter group and output
+     *                  column that is updated with the results
+     * @return true if any expression failed
+     */
+    protected boolean evaluateSingly(Object contextId, ContextEvaluationPlan plan, CqlEvaluator evaluator, Object[][] results) {
+        boolean failed = false;
+        for (ContextEvaluationPlan.RequestPlan requestPlan : plan.getRequestPlans()) {
+            CqlEvaluationRequest request = requestPlan.getRequest();
+            Object[] data = results[requestPlan.getParameterGroup()];
+
+            for (CqlExpressionConfiguration expression : request.getExpressions()) {
+                CqlEvaluationRequest singleRequest = new CqlEvaluationRequest(request);
+                singleRequest.setExpressions(Collections.singleton(expression));
+                long startNanos = System.nanoTime();
+                try {
+                    CqlEvaluationResult result = evaluator.evaluate(singleRequest, debug ? CqlDebug.DEBUG : CqlDebug.NONE, batchRunTime);
+                    recordExpressionEvaluation(System.nanoTime() - startNanos);
+                    for (Map.Entry<String, Object> entry : result.getExpressionResults().entrySet()) {
+                        Integer columnIndex = requestPlan.getColumnIndex(entry.getKey());
+                        if (columnIndex != null) {
+                            data[columnIndex] = plan.getOutputConverter().convert(columnIndex, entry.getValue());
+                        }
+                    }
+                } catch (Throwable th) {
+                    handleEvaluationError(contextId, request.getDescriptor().getLibraryId(), expression.getName(), th);
+                    failed = true;
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Evaluate all expressions of all requests that share a library, parameter set, and
+     * CQL context in a single CQL evaluation. The expressions share one expression cache,
+     * so defines and retrieves that are referenced by more than one output column are
+     * only evaluated once per context. Failures are still attributed to the individual
+     * expression that failed.
+     *
+     * @param contextId Context value of the context under evaluation
+     * @param plan      Precompiled evaluation plan for the aggregation context
+     * @param evaluator configured CQLEvaluator
+     * @param results   Output row data indexed by parameter group and output
+     *                  column that is updated with the results
+     * @return true if any expression failed
+     */
+    protected boolean evaluateBatched(Object contextId, ContextEvaluationPlan plan, CqlEvaluator evaluator, Object[][] results) {
+        CqlDebug cqlDebug = debug ? CqlDebug.DEBUG : CqlDebug.NONE;
+
+        boolean failed = false;
+        for (List<ContextEvaluationPlan.RequestPlan> group : plan.getEvaluationContextGroups()) {
+            CqlEvaluationRequest first = group.get(0).getRequest();
+
+            Set<String> expressionNames = new HashSet<>();
+            group.forEach(requestPlan -> expressionNames.addAll(requestPlan.getRequest().getExpressionNames()));
+
+            Map<String, Throwable> failures = new HashMap<>();
+            Map<String, Object> groupResults;
+            long startNanos = System.nanoTime();
+            try {
+                groupResults = evaluator.evaluate(first.getDescriptor(), first.getParameters(),
+                        Pair.of(first.getContextKey(), first.getContextValue()), expressionNames, cqlDebug,
+                        batchRunTime, failures::put).getExpressionResults();
+                recordExpressionEvaluation(System.nanoTime() - startNanos);
+            } catch (Throwable th) {
+                // The context could not be initialized (e.g. the library failed to load), so
+                // every expression in the group failed.
+                groupResults = Collections.emptyMap();
+                expressionNames.forEach(name -> failures.put(name, th));
+            }
+
+            for (ContextEvaluationPlan.RequestPlan requestPlan : group) {
+                Object[] data = results[requestPlan.getParameterGroup()];
+
+                for (String expressionName : requestPlan.getRequest().getExpressionNames()) {
+                    Throwable th = failures.get(expressionName);
+                    if (th != null) {
+                        handleEvaluationError(contextId, requestPlan.getRequest().getDescriptor().getLibraryId(), expressionName, th);
+                        failed = true;
+                    }
+                    else {
+                        Integer columnIndex = requestPlan.getColumnIndex(expressionName);
+                        if (columnIndex != null) {
+                            data[columnIndex] = plan.getOutputConverter().convert(columnIndex, groupResults.get(expressionName));
+                        }
+                    }
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Record or rethrow a CQL evaluation failure depending on whether errors are being
+     * accumulated or should halt the program.
+     *
+     * @param contextId      Context value of the context under evaluation
+     * @param libraryId      Library of the expression that failed
+     * @param expressionName Name of the expression that failed
+     * @param th             Evaluation failure
+     */
+    protected void handleEvaluationError(Object contextId, String libraryId, String expressionName, Throwable th) {
+        CustomMetricSparkPlugin.evaluationErrorsCounter.inc();
+        EvaluationStatistics statistics = getEvaluationStatistics();
+        if (statistics != null) {
+            statistics.recordError();
+        }
+        if (errorAccum != null) {
+            errorAccum.addError(contextName, contextId, libraryId, expressionName, th);
+        }
+        else {
+            throw new RuntimeException(String.format("CQL evaluation failed for ContextName: %s, OutputColumn: %s",
+                                                     String.valueOf(contextName),
+                                                     Collections.singleton(expressionName)), th);
+        }
+    }
+
+    /**
+     * Record the evaluation of a single context value in the executor metrics
+     * and the evaluation statistics of the context.
+     *
+     * @param rows  Number of input rows for the context value or a negative
+     *              number if the rows were not counted
+     * @param nanos Time spent evaluating the context value
+     */
+    protected void recordContextEvaluation(long rows, long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        CustomMetricSparkPlugin.contextEvaluationMicrosHistogram.update(micros);
+        if (rows >= 0) {
+            CustomMetricSparkPlugin.inputRowsPerContextHistogram.update(rows);
+            CustomMetricSparkPlugin.dataRowsConvertedCounter.inc(rows);
+        }
+        EvaluationStatistics statistics = getEvaluationStatistics();
+        if (statistics != null) {
+            statistics.recordContext(Math.max(rows, 0), micros);
+        }
+    }
+
+    /**
+     * Record a single CQL evaluation in the executor metrics and the evaluation
+     * statistics of the context.
+     *
+     * @param nanos Time spent in the CQL engine
+     */
+    protected void recordExpressionEvaluation(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        CustomMetricSparkPlugin.expressionEvaluationMicrosHistogram.update(micros);
+        EvaluationStatistics statistics = getEvaluationStatistics();
+        if (statistics != null) {
+            statistics.recordExpression(micros);
+        }
+    }
+
+    /**
+     * Record a CQL retrieve in the executor metrics and the evaluation
+     * statistics of the context.
+     *
+     * @param dataType Retrieved datatype
+     */
+    protected void recordRetrieve(String dataType) {
+        CustomMetricSparkPlugin.getRetrieveCounter(dataType).inc();
+        EvaluationStatistics statistics = getEvaluationStatistics();
+        if (statistics != null) {
+            statistics.recordRetrieve(dataType);
+        }
+    }
+
+    /**
+     * @return mutable evaluation statistics of the context for the current
+     *         task or null if evaluation statistics are not collected
+     */
+    protected EvaluationStatistics getEvaluationStatistics() {
+        return (statisticsAccum != null) ? statisticsAccum.getStatistics(contextName) : null;
+    }
+
+    /**
+     * @param rows Spark rows for a single context
+     * @return number of rows or -1 if the rows cannot be counted without
+     *         reading them again
+     */
+    protected long countRows(Iterable<Row> rows) {
+        long result = -1;
+        if (rows instanceof SpillableRowBuffer) {
+            result = ((SpillableRowBuffer) rows).size();
+        }
+        else if (rows instanceof Collection) {
+            result = ((Collection<?>) rows).size();
+        }
+        return result;
+    }
+
+    /**
+     * Add the row value conversion counts that were collected since the last
+     * report to the Spark accumulators and reset the counter.
+     *
+     * @param conversionCounter Counter used by the data row factory
+     */
+    protected void reportConversions(ConversionCounter conversionCounter) {
+        if (rowValueConversionsAccum != null) {
+            rowValueConversionsAccum.add(conversionCounter.getConversions());
+            rowValueReusesAccum.add(conversionCounter.getReuses());
+        }
+        conversionCounter.reset();
+    }
+
+    /**
+     * Add the CQL profile entries that the current thread recorded since the
+     * last report to the Spark accumulator. A task owns its deserialized copy
+     * of the accumulator, but the local evaluator shares one accumulator
+     * between its threads, so the update is synchronized.
+     */
+    protected void reportProfile() {
+        if (profileAccum != null) {
+            synchronized (profileAccum) {
+                profileAccum.add(CqlProfiler.getInstance().drain());
+            }
+        }
+    }
+
+    /**
+     * Organize the rows for a single context by datatype for use by the
+     * retrieve provider. Contexts that were spilled to disk are exposed as lazy
+     * per-datatype views over the spilled rows, so that the full context does not
+     * have to be converted and held in memory at once.
+     *
+     * @param rows           Spark rows for a single context
+     * @param dataRowFactory Factory used to convert Spark rows to data rows
+     * @return Map of datatype name to data rows for that datatype
+     */
+    protected Map<String, ? extends Iterable<Object>> getRetrieveData(Iterable<Row> rows, Function<Row, DataRow> dataRowFactory) {
+        if (rows instanceof SpillableRowBuffer && ((SpillableRowBuffer) rows).isSpilled()) {
+            return groupSpilledByDataType((SpillableRowBuffer) rows, dataRowFactory);
+        }
+        return groupByDataType(rows, dataRowFactory);
+    }
+
+    /**
+     * Create a lazy view of a spilled context for each datatype in the context.
+     * The datatypes are recorded by the buffer as the rows are added. Each view
+     * re-reads the buffer when iterated and only converts the rows of its own
+     * datatype. The retrieve provider indexes the views by the position of each
+     * row instead of keeping the converted rows, so a filtered retrieve only
+     * converts the rows that match the filter.
+     *
+     * @param buffer         Spilled rows for a single context
+     * @param dataRowFactory Factory used to convert Spark rows to data rows
+     * @return Map of datatype name to a view of the data rows for that datatype
+     */
+    protected Map<String, Iterable<Object>> groupSpilledByDataType(SpillableRowBuffer buffer, Function<Row, DataRow> dataRowFactory) {
+        Map<String, Iterable<Object>> dataByDataType = new HashMap<>();
+        for (String dataType : buffer.getDataTypeCounts().keySet()) {
+            dataByDataType.put(dataType, new SpilledDataTypeRows(buffer, dataType, dataRowFactory));
+        }
+        return dataByDataType;
+    }
+
+    /**
+     * Convert the Spark rows for a single context to the cohort Java model and
+     * organize them by the datatype that each row came from.
+     *
+     * @param rows           Spark rows for a single context
+     * @param dataRowFactory Factory used to convert Spark rows to data rows
+     * @return Map of datatype name to data rows for that datatype
+     */
+    protected Map<String, List<Object>> groupByDataType(Iterable<Row> rows, Function<Row, DataRow> dataRowFactory) {
+        Map<String, List<Object>> dataByDataType = new HashMap<>();
+        for (Row row : rows) {
+            DataRow datarow = dataRowFactory.apply(row);
+            String dataType = (String) datarow.getValue(ContextRetriever.SOURCE_FACT_IDX);
+            List<Object> mappedRows = dataByDataType.computeIfAbsent(dataType, x -> new ArrayList<>());
+            mappedRows.add(datarow);
+        }
+        return dataByDataType;
+    }
+
+    /**
+     * Get the class object that will represent the individual data rows that will
+     * be created and used in the CQL runtime. This is important as the CQL engine
+     * uses the package of model classes to map to data provider implementations.
+     * This method is provided to allow subclasses to override the data row
+     * implementation as needed.
+     *
+     * @return data row implementation class
+     */
+    protected Class<? extends DataRow> getDataRowClass() {
+        return SparkDataRow.class;
+    }
+
+    /**
+     * Get a data row factory that creates memoizing data rows when row value
+     * memoization is enabled. Each factory compiles a schema accessor once for
+     * every distinct row schema it sees, so a factory should be reused for all
+     * the rows of a partition.
+     *
+     * @param conversionCounter Counter that tracks the values converted and
+     *                          reused by memoizing data rows or null
+     * @return data row factory function
+     */
+    protected Function<Row, DataRow> getDataRowFactory(ConversionCounter conversionCounter) {
+        SparkSchemaAccessorCache accessors = new SparkSchemaAccessorCache(typeConverter);
+        Function<Row, DataRow> result;
+        if (memoizeRowValues) {
+            result = (row) -> new MemoizingSparkDataRow(accessors.getAccessor(row.schema()), row, conversionCounter);
+        }
+        else {
+            result = (row) -> new SparkDataRow(accessors.getAccessor(row.schema()), row);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,492 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.ValidatorFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.util.SerializableConfiguration;
+import org.opencds.cqf.cql.engine.data.ExternalFunctionProvider;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequest;
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequests;
+import com.ibm.cohort.cql.evaluation.parameters.Parameter;
+import com.ibm.cohort.cql.functions.AnyColumnFunctions;
+import com.ibm.cohort.cql.functions.CohortExternalFunctionProvider;
+import com.ibm.cohort.cql.library.BroadcastCqlLibraryProvider;
+import com.ibm.cohort.cql.library.ClasspathCqlLibraryProvider;
+import com.ibm.cohort.cql.library.CqlLibraryDescriptor;
+import com.ibm.cohort.cql.library.CqlLibraryDescriptor.Format;
+import com.ibm.cohort.cql.library.CqlLibraryProvider;
+import com.ibm.cohort.cql.library.HadoopBasedCqlLibraryProvider;
+import com.ibm.cohort.cql.library.PriorityCqlLibraryProvider;
+import com.ibm.cohort.cql.spark.SparkCqlEvaluatorArgs;
+import com.ibm.cohort.cql.spark.data.ConfigurableOutputColumnNameEncoder;
+import com.ibm.cohort.cql.spark.data.SparkOutputColumnEncoder;
+import com.ibm.cohort.cql.spark.util.EncodedParametersCache;
+import com.ibm.cohort.cql.terminology.BroadcastTerminologyProvider;
+import com.ibm.cohort.cql.terminology.CqlTerminologyProvider;
+import com.ibm.cohort.cql.terminology.R4FileSystemFhirTerminologyProvider;
+import com.ibm.cohort.cql.terminology.TerminologyIndex;
+import com.ibm.cohort.cql.terminology.UnsupportedTerminologyProvider;
+import com.ibm.cohort.cql.translation.CqlToElmTranslator;
+import com.ibm.cohort.cql.translation.TranslatingCqlLibraryProvider;
+
+/**
+ * The job specification, output column encoder, and library, terminology, and
+ * function providers of a single run. Each object is stored once per JVM in the
+ * {@link SharedObjectRegistry} and is shared by every task thread of an
+ * executor, so the job specification is read, each library is translated, and
+ * each value set is parsed only once per executor.
+ *
+ * Only the arguments, Hadoop configuration, and broadcast handles that are
+ * needed to create the objects are kept, so tasks can resolve the objects
+ * without a reference to the evaluator that started the run.
+ */
+public class SharedEvaluationObjects implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String owner;
+    private final String jobSpecPath;
+    private final Map<String, String> libraries;
+    private final List<String> expressions;
+    private final String defaultOutputColumnDelimiter;
+    private final boolean disableResultGrouping;
+    private final List<String> keyParameterNames;
+    private final String cqlPath;
+    private final List<String> modelInfoPaths;
+    private final boolean enableDateRangeOptimization;
+    private final String terminologyPath;
+    private final EncodedParametersCache encodedParametersCache;
+
+    /*
+     * The driver and the local evaluator use the configuration directly. Tasks
+     * read the broadcast configuration.
+     */
+    private final transient SerializableConfiguration hadoopConfiguration;
+    private final Broadcast<SerializableConfiguration> broadcastHadoopConfiguration;
+
+    private Broadcast<Map<CqlLibraryDescriptor, String>> broadcastLibraries;
+    private String broadcastLibrariesKey;
+    private Broadcast<TerminologyIndex> broadcastTerminology;
+    private String broadcastTerminologyKey;
+
+    /**
+     * @param owner                        Name that is part of every key, usually
+     *                                     the class name of the evaluator
+     * @param args                         Program arguments
+     * @param encodedParametersCache       Cache of JSON-encoded request parameters
+     * @param hadoopConfiguration          Hadoop configuration or null if the
+     *                                     broadcast configuration is used
+     * @param broadcastHadoopConfiguration Broadcast Hadoop configuration or null
+     *                                     if the objects are only used in this JVM
+     */
+    public SharedEvaluationObjects(String owner, SparkCqlEvaluatorArgs args, EncodedParametersCache encodedParametersCache,
+            SerializableConfiguration hadoopConfiguration, Broadcast<SerializableConfiguration> broadcastHadoopConfiguration) {
+        this.owner = owner;
+        this.jobSpecPath = args.jobSpecPath;
+        this.libraries = args.libraries;
+        this.expressions = args.expressions;
+        this.defaultOutputColumnDelimiter = args.defaultOutputColumnDelimiter;
+        this.disableResultGrouping = args.disableResultGrouping;
+        this.keyParameterNames = args.keyParameterNames;
+        this.cqlPath = args.cqlPath;
+        this.modelInfoPaths = args.modelInfoPaths;
+        this.enableDateRangeOptimization = args.enableDateRangeOptimization;
+        this.terminologyPath = args.terminologyPath;
+        this.encodedParametersCache = encodedParametersCache;
+        this.hadoopConfiguration = hadoopConfiguration;
+        this.broadcastHadoopConfiguration = broadcastHadoopConfiguration;
+    }
+
+    /**
+     * Serve the libraries from broadcast ELM. Libraries that are not part of
+     * the broadcast are still translated.
+     *
+     * @param broadcastLibraries    ELM of every library used by the job or null
+     * @param broadcastLibrariesKey Key of the library provider that serves the
+     *                              broadcast ELM
+     * @return this object
+     */
+    public SharedEvaluationObjects setBroadcastLibraries(Broadcast<Map<CqlLibraryDescriptor, String>> broadcastLibraries, String broadcastLibrariesKey) {
+        this.broadcastLibraries = broadcastLibraries;
+        this.broadcastLibrariesKey = broadcastLibrariesKey;
+        return this;
+    }
+
+    /**
+     * Answer terminology requests from a broadcast index. ValueSets that are not
+     * part of the index are still read from the terminology path.
+     *
+     * @param broadcastTerminology    Codes of every ValueSet used by the job or null
+     * @param broadcastTerminologyKey Key of the terminology provider that serves
+     *                                the broadcast index
+     * @return this object
+     */
+    public SharedEvaluationObjects setBroadcastTerminology(Broadcast<TerminologyIndex> broadcastTerminology, String broadcastTerminologyKey) {
+        this.broadcastTerminology = broadcastTerminology;
+        this.broadcastTerminologyKey = broadcastTerminologyKey;
+        return this;
+    }
+
+    /**
+     * @return the unfiltered job specification, reading it if necessary
+     * @throws Exception if there was an error reading the job specification.
+     */
+    public CqlEvaluationRequests getJobSpecification() throws Exception {
+        return SharedObjectRegistry.get(getJobSpecificationKey(), () -> readJobSpecification(jobSpecPath));
+    }
+
+    /**
+     * @return key of the unfiltered job specification in the shared object registry
+     */
+    public String getJobSpecificationKey() {
+        return SharedObjectRegistry.getKey("JobSpecification", owner, jobSpecPath);
+    }
+
+    /**
+     * @return the job specification filtered by the library and expression
+     *         arguments with a unique id assigned to each request, reading it if
+     *         necessary
+     * @throws Exception if there was an error reading the job specification.
+     */
+    public CqlEvaluationRequests getFilteredJobSpecificationWithIds() throws Exception {
+        return SharedObjectRegistry.get(getFilteredJobSpecificationKey(), this::createFilteredJobSpecificationWithIds);
+    }
+
+    /**
+     * @return key of the filtered job specification in the shared object registry
+     */
+    public String getFilteredJobSpecificationKey() {
+        return SharedObjectRegistry.getKey("FilteredJobSpecification", owner, jobSpecPath, libraries, expressions);
+    }
+
+    /**
+     * Read the job specification file and apply the filtering logic and ids. A
+     * new copy of the job specification is read because filtering modifies the
+     * requests.
+     *
+     * @return filtered job specification
+     * @throws Exception if there was an error reading the job specification.
+     */
+    protected CqlEvaluationRequests createFilteredJobSpecificationWithIds() throws Exception {
+        CqlEvaluationRequests filteredRequests = getFilteredRequests(readJobSpecification(jobSpecPath), libraries, expressions);
+
+        List<CqlEvaluationRequest> evaluations = filteredRequests.getEvaluations();
+        if (evaluations != null && !evaluations.isEmpty()) {
+            int i = 1;
+            for (CqlEvaluationRequest evaluation : evaluations) {
+                evaluation.setId(i);
+                i++;
+            }
+            filteredRequests.setEvaluations(evaluations);
+        }
+        return filteredRequests;
+    }
+
+    /**
+     * @param requests     Request object to filter.
+     * @param libraries    Map of library id to version used for filtering
+     *                     down request based on library id. If this argument
+     *                     is null or empty, then no library id filtering
+     *                     is performed.
+     * @param expressions  Used to optionally override which expressions will
+     *                     run for each individual CqlEvaluationRequest. If this
+     *                     argument is null or empty, no expressions are overwritten.
+     *
+     * @return CqlEvaluationRequests with the original requests optionally filtered
+     *         based on the library ids the.
+     *         Requests will optionally have their expressions overridden
+     *         by args.expressions. if any are provided.
+     *         Individual requests will also will also have any global
+     *         parameters set on each individual CqlEvaluationRequest.
+     */
+    public static CqlEvaluationRequests getFilteredRequests(CqlEvaluationRequests requests, Map<String, String> libraries, Collection<String> expressions) {
+        if (requests != null) {
+            List<CqlEvaluationRequest> evaluations = requests.getEvaluations();
+            if (libraries != null && !libraries.isEmpty()) {
+                evaluations = evaluations.stream()
+                        .filter(r -> libraries.keySet().contains(r.getDescriptor().getLibraryId()))
+                        .collect(Collectors.toList());
+            }
+            if (expressions != null && !expressions.isEmpty()) {
+                evaluations.forEach(x -> x.setExpressions( x.getExpressions().stream().filter( e -> expressions.contains(e.getName()) ).collect(Collectors.toSet()) ));
+            }
+
+            if (requests.getGlobalParameters() != null) {
+                for (CqlEvaluationRequest evaluation : evaluations) {
+                    for (Map.Entry<String, Parameter> globalParameter : requests.getGlobalParameters().entrySet()) {
+                        Map<String, Parameter> parameters = evaluation.getParameters();
+                        if (parameters == null) {
+                            evaluation.setParameters(new HashMap<>());
+                            parameters = evaluation.getParameters();
+                        }
+                        parameters.putIfAbsent(globalParameter.getKey(), globalParameter.getValue());
+                    }
+                }
+            }
+            requests.setEvaluations(evaluations);
+        }
+        return requests;
+    }
+
+    /**
+     * @return the output column encoder for the filtered job specification,
+     *         creating it if necessary
+     * @throws Exception if there was an error reading the job specification.
+     */
+    public SparkOutputColumnEncoder getSparkOutputColumnEncoder() throws Exception {
+        return SharedObjectRegistry.get(getSparkOutputColumnEncoderKey(), () -> ConfigurableOutputColumnNameEncoder.create(getFilteredJobSpecificationWithIds()
+                    , encodedParametersCache, defaultOutputColumnDelimiter));
+    }
+
+    /**
+     * @return key of the output column encoder in the shared object registry
+     */
+    public String getSparkOutputColumnEncoderKey() {
+        return SharedObjectRegistry.getKey("SparkOutputColumnEncoder", getFilteredJobSpecificationKey(),
+                defaultOutputColumnDelimiter, disableResultGrouping, keyParameterNames);
+    }
+
+    /**
+     * Get the library provider used for evaluation. Once the libraries have been
+     * broadcast, the provider serves the broadcast ELM and only translates
+     * libraries that are not part of the broadcast.
+     *
+     * @return the library provider shared by all threads of the JVM, creating it if necessary
+     * @throws IOException when model info cannot be read
+     */
+    public CqlLibraryProvider getLibraryProvider() throws IOException {
+        CqlLibraryProvider result;
+        if (broadcastLibraries != null) {
+            result = SharedObjectRegistry.get(broadcastLibrariesKey, () -> new BroadcastCqlLibraryProvider(broadcastLibraries, () -> {
+                try {
+                    return getTranslatingLibraryProvider();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }));
+        }
+        else {
+            result = getTranslatingLibraryProvider();
+        }
+        return result;
+    }
+
+    /**
+     * @return the translating library provider shared by all threads of the JVM, creating it if necessary
+     * @throws IOException when model info cannot be read
+     */
+    public CqlLibraryProvider getTranslatingLibraryProvider() throws IOException {
+        return SharedObjectRegistry.get(getTranslatingLibraryProviderKey(), this::createLibraryProvider);
+    }
+
+    /**
+     * @return key of the translating library provider in the shared object registry
+     */
+    public String getTranslatingLibraryProviderKey() {
+        return SharedObjectRegistry.getKey("CqlLibraryProvider", owner, cqlPath, modelInfoPaths, enableDateRangeOptimization);
+    }
+
+    /**
+     * Get the terminology provider used for evaluation. Once the terminology
+     * index has been broadcast, the provider answers from the index and only
+     * reads ValueSets that are not part of the index.
+     *
+     * @return the terminology provider shared by all threads of the JVM, creating it if necessary
+     */
+    public CqlTerminologyProvider getTerminologyProvider() {
+        CqlTerminologyProvider result;
+        if (broadcastTerminology != null) {
+            result = SharedObjectRegistry.get(broadcastTerminologyKey,
+                    () -> new BroadcastTerminologyProvider(broadcastTerminology, this::getFileSystemTerminologyProvider));
+        }
+        else {
+            result = getFileSystemTerminologyProvider();
+        }
+        return result;
+    }
+
+    /**
+     * @return the terminology provider that reads the configured terminology
+     *         path, shared by all threads of the JVM and created if necessary
+     */
+    public CqlTerminologyProvider getFileSystemTerminologyProvider() {
+        return SharedObjectRegistry.get(getFileSystemTerminologyProviderKey(), this::createTerminologyProvider);
+    }
+
+    /**
+     * @return key of the file system terminology provider in the shared object registry
+     */
+    public String getFileSystemTerminologyProviderKey() {
+        return SharedObjectRegistry.getKey("CqlTerminologyProvider", owner, terminologyPath);
+    }
+
+    /**
+     * @return the external function provider shared by all threads of the JVM, creating it if necessary
+     */
+    public ExternalFunctionProvider getExternalFunctionProvider() {
+        return SharedObjectRegistry.get(getExternalFunctionProviderKey(), this::createExternalFunctionProvider);
+    }
+
+    /**
+     * @return key of the external function provider in the shared object registry
+     */
+    public String getExternalFunctionProviderKey() {
+        return SharedObjectRegistry.getKey("ExternalFunctionProvider", owner);
+    }
+
+    /**
+     * Remove every object of the run from the SharedObjectRegistry and destroy
+     * the broadcasts of the libraries and terminology index.
+     */
+    public void release() {
+        SharedObjectRegistry.remove(getJobSpecificationKey());
+        SharedObjectRegistry.remove(getFilteredJobSpecificationKey());
+        SharedObjectRegistry.remove(getSparkOutputColumnEncoderKey());
+        SharedObjectRegistry.remove(getTranslatingLibraryProviderKey());
+        SharedObjectRegistry.remove(getFileSystemTerminologyProviderKey());
+        SharedObjectRegistry.remove(getExternalFunctionProviderKey());
+        if (broadcastLibraries != null) {
+            SharedObjectRegistry.remove(broadcastLibrariesKey);
+            broadcastLibraries.destroy();
+        }
+        if (broadcastTerminology != null) {
+            SharedObjectRegistry.remove(broadcastTerminologyKey);
+            broadcastTerminology.destroy();
+        }
+    }
+
+    /**
+     * Initialize a library provider that will load resources from the configured path
+     * in local storage or from the well-known classpath locations. The library provider
+     * comes configured with CQL translation enabled and will use custom modelinfo
+     * definitions if provided in the configuration.
+     *
+     * @return configured library provider
+     * @throws IOException when model info cannot be read
+     */
+    public CqlLibraryProvider createLibraryProvider() throws IOException {
+
+        CqlLibraryProvider hadoopBasedLp = new HadoopBasedCqlLibraryProvider(new Path(cqlPath), getHadoopConfiguration());
+        // we are excluding the pre-compiled FHIRHelpers libraries because they were not compiled
+        // with the EnableResultTypes option that is required for some of the features of this program.
+        ClasspathCqlLibraryProvider cpBasedLp = new ClasspathCqlLibraryProvider("org.hl7.fhir");
+        cpBasedLp.setSupportedFormats(Format.CQL);
+        CqlLibraryProvider priorityLp = new PriorityCqlLibraryProvider( hadoopBasedLp, cpBasedLp );
+
+        return new TranslatingCqlLibraryProvider(priorityLp, getCqlTranslator());
+    }
+
+    /**
+     * @return CQL translator with the configured model info registered
+     * @throws IOException when model info cannot be read
+     */
+    public CqlToElmTranslator getCqlTranslator() throws IOException {
+        // TODO - replace with cohort shared translation component
+        final CqlToElmTranslator translator = new CqlToElmTranslator();
+        translator.setDateRangeOptimizationEnabled(enableDateRangeOptimization);
+        if (modelInfoPaths != null && !modelInfoPaths.isEmpty()) {
+            for (String path : modelInfoPaths) {
+                Path filePath = new Path(path);
+                FileSystem modelInfoFilesystem = filePath.getFileSystem(getHadoopConfiguration());
+                try (Reader r = new InputStreamReader(modelInfoFilesystem.open(filePath))) {
+                    translator.registerModelInfo(r);
+                }
+            }
+        }
+        return translator;
+    }
+
+    /**
+     * Initialize a terminology provider.
+     *
+     * @return configured terminology provider.
+     */
+    public CqlTerminologyProvider createTerminologyProvider() {
+        if(terminologyPath != null && !terminologyPath.isEmpty()) {
+            return new R4FileSystemFhirTerminologyProvider(new Path(terminologyPath), getHadoopConfiguration());
+        }
+        else {
+            return new UnsupportedTerminologyProvider();
+        }
+    }
+
+    /**
+     * Create external function provider.
+     *
+     * @return  external function provider with registered static functions
+     *          from {@link com.ibm.cohort.cql.functions.AnyColumnFunctions }
+     */
+    public ExternalFunctionProvider createExternalFunctionProvider() {
+        ExternalFunctionProvider functionProvider =
+            new CohortExternalFunctionProvider(Arrays.asList(AnyColumnFunctions.class.getDeclaredMethods()));
+        return functionProvider;
+    }
+
+    /**
+     * Deserialize CQL Job requests.
+     *
+     * @param path Path to CQL jobs file in JSON format
+     * @return deserialized jobs object
+     * @throws Exception when deserialization fails for any reason
+     */
+    public CqlEvaluationRequests readJobSpecification(String path) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Path filePath = new Path(path);
+        FileSystem fileSystem = filePath.getFileSystem(getHadoopConfiguration());
+        CqlEvaluationRequests requests;
+        try (Reader r = new InputStreamReader(fileSystem.open(filePath))) {
+            requests = mapper.readValue(r, CqlEvaluationRequests.class);
+        }
+
+        try( ValidatorFactory factory = Validation.buildDefaultValidatorFactory() ) {
+            Validator validator = factory.getValidator();
+
+            Set<ConstraintViolation<CqlEvaluationRequests>> violations = validator.validate( requests );
+            if( ! violations.isEmpty() ) {
+                StringBuffer sb = new StringBuffer();
+                for( ConstraintViolation<CqlEvaluationRequests> violation : violations ) {
+                    sb.append(System.lineSeparator())
+                        .append(violation.getPropertyPath().toString())
+                        .append(": ")
+                        .append(violation.getMessage());
+                }
+                throw new IllegalArgumentException("Invalid Job Specification: " + sb.toString());
+            }
+        }
+
+        return requests;
+    }
+
+    /**
+     * @return the Hadoop configuration, which is read from the broadcast
+     *         variable in a task
+     */
+    protected Configuration getHadoopConfiguration() {
+        return (hadoopConfiguration != null) ? hadoopConfiguration.value() : broadcastHadoopConfiguration.value().value();
+    }
+}
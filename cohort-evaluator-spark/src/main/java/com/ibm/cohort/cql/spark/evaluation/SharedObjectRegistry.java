@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * JVM-wide registry of thread-safe objects that are expensive to create, such
+ * as library providers that cache translated libraries and terminology
+ * providers that cache parsed value sets. All of the task threads of a Spark
+ * executor share a single instance of each object instead of creating one
+ * copy per thread.
+ *
+ * Each object is identified by a key that is derived from the configuration
+ * used to create it (see {@link #getKey(String, Object...)}), so evaluations
+ * with a different configuration in the same JVM do not share objects. The
+ * first thread that requests a key creates the object and every other thread
+ * that requests the same key waits for that object to be created. A failed
+ * creation is not cached and is retried by the next request. Objects stay in
+ * the registry until they are removed.
+ */
+public class SharedObjectRegistry {
+
+    /**
+     * Creates the object for a key.
+     *
+     * @param <T> type of the created object
+     * @param <E> type of the exception thrown when the object cannot be created
+     */
+    @FunctionalInterface
+    public interface Factory<T, E extends Exception> {
+        T create() throws E;
+    }
+
+    private static final ConcurrentMap<String, Future<Object>> INSTANCES = new ConcurrentHashMap<>();
+
+    private SharedObjectRegistry() {
+    }
+
+    /**
+     * Calculate the key of a shared object.
+     *
+     * @param type          Name of the kind of object
+     * @param configuration Configuration values used to create the object. The
+     *                      string form of each value is used and null values
+     *                      are allowed.
+     * @return key that is unique to the type and configuration
+     */
+    public static String getKey(String type, Object... configuration) {
+        List<String> parts = new ArrayList<>();
+        for (Object value : configuration) {
+            parts.add(Objects.toString(value, null));
+        }
+        return type + ":" + ContextFingerprinter.jobFingerprint(parts);
+    }
+
+    /**
+     * Get the object for a key, creating it if necessary.
+     *
+     * @param <T>     type of the shared object
+     * @param <E>     type of the exception thrown by the factory
+     * @param key     Key of the object
+     * @param factory Factory used when the object does not exist yet
+     * @return the shared object
+     * @throws E when the object cannot be created
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, E extends Exception> T get(String key, Factory<T, E> factory) throws E {
+        Future<Object> future = INSTANCES.get(key);
+        if (future == null) {
+            FutureTask<Object> task = new FutureTask<>(factory::create);
+            future = INSTANCES.putIfAbsent(key, task);
+            if (future == null) {
+                future = task;
+                task.run();
+            }
+        }
+
+        try {
+            return (T) future.get();
+        } catch (ExecutionException ex) {
+            INSTANCES.remove(key, future);
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw (E) cause;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + key, ex);
+        }
+    }
+
+    /**
+     * Remove the object for a key, e.g. when the resources that it uses are
+     * released. The next request for the key creates a new object.
+     *
+     * @param key Key of the object
+     * @return true if an object was removed
+     */
+    public static boolean remove(String key) {
+        return key != null && INSTANCES.remove(key) != null;
+    }
+
+    /**
+     * @return number of shared objects
+     */
+    public static int size() {
+        return INSTANCES.size();
+    }
+
+    /**
+     * Remove all shared objects.
+     */
+    public static void clear() {
+        INSTANCES.clear();
+    }
+}
@@ -13,6 +13,8 @@ public abstract class BaseOutputMetadataWriter implements OutputMetadataWriter{
     public static final String SUCCESS_MARKER = "_SUCCESS";
     public static final String SUCCESS_FLAG = "SUCCESS";
     public static final String BATCH_SUMMARY_PREFIX = "batch_summary-";
+    public static final String PROFILE_REPORT_PREFIX = "cql_profile-";
+    public static final String EXPLAIN_REPORT_PREFIX = "explain-";
 
     @Override
     public void writeMetadata(EvaluationSummary evaluationSummary) {
@@ -0,0 +1,135 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Record of an aggregation context whose output was completely written. A
+ * context commit is used by a resumed run to skip contexts that were already
+ * written by an earlier run of the same job.
+ */
+@JsonPropertyOrder({"contextName", "outputPath", "executions", "runtimeMillis", "specFingerprint", "applicationId", "commitTimeMillis"})
+public class ContextCommit {
+	private String contextName;
+	private String outputPath;
+	private long executions;
+	private long runtimeMillis;
+	private String specFingerprint;
+	private String applicationId;
+	private long commitTimeMillis;
+
+	public String getContextName() {
+		return contextName;
+	}
+
+	public void setContextName(String contextName) {
+		this.contextName = contextName;
+	}
+
+	public String getOutputPath() {
+		return outputPath;
+	}
+
+	public void setOutputPath(String outputPath) {
+		this.outputPath = outputPath;
+	}
+
+	public long getExecutions() {
+		return executions;
+	}
+
+	public void setExecutions(long executions) {
+		this.executions = executions;
+	}
+
+	public long getRuntimeMillis() {
+		return runtimeMillis;
+	}
+
+	public void setRuntimeMillis(long runtimeMillis) {
+		this.runtimeMillis = runtimeMillis;
+	}
+
+	/**
+	 * @return hash of the job specification, libraries, and input and output
+	 *         locations that produced the context output
+	 */
+	public String getSpecFingerprint() {
+		return specFingerprint;
+	}
+
+	public void setSpecFingerprint(String specFingerprint) {
+		this.specFingerprint = specFingerprint;
+	}
+
+	/**
+	 * @return id of the Spark application that wrote the context output
+	 */
+	public String getApplicationId() {
+		return applicationId;
+	}
+
+	public void setApplicationId(String applicationId) {
+		this.applicationId = applicationId;
+	}
+
+	public long getCommitTimeMillis() {
+		return commitTimeMillis;
+	}
+
+	public void setCommitTimeMillis(long commitTimeMillis) {
+		this.commitTimeMillis = commitTimeMillis;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		ContextCommit that = (ContextCommit) o;
+
+		return new EqualsBuilder()
+				.append(contextName, that.contextName)
+				.append(outputPath, that.outputPath)
+				.append(executions, that.executions)
+				.append(runtimeMillis, that.runtimeMillis)
+				.append(specFingerprint, that.specFingerprint)
+				.append(applicationId, that.applicationId)
+				.append(commitTimeMillis, that.commitTimeMillis)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(contextName)
+				.append(outputPath)
+				.append(executions)
+				.append(runtimeMillis)
+				.append(specFingerprint)
+				.append(applicationId)
+				.append(commitTimeMillis)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("ContextCommit{");
+		sb.append("contextName='").append(contextName).append('\'');
+		sb.append(", outputPath='").append(outputPath).append('\'');
+		sb.append(", executions=").append(executions);
+		sb.append(", runtimeMillis=").append(runtimeMillis);
+		sb.append(", specFingerprint='").append(specFingerprint).append('\'');
+		sb.append(", applicationId='").append(applicationId).append('\'');
+		sb.append(", commitTimeMillis=").append(commitTimeMillis);
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+/**
+ * Tracks the aggregation contexts whose output was completely written. The
+ * commit for a context is removed before its output is written and recorded
+ * again once the output is complete, so a context that has a commit always has
+ * complete output.
+ */
+public interface ContextCommitLog {
+	/**
+	 * @param contextName Aggregation context name
+	 * @return the commit for the context or null if the context is not committed
+	 */
+	ContextCommit getCommit(String contextName);
+
+	/**
+	 * Record that the output of a context is complete.
+	 *
+	 * @param commit Commit details
+	 */
+	void commit(ContextCommit commit);
+
+	/**
+	 * Remove the commit for a context before its output is replaced.
+	 *
+	 * @param contextName Aggregation context name
+	 */
+	void removeCommit(String contextName);
+}
@@ -0,0 +1,237 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.ibm.cohort.cql.spark.aggregation.Join;
+import com.ibm.cohort.cql.spark.aggregation.ManyToMany;
+
+/**
+ * Describes how a single aggregation context would be evaluated without
+ * evaluating it: the datatypes that are read and the columns that are kept,
+ * the joins and the physical plan of the inputs that are grouped by context
+ * value, and the width of the output.
+ */
+@JsonPropertyOrder({"contextName", "primaryDataType", "primaryKeyColumn", "groupingStrategy", "joins", "dataTypes",
+		"estimatedInputBytes", "outputColumns", "estimatedOutputRowBytes", "physicalPlan"})
+public class ContextExplanation {
+	private String contextName;
+	private String primaryDataType;
+	private String primaryKeyColumn;
+	private String groupingStrategy;
+	private List<Join> joins = new ArrayList<>();
+	private List<DataTypeExplanation> dataTypes = new ArrayList<>();
+	private long estimatedInputBytes;
+	private List<String> outputColumns = new ArrayList<>();
+	private int estimatedOutputRowBytes;
+	private String physicalPlan;
+
+	/**
+	 * Format the explanation for display.
+	 *
+	 * @return human readable explanation
+	 */
+	public String format() {
+		String nl = System.lineSeparator();
+		StringBuilder sb = new StringBuilder();
+		sb.append("Context ").append(contextName).append(" (primary datatype ").append(primaryDataType)
+				.append(" keyed by ").append(primaryKeyColumn).append(", ").append(groupingStrategy).append(" grouping)").append(nl);
+
+		sb.append("  Joins:").append(joins.isEmpty() ? " none" : "").append(nl);
+		for (Join join : joins) {
+			sb.append("    ").append(describe(join)).append(nl);
+		}
+
+		sb.append("  Datatypes:").append(nl);
+		for (DataTypeExplanation dataType : dataTypes) {
+			sb.append("    ").append(dataType.getDataType()).append(": ");
+			if (dataType.isRead()) {
+				sb.append(dataType.getRetainedColumns().size()).append(" of ").append(dataType.getAvailableColumns())
+						.append(" columns retained ").append(dataType.getRetainedColumns())
+						.append(", estimated ").append(dataType.getEstimatedBytes()).append(" of ")
+						.append(dataType.getAvailableEstimatedBytes()).append(" bytes");
+			}
+			else {
+				sb.append("not read, no columns are required");
+			}
+			sb.append(nl);
+		}
+
+		sb.append("  Estimated input bytes: ").append(estimatedInputBytes).append(nl);
+		sb.append("  Output schema: ").append(outputColumns.size()).append(" columns, estimated ")
+				.append(estimatedOutputRowBytes).append(" bytes per row ").append(outputColumns).append(nl);
+		sb.append("  Grouping stage: ");
+		sb.append(physicalPlan == null ? "" : physicalPlan.replace(nl, nl + "    ")).append(nl);
+		return sb.toString();
+	}
+
+	private String describe(Join join) {
+		String primaryColumn = (join.getPrimaryDataTypeColumn() != null) ? join.getPrimaryDataTypeColumn() : primaryKeyColumn;
+		StringBuilder sb = new StringBuilder();
+		sb.append(join.getClass().getSimpleName()).append(' ').append(primaryDataType).append('.').append(primaryColumn);
+		if (join instanceof ManyToMany) {
+			ManyToMany manyToMany = (ManyToMany) join;
+			sb.append(" = ").append(manyToMany.getAssociationDataType()).append('.').append(manyToMany.getAssociationOneKeyColumn())
+					.append(", ").append(manyToMany.getAssociationDataType()).append('.').append(manyToMany.getAssociationManyKeyColumn());
+		}
+		sb.append(" = ").append(join.getRelatedDataType()).append('.').append(join.getRelatedKeyColumn());
+		return sb.toString();
+	}
+
+	public String getContextName() {
+		return contextName;
+	}
+
+	public void setContextName(String contextName) {
+		this.contextName = contextName;
+	}
+
+	public String getPrimaryDataType() {
+		return primaryDataType;
+	}
+
+	public void setPrimaryDataType(String primaryDataType) {
+		this.primaryDataType = primaryDataType;
+	}
+
+	public String getPrimaryKeyColumn() {
+		return primaryKeyColumn;
+	}
+
+	public void setPrimaryKeyColumn(String primaryKeyColumn) {
+		this.primaryKeyColumn = primaryKeyColumn;
+	}
+
+	public String getGroupingStrategy() {
+		return groupingStrategy;
+	}
+
+	public void setGroupingStrategy(String groupingStrategy) {
+		this.groupingStrategy = groupingStrategy;
+	}
+
+	public List<Join> getJoins() {
+		return joins;
+	}
+
+	public void setJoins(List<Join> joins) {
+		this.joins = joins;
+	}
+
+	/**
+	 * @return primary, association, and related datatypes of the context in
+	 *         the order they are joined
+	 */
+	public List<DataTypeExplanation> getDataTypes() {
+		return dataTypes;
+	}
+
+	public void setDataTypes(List<DataTypeExplanation> dataTypes) {
+		this.dataTypes = dataTypes;
+	}
+
+	/**
+	 * @return sum of the estimated size of every datatype that is read
+	 */
+	public long getEstimatedInputBytes() {
+		return estimatedInputBytes;
+	}
+
+	public void setEstimatedInputBytes(long estimatedInputBytes) {
+		this.estimatedInputBytes = estimatedInputBytes;
+	}
+
+	public List<String> getOutputColumns() {
+		return outputColumns;
+	}
+
+	public void setOutputColumns(List<String> outputColumns) {
+		this.outputColumns = outputColumns;
+	}
+
+	/**
+	 * @return Spark's default size estimate of a single output row
+	 */
+	public int getEstimatedOutputRowBytes() {
+		return estimatedOutputRowBytes;
+	}
+
+	public void setEstimatedOutputRowBytes(int estimatedOutputRowBytes) {
+		this.estimatedOutputRowBytes = estimatedOutputRowBytes;
+	}
+
+	/**
+	 * @return the operation that groups the rows by context value and the
+	 *         physical plan of each of its inputs
+	 */
+	public String getPhysicalPlan() {
+		return physicalPlan;
+	}
+
+	public void setPhysicalPlan(String physicalPlan) {
+		this.physicalPlan = physicalPlan;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		ContextExplanation that = (ContextExplanation) o;
+
+		return new EqualsBuilder()
+				.append(estimatedInputBytes, that.estimatedInputBytes)
+				.append(estimatedOutputRowBytes, that.estimatedOutputRowBytes)
+				.append(contextName, that.contextName)
+				.append(primaryDataType, that.primaryDataType)
+				.append(primaryKeyColumn, that.primaryKeyColumn)
+				.append(groupingStrategy, that.groupingStrategy)
+				.append(joins, that.joins)
+				.append(dataTypes, that.dataTypes)
+				.append(outputColumns, that.outputColumns)
+				.append(physicalPlan, that.physicalPlan)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(contextName)
+				.append(primaryDataType)
+				.append(primaryKeyColumn)
+				.append(groupingStrategy)
+				.append(joins)
+				.append(dataTypes)
+				.append(estimatedInputBytes)
+				.append(outputColumns)
+				.append(estimatedOutputRowBytes)
+				.append(physicalPlan)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("ContextExplanation{");
+		sb.append("contextName='").append(contextName).append('\'');
+		sb.append(", primaryDataType='").append(primaryDataType).append('\'');
+		sb.append(", primaryKeyColumn='").append(primaryKeyColumn).append('\'');
+		sb.append(", groupingStrategy='").append(groupingStrategy).append('\'');
+		sb.append(", joins=").append(joins);
+		sb.append(", dataTypes=").append(dataTypes);
+		sb.append(", estimatedInputBytes=").append(estimatedInputBytes);
+		sb.append(", outputColumns=").append(outputColumns);
+		sb.append(", estimatedOutputRowBytes=").append(estimatedOutputRowBytes);
+		sb.append(", physicalPlan='").append(physicalPlan).append('\'');
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Describes how the input data of a single aggregation context was joined and
+ * grouped by context value.
+ */
+@JsonPropertyOrder({"grouping", "partitions", "primaryPartitionedByContext", "joins"})
+public class ContextJoinPlan {
+	/**
+	 * The rows of every input are shuffled by context value and combined.
+	 */
+	public static final String GROUPING_SHUFFLE = "SHUFFLE";
+
+	/**
+	 * The inputs are hash partitioned by context value the same way, so the
+	 * matching partitions of every input are grouped without a shuffle. Inputs
+	 * that were not already partitioned by context value are repartitioned.
+	 */
+	public static final String GROUPING_CO_PARTITIONED = "CO_PARTITIONED";
+
+	private String grouping;
+	private int partitions;
+	private boolean primaryPartitionedByContext;
+	private List<JoinStrategy> joins = new ArrayList<>();
+
+	/**
+	 * @return {@value #GROUPING_SHUFFLE} or {@value #GROUPING_CO_PARTITIONED}
+	 */
+	public String getGrouping() {
+		return grouping;
+	}
+
+	public void setGrouping(String grouping) {
+		this.grouping = grouping;
+	}
+
+	/**
+	 * @return number of co-partitioned partitions or 0 when the rows are
+	 *         shuffled
+	 */
+	public int getPartitions() {
+		return partitions;
+	}
+
+	public void setPartitions(int partitions) {
+		this.partitions = partitions;
+	}
+
+	public boolean isPrimaryPartitionedByContext() {
+		return primaryPartitionedByContext;
+	}
+
+	public void setPrimaryPartitionedByContext(boolean primaryPartitionedByContext) {
+		this.primaryPartitionedByContext = primaryPartitionedByContext;
+	}
+
+	public List<JoinStrategy> getJoins() {
+		return joins;
+	}
+
+	public void setJoins(List<JoinStrategy> joins) {
+		this.joins = joins;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		ContextJoinPlan that = (ContextJoinPlan) o;
+
+		return new EqualsBuilder()
+				.append(grouping, that.grouping)
+				.append(partitions, that.partitions)
+				.append(primaryPartitionedByContext, that.primaryPartitionedByContext)
+				.append(joins, that.joins)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(grouping)
+				.append(partitions)
+				.append(primaryPartitionedByContext)
+				.append(joins)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("ContextJoinPlan{");
+		sb.append("grouping='").append(grouping).append('\'');
+		sb.append(", partitions=").append(partitions);
+		sb.append(", primaryPartitionedByContext=").append(primaryPartitionedByContext);
+		sb.append(", joins=").append(joins);
+		sb.append('}');
+		return sb.toString();
+	}
+}
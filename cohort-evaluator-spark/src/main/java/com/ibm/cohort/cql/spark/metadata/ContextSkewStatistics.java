@@ -0,0 +1,189 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Key frequency statistics that were sampled from the joined input data of a
+ * single aggregation context before the data was grouped by context value.
+ * Counts prefixed with "sampled" are measured on the sample. Counts prefixed
+ * with "estimated" are scaled up to the full dataset by the sample fraction.
+ */
+@JsonPropertyOrder({"sampleFraction", "sampledRows", "sampledContexts", "sampledMeanRowsPerContext", "estimatedMaxRowsPerContext", "skewRatio", "hotContextThreshold", "hotContexts", "estimatedHotContextRows", "hotContextValues", "partitions"})
+public class ContextSkewStatistics {
+	private double sampleFraction;
+	private long sampledRows;
+	private long sampledContexts;
+	private double sampledMeanRowsPerContext;
+	private long estimatedMaxRowsPerContext;
+	private double skewRatio;
+	private long hotContextThreshold;
+	private long hotContexts;
+	private long estimatedHotContextRows;
+	private List<String> hotContextValues = new ArrayList<>();
+	private int partitions;
+
+	public double getSampleFraction() {
+		return sampleFraction;
+	}
+
+	public void setSampleFraction(double sampleFraction) {
+		this.sampleFraction = sampleFraction;
+	}
+
+	public long getSampledRows() {
+		return sampledRows;
+	}
+
+	public void setSampledRows(long sampledRows) {
+		this.sampledRows = sampledRows;
+	}
+
+	public long getSampledContexts() {
+		return sampledContexts;
+	}
+
+	public void setSampledContexts(long sampledContexts) {
+		this.sampledContexts = sampledContexts;
+	}
+
+	public double getSampledMeanRowsPerContext() {
+		return sampledMeanRowsPerContext;
+	}
+
+	public void setSampledMeanRowsPerContext(double sampledMeanRowsPerContext) {
+		this.sampledMeanRowsPerContext = sampledMeanRowsPerContext;
+	}
+
+	public long getEstimatedMaxRowsPerContext() {
+		return estimatedMaxRowsPerContext;
+	}
+
+	public void setEstimatedMaxRowsPerContext(long estimatedMaxRowsPerContext) {
+		this.estimatedMaxRowsPerContext = estimatedMaxRowsPerContext;
+	}
+
+	/**
+	 * @return ratio of the largest sampled context to the mean sampled context
+	 */
+	public double getSkewRatio() {
+		return skewRatio;
+	}
+
+	public void setSkewRatio(double skewRatio) {
+		this.skewRatio = skewRatio;
+	}
+
+	/**
+	 * @return minimum number of sampled rows for a context to be considered hot
+	 */
+	public long getHotContextThreshold() {
+		return hotContextThreshold;
+	}
+
+	public void setHotContextThreshold(long hotContextThreshold) {
+		this.hotContextThreshold = hotContextThreshold;
+	}
+
+	public long getHotContexts() {
+		return hotContexts;
+	}
+
+	public void setHotContexts(long hotContexts) {
+		this.hotContexts = hotContexts;
+	}
+
+	public long getEstimatedHotContextRows() {
+		return estimatedHotContextRows;
+	}
+
+	public void setEstimatedHotContextRows(long estimatedHotContextRows) {
+		this.estimatedHotContextRows = estimatedHotContextRows;
+	}
+
+	public List<String> getHotContextValues() {
+		return hotContextValues;
+	}
+
+	public void setHotContextValues(List<String> hotContextValues) {
+		this.hotContextValues = hotContextValues;
+	}
+
+	/**
+	 * @return total number of partitions used to group the context data
+	 */
+	public int getPartitions() {
+		return partitions;
+	}
+
+	public void setPartitions(int partitions) {
+		this.partitions = partitions;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		ContextSkewStatistics that = (ContextSkewStatistics) o;
+
+		return new EqualsBuilder()
+				.append(sampleFraction, that.sampleFraction)
+				.append(sampledRows, that.sampledRows)
+				.append(sampledContexts, that.sampledContexts)
+				.append(sampledMeanRowsPerContext, that.sampledMeanRowsPerContext)
+				.append(estimatedMaxRowsPerContext, that.estimatedMaxRowsPerContext)
+				.append(skewRatio, that.skewRatio)
+				.append(hotContextThreshold, that.hotContextThreshold)
+				.append(hotContexts, that.hotContexts)
+				.append(estimatedHotContextRows, that.estimatedHotContextRows)
+				.append(hotContextValues, that.hotContextValues)
+				.append(partitions, that.partitions)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(sampleFraction)
+				.append(sampledRows)
+				.append(sampledContexts)
+				.append(sampledMeanRowsPerContext)
+				.append(estimatedMaxRowsPerContext)
+				.append(skewRatio)
+				.append(hotContextThreshold)
+				.append(hotContexts)
+				.append(estimatedHotContextRows)
+				.append(hotContextValues)
+				.append(partitions)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("ContextSkewStatistics{");
+		sb.append("sampleFraction=").append(sampleFraction);
+		sb.append(", sampledRows=").append(sampledRows);
+		sb.append(", sampledContexts=").append(sampledContexts);
+		sb.append(", sampledMeanRowsPerContext=").append(sampledMeanRowsPerContext);
+		sb.append(", estimatedMaxRowsPerContext=").append(estimatedMaxRowsPerContext);
+		sb.append(", skewRatio=").append(skewRatio);
+		sb.append(", hotContextThreshold=").append(hotContextThreshold);
+		sb.append(", hotContexts=").append(hotContexts);
+		sb.append(", estimatedHotContextRows=").append(estimatedHotContextRows);
+		sb.append(", hotContextValues=").append(hotContextValues);
+		sb.append(", partitions=").append(partitions);
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.ibm.cohort.cql.profiling.CqlProfileEntry;
+
+/**
+ * Expression definitions and retrieves of a run ranked by the time that was
+ * spent in each of them, excluding the time of the definitions and retrieves
+ * that they reference (self time). Definitions near the top of the report are
+ * the best candidates for a rewrite.
+ */
+@JsonPropertyOrder({"applicationId", "profiledNanos", "entries"})
+public class CqlProfileReport {
+	private String applicationId;
+	private long profiledNanos;
+	private List<CqlProfileEntry> entries = new ArrayList<>();
+
+	public CqlProfileReport() {
+	}
+
+	/**
+	 * @param applicationId Spark application id of the run
+	 * @param entries       Profile entries of the run in any order
+	 */
+	public CqlProfileReport(String applicationId, Collection<CqlProfileEntry> entries) {
+		this.applicationId = applicationId;
+		this.entries = new ArrayList<>(entries);
+		this.entries.sort(Comparator.comparingLong(CqlProfileEntry::getSelfNanos).reversed()
+				.thenComparing(CqlProfileEntry::toKey));
+		this.profiledNanos = this.entries.stream().mapToLong(CqlProfileEntry::getSelfNanos).sum();
+	}
+
+	/**
+	 * Format the highest ranked entries as a table.
+	 *
+	 * @param limit Maximum number of entries to include
+	 * @return human readable report
+	 */
+	public String format(int limit) {
+		int count = Math.min(Math.max(limit, 0), entries.size());
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("CQL profile: top %d of %d expression definitions and retrieves ranked by self time (%.3f ms profiled)%n",
+				count, entries.size(), profiledNanos / 1e6));
+		sb.append(String.format("%4s %8s %14s %14s %12s %12s  %-10s %s%n",
+				"Rank", "Self %", "Self ms", "Total ms", "Max ms", "Invocations", "Type", "Library.Name"));
+		for (int i = 0; i < count; i++) {
+			CqlProfileEntry entry = entries.get(i);
+			double percent = (profiledNanos > 0) ? (100.0 * entry.getSelfNanos() / profiledNanos) : 0;
+			sb.append(String.format("%4d %8.2f %14.3f %14.3f %12.3f %12d  %-10s %s.%s%n",
+					i + 1, percent, entry.getSelfNanos() / 1e6, entry.getTotalNanos() / 1e6, entry.getMaxNanos() / 1e6,
+					entry.getInvocations(), entry.getType(), entry.getLibraryName(), entry.getName()));
+		}
+		return sb.toString();
+	}
+
+	public String getApplicationId() {
+		return applicationId;
+	}
+
+	public void setApplicationId(String applicationId) {
+		this.applicationId = applicationId;
+	}
+
+	/**
+	 * @return sum of the self time of every entry, summed over all tasks
+	 */
+	public long getProfiledNanos() {
+		return profiledNanos;
+	}
+
+	public void setProfiledNanos(long profiledNanos) {
+		this.profiledNanos = profiledNanos;
+	}
+
+	/**
+	 * @return profile entries in rank order
+	 */
+	public List<CqlProfileEntry> getEntries() {
+		return entries;
+	}
+
+	public void setEntries(List<CqlProfileEntry> entries) {
+		this.entries = entries;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		CqlProfileReport that = (CqlProfileReport) o;
+
+		return new EqualsBuilder()
+				.append(profiledNanos, that.profiledNanos)
+				.append(applicationId, that.applicationId)
+				.append(entries, that.entries)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(applicationId)
+				.append(profiledNanos)
+				.append(entries)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("CqlProfileReport{");
+		sb.append("applicationId='").append(applicationId).append('\'');
+		sb.append(", profiledNanos=").append(profiledNanos);
+		sb.append(", entries=").append(entries);
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Describes how a single input datatype of an aggregation context would be
+ * read. The retained columns are the columns that remain after the CQL-based
+ * column filters are applied, so a datatype that retains every available
+ * column is a sign that column filtering is disabled or ineffective for it.
+ */
+@JsonPropertyOrder({"dataType", "path", "read", "availableColumns", "retainedColumns", "estimatedBytes", "availableEstimatedBytes"})
+public class DataTypeExplanation {
+	private String dataType;
+	private String path;
+	private boolean read;
+	private int availableColumns;
+	private List<String> retainedColumns = new ArrayList<>();
+	private long estimatedBytes;
+	private long availableEstimatedBytes;
+
+	public String getDataType() {
+		return dataType;
+	}
+
+	public void setDataType(String dataType) {
+		this.dataType = dataType;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * @return false when none of the columns of the datatype are required and
+	 *         the datatype is not read at all
+	 */
+	public boolean isRead() {
+		return read;
+	}
+
+	public void setRead(boolean read) {
+		this.read = read;
+	}
+
+	/**
+	 * @return number of columns in the input data
+	 */
+	public int getAvailableColumns() {
+		return availableColumns;
+	}
+
+	public void setAvailableColumns(int availableColumns) {
+		this.availableColumns = availableColumns;
+	}
+
+	/**
+	 * @return names of the columns that are read after column filtering
+	 */
+	public List<String> getRetainedColumns() {
+		return retainedColumns;
+	}
+
+	public void setRetainedColumns(List<String> retainedColumns) {
+		this.retainedColumns = retainedColumns;
+	}
+
+	/**
+	 * @return Spark's estimate of the size of the retained columns after all
+	 *         filters are applied
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	public void setEstimatedBytes(long estimatedBytes) {
+		this.estimatedBytes = estimatedBytes;
+	}
+
+	/**
+	 * @return Spark's estimate of the size of the unfiltered input data
+	 */
+	public long getAvailableEstimatedBytes() {
+		return availableEstimatedBytes;
+	}
+
+	public void setAvailableEstimatedBytes(long availableEstimatedBytes) {
+		this.availableEstimatedBytes = availableEstimatedBytes;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		DataTypeExplanation that = (DataTypeExplanation) o;
+
+		return new EqualsBuilder()
+				.append(read, that.read)
+				.append(availableColumns, that.availableColumns)
+				.append(estimatedBytes, that.estimatedBytes)
+				.append(availableEstimatedBytes, that.availableEstimatedBytes)
+				.append(dataType, that.dataType)
+				.append(path, that.path)
+				.append(retainedColumns, that.retainedColumns)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(dataType)
+				.append(path)
+				.append(read)
+				.append(availableColumns)
+				.append(retainedColumns)
+				.append(estimatedBytes)
+				.append(availableEstimatedBytes)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("DataTypeExplanation{");
+		sb.append("dataType='").append(dataType).append('\'');
+		sb.append(", path='").append(path).append('\'');
+		sb.append(", read=").append(read);
+		sb.append(", availableColumns=").append(availableColumns);
+		sb.append(", retainedColumns=").append(retainedColumns);
+		sb.append(", estimatedBytes=").append(estimatedBytes);
+		sb.append(", availableEstimatedBytes=").append(availableEstimatedBytes);
+		sb.append('}');
+		return sb.toString();
+	}
+}
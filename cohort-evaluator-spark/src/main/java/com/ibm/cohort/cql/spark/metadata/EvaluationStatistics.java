@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Describes the work that the executors performed to evaluate a single
+ * aggregation context. The statistics are collected by each Spark task and
+ * added together on the driver, so totals and maximums cover every context
+ * value that was evaluated by the run.
+ */
+@JsonPropertyOrder({"contextsEvaluated", "inputRows", "maxInputRowsPerContext", "contextEvaluationMicros",
+		"maxContextEvaluationMicros", "expressionEvaluations", "expressionEvaluationMicros",
+		"maxExpressionEvaluationMicros", "evaluationErrors", "retrievesPerDataType"})
+public class EvaluationStatistics implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private long contextsEvaluated;
+	private long inputRows;
+	private long maxInputRowsPerContext;
+	private long contextEvaluationMicros;
+	private long maxContextEvaluationMicros;
+	private long expressionEvaluations;
+	private long expressionEvaluationMicros;
+	private long maxExpressionEvaluationMicros;
+	private long evaluationErrors;
+	private Map<String, Long> retrievesPerDataType = new TreeMap<>();
+
+	/**
+	 * Record the evaluation of a single context value.
+	 *
+	 * @param rows   Number of input rows for the context value
+	 * @param micros Time spent evaluating the context value
+	 */
+	public void recordContext(long rows, long micros) {
+		contextsEvaluated++;
+		inputRows += rows;
+		maxInputRowsPerContext = Math.max(maxInputRowsPerContext, rows);
+		contextEvaluationMicros += micros;
+		maxContextEvaluationMicros = Math.max(maxContextEvaluationMicros, micros);
+	}
+
+	/**
+	 * Record a single CQL evaluation.
+	 *
+	 * @param micros Time spent in the CQL engine
+	 */
+	public void recordExpression(long micros) {
+		expressionEvaluations++;
+		expressionEvaluationMicros += micros;
+		maxExpressionEvaluationMicros = Math.max(maxExpressionEvaluationMicros, micros);
+	}
+
+	public void recordError() {
+		evaluationErrors++;
+	}
+
+	/**
+	 * @param dataType Datatype of a retrieve performed by the CQL engine
+	 */
+	public void recordRetrieve(String dataType) {
+		retrievesPerDataType.merge(dataType, 1L, Long::sum);
+	}
+
+	/**
+	 * Add the statistics of another task to these statistics.
+	 *
+	 * @param other Statistics to add
+	 */
+	public void merge(EvaluationStatistics other) {
+		contextsEvaluated += other.contextsEvaluated;
+		inputRows += other.inputRows;
+		maxInputRowsPerContext = Math.max(maxInputRowsPerContext, other.maxInputRowsPerContext);
+		contextEvaluationMicros += other.contextEvaluationMicros;
+		maxContextEvaluationMicros = Math.max(maxContextEvaluationMicros, other.maxContextEvaluationMicros);
+		expressionEvaluations += other.expressionEvaluations;
+		expressionEvaluationMicros += other.expressionEvaluationMicros;
+		maxExpressionEvaluationMicros = Math.max(maxExpressionEvaluationMicros, other.maxExpressionEvaluationMicros);
+		evaluationErrors += other.evaluationErrors;
+		other.retrievesPerDataType.forEach((dataType, count) -> retrievesPerDataType.merge(dataType, count, Long::sum));
+	}
+
+	/**
+	 * @return number of context values that were evaluated
+	 */
+	public long getContextsEvaluated() {
+		return contextsEvaluated;
+	}
+
+	public void setContextsEvaluated(long contextsEvaluated) {
+		this.contextsEvaluated = contextsEvaluated;
+	}
+
+	/**
+	 * @return number of input rows converted to data rows for all context values
+	 */
+	public long getInputRows() {
+		return inputRows;
+	}
+
+	public void setInputRows(long inputRows) {
+		this.inputRows = inputRows;
+	}
+
+	public long getMaxInputRowsPerContext() {
+		return maxInputRowsPerContext;
+	}
+
+	public void setMaxInputRowsPerContext(long maxInputRowsPerContext) {
+		this.maxInputRowsPerContext = maxInputRowsPerContext;
+	}
+
+	/**
+	 * @return total time spent evaluating context values, summed over all tasks
+	 */
+	public long getContextEvaluationMicros() {
+		return contextEvaluationMicros;
+	}
+
+	public void setContextEvaluationMicros(long contextEvaluationMicros) {
+		this.contextEvaluationMicros = contextEvaluationMicros;
+	}
+
+	public long getMaxContextEvaluationMicros() {
+		return maxContextEvaluationMicros;
+	}
+
+	public void setMaxContextEvaluationMicros(long maxContextEvaluationMicros) {
+		this.maxContextEvaluationMicros = maxContextEvaluationMicros;
+	}
+
+	/**
+	 * @return number of CQL evaluations. Each expression is a separate
+	 *         evaluation unless expressions are evaluated in batches.
+	 */
+	public long getExpressionEvaluations() {
+		return expressionEvaluations;
+	}
+
+	public void setExpressionEvaluations(long expressionEvaluations) {
+		this.expressionEvaluations = expressionEvaluations;
+	}
+
+	public long getExpressionEvaluationMicros() {
+		return expressionEvaluationMicros;
+	}
+
+	public void setExpressionEvaluationMicros(long expressionEvaluationMicros) {
+		this.expressionEvaluationMicros = expressionEvaluationMicros;
+	}
+
+	public long getMaxExpressionEvaluationMicros() {
+		return maxExpressionEvaluationMicros;
+	}
+
+	public void setMaxExpressionEvaluationMicros(long maxExpressionEvaluationMicros) {
+		this.maxExpressionEvaluationMicros = maxExpressionEvaluationMicros;
+	}
+
+	public long getEvaluationErrors() {
+		return evaluationErrors;
+	}
+
+	public void setEvaluationErrors(long evaluationErrors) {
+		this.evaluationErrors = evaluationErrors;
+	}
+
+	/**
+	 * @return number of retrieves performed by the CQL engine for each datatype
+	 */
+	public Map<String, Long> getRetrievesPerDataType() {
+		return retrievesPerDataType;
+	}
+
+	public void setRetrievesPerDataType(Map<String, Long> retrievesPerDataType) {
+		this.retrievesPerDataType = retrievesPerDataType;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		EvaluationStatistics that = (EvaluationStatistics) o;
+
+		return new EqualsBuilder()
+				.append(contextsEvaluated, that.contextsEvaluated)
+				.append(inputRows, that.inputRows)
+				.append(maxInputRowsPerContext, that.maxInputRowsPerContext)
+				.append(contextEvaluationMicros, that.contextEvaluationMicros)
+				.append(maxContextEvaluationMicros, that.maxContextEvaluationMicros)
+				.append(expressionEvaluations, that.expressionEvaluations)
+				.append(expressionEvaluationMicros, that.expressionEvaluationMicros)
+				.append(maxExpressionEvaluationMicros, that.maxExpressionEvaluationMicros)
+				.append(evaluationErrors, that.evaluationErrors)
+				.append(retrievesPerDataType, that.retrievesPerDataType)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(contextsEvaluated)
+				.append(inputRows)
+				.append(maxInputRowsPerContext)
+				.append(contextEvaluationMicros)
+				.append(maxContextEvaluationMicros)
+				.append(expressionEvaluations)
+				.append(expressionEvaluationMicros)
+				.append(maxExpressionEvaluationMicros)
+				.append(evaluationErrors)
+				.append(retrievesPerDataType)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("EvaluationStatistics{");
+		sb.append("contextsEvaluated=").append(contextsEvaluated);
+		sb.append(", inputRows=").append(inputRows);
+		sb.append(", maxInputRowsPerContext=").append(maxInputRowsPerContext);
+		sb.append(", contextEvaluationMicros=").append(contextEvaluationMicros);
+		sb.append(", maxContextEvaluationMicros=").append(maxContextEvaluationMicros);
+		sb.append(", expressionEvaluations=").append(expressionEvaluations);
+		sb.append(", expressionEvaluationMicros=").append(expressionEvaluationMicros);
+		sb.append(", maxExpressionEvaluationMicros=").append(maxExpressionEvaluationMicros);
+		sb.append(", evaluationErrors=").append(evaluationErrors);
+		sb.append(", retrievesPerDataType=").append(retrievesPerDataType);
+		sb.append('}');
+		return sb.toString();
+	}
+}
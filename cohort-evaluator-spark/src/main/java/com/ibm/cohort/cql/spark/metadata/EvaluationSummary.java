@@ -5,6 +5,7 @@
  */
 package com.ibm.cohort.cql.spark.metadata;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,17 +16,26 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.ibm.cohort.cql.spark.errors.EvaluationError;
+import com.ibm.cohort.cql.spark.errors.EvaluationErrorGroup;
 
-@JsonPropertyOrder({"applicationId", "startTimeMillis", "endTimeMillis", "runtimeMillis", "totalContexts", "executionsPerContext", "runtimeMillisPerContext", "errorList"})
+@JsonPropertyOrder({"applicationId", "startTimeMillis", "endTimeMillis", "runtimeMillis", "sampling", "totalContexts", "executionsPerContext", "runtimeMillisPerContext", "skewStatisticsPerContext", "joinPlansPerContext", "sharedDatasetsPerContext", "incrementalStatisticsPerContext", "evaluationStatisticsPerContext", "resumedContexts", "errorGroups", "errorList"})
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 public class EvaluationSummary {
 	private List<EvaluationError> errorList;
+	private List<EvaluationErrorGroup> errorGroups;
 	private long startTimeMillis;
 	private long endTimeMillis;
 	private long runtimeMillis;
 	private long totalContexts;
+	private SamplingSettings sampling;
 	private Map<String, Long> executionsPerContext = new HashMap<>();
 	private Map<String, Long> runtimeMillisPerContext = new HashMap<>();
+	private Map<String, ContextSkewStatistics> skewStatisticsPerContext = new HashMap<>();
+	private Map<String, ContextJoinPlan> joinPlansPerContext = new HashMap<>();
+	private Map<String, SharedDatasetStatistics> sharedDatasetsPerContext = new HashMap<>();
+	private Map<String, IncrementalStatistics> incrementalStatisticsPerContext = new HashMap<>();
+	private Map<String, EvaluationStatistics> evaluationStatisticsPerContext = new HashMap<>();
+	private List<String> resumedContexts = new ArrayList<>();
 	private String applicationId;
 	private String correlationId;
 
@@ -41,6 +51,18 @@ public class EvaluationSummary {
 		this.errorList = errorList;
 	}
 
+	/**
+	 * @return exact error counts and sampled failed context values for each
+	 *         context, library, output column, and exception class
+	 */
+	public List<EvaluationErrorGroup> getErrorGroups() {
+		return errorGroups;
+	}
+
+	public void setErrorGroups(List<EvaluationErrorGroup> errorGroups) {
+		this.errorGroups = errorGroups;
+	}
+
 	public long getStartTimeMillis() {
 		return startTimeMillis;
 	}
@@ -73,6 +95,18 @@ public class EvaluationSummary {
 		this.totalContexts = totalContexts;
 	}
 
+	/**
+	 * @return context value sample that the run was limited to or null if every
+	 *         context value was evaluated
+	 */
+	public SamplingSettings getSampling() {
+		return sampling;
+	}
+
+	public void setSampling(SamplingSettings sampling) {
+		this.sampling = sampling;
+	}
+
 	public Map<String, Long> getExecutionsPerContext() {
 		return executionsPerContext;
 	}
@@ -89,6 +123,65 @@ public class EvaluationSummary {
 		this.runtimeMillisPerContext = runtimeMillisPerContext;
 	}
 
+	public Map<String, ContextSkewStatistics> getSkewStatisticsPerContext() {
+		return skewStatisticsPerContext;
+	}
+
+	public void setSkewStatisticsPerContext(Map<String, ContextSkewStatistics> skewStatisticsPerContext) {
+		this.skewStatisticsPerContext = skewStatisticsPerContext;
+	}
+
+	/**
+	 * @return how the input data of each context was joined and grouped by
+	 *         context value
+	 */
+	public Map<String, ContextJoinPlan> getJoinPlansPerContext() {
+		return joinPlansPerContext;
+	}
+
+	public void setJoinPlansPerContext(Map<String, ContextJoinPlan> joinPlansPerContext) {
+		this.joinPlansPerContext = joinPlansPerContext;
+	}
+
+	public Map<String, SharedDatasetStatistics> getSharedDatasetsPerContext() {
+		return sharedDatasetsPerContext;
+	}
+
+	public void setSharedDatasetsPerContext(Map<String, SharedDatasetStatistics> sharedDatasetsPerContext) {
+		this.sharedDatasetsPerContext = sharedDatasetsPerContext;
+	}
+
+	public Map<String, IncrementalStatistics> getIncrementalStatisticsPerContext() {
+		return incrementalStatisticsPerContext;
+	}
+
+	public void setIncrementalStatisticsPerContext(Map<String, IncrementalStatistics> incrementalStatisticsPerContext) {
+		this.incrementalStatisticsPerContext = incrementalStatisticsPerContext;
+	}
+
+	/**
+	 * @return executor evaluation statistics rolled up for each context
+	 */
+	public Map<String, EvaluationStatistics> getEvaluationStatisticsPerContext() {
+		return evaluationStatisticsPerContext;
+	}
+
+	public void setEvaluationStatisticsPerContext(Map<String, EvaluationStatistics> evaluationStatisticsPerContext) {
+		this.evaluationStatisticsPerContext = evaluationStatisticsPerContext;
+	}
+
+	/**
+	 * @return contexts that were skipped because their output was committed by
+	 *         an earlier run of the same job
+	 */
+	public List<String> getResumedContexts() {
+		return resumedContexts;
+	}
+
+	public void setResumedContexts(List<String> resumedContexts) {
+		this.resumedContexts = resumedContexts;
+	}
+
 	public String getApplicationId() {
 		return applicationId;
 	}
@@ -113,6 +206,26 @@ public class EvaluationSummary {
 		runtimeMillisPerContext.put(contextName, runtimeMillis);
 	}
 
+	public void addContextSkewStatistics(String contextName, ContextSkewStatistics skewStatistics) {
+		skewStatisticsPerContext.put(contextName, skewStatistics);
+	}
+
+	public void addContextJoinPlan(String contextName, ContextJoinPlan joinPlan) {
+		joinPlansPerContext.put(contextName, joinPlan);
+	}
+
+	public void addSharedDatasetStatistics(String contextName, SharedDatasetStatistics sharedDatasetStatistics) {
+		sharedDatasetsPerContext.put(contextName, sharedDatasetStatistics);
+	}
+
+	public void addIncrementalStatistics(String contextName, IncrementalStatistics incrementalStatistics) {
+		incrementalStatisticsPerContext.put(contextName, incrementalStatistics);
+	}
+
+	public void addResumedContext(String contextName) {
+		resumedContexts.add(contextName);
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -125,9 +238,17 @@ public class EvaluationSummary {
 				.append(endTimeMillis, that.endTimeMillis)
 				.append(runtimeMillis, that.runtimeMillis)
 				.append(totalContexts, that.totalContexts)
+				.append(sampling, that.sampling)
 				.append(errorList, that.errorList)
+				.append(errorGroups, that.errorGroups)
 				.append(executionsPerContext, that.executionsPerContext)
 				.append(runtimeMillisPerContext, that.runtimeMillisPerContext)
+				.append(skewStatisticsPerContext, that.skewStatisticsPerContext)
+				.append(joinPlansPerContext, that.joinPlansPerContext)
+				.append(sharedDatasetsPerContext, that.sharedDatasetsPerContext)
+				.append(incrementalStatisticsPerContext, that.incrementalStatisticsPerContext)
+				.append(evaluationStatisticsPerContext, that.evaluationStatisticsPerContext)
+				.append(resumedContexts, that.resumedContexts)
 				.append(applicationId, that.applicationId)
 				.append(correlationId, that.correlationId)
 				.isEquals();
@@ -137,12 +258,20 @@ public class EvaluationSummary {
 	public int hashCode() {
 		return new HashCodeBuilder(17, 37)
 				.append(errorList)
+				.append(errorGroups)
 				.append(startTimeMillis)
 				.append(endTimeMillis)
 				.append(runtimeMillis)
 				.append(totalContexts)
+				.append(sampling)
 				.append(executionsPerContext)
 				.append(runtimeMillisPerContext)
+				.append(skewStatisticsPerContext)
+				.append(joinPlansPerContext)
+				.append(sharedDatasetsPerContext)
+				.append(incrementalStatisticsPerContext)
+				.append(evaluationStatisticsPerContext)
+				.append(resumedContexts)
 				.append(applicationId)
 				.append(correlationId)
 				.toHashCode();
@@ -152,12 +281,20 @@ public class EvaluationSummary {
 	public String toString() {
 		final StringBuilder sb = new StringBuilder("EvaluationSummary{");
 		sb.append("errorList=").append(errorList);
+		sb.append(", errorGroups=").append(errorGroups);
 		sb.append(", startTimeMillis=").append(startTimeMillis);
 		sb.append(", endTimeMillis=").append(endTimeMillis);
 		sb.append(", runtimeMillis=").append(runtimeMillis);
 		sb.append(", totalContexts=").append(totalContexts);
+		sb.append(", sampling=").append(sampling);
 		sb.append(", executionsPerContext=").append(executionsPerContext);
 		sb.append(", runtimeMillisPerContext=").append(runtimeMillisPerContext);
+		sb.append(", skewStatisticsPerContext=").append(skewStatisticsPerContext);
+		sb.append(", joinPlansPerContext=").append(joinPlansPerContext);
+		sb.append(", sharedDatasetsPerContext=").append(sharedDatasetsPerContext);
+		sb.append(", incrementalStatisticsPerContext=").append(incrementalStatisticsPerContext);
+		sb.append(", evaluationStatisticsPerContext=").append(evaluationStatisticsPerContext);
+		sb.append(", resumedContexts=").append(resumedContexts);
 		sb.append(", applicationId='").append(applicationId).append('\'');
 		sb.append(", correlationId='").append(correlationId).append('\'');
 		sb.append('}');
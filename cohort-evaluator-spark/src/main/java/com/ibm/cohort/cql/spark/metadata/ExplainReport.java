@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Evaluation plan of every aggregation context of a run that was started in
+ * explain mode. The report is produced on the driver without evaluating any
+ * CQL, so it can be compared between versions of a job to catch changes that
+ * read more data than before.
+ */
+@JsonPropertyOrder({"applicationId", "contexts"})
+public class ExplainReport {
+	private String applicationId;
+	private List<ContextExplanation> contexts = new ArrayList<>();
+
+	public ExplainReport() {
+	}
+
+	/**
+	 * @param applicationId Spark application id of the run
+	 * @param contexts      Explanation of each aggregation context
+	 */
+	public ExplainReport(String applicationId, List<ContextExplanation> contexts) {
+		this.applicationId = applicationId;
+		this.contexts = contexts;
+	}
+
+	/**
+	 * Format the explanation of every context for display.
+	 *
+	 * @return human readable report
+	 */
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Explain: %d aggregation contexts, no CQL was evaluated%n", contexts.size()));
+		for (ContextExplanation context : contexts) {
+			sb.append(context.format());
+		}
+		return sb.toString();
+	}
+
+	public String getApplicationId() {
+		return applicationId;
+	}
+
+	public void setApplicationId(String applicationId) {
+		this.applicationId = applicationId;
+	}
+
+	public List<ContextExplanation> getContexts() {
+		return contexts;
+	}
+
+	public void setContexts(List<ContextExplanation> contexts) {
+		this.contexts = contexts;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		ExplainReport that = (ExplainReport) o;
+
+		return new EqualsBuilder()
+				.append(applicationId, that.applicationId)
+				.append(contexts, that.contexts)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(applicationId)
+				.append(contexts)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("ExplainReport{");
+		sb.append("applicationId='").append(applicationId).append('\'');
+		sb.append(", contexts=").append(contexts);
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A {@link ContextCommitLog} that stores one JSON file per committed context in
+ * the {@value #COMMITS_FOLDER} folder under the metadata output path. Commit
+ * files are written under a temporary name and then renamed, so a partially
+ * written commit file is never read.
+ */
+public class HadoopPathContextCommitLog implements ContextCommitLog {
+
+    public static final String COMMITS_FOLDER = "_contexts";
+    public static final String COMMIT_SUFFIX = ".json";
+
+    private final Path commitsPath;
+    private final Configuration hadoopConfig;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public HadoopPathContextCommitLog(Path metadataPath, Configuration hadoopConfig) {
+        this.commitsPath = new Path(metadataPath, COMMITS_FOLDER);
+        this.hadoopConfig = hadoopConfig;
+    }
+
+    @Override
+    public ContextCommit getCommit(String contextName) {
+        Path commitPath = getCommitPath(contextName);
+        try {
+            FileSystem fileSystem = commitPath.getFileSystem(hadoopConfig);
+            ContextCommit commit = null;
+            if (fileSystem.exists(commitPath)) {
+                try (InputStream inputStream = fileSystem.open(commitPath)) {
+                    commit = mapper.readValue(inputStream, ContextCommit.class);
+                }
+            }
+            return commit;
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading the commit for context " + contextName, e);
+        }
+    }
+
+    @Override
+    public void commit(ContextCommit commit) {
+        Path commitPath = getCommitPath(commit.getContextName());
+        Path pendingPath = new Path(commitsPath, "_" + commitPath.getName());
+        try {
+            FileSystem fileSystem = commitPath.getFileSystem(hadoopConfig);
+            try (FSDataOutputStream outputStream = fileSystem.create(pendingPath, true)) {
+                outputStream.write(mapper.writer(new DefaultPrettyPrinter()).writeValueAsBytes(commit));
+            }
+            if (fileSystem.exists(commitPath)) {
+                fileSystem.delete(commitPath, false);
+            }
+            if (!fileSystem.rename(pendingPath, commitPath)) {
+                throw new IOException("Failed to rename " + pendingPath + " to " + commitPath);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing the commit for context " + commit.getContextName(), e);
+        }
+    }
+
+    @Override
+    public void removeCommit(String contextName) {
+        Path commitPath = getCommitPath(contextName);
+        try {
+            FileSystem fileSystem = commitPath.getFileSystem(hadoopConfig);
+            if (fileSystem.exists(commitPath) && !fileSystem.delete(commitPath, false)) {
+                throw new IOException("Failed to delete " + commitPath);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error removing the commit for context " + contextName, e);
+        }
+    }
+
+    protected Path getCommitPath(String contextName) {
+        return new Path(commitsPath, contextName + COMMIT_SUFFIX);
+    }
+}
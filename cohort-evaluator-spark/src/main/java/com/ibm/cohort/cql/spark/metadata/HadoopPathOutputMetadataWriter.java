@@ -52,4 +52,24 @@ public class HadoopPathOutputMetadataWriter extends BaseOutputMetadataWriter {
 			throw new RuntimeException("Error writing batch summary report", e);
 		}
 	}
+
+    @Override
+    public void writeProfileReport(CqlProfileReport profileReport) {
+        ObjectWriter writer = new ObjectMapper().writer(new DefaultPrettyPrinter());
+        try (FSDataOutputStream outputStream = metadataPath.getFileSystem(hadoopConfig).create(metadataPath.suffix("/" + PROFILE_REPORT_PREFIX + profileReport.getApplicationId()))) {
+            outputStream.write(writer.writeValueAsString(profileReport).getBytes());
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing CQL profile report", e);
+        }
+    }
+
+    @Override
+    public void writeExplainReport(ExplainReport explainReport) {
+        ObjectWriter writer = new ObjectMapper().writer(new DefaultPrettyPrinter());
+        try (FSDataOutputStream outputStream = metadataPath.getFileSystem(hadoopConfig).create(metadataPath.suffix("/" + EXPLAIN_REPORT_PREFIX + explainReport.getApplicationId()))) {
+            outputStream.write(writer.writeValueAsString(explainReport).getBytes());
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing explain report", e);
+        }
+    }
 }
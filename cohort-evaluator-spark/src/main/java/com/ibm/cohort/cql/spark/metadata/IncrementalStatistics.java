@@ -0,0 +1,108 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Describes the incremental evaluation of a single aggregation context. Only
+ * context values whose input fingerprint differs from the previous run are
+ * evaluated, and the previous results of all other context values are carried
+ * forward into the new output.
+ */
+@JsonPropertyOrder({"fullRecompute", "contextsEvaluated", "contextsCarriedForward", "contextsRemoved"})
+public class IncrementalStatistics {
+	private boolean fullRecompute;
+	private long contextsEvaluated;
+	private long contextsCarriedForward;
+	private long contextsRemoved;
+
+	/**
+	 * @return true if there was no usable state from a previous run or the
+	 *         libraries, parameters, or output schema have changed since then
+	 */
+	public boolean isFullRecompute() {
+		return fullRecompute;
+	}
+
+	public void setFullRecompute(boolean fullRecompute) {
+		this.fullRecompute = fullRecompute;
+	}
+
+	/**
+	 * @return number of new or changed context values that were evaluated
+	 */
+	public long getContextsEvaluated() {
+		return contextsEvaluated;
+	}
+
+	public void setContextsEvaluated(long contextsEvaluated) {
+		this.contextsEvaluated = contextsEvaluated;
+	}
+
+	/**
+	 * @return number of unchanged context values whose previous results were
+	 *         carried forward
+	 */
+	public long getContextsCarriedForward() {
+		return contextsCarriedForward;
+	}
+
+	public void setContextsCarriedForward(long contextsCarriedForward) {
+		this.contextsCarriedForward = contextsCarriedForward;
+	}
+
+	/**
+	 * @return number of context values from the previous run that no longer
+	 *         have input data and were dropped from the output
+	 */
+	public long getContextsRemoved() {
+		return contextsRemoved;
+	}
+
+	public void setContextsRemoved(long contextsRemoved) {
+		this.contextsRemoved = contextsRemoved;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		IncrementalStatistics that = (IncrementalStatistics) o;
+
+		return new EqualsBuilder()
+				.append(fullRecompute, that.fullRecompute)
+				.append(contextsEvaluated, that.contextsEvaluated)
+				.append(contextsCarriedForward, that.contextsCarriedForward)
+				.append(contextsRemoved, that.contextsRemoved)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(fullRecompute)
+				.append(contextsEvaluated)
+				.append(contextsCarriedForward)
+				.append(contextsRemoved)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("IncrementalStatistics{");
+		sb.append("fullRecompute=").append(fullRecompute);
+		sb.append(", contextsEvaluated=").append(contextsEvaluated);
+		sb.append(", contextsCarriedForward=").append(contextsCarriedForward);
+		sb.append(", contextsRemoved=").append(contextsRemoved);
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Describes how a single relationship of an aggregation context was joined to
+ * the primary datatype: the datatypes that were explicitly broadcast because
+ * their estimated size was below the broadcast threshold, the physical join
+ * operators that Spark planned, and whether the joined rows were already
+ * partitioned by context value before they were grouped.
+ */
+@JsonPropertyOrder({"relatedDataType", "associationDataType", "broadcastDataTypes", "physicalJoins", "partitionedByContext"})
+public class JoinStrategy {
+	private String relatedDataType;
+	private String associationDataType;
+	private List<String> broadcastDataTypes = new ArrayList<>();
+	private List<String> physicalJoins = new ArrayList<>();
+	private boolean partitionedByContext;
+
+	public String getRelatedDataType() {
+		return relatedDataType;
+	}
+
+	public void setRelatedDataType(String relatedDataType) {
+		this.relatedDataType = relatedDataType;
+	}
+
+	/**
+	 * @return association datatype of a many-to-many join or null for a
+	 *         one-to-many join
+	 */
+	public String getAssociationDataType() {
+		return associationDataType;
+	}
+
+	public void setAssociationDataType(String associationDataType) {
+		this.associationDataType = associationDataType;
+	}
+
+	/**
+	 * @return datatypes of the join that were marked for broadcast
+	 */
+	public List<String> getBroadcastDataTypes() {
+		return broadcastDataTypes;
+	}
+
+	public void setBroadcastDataTypes(List<String> broadcastDataTypes) {
+		this.broadcastDataTypes = broadcastDataTypes;
+	}
+
+	/**
+	 * @return physical join operators of the join in the order they are
+	 *         applied, e.g. BroadcastHashJoin(BuildRight) or SortMergeJoin
+	 */
+	public List<String> getPhysicalJoins() {
+		return physicalJoins;
+	}
+
+	public void setPhysicalJoins(List<String> physicalJoins) {
+		this.physicalJoins = physicalJoins;
+	}
+
+	/**
+	 * @return true if the joined rows were hash partitioned by context value,
+	 *         so they were grouped without another shuffle
+	 */
+	public boolean isPartitionedByContext() {
+		return partitionedByContext;
+	}
+
+	public void setPartitionedByContext(boolean partitionedByContext) {
+		this.partitionedByContext = partitionedByContext;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		JoinStrategy that = (JoinStrategy) o;
+
+		return new EqualsBuilder()
+				.append(relatedDataType, that.relatedDataType)
+				.append(associationDataType, that.associationDataType)
+				.append(broadcastDataTypes, that.broadcastDataTypes)
+				.append(physicalJoins, that.physicalJoins)
+				.append(partitionedByContext, that.partitionedByContext)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(relatedDataType)
+				.append(associationDataType)
+				.append(broadcastDataTypes)
+				.append(physicalJoins)
+				.append(partitionedByContext)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("JoinStrategy{");
+		sb.append("relatedDataType='").append(relatedDataType).append('\'');
+		sb.append(", associationDataType='").append(associationDataType).append('\'');
+		sb.append(", broadcastDataTypes=").append(broadcastDataTypes);
+		sb.append(", physicalJoins=").append(physicalJoins);
+		sb.append(", partitionedByContext=").append(partitionedByContext);
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -7,4 +7,18 @@ package com.ibm.cohort.cql.spark.metadata;
 
 public interface OutputMetadataWriter {
 	void writeMetadata(EvaluationSummary evaluationSummary);
+
+	/**
+	 * Write the CQL profile of a run next to its batch summary.
+	 *
+	 * @param profileReport Ranked profile of the run
+	 */
+	void writeProfileReport(CqlProfileReport profileReport);
+
+	/**
+	 * Write the evaluation plan of a run that was started in explain mode.
+	 *
+	 * @param explainReport Evaluation plan of every context of the run
+	 */
+	void writeExplainReport(ExplainReport explainReport);
 }
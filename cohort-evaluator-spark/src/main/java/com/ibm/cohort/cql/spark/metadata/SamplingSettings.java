@@ -0,0 +1,104 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Describes the context value sample that a run was limited to. The results
+ * of a sampled run only include the selected context values of each
+ * aggregation context.
+ */
+@JsonPropertyOrder({"fraction", "size", "seed"})
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SamplingSettings {
+	private Double fraction;
+	private Integer size;
+	private long seed;
+
+	public SamplingSettings() {
+	}
+
+	/**
+	 * @param fraction Fraction of context values that were selected or null
+	 * @param size     Number of context values that were selected or null
+	 * @param seed     Seed of the hash that ranks the context values
+	 */
+	public SamplingSettings(Double fraction, Integer size, long seed) {
+		this.fraction = fraction;
+		this.size = size;
+		this.seed = seed;
+	}
+
+	/**
+	 * @return fraction of the context values of each context that were
+	 *         selected or null when a fixed number was selected
+	 */
+	public Double getFraction() {
+		return fraction;
+	}
+
+	public void setFraction(Double fraction) {
+		this.fraction = fraction;
+	}
+
+	/**
+	 * @return number of context values of each context that were selected or
+	 *         null when a fraction was selected
+	 */
+	public Integer getSize() {
+		return size;
+	}
+
+	public void setSize(Integer size) {
+		this.size = size;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		SamplingSettings that = (SamplingSettings) o;
+
+		return new EqualsBuilder()
+				.append(seed, that.seed)
+				.append(fraction, that.fraction)
+				.append(size, that.size)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(fraction)
+				.append(size)
+				.append(seed)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("SamplingSettings{");
+		sb.append("fraction=").append(fraction);
+		sb.append(", size=").append(size);
+		sb.append(", seed=").append(seed);
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Describes the use of input datasets that were shared between aggregation
+ * contexts by a single aggregation context. A shared dataset is read once,
+ * persisted, and reused by every context that needs it, so each use of a
+ * dataset that was already persisted by an earlier context is an input scan that
+ * did not have to be repeated.
+ */
+@JsonPropertyOrder({"storageLevel", "sharedDataTypes", "cachedDataTypes", "inputScansAvoided"})
+public class SharedDatasetStatistics {
+	private String storageLevel;
+	private List<String> sharedDataTypes = new ArrayList<>();
+	private List<String> cachedDataTypes = new ArrayList<>();
+	private int inputScansAvoided;
+
+	public String getStorageLevel() {
+		return storageLevel;
+	}
+
+	public void setStorageLevel(String storageLevel) {
+		this.storageLevel = storageLevel;
+	}
+
+	/**
+	 * @return datatypes used by the context that are shared with at least one
+	 *         other context
+	 */
+	public List<String> getSharedDataTypes() {
+		return sharedDataTypes;
+	}
+
+	public void setSharedDataTypes(List<String> sharedDataTypes) {
+		this.sharedDataTypes = sharedDataTypes;
+	}
+
+	/**
+	 * @return shared datatypes that were read from a dataset persisted by an
+	 *         earlier context
+	 */
+	public List<String> getCachedDataTypes() {
+		return cachedDataTypes;
+	}
+
+	public void setCachedDataTypes(List<String> cachedDataTypes) {
+		this.cachedDataTypes = cachedDataTypes;
+	}
+
+	public int getInputScansAvoided() {
+		return inputScansAvoided;
+	}
+
+	public void setInputScansAvoided(int inputScansAvoided) {
+		this.inputScansAvoided = inputScansAvoided;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		SharedDatasetStatistics that = (SharedDatasetStatistics) o;
+
+		return new EqualsBuilder()
+				.append(storageLevel, that.storageLevel)
+				.append(sharedDataTypes, that.sharedDataTypes)
+				.append(cachedDataTypes, that.cachedDataTypes)
+				.append(inputScansAvoided, that.inputScansAvoided)
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 37)
+				.append(storageLevel)
+				.append(sharedDataTypes)
+				.append(cachedDataTypes)
+				.append(inputScansAvoided)
+				.toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("SharedDatasetStatistics{");
+		sb.append("storageLevel='").append(storageLevel).append('\'');
+		sb.append(", sharedDataTypes=").append(sharedDataTypes);
+		sb.append(", cachedDataTypes=").append(cachedDataTypes);
+		sb.append(", inputScansAvoided=").append(inputScansAvoided);
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.spark.util.AccumulatorV2;
+
+import com.ibm.cohort.cql.profiling.CqlProfileEntry;
+
+/**
+ * Spark accumulator that adds up the {@link CqlProfileEntry} values recorded
+ * by the executors into a single profile entry per expression definition or
+ * retrieve on the driver.
+ */
+public class CqlProfileAccumulator extends AccumulatorV2<Map<String, CqlProfileEntry>, Map<String, CqlProfileEntry>> {
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, CqlProfileEntry> entries = new HashMap<>();
+
+	@Override
+	public boolean isZero() {
+		return entries.isEmpty();
+	}
+
+	@Override
+	public AccumulatorV2<Map<String, CqlProfileEntry>, Map<String, CqlProfileEntry>> copy() {
+		CqlProfileAccumulator result = new CqlProfileAccumulator();
+		result.add(entries);
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		entries.clear();
+	}
+
+	@Override
+	public void add(Map<String, CqlProfileEntry> v) {
+		v.forEach((key, entry) -> entries.computeIfAbsent(key,
+				x -> new CqlProfileEntry(entry.getType(), entry.getLibraryName(), entry.getName())).merge(entry));
+	}
+
+	@Override
+	public void merge(AccumulatorV2<Map<String, CqlProfileEntry>, Map<String, CqlProfileEntry>> other) {
+		add(other.value());
+	}
+
+	@Override
+	public Map<String, CqlProfileEntry> value() {
+		return entries;
+	}
+}
@@ -5,12 +5,18 @@
  */
 package com.ibm.cohort.cql.spark.metrics;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.spark.api.plugin.DriverPlugin;
 import org.apache.spark.api.plugin.ExecutorPlugin;
 import org.apache.spark.api.plugin.PluginContext;
 import org.apache.spark.api.plugin.SparkPlugin;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 
 /*
@@ -26,6 +32,70 @@ public class CustomMetricSparkPlugin implements SparkPlugin{
 	public static final LongAccumulatorGauge perContextAccumGauge = new LongAccumulatorGauge();
 	public static final Counter contextUnionsCompletedCounter = new Counter();
 	public static final Counter totalContextsToProcessCounter = new Counter();
+	public static final LongAccumulatorGauge rowValueConversionsGauge = new LongAccumulatorGauge();
+	public static final LongAccumulatorGauge rowValueReusesGauge = new LongAccumulatorGauge();
+	private static final ConcurrentMap<String, LongAccumulatorGauge> perContextAccumGauges = new ConcurrentHashMap<>();
+	private static MetricRegistry driverMetricRegistry = null;
+
+	//Executor metrics, updated by the evaluation tasks running in this JVM
+	public static final Histogram contextEvaluationMicrosHistogram = new Histogram(new ExponentiallyDecayingReservoir());
+	public static final Histogram expressionEvaluationMicrosHistogram = new Histogram(new ExponentiallyDecayingReservoir());
+	public static final Histogram inputRowsPerContextHistogram = new Histogram(new ExponentiallyDecayingReservoir());
+	public static final Counter dataRowsConvertedCounter = new Counter();
+	public static final Counter evaluationErrorsCounter = new Counter();
+	private static final ConcurrentMap<String, Counter> retrieveCounters = new ConcurrentHashMap<>();
+	private static MetricRegistry executorMetricRegistry = null;
+
+	/**
+	 * Get the counter of CQL retrieves for a datatype. The counter is registered
+	 * with the executor metric registry as Cohort_Retrieves_&lt;datatype&gt; when
+	 * the executor plugin is enabled.
+	 * 
+	 * @param dataType datatype name
+	 * @return retrieve counter for the datatype
+	 */
+	public static Counter getRetrieveCounter(String dataType) {
+		Counter counter = retrieveCounters.get(dataType);
+		if (counter == null) {
+			synchronized (retrieveCounters) {
+				counter = retrieveCounters.computeIfAbsent(dataType, x -> new Counter());
+				if (executorMetricRegistry != null && !executorMetricRegistry.getMetrics().containsKey(getRetrieveCounterName(dataType))) {
+					executorMetricRegistry.register(getRetrieveCounterName(dataType), counter);
+				}
+			}
+		}
+		return counter;
+	}
+
+	private static String getRetrieveCounterName(String dataType) {
+		return MetricRegistry.name("Cohort_Retrieves_" + dataType);
+	}
+
+	/**
+	 * Get the gauge of the CQL evaluations completed for a context. The gauge is
+	 * registered with the driver metric registry as Cohort_PerContextAccum_&lt;context&gt;
+	 * when the driver plugin is enabled, so contexts that are evaluated
+	 * concurrently each report their own progress.
+	 * 
+	 * @param contextName context name
+	 * @return per context evaluation gauge for the context
+	 */
+	public static LongAccumulatorGauge getPerContextAccumGauge(String contextName) {
+		LongAccumulatorGauge gauge = perContextAccumGauges.get(contextName);
+		if (gauge == null) {
+			synchronized (perContextAccumGauges) {
+				gauge = perContextAccumGauges.computeIfAbsent(contextName, x -> new LongAccumulatorGauge());
+				if (driverMetricRegistry != null && !driverMetricRegistry.getMetrics().containsKey(getPerContextAccumGaugeName(contextName))) {
+					driverMetricRegistry.register(getPerContextAccumGaugeName(contextName), gauge);
+				}
+			}
+		}
+		return gauge;
+	}
+
+	private static String getPerContextAccumGaugeName(String contextName) {
+		return MetricRegistry.name("Cohort_PerContextAccum_" + contextName);
+	}
 
 	
 	@Override
@@ -36,13 +106,22 @@ public class CustomMetricSparkPlugin implements SparkPlugin{
 				MetricRegistry metReg = pluginContext.metricRegistry();
 				//Tracks which context if currently being processed
 				metReg.register(MetricRegistry.name("Cohort_ContextAccum"), contextAccumGauge);
-				//Tracks cql evaluations per context, resetting after each context finishes
+				//Tracks cql evaluations for the most recently started context when contexts are evaluated one at a time,
+				//each context uses its own accumulator and also has its own Cohort_PerContextAccum_<context> gauge
 				metReg.register(MetricRegistry.name("Cohort_PerContextAccum"), perContextAccumGauge);
 				//The total number of contexts there are to process
 				metReg.register(MetricRegistry.name("Cohort_TotalContextsToProcessCounter"), totalContextsToProcessCounter);
-				//Which context is currently being processed represented as a number (ie 1, 2, 3, 4)
+				//The number of contexts that are currently being evaluated, which is at most --concurrent-contexts
 				metReg.register(MetricRegistry.name("Cohort_CurrentlyEvaluatingContext"), currentlyEvaluatingContextGauge);
-				
+				//Input row values converted to CQL values by the executors when --memoize-row-values is enabled
+				metReg.register(MetricRegistry.name("Cohort_RowValueConversions"), rowValueConversionsGauge);
+				//Input row value reads that reused an already converted value, i.e. the conversions that were saved
+				metReg.register(MetricRegistry.name("Cohort_RowValueReuses"), rowValueReusesGauge);
+				//Per context evaluations, including gauges created before the plugin was initialized
+				synchronized (perContextAccumGauges) {
+					driverMetricRegistry = metReg;
+					perContextAccumGauges.forEach((contextName, gauge) -> metReg.register(getPerContextAccumGaugeName(contextName), gauge));
+				}
 			}
 		};
 	}
@@ -50,14 +129,28 @@ public class CustomMetricSparkPlugin implements SparkPlugin{
 	@Override
 	public ExecutorPlugin executorPlugin() {
 		return new ExecutorPlugin() {
-			//Executor metrics are not automatically exposed via the prometheus servlet like the driver metrics are
-			//Keeping this here as an example in case they fix/add support for this in future releases
-//			@Override
-//			public void init(PluginContext ctx, Map<String, String> extraConf) {
-//				MetricRegistry metReg = ctx.metricRegistry();
-//				metReg.register(MetricRegistry.name("metrics_dataRowsProcessed"), dataRowsProcessed);
-//				
-//			}
+			//Executor metrics are not automatically exposed via the prometheus servlet like the driver metrics are,
+			//so they are only visible through a metrics sink configured for the executors (e.g. JMX or Graphite).
+			//The same values are also rolled up into the evaluation summary using accumulators.
+			@Override
+			public void init(PluginContext ctx, Map<String, String> extraConf) {
+				MetricRegistry metReg = ctx.metricRegistry();
+				//Time spent evaluating all of the defines for a single context value
+				metReg.register(MetricRegistry.name("Cohort_ContextEvaluationMicros"), contextEvaluationMicrosHistogram);
+				//Time spent in a single CQL evaluation (one expression, or one group of expressions when batching is enabled)
+				metReg.register(MetricRegistry.name("Cohort_ExpressionEvaluationMicros"), expressionEvaluationMicrosHistogram);
+				//Input rows of all datatypes for a single context value
+				metReg.register(MetricRegistry.name("Cohort_InputRowsPerContext"), inputRowsPerContextHistogram);
+				//Input rows converted to DataRow objects
+				metReg.register(MetricRegistry.name("Cohort_DataRowsConverted"), dataRowsConvertedCounter);
+				//CQL evaluation errors, whether or not the program halts on error
+				metReg.register(MetricRegistry.name("Cohort_EvaluationErrors"), evaluationErrorsCounter);
+				//Retrieves per datatype, including counters created before the plugin was initialized
+				synchronized (retrieveCounters) {
+					executorMetricRegistry = metReg;
+					retrieveCounters.forEach((dataType, counter) -> metReg.register(getRetrieveCounterName(dataType), counter));
+				}
+			}
 		};
 	}
 }
\ No newline at end of file
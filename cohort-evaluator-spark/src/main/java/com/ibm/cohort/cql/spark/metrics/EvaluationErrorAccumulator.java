@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metrics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.spark.util.AccumulatorV2;
+
+import com.ibm.cohort.cql.spark.errors.EvaluationError;
+import com.ibm.cohort.cql.spark.errors.EvaluationErrorGroup;
+
+/**
+ * Spark accumulator that counts CQL evaluation errors by aggregation context,
+ * library, output column, and exception class, and keeps a bounded sample of the
+ * failed context values of each group. The size of the accumulator depends on
+ * the number of groups, which is limited by the job definition, and not on the
+ * number of errors, so any number of errors can be reported to the driver.
+ *
+ * The accumulator is thread safe so that a single instance can be shared by
+ * the threads of a local evaluation.
+ */
+public class EvaluationErrorAccumulator extends AccumulatorV2<EvaluationErrorGroup, List<EvaluationErrorGroup>> {
+	private static final long serialVersionUID = 1L;
+
+	private final int sampleSize;
+	private final Map<List<String>, EvaluationErrorGroup> groups = new LinkedHashMap<>();
+
+	/**
+	 * @param sampleSize Maximum number of failed context values that are
+	 *                   sampled for each group of errors
+	 */
+	public EvaluationErrorAccumulator(int sampleSize) {
+		if (sampleSize < 0) {
+			throw new IllegalArgumentException("Error sample size must not be negative");
+		}
+		this.sampleSize = sampleSize;
+	}
+
+	/**
+	 * Count a CQL evaluation error.
+	 *
+	 * @param contextName  Aggregation context name
+	 * @param contextId    Context value that failed
+	 * @param libraryId    Library of the expression that failed
+	 * @param outputColumn Output column of the expression that failed
+	 * @param th           Evaluation failure
+	 */
+	public synchronized void addError(String contextName, Object contextId, String libraryId, String outputColumn, Throwable th) {
+		getGroup(contextName, libraryId, outputColumn, th.getClass().getName())
+				.add(new EvaluationError(contextName, contextId, outputColumn, th.getMessage()), sampleSize);
+	}
+
+	private EvaluationErrorGroup getGroup(String contextName, String libraryId, String outputColumn, String exceptionClass) {
+		return groups.computeIfAbsent(Arrays.asList(contextName, libraryId, outputColumn, exceptionClass),
+				x -> new EvaluationErrorGroup(contextName, libraryId, outputColumn, exceptionClass));
+	}
+
+	/**
+	 * @return one error for each sampled context value of each group
+	 */
+	public synchronized List<EvaluationError> getSampledErrors() {
+		return groups.values().stream()
+				.flatMap(group -> group.getSamples().stream())
+				.collect(Collectors.toList());
+	}
+
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	@Override
+	public synchronized boolean isZero() {
+		return groups.isEmpty();
+	}
+
+	@Override
+	public synchronized AccumulatorV2<EvaluationErrorGroup, List<EvaluationErrorGroup>> copy() {
+		EvaluationErrorAccumulator result = new EvaluationErrorAccumulator(sampleSize);
+		groups.values().forEach(result::add);
+		return result;
+	}
+
+	@Override
+	public synchronized void reset() {
+		groups.clear();
+	}
+
+	@Override
+	public synchronized void add(EvaluationErrorGroup v) {
+		getGroup(v.getContextName(), v.getLibraryId(), v.getOutputColumn(), v.getExceptionClass()).merge(v, sampleSize);
+	}
+
+	@Override
+	public void merge(AccumulatorV2<EvaluationErrorGroup, List<EvaluationErrorGroup>> other) {
+		other.value().forEach(this::add);
+	}
+
+	/**
+	 * @return the error groups with the most errors first
+	 */
+	@Override
+	public synchronized List<EvaluationErrorGroup> value() {
+		return groups.values().stream()
+				.sorted(Comparator.comparingLong(EvaluationErrorGroup::getCount).reversed())
+				.collect(Collectors.toList());
+	}
+}
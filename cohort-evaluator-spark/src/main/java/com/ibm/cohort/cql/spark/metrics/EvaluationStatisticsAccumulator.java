@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.spark.util.AccumulatorV2;
+
+import com.ibm.cohort.cql.spark.metadata.EvaluationStatistics;
+
+/**
+ * Spark accumulator that rolls up the {@link EvaluationStatistics} recorded by
+ * the executors for each aggregation context into a single set of statistics
+ * per context on the driver.
+ */
+public class EvaluationStatisticsAccumulator extends AccumulatorV2<Map<String, EvaluationStatistics>, Map<String, EvaluationStatistics>> {
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, EvaluationStatistics> statistics = new HashMap<>();
+
+	/**
+	 * Get the statistics of a context so they can be updated by the current
+	 * task.
+	 *
+	 * @param contextName Aggregation context name
+	 * @return mutable statistics of the context
+	 */
+	public EvaluationStatistics getStatistics(String contextName) {
+		return statistics.computeIfAbsent(contextName, x -> new EvaluationStatistics());
+	}
+
+	@Override
+	public boolean isZero() {
+		return statistics.isEmpty();
+	}
+
+	@Override
+	public AccumulatorV2<Map<String, EvaluationStatistics>, Map<String, EvaluationStatistics>> copy() {
+		EvaluationStatisticsAccumulator result = new EvaluationStatisticsAccumulator();
+		result.add(statistics);
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		statistics.clear();
+	}
+
+	@Override
+	public void add(Map<String, EvaluationStatistics> v) {
+		v.forEach((contextName, contextStatistics) -> getStatistics(contextName).merge(contextStatistics));
+	}
+
+	@Override
+	public void merge(AccumulatorV2<Map<String, EvaluationStatistics>, Map<String, EvaluationStatistics>> other) {
+		add(other.value());
+	}
+
+	@Override
+	public Map<String, EvaluationStatistics> value() {
+		return statistics;
+	}
+}
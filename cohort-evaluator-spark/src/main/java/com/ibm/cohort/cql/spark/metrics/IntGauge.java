@@ -8,12 +8,20 @@ package com.ibm.cohort.cql.spark.metrics;
 import com.codahale.metrics.Gauge;
 
 public class IntGauge implements Gauge<Integer> {
-	private int value = 0;
+	private volatile int value = 0;
 
-	public void setValue(int intVal) {
+	public synchronized void setValue(int intVal) {
 		value = intVal;
 	}
 
+	public synchronized void increment() {
+		value++;
+	}
+
+	public synchronized void decrement() {
+		value--;
+	}
+
 	@Override
 	public Integer getValue() {
 		return value;
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metrics;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+
+import com.ibm.cohort.datarow.engine.DataRowRetrieveProvider;
+
+/**
+ * DataRowRetrieveProvider that reports the datatype of every retrieve that the
+ * CQL engine performs before the retrieve is answered.
+ */
+public class MeteredDataRowRetrieveProvider extends DataRowRetrieveProvider {
+
+	private final Consumer<String> retrieveListener;
+
+	/**
+	 * @param data                Map of datatype to list of rows for that datatype
+	 * @param terminologyProvider Terminology provider used to expand value sets
+	 * @param retrieveListener    Receives the datatype of each retrieve
+	 */
+	public MeteredDataRowRetrieveProvider(Map<String, ? extends Iterable<Object>> data,
+			TerminologyProvider terminologyProvider, Consumer<String> retrieveListener) {
+		super(data, terminologyProvider);
+		this.retrieveListener = retrieveListener;
+	}
+
+	@Override
+	public Iterable<Object> retrieve(String context, String contextPath, Object contextValue, String dataType,
+			String templateId, String codePath, Iterable<Code> codes, String valueSet, String datePath,
+			String dateLowPath, String dateHighPath, Interval dateRange) {
+		retrieveListener.accept(dataType);
+		return super.retrieve(context, contextPath, contextValue, dataType, templateId, codePath, codes, valueSet,
+				datePath, dateLowPath, dateHighPath, dateRange);
+	}
+}
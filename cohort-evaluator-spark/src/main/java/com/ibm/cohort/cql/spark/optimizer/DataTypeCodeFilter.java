@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.optimizer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Captures the terminology filters applied by the CQL Retrieve elements of a
+ * single datatype. Codes and value set identifiers are tracked per code path.
+ * A filter is only complete when every Retrieve of the datatype was filtered
+ * by a statically resolvable set of codes and/or value sets. Rows that do not
+ * match an incomplete filter may still be needed by the CQL, so incomplete
+ * filters must never be used to discard input data.
+ */
+public class DataTypeCodeFilter {
+    private boolean complete = true;
+    private Map<String, Set<String>> codesByPath = new HashMap<>();
+    private Map<String, Set<String>> valueSetsByPath = new HashMap<>();
+
+    /**
+     * @param codePath Code path of the retrieve
+     * @param codes    Code values that are retrieved
+     */
+    public void addCodes(String codePath, Collection<String> codes) {
+        codesByPath.computeIfAbsent(codePath, key -> new HashSet<>()).addAll(codes);
+    }
+
+    /**
+     * @param codePath     Code path of the retrieve
+     * @param valueSetIds  Identifiers of the value sets that are retrieved
+     */
+    public void addValueSets(String codePath, Collection<String> valueSetIds) {
+        valueSetsByPath.computeIfAbsent(codePath, key -> new HashSet<>()).addAll(valueSetIds);
+    }
+
+    /**
+     * Record a Retrieve of the datatype that is either not filtered by code or
+     * whose code filter cannot be resolved without evaluating the CQL.
+     */
+    public void markUnfiltered() {
+        this.complete = false;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public Map<String, Set<String>> getCodesByPath() {
+        return codesByPath;
+    }
+
+    public Map<String, Set<String>> getValueSetsByPath() {
+        return valueSetsByPath;
+    }
+
+    /**
+     * @return every code path referenced by a Retrieve of the datatype
+     */
+    public Set<String> getCodePaths() {
+        Set<String> paths = new HashSet<>(codesByPath.keySet());
+        paths.addAll(valueSetsByPath.keySet());
+        return paths;
+    }
+
+    /**
+     * Merge another filter for the same datatype into this one. The merged
+     * filter is complete only if both filters are complete.
+     *
+     * @param other filter to merge
+     * @return this filter
+     */
+    public DataTypeCodeFilter merge(DataTypeCodeFilter other) {
+        this.complete = this.complete && other.complete;
+        other.codesByPath.forEach(this::addCodes);
+        other.valueSetsByPath.forEach(this::addValueSets);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "DataTypeCodeFilter{complete=" + complete + ", codesByPath=" + codesByPath + ", valueSetsByPath=" + valueSetsByPath + "}";
+    }
+}
@@ -38,11 +38,17 @@ public class DataTypeRequirementsProcessor {
         private Map<String, VersionedIdentifier> modelIdByUri;
         private Map<String,Set<String>> pathsByDataType;
         private Map<String,Set<StringMatcher>> pathMatchersByDataType;
+        private Map<String,DataTypeCodeFilter> codeFiltersByDataType;
         
         public DataTypeRequirements(Map<String,VersionedIdentifier> modelNameByUri, Map<String,Set<String>> pathsByDataType, Map<String,Set<StringMatcher>> pathMatchersByDataType) {
+            this(modelNameByUri, pathsByDataType, pathMatchersByDataType, new HashMap<>());
+        }
+        
+        public DataTypeRequirements(Map<String,VersionedIdentifier> modelNameByUri, Map<String,Set<String>> pathsByDataType, Map<String,Set<StringMatcher>> pathMatchersByDataType, Map<String,DataTypeCodeFilter> codeFiltersByDataType) {
             this.modelIdByUri = modelNameByUri;
             this.pathsByDataType = pathsByDataType;
             this.pathMatchersByDataType = pathMatchersByDataType;
+            this.codeFiltersByDataType = codeFiltersByDataType;
         }
         
         public Map<String,VersionedIdentifier> getModels() {
@@ -57,6 +63,14 @@ public class DataTypeRequirementsProcessor {
             return pathMatchersByDataType;
         }
         
+        /**
+         * @return the code filters applied by the Retrieve elements of each
+         *         datatype that is retrieved
+         */
+        public Map<String, DataTypeCodeFilter> getCodeFiltersByDataType() {
+            return codeFiltersByDataType;
+        }
+        
         public Map<String,Set<StringMatcher>> allAsStringMatcher() {
             Map<String,Set<StringMatcher>> result = new HashMap<>();
             
@@ -65,7 +79,7 @@ public class DataTypeRequirementsProcessor {
             });
             
             pathMatchersByDataType.forEach( (key,value) -> {
-                result.merge(key, value, (prev,cur) -> { prev.addAll(cur); return prev; } );
+                result.merge(key, new HashSet<>(value), (prev,cur) -> { prev.addAll(cur); return prev; } );
             });
             
             return result;
@@ -123,7 +137,16 @@ public class DataTypeRequirementsProcessor {
         Map<String,Set<String>> pathsByDataType = mapToLocalPart(context.getPathsByQName());
         Map<String,Set<StringMatcher>> matchersByDataType = mapToLocalPart(context.getMatchers());
         
-        return new DataTypeRequirements(context.getModels(), pathsByDataType, matchersByDataType);
+        // Code filters are not propagated to child types. The retrieve provider
+        // only returns rows of the exact datatype that is retrieved.
+        Map<String,DataTypeCodeFilter> codeFiltersByDataType = new HashMap<>();
+        for( Map.Entry<QName, DataTypeCodeFilter> entry : context.getCodeFiltersByQName().entrySet() ) {
+            if( ! entry.getKey().getNamespaceURI().equals(CqlConstants.SYSTEM_MODEL_URI) ) {
+                codeFiltersByDataType.merge(entry.getKey().getLocalPart(), entry.getValue(), DataTypeCodeFilter::merge);
+            }
+        }
+        
+        return new DataTypeRequirements(context.getModels(), pathsByDataType, matchersByDataType, codeFiltersByDataType);
     }
     
     public Map<String,Set<String>> getPathRequirementsByDataType(CqlLibraryProvider sourceProvider, CqlLibraryDescriptor libraryDescriptor) {
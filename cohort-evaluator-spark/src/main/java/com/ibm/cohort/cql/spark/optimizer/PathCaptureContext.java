@@ -55,6 +55,11 @@ public class PathCaptureContext {
         return pathsByQName;
     }
     
+    private Map<QName,DataTypeCodeFilter> codeFiltersByQName = new HashMap<>();
+    public Map<QName,DataTypeCodeFilter> getCodeFiltersByQName() {
+        return codeFiltersByQName;
+    }
+    
     private Map<String, VersionedIdentifier> modelIdByUri = new HashMap<>();
     public Map<String,VersionedIdentifier> getModels() {
         return modelIdByUri;
@@ -106,6 +111,10 @@ public class PathCaptureContext {
         CollectionUtils.addIgnoreNull(pathsByType, retrieve.getDateHighProperty());
     }
 
+    public void reportCodeFilter(QName dataType, DataTypeCodeFilter filter) {
+        codeFiltersByQName.merge(dataType, filter, DataTypeCodeFilter::merge);
+    }
+
     public void reportByColumn(ByColumn elm) {
         Set<QName> modelTypeNames = ElmUtils.getModelTypeNames(getCurrentQueryContext().getQuery());
         for( QName name : modelTypeNames ) {
@@ -6,16 +6,30 @@
 
 package com.ibm.cohort.cql.spark.optimizer;
 
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
 import org.hl7.cql_annotations.r1.CqlToElmInfo;
 import org.hl7.elm.r1.AliasedQuerySource;
 import org.hl7.elm.r1.ByColumn;
+import org.hl7.elm.r1.Code;
+import org.hl7.elm.r1.CodeDef;
+import org.hl7.elm.r1.CodeRef;
+import org.hl7.elm.r1.ConceptDef;
+import org.hl7.elm.r1.ConceptRef;
+import org.hl7.elm.r1.Expression;
 import org.hl7.elm.r1.ExpressionDef;
 import org.hl7.elm.r1.LetClause;
 import org.hl7.elm.r1.Library;
 import org.hl7.elm.r1.Property;
 import org.hl7.elm.r1.Query;
 import org.hl7.elm.r1.Retrieve;
+import org.hl7.elm.r1.ToConcept;
+import org.hl7.elm.r1.ToList;
 import org.hl7.elm.r1.UsingDef;
+import org.hl7.elm.r1.ValueSetDef;
+import org.hl7.elm.r1.ValueSetRef;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,9 +60,95 @@ public class PathCaptureVisitor <C extends PathCaptureContext> extends GraphWalk
     public Object visitRetrieve(Retrieve elm, C context) {
         LOG.trace("Retrieve [{}:{}] {}", getCurrentLibraryIdentifier().getId(), elm.getLocator(), elm.getDataType());
         context.reportRetrieve(elm);
+        context.reportCodeFilter(elm.getDataType(), getCodeFilter(elm, context));
         return super.visitRetrieve(elm, context);
     }
 
+    /**
+     * Calculate the terminology filter applied by a single Retrieve. Only code
+     * filters that can be resolved statically from terminology definitions
+     * (valueset, code, and concept declarations or Code literals) are captured.
+     * Any other code filter, such as a parameter or expression reference, is
+     * treated as unfiltered.
+     * 
+     * @param elm Retrieve element
+     * @param context visitor context
+     * @return code filter for the Retrieve
+     */
+    protected DataTypeCodeFilter getCodeFilter(Retrieve elm, C context) {
+        DataTypeCodeFilter filter = new DataTypeCodeFilter();
+        
+        Set<String> codes = new HashSet<>();
+        Set<String> valueSets = new HashSet<>();
+        if( elm.getCodes() != null && elm.getCodeProperty() != null && resolveCodes(elm.getCodes(), codes, valueSets, context) ) {
+            filter.addCodes(elm.getCodeProperty(), codes);
+            if( ! valueSets.isEmpty() ) {
+                filter.addValueSets(elm.getCodeProperty(), valueSets);
+            }
+        } else {
+            filter.markUnfiltered();
+        }
+        return filter;
+    }
+    
+    protected boolean resolveCodes(Expression expression, Set<String> codes, Set<String> valueSets, C context) {
+        boolean resolved = true;
+        if( expression instanceof ValueSetRef ) {
+            ValueSetRef ref = (ValueSetRef) expression;
+            Library library = prepareLibraryVisit(getCurrentLibraryIdentifier(), ref.getLibraryName(), context);
+            try {
+                Optional<ValueSetDef> def = ( library.getValueSets() == null ) ? Optional.empty()
+                        : library.getValueSets().getDef().stream().filter( vs -> vs.getName().equals(ref.getName()) ).findAny();
+                def.ifPresent( vs -> valueSets.add(vs.getId()) );
+                resolved = def.isPresent();
+            } finally {
+                unprepareLibraryVisit(ref.getLibraryName());
+            }
+        } else if( expression instanceof CodeRef ) {
+            CodeRef ref = (CodeRef) expression;
+            Library library = prepareLibraryVisit(getCurrentLibraryIdentifier(), ref.getLibraryName(), context);
+            try {
+                Optional<CodeDef> def = ( library.getCodes() == null ) ? Optional.empty()
+                        : library.getCodes().getDef().stream().filter( cd -> cd.getName().equals(ref.getName()) ).findAny();
+                def.ifPresent( cd -> codes.add(cd.getId()) );
+                resolved = def.isPresent();
+            } finally {
+                unprepareLibraryVisit(ref.getLibraryName());
+            }
+        } else if( expression instanceof ConceptRef ) {
+            ConceptRef ref = (ConceptRef) expression;
+            Library library = prepareLibraryVisit(getCurrentLibraryIdentifier(), ref.getLibraryName(), context);
+            try {
+                Optional<ConceptDef> def = ( library.getConcepts() == null ) ? Optional.empty()
+                        : library.getConcepts().getDef().stream().filter( cd -> cd.getName().equals(ref.getName()) ).findAny();
+                resolved = def.isPresent();
+                if( resolved ) {
+                    for( CodeRef codeRef : def.get().getCode() ) {
+                        resolved = resolved && resolveCodes(codeRef, codes, valueSets, context);
+                    }
+                }
+            } finally {
+                unprepareLibraryVisit(ref.getLibraryName());
+            }
+        } else if( expression instanceof Code ) {
+            codes.add(((Code) expression).getCode());
+        } else if( expression instanceof ToList ) {
+            resolved = resolveCodes(((ToList) expression).getOperand(), codes, valueSets, context);
+        } else if( expression instanceof ToConcept ) {
+            resolved = resolveCodes(((ToConcept) expression).getOperand(), codes, valueSets, context);
+        } else if( expression instanceof org.hl7.elm.r1.List ) {
+            for( Expression element : ((org.hl7.elm.r1.List) expression).getElement() ) {
+                resolved = resolved && resolveCodes(element, codes, valueSets, context);
+            }
+        } else if( expression instanceof Property && "codes".equals(((Property) expression).getPath()) ) {
+            // e.g. [A: code_col in "MyConcept".codes]
+            resolved = resolveCodes(((Property) expression).getSource(), codes, valueSets, context);
+        } else {
+            resolved = false;
+        }
+        return resolved;
+    }
+
     @Override
     public Object visitQuery(Query elm, C context) {
         Object result;
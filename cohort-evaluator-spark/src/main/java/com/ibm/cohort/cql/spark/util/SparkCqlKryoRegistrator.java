@@ -0,0 +1,287 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.apache.spark.serializer.KryoRegistrator;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.expressions.GenericRow;
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.util.SerializableConfiguration;
+import org.apache.spark.util.StatCounter;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.JavaSerializer;
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequest;
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequests;
+import com.ibm.cohort.cql.evaluation.CqlExpressionConfiguration;
+import com.ibm.cohort.cql.evaluation.parameters.BooleanParameter;
+import com.ibm.cohort.cql.evaluation.parameters.CodeParameter;
+import com.ibm.cohort.cql.evaluation.parameters.ConceptParameter;
+import com.ibm.cohort.cql.evaluation.parameters.DateParameter;
+import com.ibm.cohort.cql.evaluation.parameters.DatetimeParameter;
+import com.ibm.cohort.cql.evaluation.parameters.DecimalParameter;
+import com.ibm.cohort.cql.evaluation.parameters.IntegerParameter;
+import com.ibm.cohort.cql.evaluation.parameters.IntervalParameter;
+import com.ibm.cohort.cql.evaluation.parameters.QuantityParameter;
+import com.ibm.cohort.cql.evaluation.parameters.RatioParameter;
+import com.ibm.cohort.cql.evaluation.parameters.StringParameter;
+import com.ibm.cohort.cql.evaluation.parameters.TimeParameter;
+import com.ibm.cohort.cql.library.CqlLibraryDescriptor;
+import com.ibm.cohort.cql.spark.aggregation.ContextDefinition;
+import com.ibm.cohort.cql.spark.aggregation.ContextDefinitions;
+import com.ibm.cohort.cql.spark.aggregation.HotKeyDetector;
+import com.ibm.cohort.cql.spark.aggregation.ManyToMany;
+import com.ibm.cohort.cql.spark.aggregation.OneToMany;
+import com.ibm.cohort.cql.spark.data.SparkDataRow;
+import com.ibm.cohort.cql.spark.data.SparkDataRowSerializer;
+import com.ibm.cohort.cql.spark.data.SparkTypeConverter;
+import com.ibm.cohort.cql.spark.errors.EvaluationError;
+import com.ibm.cohort.cql.spark.errors.EvaluationErrorGroup;
+import com.ibm.cohort.cql.terminology.TerminologyIndex;
+import com.twitter.chill.AllScalaRegistrar;
+
+import scala.Tuple2;
+import scala.Tuple3;
+import scala.math.Ordering$;
+
+/**
+ * Registers the classes that the Spark CQL evaluator moves through the Spark
+ * serializer (shuffled context rows, task results, and cached or broadcast job
+ * data) with Kryo, so that the evaluator can be run with
+ * <code>spark.serializer=org.apache.spark.serializer.KryoSerializer</code>,
+ * <code>spark.kryo.registrator</code> set to this class, and
+ * <code>spark.kryo.registrationRequired=true</code>.
+ *
+ * Spark rows are written with a compact serializer that writes the values of
+ * the row followed by its schema. Schemas are written as JSON and the schemas
+ * that are read back are shared by all the rows of a Kryo instance that have
+ * the same schema, so the schema accessors of the data rows are compiled once
+ * per schema instead of once per row.
+ *
+ * Classes that cache derived state in transient fields are registered with
+ * Java serialization so that the cache is rebuilt when they are read.
+ */
+public class SparkCqlKryoRegistrator implements KryoRegistrator {
+
+    /**
+     * Maximum number of distinct schemas that are shared by the schema
+     * serializer of a single Kryo instance.
+     */
+    protected static final int SCHEMA_CACHE_SIZE = 64;
+
+    @Override
+    public void registerClasses(Kryo kryo) {
+        // Spark applies the chill registrations after the user registrators.
+        // Applying them first means the Scala and Java classes below are
+        // registered with the chill serializers and keep the same ids.
+        new AllScalaRegistrar().apply(kryo);
+
+        registerRowClasses(kryo);
+        registerJavaClasses(kryo);
+        registerScalaClasses(kryo);
+        registerProjectClasses(kryo);
+    }
+
+    /**
+     * Spark rows and the values that can be stored in a row.
+     */
+    protected void registerRowClasses(Kryo kryo) {
+        kryo.register(GenericRowWithSchema.class, new RowSerializer());
+        kryo.register(GenericRow.class, new RowSerializer());
+        kryo.register(StructType.class, new StructTypeSerializer());
+
+        kryo.register(Object[].class);
+        kryo.register(byte[].class);
+        kryo.register(BigDecimal.class);
+        kryo.register(BigInteger.class);
+        kryo.register(Date.class);
+        kryo.register(Timestamp.class);
+        kryo.register(LocalDate.class);
+        kryo.register(Instant.class);
+        register(kryo, "scala.collection.mutable.WrappedArray$ofRef");
+        register(kryo, "scala.collection.immutable.Map$EmptyMap$");
+        register(kryo, "scala.collection.immutable.Map$Map1");
+        register(kryo, "scala.collection.immutable.Map$Map2");
+        register(kryo, "scala.collection.immutable.Map$Map3");
+        register(kryo, "scala.collection.immutable.Map$Map4");
+        register(kryo, "scala.collection.immutable.HashMap$HashTrieMap");
+        register(kryo, "scala.collection.immutable.HashMap$HashMap1");
+    }
+
+    protected void registerJavaClasses(Kryo kryo) {
+        kryo.register(ArrayList.class);
+        kryo.register(HashMap.class);
+        kryo.register(LinkedHashMap.class);
+        kryo.register(HashSet.class);
+        kryo.register(LinkedHashSet.class);
+    }
+
+    /**
+     * Scala tuples that wrap keyed context rows and task results, and the
+     * classes of the partial results of the hot context detection.
+     */
+    protected void registerScalaClasses(Kryo kryo) {
+        kryo.register(Tuple2.class);
+        kryo.register(Tuple3.class);
+        kryo.register(StatCounter.class);
+
+        kryo.register(HotKeyDetector.SampledCountComparator.class);
+        kryo.register(Ordering$.MODULE$.comparatorToOrdering(new HotKeyDetector.SampledCountComparator()).getClass());
+        kryo.register(Ordering$.class, new SingletonSerializer<>(Ordering$.MODULE$));
+    }
+
+    protected void registerProjectClasses(Kryo kryo) {
+        kryo.register(SparkTypeConverter.class);
+        kryo.register(SparkDataRow.class, new SparkDataRowSerializer());
+
+        kryo.register(EvaluationError.class);
+        kryo.register(EvaluationErrorGroup.class);
+
+        kryo.register(ContextDefinitions.class);
+        kryo.register(ContextDefinition.class);
+        kryo.register(OneToMany.class);
+        kryo.register(ManyToMany.class);
+
+        kryo.register(CqlEvaluationRequests.class);
+        kryo.register(CqlEvaluationRequest.class);
+        kryo.register(CqlExpressionConfiguration.class);
+        kryo.register(CqlLibraryDescriptor.class);
+        kryo.register(CqlLibraryDescriptor.Format.class);
+
+        kryo.register(BooleanParameter.class);
+        kryo.register(CodeParameter.class);
+        kryo.register(ConceptParameter.class);
+        kryo.register(DateParameter.class);
+        kryo.register(DatetimeParameter.class);
+        kryo.register(DecimalParameter.class);
+        kryo.register(IntegerParameter.class);
+        kryo.register(IntervalParameter.class);
+        kryo.register(QuantityParameter.class);
+        kryo.register(RatioParameter.class);
+        kryo.register(StringParameter.class);
+        kryo.register(TimeParameter.class);
+
+        kryo.register(EncodedParametersCache.class, new JavaSerializer());
+        kryo.register(TerminologyIndex.class, new JavaSerializer());
+        // broadcast Hadoop configuration, which implements its own Java serialization
+        kryo.register(SerializableConfiguration.class, new JavaSerializer());
+    }
+
+    /**
+     * Register a class that is not accessible from Java source code.
+     *
+     * @param kryo      Kryo instance
+     * @param className Binary name of the class
+     */
+    protected void register(Kryo kryo, String className) {
+        try {
+            kryo.register(Class.forName(className));
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException("Failed to register class " + className, ex);
+        }
+    }
+
+    /**
+     * Writes the values of a Spark row followed by the schema of the row, which
+     * is null for a {@link GenericRow}.
+     */
+    public static class RowSerializer extends Serializer<Row> {
+        @Override
+        public void write(Kryo kryo, Output output, Row row) {
+            output.writeInt(row.length(), true);
+            for (int i = 0; i < row.length(); i++) {
+                kryo.writeClassAndObject(output, row.get(i));
+            }
+            kryo.writeObjectOrNull(output, row.schema(), StructType.class);
+        }
+
+        @Override
+        public Row read(Kryo kryo, Input input, Class<Row> type) {
+            Object[] values = new Object[input.readInt(true)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = kryo.readClassAndObject(input);
+            }
+            StructType schema = kryo.readObjectOrNull(input, StructType.class);
+            return GenericRowWithSchema.class.equals(type) ? new GenericRowWithSchema(values, schema) : new GenericRow(values);
+        }
+    }
+
+    /**
+     * Writes a schema as JSON. The schemas that are read are cached by JSON, so
+     * rows with the same schema share a single schema instance. A serializer is
+     * used by one Kryo instance, and a Kryo instance is only used by one thread
+     * at a time, so the caches are not synchronized.
+     */
+    public static class StructTypeSerializer extends Serializer<StructType> {
+        private StructType lastWritten;
+        private String lastWrittenJson;
+
+        private final Map<String, StructType> readCache = new LinkedHashMap<String, StructType>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StructType> eldest) {
+                return size() > SCHEMA_CACHE_SIZE;
+            }
+        };
+
+        public StructTypeSerializer() {
+            setImmutable(true);
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, StructType schema) {
+            if (schema != lastWritten) {
+                lastWrittenJson = schema.json();
+                lastWritten = schema;
+            }
+            output.writeString(lastWrittenJson);
+        }
+
+        @Override
+        public StructType read(Kryo kryo, Input input, Class<StructType> type) {
+            return readCache.computeIfAbsent(input.readString(), json -> (StructType) DataType.fromJson(json));
+        }
+    }
+
+    /**
+     * Writes nothing and reads the provided instance of a Scala object.
+     */
+    public static class SingletonSerializer<T> extends Serializer<T> {
+        private final T instance;
+
+        public SingletonSerializer(T instance) {
+            this.instance = instance;
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, T object) {
+        }
+
+        @Override
+        public T read(Kryo kryo, Input input, Class<T> type) {
+            return instance;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.terminology;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+import org.apache.spark.broadcast.Broadcast;
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.ValueSetDef;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.terminology.CodeSystemInfo;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.cohort.cql.OptimizedCqlLibraryReader;
+import com.ibm.cohort.cql.library.CqlLibraryDeserializationException;
+
+/**
+ * Terminology provider that answers in() and expand() from a
+ * {@link TerminologyIndex} that was built once on the Spark driver and shipped
+ * to the executors as a broadcast variable, so the executors do not read or
+ * parse any ValueSet files for the ValueSets that are part of the index (see
+ * {@link #buildIndex(CqlTerminologyProvider, Collection)}).
+ *
+ * Requests for ValueSets that are not part of the index are passed to a
+ * fallback provider that is only created on first use.
+ */
+public class BroadcastTerminologyProvider implements CqlTerminologyProvider {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BroadcastTerminologyProvider.class);
+
+	private final Broadcast<TerminologyIndex> terminologyIndex;
+	private final Supplier<CqlTerminologyProvider> fallbackProvider;
+
+	/**
+	 * @param terminologyIndex Broadcast index of the ValueSets used by the libraries
+	 * @param fallbackProvider Supplier of the provider used for ValueSets that are
+	 *                         not part of the index
+	 */
+	public BroadcastTerminologyProvider(Broadcast<TerminologyIndex> terminologyIndex, Supplier<CqlTerminologyProvider> fallbackProvider) {
+		this.terminologyIndex = terminologyIndex;
+		this.fallbackProvider = fallbackProvider;
+	}
+
+	/**
+	 * Load every ValueSet that is defined by the provided ELM libraries and index
+	 * its codes. ValueSets that cannot be loaded are left out of the index, so
+	 * they only cause an error if an evaluation actually uses them, the same as
+	 * when the provider is used directly.
+	 *
+	 * @param provider     Terminology provider used to load the ValueSets
+	 * @param elmLibraries ELM content of the libraries
+	 * @return index of the ValueSets
+	 */
+	public static TerminologyIndex buildIndex(CqlTerminologyProvider provider, Collection<String> elmLibraries) {
+		TerminologyIndex.Builder builder = new TerminologyIndex.Builder();
+		for (String content : elmLibraries) {
+			Library elm;
+			try {
+				elm = OptimizedCqlLibraryReader.read(content);
+			} catch (Exception ex) {
+				throw new CqlLibraryDeserializationException(ex);
+			}
+
+			if (elm.getValueSets() != null) {
+				for (ValueSetDef def : elm.getValueSets().getDef()) {
+					ValueSetInfo valueSetInfo = new ValueSetInfo().withId(def.getId()).withVersion(def.getVersion());
+					try {
+						builder.addValueSet(valueSetInfo, provider.expand(valueSetInfo));
+					} catch (RuntimeException ex) {
+						LOG.warn("ValueSet {} version {} could not be loaded and will not be broadcast: {}",
+								def.getId(), def.getVersion(), ex.getMessage());
+					}
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	@Override
+	public boolean in(Code code, ValueSetInfo valueSetInfo) {
+		TerminologyIndex index = terminologyIndex.value();
+		if (index.contains(valueSetInfo)) {
+			return index.in(code, valueSetInfo);
+		}
+		LOG.debug("ValueSet {} is not part of the broadcast terminology", valueSetInfo.getId());
+		return fallbackProvider.get().in(code, valueSetInfo);
+	}
+
+	@Override
+	public Iterable<Code> expand(ValueSetInfo valueSetInfo) {
+		TerminologyIndex index = terminologyIndex.value();
+		if (index.contains(valueSetInfo)) {
+			return index.expand(valueSetInfo);
+		}
+		LOG.debug("ValueSet {} is not part of the broadcast terminology", valueSetInfo.getId());
+		return fallbackProvider.get().expand(valueSetInfo);
+	}
+
+	@Override
+	public Code lookup(Code code, CodeSystemInfo codeSystem) {
+		return fallbackProvider.get().lookup(code, codeSystem);
+	}
+}
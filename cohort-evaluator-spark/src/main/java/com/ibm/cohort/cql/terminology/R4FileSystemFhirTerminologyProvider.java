@@ -13,6 +13,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -48,6 +53,11 @@ import ca.uhn.fhir.parser.DataFormatException;
  * AWS_ACCESS_KEY_ID = access_key_value
  * AWS_SECRET_ACCESS_KEY = secret_key_value
  *
+ * The provider is thread-safe. Each ValueSet is loaded at most once, even when
+ * several threads request it at the same time, so a single instance can be shared
+ * by all of the task threads of an executor. Threads that request the same ValueSet
+ * wait for the thread that loads it, while ValueSets with different identifiers are
+ * loaded in parallel.
  */
 public class R4FileSystemFhirTerminologyProvider implements CqlTerminologyProvider {
 	private Path terminologyDirectory;
@@ -57,8 +67,22 @@ public class R4FileSystemFhirTerminologyProvider implements CqlTerminologyProvid
 	
 	private static final FhirContext fhirContext = FhirContext.forR4();
 	
-	private Map<VersionedIdentifier, Map<String, Set<String>>> valueSetToCodesCache = new HashMap<>();
-	private Map<VersionedIdentifier, List<Code>> valueSetCodeCache = new HashMap<>();
+	private ConcurrentMap<VersionedIdentifier, Future<ValueSetCodes>> valueSetCache = new ConcurrentHashMap<>();
+	
+	/**
+	 * The codes of a loaded ValueSet.
+	 */
+	protected static class ValueSetCodes {
+		//This improves performance for the in() method for code lookup in large valuesets
+		private final Map<String, Set<String>> codesToCodeSystems;
+		//the list of code objects for the expand method
+		private final List<Code> codes;
+		
+		public ValueSetCodes(Map<String, Set<String>> codesToCodeSystems, List<Code> codes) {
+			this.codesToCodeSystems = codesToCodeSystems;
+			this.codes = codes;
+		}
+	}
 	
 	public R4FileSystemFhirTerminologyProvider(Path terminologyDirectory, Configuration configuration) {
 		super();
@@ -77,11 +101,8 @@ public class R4FileSystemFhirTerminologyProvider implements CqlTerminologyProvid
 	public boolean in(Code code, ValueSetInfo valueSetInfo) {
 		LOG.debug("Entry: in() ValueSet.getId=[{}] version=[{}]", valueSetInfo.getId(), valueSetInfo.getVersion());
 		
-		loadFromFile(valueSetInfo);		
 		VersionedIdentifier valueSetIdentifier = createVersionedIdentifierForValueSet(valueSetInfo);
-		
-		//get the valueSet codes from the cache if it is there
-		Map<String, Set<String>> codesToCodeSystems = valueSetToCodesCache.get(valueSetIdentifier);
+		Map<String, Set<String>> codesToCodeSystems = loadFromFile(valueSetInfo).codesToCodeSystems;
 		if(codesToCodeSystems != null) {
 			Set<String> systems = codesToCodeSystems.get(code.getCode());
 			
@@ -118,9 +139,7 @@ public class R4FileSystemFhirTerminologyProvider implements CqlTerminologyProvid
 	public Iterable<Code> expand(ValueSetInfo valueSetInfo) {
 		LOG.debug("Entry: expand() ValueSet.getId=[{}] version=[{}]", valueSetInfo.getId(), valueSetInfo.getVersion());		
 		
-		loadFromFile(valueSetInfo);
-		VersionedIdentifier valueSetIdentifier = createVersionedIdentifierForValueSet(valueSetInfo);
-		List<Code> codes = valueSetCodeCache.get(valueSetIdentifier);
+		List<Code> codes = loadFromFile(valueSetInfo).codes;
 
 		LOG.debug("Exit: expand() ValueSet.getId=[{}] version=[{}] found {} codes", valueSetInfo.getId(), valueSetInfo.getVersion(), codes.size());
 		return codes;
@@ -147,101 +166,129 @@ public class R4FileSystemFhirTerminologyProvider implements CqlTerminologyProvid
 	 * ValueSet definitions are expected to be stored in FHIR xml or JSON format
 	 * named using the valueSet id (ie 2.16.840.1.113762.1.4.1114.7.json)
 	 * 
+	 * The first thread that requests a ValueSet loads it and every other thread
+	 * that requests the same ValueSet waits for it to be loaded. A failed load is
+	 * not cached and is retried by the next request.
+	 * 
 	 * @param valueSetInfo contains information for teh VlaueSet we want to load
+	 * @return the codes of the ValueSet
 	 */
-	protected void loadFromFile(ValueSetInfo valueSetInfo) throws RuntimeException {
+	protected ValueSetCodes loadFromFile(ValueSetInfo valueSetInfo) throws RuntimeException {
 		LOG.debug("Entry: loadFromFile() ValueSet.getId=[{}] version=[{}]", valueSetInfo.getId(), valueSetInfo.getVersion());
 		
 		VersionedIdentifier valueSetIdentifier = createVersionedIdentifierForValueSet(valueSetInfo);
-		String valueSetId = valueSetIdentifier.getId();
 		
 		//get the valueSet codes from the cache if it is there
-		Map<String, Set<String>> codesToCodeSystems = valueSetToCodesCache.get(valueSetIdentifier);
-		List<Code> codeList = valueSetCodeCache.get(valueSetIdentifier);
-		if (codesToCodeSystems == null || codeList == null) {
-			LOG.debug("loadFromFile() valueSetId={} not found in cache, attempting to load from file", valueSetId);
-			FileStatus[] valueSetFiles;
-			FileSystem fileSystem;
-			
-			//List the files in the terminology directory that end in xml or json
-			try {
-				fileSystem = terminologyDirectory.getFileSystem(configuration);
-				valueSetFiles = fileSystem.listStatus(terminologyDirectory, new PathFilter() {
-					@Override
-					public boolean accept(Path path) {
-						return path.getName().equalsIgnoreCase(valueSetId + ".json") || path.getName().equalsIgnoreCase(valueSetId + ".xml");
-					}
-				});
-			} catch (ConfigurationException | DataFormatException | IOException e) {
-				LOG.error("Error attempting to get ValueSet file for ValueSet [" + valueSetId + " from "+ terminologyDirectory.toString(), e);
-				throw new RuntimeException("Error attempting to get ValueSet file for ValueSet [" + valueSetId + " from "+ terminologyDirectory.toString(), e);
+		Future<ValueSetCodes> future = valueSetCache.get(valueSetIdentifier);
+		if (future == null) {
+			//only one thread loads the file, other threads wait for it
+			FutureTask<ValueSetCodes> task = new FutureTask<>(() -> loadValueSet(valueSetIdentifier));
+			future = valueSetCache.putIfAbsent(valueSetIdentifier, task);
+			if (future == null) {
+				future = task;
+				task.run();
 			}
-
-			if (valueSetFiles.length == 0) {
-				LOG.error("No valueSet file " + valueSetId + ".json or " + valueSetId
-						+ ".xml found in terminology directory " + terminologyDirectory.toString());
-				throw new RuntimeException("No valueSet file " + valueSetId + ".json or " + valueSetId
-						+ ".xml found in terminology directory " + terminologyDirectory.toString());
+		}
+		
+		ValueSetCodes result;
+		try {
+			result = future.get();
+		} catch (ExecutionException e) {
+			valueSetCache.remove(valueSetIdentifier, future);
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
 			} else {
-				if (valueSetFiles.length > 1) {
-					LOG.warn(
-							"Multiple ValueSet files found for ValueSet {} in terminology directory {}. File {} will be used.",
-							valueSetId, terminologyDirectory.toString(), valueSetFiles[0].toString());
+				throw new RuntimeException(cause);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while loading ValueSet " + valueSetIdentifier.getId(), e);
+		}
+		
+		LOG.debug("Exit: loadFromFile() ValueSet.getId=[{}] version=[{}]", valueSetInfo.getId(), valueSetInfo.getVersion());
+		return result;
+	}
+	
+	/**
+	 * Read and parse the file of a single ValueSet.
+	 * 
+	 * @param valueSetIdentifier identifier of the ValueSet
+	 * @return the codes of the ValueSet
+	 */
+	protected ValueSetCodes loadValueSet(VersionedIdentifier valueSetIdentifier) {
+		String valueSetId = valueSetIdentifier.getId();
+		
+		LOG.debug("loadValueSet() valueSetId={} not found in cache, attempting to load from file", valueSetId);
+		FileStatus[] valueSetFiles;
+		FileSystem fileSystem;
+		
+		//List the files in the terminology directory that end in xml or json
+		try {
+			fileSystem = terminologyDirectory.getFileSystem(configuration);
+			valueSetFiles = fileSystem.listStatus(terminologyDirectory, new PathFilter() {
+				@Override
+				public boolean accept(Path path) {
+					return path.getName().equalsIgnoreCase(valueSetId + ".json") || path.getName().equalsIgnoreCase(valueSetId + ".xml");
 				}
+			});
+		} catch (ConfigurationException | DataFormatException | IOException e) {
+			LOG.error("Error attempting to get ValueSet file for ValueSet [" + valueSetId + " from "+ terminologyDirectory.toString(), e);
+			throw new RuntimeException("Error attempting to get ValueSet file for ValueSet [" + valueSetId + " from "+ terminologyDirectory.toString(), e);
+		}
 
-				ValueSet valueSetFhirR4 = null;
-				try {
-					//Use the fhir parsers to convert file contents back into ValueSet fhir object
-					if (valueSetFiles[0].getPath().getName().toLowerCase().endsWith(".xml")) {
-						valueSetFhirR4 = (ValueSet) fhirContext.newXmlParser()
-								.parseResource(new InputStreamReader(fileSystem.open(valueSetFiles[0].getPath())));
-						LOG.info("Unmarshalled xml {}", valueSetFhirR4.getId());
-					} else if (valueSetFiles[0].getPath().getName().toLowerCase().endsWith(".json")) {
-						valueSetFhirR4 = (ValueSet) fhirContext.newJsonParser()
-								.parseResource(new InputStreamReader(fileSystem.open(valueSetFiles[0].getPath())));
-						LOG.info("Unmarshalled json {}", valueSetFhirR4.getId());
-					}
-					
-					//This improves performance for the in() method for code lookup in large valuesets
-					codesToCodeSystems = new HashMap<String, Set<String>>();
-					//cache the list of code objects for the expand method
-					codeList = new ArrayList<Code>();
-					for (ConceptSetComponent csc : valueSetFhirR4.getCompose().getInclude()) {
-						for (ConceptReferenceComponent cfc : csc.getConcept()) {
-							codeList.add(new Code().withCode(cfc.getCode()).withDisplay(cfc.getDisplay()).withSystem(csc.getSystem()).withVersion(csc.getVersion()));
-							Set<String> codeSystems = codesToCodeSystems.get(cfc.getCode());
-							if(codeSystems == null) {
-								codeSystems = new HashSet<String>();
-								codesToCodeSystems.put(cfc.getCode(), codeSystems);
-							}
-							codeSystems.add(csc.getSystem());
+		if (valueSetFiles.length == 0) {
+			LOG.error("No valueSet file " + valueSetId + ".json or " + valueSetId
+					+ ".xml found in terminology directory " + terminologyDirectory.toString());
+			throw new RuntimeException("No valueSet file " + valueSetId + ".json or " + valueSetId
+					+ ".xml found in terminology directory " + terminologyDirectory.toString());
+		} else {
+			if (valueSetFiles.length > 1) {
+				LOG.warn(
+						"Multiple ValueSet files found for ValueSet {} in terminology directory {}. File {} will be used.",
+						valueSetId, terminologyDirectory.toString(), valueSetFiles[0].toString());
+			}
+
+			ValueSet valueSetFhirR4 = null;
+			try {
+				//Use the fhir parsers to convert file contents back into ValueSet fhir object
+				if (valueSetFiles[0].getPath().getName().toLowerCase().endsWith(".xml")) {
+					valueSetFhirR4 = (ValueSet) fhirContext.newXmlParser()
+							.parseResource(new InputStreamReader(fileSystem.open(valueSetFiles[0].getPath())));
+					LOG.info("Unmarshalled xml {}", valueSetFhirR4.getId());
+				} else if (valueSetFiles[0].getPath().getName().toLowerCase().endsWith(".json")) {
+					valueSetFhirR4 = (ValueSet) fhirContext.newJsonParser()
+							.parseResource(new InputStreamReader(fileSystem.open(valueSetFiles[0].getPath())));
+					LOG.info("Unmarshalled json {}", valueSetFhirR4.getId());
+				}
+				
+				Map<String, Set<String>> codesToCodeSystems = new HashMap<String, Set<String>>();
+				List<Code> codeList = new ArrayList<Code>();
+				for (ConceptSetComponent csc : valueSetFhirR4.getCompose().getInclude()) {
+					for (ConceptReferenceComponent cfc : csc.getConcept()) {
+						codeList.add(new Code().withCode(cfc.getCode()).withDisplay(cfc.getDisplay()).withSystem(csc.getSystem()).withVersion(csc.getVersion()));
+						Set<String> codeSystems = codesToCodeSystems.get(cfc.getCode());
+						if(codeSystems == null) {
+							codeSystems = new HashSet<String>();
+							codesToCodeSystems.put(cfc.getCode(), codeSystems);
 						}
+						codeSystems.add(csc.getSystem());
 					}
-
-					valueSetToCodesCache.put(valueSetIdentifier, codesToCodeSystems);
-					valueSetCodeCache.put(valueSetIdentifier, codeList);
-				} catch (ConfigurationException | DataFormatException | IOException e) {
-					LOG.error("Error attempting to deserialize ValueSet "+ valueSetFiles[0].getPath().toString(), e);
-					throw new RuntimeException("Error attempting to deserialize ValueSet "+ valueSetFiles[0].getPath().toString(), e);
 				}
+
+				return new ValueSetCodes(codesToCodeSystems, codeList);
+			} catch (ConfigurationException | DataFormatException | IOException e) {
+				LOG.error("Error attempting to deserialize ValueSet "+ valueSetFiles[0].getPath().toString(), e);
+				throw new RuntimeException("Error attempting to deserialize ValueSet "+ valueSetFiles[0].getPath().toString(), e);
 			}
 		}
-		
-		LOG.debug("Exit: loadFromFile() ValueSet.getId=[{}] version=[{}]", valueSetInfo.getId(), valueSetInfo.getVersion());
 	}
 	
 	//convenience method to create a hashmap key for a valueset
 	protected VersionedIdentifier createVersionedIdentifierForValueSet(ValueSetInfo valueSetInfo) {
-		String valueSetId;
-		
-		//strip of the urn or url portions of the id if they exist
-		if (valueSetInfo.getId().startsWith("urn:oid:")) {
-			valueSetId = valueSetInfo.getId().replace("urn:oid:", "");
-		} else if (valueSetInfo.getId().startsWith("http")) {
-			valueSetId = valueSetInfo.getId().substring(valueSetInfo.getId().lastIndexOf("/")+1);
-		} else {
-			valueSetId = valueSetInfo.getId();
-		}
+		String valueSetId = trimValueSetId(valueSetInfo.getId());
 		
 		LOG.debug("createVersionedIdentifierForValueSet() trimmed valueSetId={}", valueSetId);
 		
@@ -251,4 +298,23 @@ public class R4FileSystemFhirTerminologyProvider implements CqlTerminologyProvid
 		
 		return valueSetIdentifier;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Strip the urn or url portions of a ValueSet id if they exist, leaving the
+	 * id that is used for the ValueSet file name.
+	 * 
+	 * @param id ValueSet id from the CQL
+	 * @return trimmed ValueSet id
+	 */
+	public static String trimValueSetId(String id) {
+		String valueSetId;
+		if (id.startsWith("urn:oid:")) {
+			valueSetId = id.replace("urn:oid:", "");
+		} else if (id.startsWith("http")) {
+			valueSetId = id.substring(id.lastIndexOf("/")+1);
+		} else {
+			valueSetId = id;
+		}
+		return valueSetId;
+	}
+}
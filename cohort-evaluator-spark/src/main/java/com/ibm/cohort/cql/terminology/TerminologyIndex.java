@@ -0,0 +1,303 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.terminology;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+
+/**
+ * Compact, immutable index of the codes in a set of ValueSets that is cheap to
+ * serialize and to ship to the Spark executors as a broadcast variable.
+ *
+ * Every code, system, display and version string is stored once in a shared
+ * dictionary and each ValueSet refers to the strings by their position in the
+ * dictionary. The (code, system) pairs of each ValueSet are kept as parallel
+ * int arrays that are sorted by code, so membership checks are a binary search
+ * instead of a hash lookup on strings.
+ *
+ * ValueSets are identified the same way as in the
+ * {@link R4FileSystemFhirTerminologyProvider}, by the trimmed ValueSet id
+ * (see {@link R4FileSystemFhirTerminologyProvider#trimValueSetId(String)}) and
+ * the ValueSet version.
+ */
+public class TerminologyIndex implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final int NONE = -1;
+
+	/**
+	 * Builds a {@link TerminologyIndex}. The builder is not thread-safe.
+	 */
+	public static class Builder {
+		private final Map<String, Integer> ids = new HashMap<>();
+		private final List<String> strings = new ArrayList<>();
+		private final Map<String, ValueSetEntry> valueSets = new HashMap<>();
+
+		/**
+		 * Add the codes of a ValueSet to the index. Adding a ValueSet that is
+		 * already part of the index replaces its codes.
+		 *
+		 * @param valueSetInfo Identifier of the ValueSet
+		 * @param codes        Codes of the ValueSet, in expansion order
+		 * @return this builder
+		 */
+		public Builder addValueSet(ValueSetInfo valueSetInfo, Iterable<Code> codes) {
+			List<Code> codeList = new ArrayList<>();
+			codes.forEach(codeList::add);
+
+			int size = codeList.size();
+			int[] codeIds = new int[size];
+			int[] systemIds = new int[size];
+			int[] displayIds = new int[size];
+			int[] versionIds = new int[size];
+			for (int i = 0; i < size; i++) {
+				Code code = codeList.get(i);
+				codeIds[i] = intern(code.getCode());
+				systemIds[i] = intern(code.getSystem());
+				displayIds[i] = intern(code.getDisplay());
+				versionIds[i] = intern(code.getVersion());
+			}
+
+			valueSets.put(getKey(valueSetInfo), new ValueSetEntry(codeIds, systemIds, displayIds, versionIds));
+			return this;
+		}
+
+		private int intern(String value) {
+			int result = NONE;
+			if (value != null) {
+				result = ids.computeIfAbsent(value, x -> {
+					strings.add(x);
+					return strings.size() - 1;
+				});
+			}
+			return result;
+		}
+
+		public TerminologyIndex build() {
+			return new TerminologyIndex(strings.toArray(new String[0]), new HashMap<>(valueSets));
+		}
+	}
+
+	/**
+	 * Codes of a single ValueSet as positions in the string dictionary.
+	 */
+	private static class ValueSetEntry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		// expansion order
+		private final int[] codes;
+		private final int[] systems;
+		private final int[] displays;
+		private final int[] versions;
+
+		// distinct (code, system) pairs sorted by code and then system
+		private final int[] sortedCodes;
+		private final int[] sortedSystems;
+
+		ValueSetEntry(int[] codes, int[] systems, int[] displays, int[] versions) {
+			this.codes = codes;
+			this.systems = systems;
+			this.displays = displays;
+			this.versions = versions;
+
+			long[] pairs = new long[codes.length];
+			for (int i = 0; i < codes.length; i++) {
+				// shift by one so that NONE sorts before every dictionary position
+				pairs[i] = ((long) codes[i] << 32) | (systems[i] + 1L);
+			}
+			Arrays.sort(pairs);
+
+			int distinct = 0;
+			for (int i = 0; i < pairs.length; i++) {
+				if (i == 0 || pairs[i] != pairs[i - 1]) {
+					pairs[distinct++] = pairs[i];
+				}
+			}
+
+			this.sortedCodes = new int[distinct];
+			this.sortedSystems = new int[distinct];
+			for (int i = 0; i < distinct; i++) {
+				sortedCodes[i] = (int) (pairs[i] >>> 32);
+				sortedSystems[i] = (int) (pairs[i] & 0xFFFFFFFFL) - 1;
+			}
+		}
+
+		int size() {
+			return codes.length;
+		}
+
+		/**
+		 * @param codeId dictionary position of a code
+		 * @return position of the first (code, system) pair for the code, or
+		 *         the length of the sorted arrays when the code is not present
+		 */
+		int firstIndexOf(int codeId) {
+			int low = 0;
+			int high = sortedCodes.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (sortedCodes[mid] < codeId) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+
+	private final String[] strings;
+	private final Map<String, ValueSetEntry> valueSets;
+
+	private transient Map<String, Integer> ids;
+	private transient Map<String, List<Code>> expansions;
+
+	private TerminologyIndex(String[] strings, Map<String, ValueSetEntry> valueSets) {
+		this.strings = strings;
+		this.valueSets = valueSets;
+		initializeTransients();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		initializeTransients();
+	}
+
+	private void initializeTransients() {
+		Map<String, Integer> map = new HashMap<>(strings.length * 2);
+		for (int i = 0; i < strings.length; i++) {
+			map.put(strings[i], i);
+		}
+		this.ids = map;
+		this.expansions = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param valueSetInfo Identifier of a ValueSet
+	 * @return key of the ValueSet in the index
+	 */
+	protected static String getKey(ValueSetInfo valueSetInfo) {
+		return R4FileSystemFhirTerminologyProvider.trimValueSetId(valueSetInfo.getId()) + "|" + valueSetInfo.getVersion();
+	}
+
+	/**
+	 * @param valueSetInfo Identifier of a ValueSet
+	 * @return true if the ValueSet is part of the index
+	 */
+	public boolean contains(ValueSetInfo valueSetInfo) {
+		return valueSets.containsKey(getKey(valueSetInfo));
+	}
+
+	/**
+	 * @return number of ValueSets in the index
+	 */
+	public int getValueSetCount() {
+		return valueSets.size();
+	}
+
+	/**
+	 * @return number of distinct strings in the dictionary
+	 */
+	public int getDictionarySize() {
+		return strings.length;
+	}
+
+	/**
+	 * Check whether a code is part of a ValueSet using the same rules as
+	 * {@link R4FileSystemFhirTerminologyProvider#in(Code, ValueSetInfo)}.
+	 *
+	 * @param code         Code to look for
+	 * @param valueSetInfo Identifier of a ValueSet that is part of the index
+	 * @return true if the code is part of the ValueSet
+	 * @throws IllegalArgumentException if the code has no system and the
+	 *                                  ValueSet has the code in more than one
+	 *                                  system, or if the ValueSet is not part of
+	 *                                  the index
+	 */
+	public boolean in(Code code, ValueSetInfo valueSetInfo) {
+		ValueSetEntry entry = getEntry(valueSetInfo);
+
+		Integer codeId = ids.get(code.getCode());
+		if (codeId == null) {
+			return false;
+		}
+
+		int first = entry.firstIndexOf(codeId);
+		int end = first;
+		while (end < entry.sortedCodes.length && entry.sortedCodes[end] == codeId) {
+			end++;
+		}
+		if (first == end) {
+			return false;
+		}
+
+		if (code.getSystem() == null) {
+			//per the cql spec https://cql.hl7.org/09-b-cqlreference.html#in-valueset, if there
+			//are codes with more than 1 codesystem present in the valueset, throw an error
+			if (end - first > 1) {
+				throw new IllegalArgumentException("Ambiguous code lookup of code[" + code.getCode() + "] under valueset["
+						+ R4FileSystemFhirTerminologyProvider.trimValueSetId(valueSetInfo.getId()) + "]");
+			}
+			return true;
+		}
+
+		Integer systemId = ids.get(code.getSystem());
+		if (systemId != null) {
+			for (int i = first; i < end; i++) {
+				if (entry.sortedSystems[i] == systemId) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param valueSetInfo Identifier of a ValueSet that is part of the index
+	 * @return unmodifiable list of the codes in the ValueSet, in expansion order
+	 * @throws IllegalArgumentException if the ValueSet is not part of the index
+	 */
+	public List<Code> expand(ValueSetInfo valueSetInfo) {
+		String key = getKey(valueSetInfo);
+		ValueSetEntry entry = getEntry(valueSetInfo);
+		return expansions.computeIfAbsent(key, x -> {
+			List<Code> result = new ArrayList<>(entry.size());
+			for (int i = 0; i < entry.size(); i++) {
+				result.add(new Code()
+						.withCode(lookup(entry.codes[i]))
+						.withSystem(lookup(entry.systems[i]))
+						.withDisplay(lookup(entry.displays[i]))
+						.withVersion(lookup(entry.versions[i])));
+			}
+			return Collections.unmodifiableList(result);
+		});
+	}
+
+	private ValueSetEntry getEntry(ValueSetInfo valueSetInfo) {
+		ValueSetEntry entry = valueSets.get(getKey(valueSetInfo));
+		if (entry == null) {
+			throw new IllegalArgumentException(String.format("ValueSet '%s' version '%s' is not part of the index",
+					valueSetInfo.getId(), valueSetInfo.getVersion()));
+		}
+		return entry;
+	}
+
+	private String lookup(int id) {
+		return (id == NONE) ? null : strings[id];
+	}
+}
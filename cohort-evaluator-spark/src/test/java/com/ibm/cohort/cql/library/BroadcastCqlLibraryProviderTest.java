@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.SparkSession;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.library.CqlLibraryDescriptor.Format;
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+import com.ibm.cohort.cql.translation.CqlToElmTranslator;
+import com.ibm.cohort.cql.translation.TranslatingCqlLibraryProvider;
+
+public class BroadcastCqlLibraryProviderTest extends BaseSparkTest {
+	private static final long serialVersionUID = 1L;
+
+	private CqlLibraryProvider createTranslatingProvider() {
+		CqlToElmTranslator translator = new CqlToElmTranslator();
+		translator.registerModelInfo(new File("src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml"));
+		CqlLibraryProvider backingProvider = new HadoopBasedCqlLibraryProvider(new Path("src/test/resources/alltypes/cql"), new Configuration());
+		return new TranslatingCqlLibraryProvider(backingProvider, translator);
+	}
+
+	private CqlLibraryDescriptor descriptor(String libraryId, Format format) {
+		return new CqlLibraryDescriptor()
+				.setLibraryId(libraryId)
+				.setVersion("1.0.0")
+				.setFormat(format);
+	}
+
+	@Test
+	public void testCollectElmIncludesDependencies() {
+		Map<CqlLibraryDescriptor, String> elm = BroadcastCqlLibraryProvider.collectElm(createTranslatingProvider(),
+				Collections.singletonList(descriptor("Parent", Format.CQL)));
+
+		assertEquals(new HashSet<>(Arrays.asList(
+				descriptor("Parent", Format.ELM),
+				descriptor("Child", Format.ELM),
+				descriptor("GrandChild", Format.ELM))), elm.keySet());
+		for (String content : elm.values()) {
+			assertTrue(content.startsWith("<?xml"));
+		}
+	}
+
+	@Test
+	public void testCollectElmMissingLibrary() {
+		assertThrows(IllegalArgumentException.class, () -> BroadcastCqlLibraryProvider.collectElm(createTranslatingProvider(),
+				Collections.singletonList(descriptor("Missing", Format.ELM))));
+	}
+
+	@Test
+	public void testBroadcastLibrariesServedWithoutTranslation() {
+		SparkSession spark = initializeSession();
+
+		Map<CqlLibraryDescriptor, String> elm = BroadcastCqlLibraryProvider.collectElm(createTranslatingProvider(),
+				Collections.singletonList(descriptor("Parent", Format.ELM)));
+		Broadcast<Map<CqlLibraryDescriptor, String>> broadcast = JavaSparkContext.fromSparkContext(spark.sparkContext()).broadcast(elm);
+
+		AtomicInteger fallbackCount = new AtomicInteger();
+		CqlLibraryProvider fallback = createTranslatingProvider();
+		CqlLibraryProvider provider = new BroadcastCqlLibraryProvider(broadcast, () -> {
+			fallbackCount.incrementAndGet();
+			return fallback;
+		});
+
+		CqlLibrary library = provider.getLibrary(descriptor("Child", Format.ELM));
+		assertNotNull(library);
+		assertEquals(elm.get(descriptor("Child", Format.ELM)), library.getContent());
+		assertEquals(0, fallbackCount.get());
+
+		library = provider.getLibrary(descriptor("Child", Format.CQL));
+		assertTrue(library.getContent().startsWith("library \"Child\""));
+		assertEquals(1, fallbackCount.get());
+
+		library = provider.getLibrary(descriptor("MeasureA", Format.ELM));
+		assertTrue(library.getContent().startsWith("<?xml"));
+		assertEquals(2, fallbackCount.get());
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.cohort.cql.spark.evaluation.SharedObjectRegistry;
+import com.ibm.cohort.cql.spark.metadata.EvaluationSummary;
+import com.ibm.cohort.cql.spark.metadata.HadoopPathOutputMetadataWriter;
+
+public class LocalCqlEvaluatorTest extends BaseSparkTest {
+    private static final long serialVersionUID = 1L;
+
+    @Before
+    public void setUp() {
+        SharedObjectRegistry.clear();
+    }
+
+    @Test
+    public void testAllTypesMatchesSparkCqlEvaluator() throws Exception {
+        File outputDir = new File("target/output/alltypes-local/");
+        FileUtils.deleteDirectory(outputDir);
+
+        File localDir = new File(outputDir, "local");
+        LocalCqlEvaluator.main(getArgs(localDir).toArray(new String[0]));
+
+        File sparkDir = new File(outputDir, "spark");
+        List<String> sparkArgs = getArgs(sparkDir);
+        sparkArgs.addAll(Arrays.asList("--input-format", "parquet", "--output-format", "parquet"));
+        SparkCqlEvaluator.main(sparkArgs.toArray(new String[0]));
+
+        SparkSession spark = initializeSession();
+        for (String context : Arrays.asList("Patient", "A")) {
+            Dataset<Row> localResults = spark.read().parquet(new File(localDir, context + "_cohort").toURI().toString());
+            Dataset<Row> sparkResults = spark.read().parquet(new File(sparkDir, context + "_cohort").toURI().toString());
+
+            assertEquals(Arrays.asList(sparkResults.columns()), Arrays.asList(localResults.columns()));
+            assertEquals(sparkResults.count(), localResults.count());
+            assertEquals(0, localResults.except(sparkResults).count());
+            assertEquals(0, sparkResults.except(localResults).count());
+        }
+        assertEquals(100, spark.read().parquet(new File(localDir, "Patient_cohort").toURI().toString()).count());
+        assertEquals(572, spark.read().parquet(new File(localDir, "A_cohort").toURI().toString()).count());
+    }
+
+    @Test
+    public void testThreadsAndOutputPartitions() throws Exception {
+        File outputDir = new File("target/output/alltypes-local-threads/");
+        FileUtils.deleteDirectory(outputDir);
+
+        List<String> args = getArgs(outputDir);
+        args.addAll(Arrays.asList("--threads", "2", "-n", "3"));
+        LocalCqlEvaluator.main(args.toArray(new String[0]));
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        assertTrue(new File(patientFile, "_SUCCESS").exists());
+        assertEquals(3, Files.list(patientFile.toPath()).filter(x -> x.getFileName().toString().endsWith(".parquet")).count());
+
+        Set<Path> summaryFiles = getSummaryFilesInPath(new File(outputDir, "summary").toPath());
+        assertEquals(1, summaryFiles.size());
+        try (FileInputStream fileInputStream = new FileInputStream(summaryFiles.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+            assertTrue(evaluationSummary.getApplicationId().startsWith("local-"));
+            assertEquals(2, evaluationSummary.getTotalContexts());
+            assertEquals(100L, evaluationSummary.getExecutionsPerContext().get("Patient").longValue());
+            assertEquals(100, evaluationSummary.getEvaluationStatisticsPerContext().get("Patient").getContextsEvaluated());
+            assertEquals(572, evaluationSummary.getEvaluationStatisticsPerContext().get("A").getContextsEvaluated());
+        }
+    }
+
+    @Test
+    public void testCsvInput() throws Exception {
+        File outputDir = new File("target/output/alltypes-local-csv/");
+        FileUtils.deleteDirectory(outputDir);
+
+        SparkSession spark = initializeSession();
+        File csvDir = new File(outputDir, "input");
+        List<String> args = getArgs(new File(outputDir, "csv"));
+        for (String dataType : Arrays.asList("A", "B", "C", "D")) {
+            String parquetPath = new File("src/test/resources/alltypes/testdata/test-" + dataType + ".parquet").toURI().toString();
+            String csvPath = new File(csvDir, dataType).toURI().toString();
+            spark.read().parquet(parquetPath).write().option("header", "true").csv(csvPath);
+            args.set(args.indexOf(dataType + "=" + parquetPath), dataType + "=" + csvPath);
+        }
+        args.addAll(Arrays.asList("--input-format", "csv"));
+        LocalCqlEvaluator.main(args.toArray(new String[0]));
+
+        File parquetDir = new File(outputDir, "parquet");
+        LocalCqlEvaluator.main(getArgs(parquetDir).toArray(new String[0]));
+
+        for (String context : Arrays.asList("Patient", "A")) {
+            Dataset<Row> csvResults = spark.read().parquet(new File(outputDir, "csv/" + context + "_cohort").toURI().toString());
+            Dataset<Row> parquetResults = spark.read().parquet(new File(parquetDir, context + "_cohort").toURI().toString());
+
+            assertEquals(Arrays.asList(parquetResults.columns()), Arrays.asList(csvResults.columns()));
+            assertEquals(parquetResults.count(), csvResults.count());
+        }
+        assertEquals(100, spark.read().parquet(new File(outputDir, "csv/Patient_cohort").toURI().toString()).count());
+        assertEquals(572, spark.read().parquet(new File(outputDir, "csv/A_cohort").toURI().toString()).count());
+    }
+
+    @Test
+    public void testUnsupportedOptions() {
+        File outputDir = new File("target/output/alltypes-local-unsupported/");
+
+        List<String> jsonArgs = getArgs(outputDir);
+        jsonArgs.addAll(Arrays.asList("--input-format", "json"));
+        assertThrows(IllegalArgumentException.class, () -> LocalCqlEvaluator.main(jsonArgs.toArray(new String[0])));
+
+        List<String> csvOutputArgs = getArgs(outputDir);
+        csvOutputArgs.addAll(Arrays.asList("--output-format", "csv"));
+        assertThrows(IllegalArgumentException.class, () -> LocalCqlEvaluator.main(csvOutputArgs.toArray(new String[0])));
+
+        List<String> sampleArgs = getArgs(outputDir);
+        sampleArgs.addAll(Arrays.asList("--sample-size", "10"));
+        assertThrows(IllegalArgumentException.class, () -> LocalCqlEvaluator.main(sampleArgs.toArray(new String[0])));
+    }
+
+    private List<String> getArgs(File outputDir) {
+        File inputDir = new File("src/test/resources/alltypes/");
+        return new ArrayList<>(Arrays.asList(
+                "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+                "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+                "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+                "-c", "src/test/resources/alltypes/cql",
+                "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+                "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+                "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+                "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+                "-o", "Patient=" + new File(outputDir, "Patient_cohort").toURI().toString(),
+                "-o", "A=" + new File(outputDir, "A_cohort").toURI().toString(),
+                "--overwrite-output-for-contexts",
+                "--metadata-output-path", new File(outputDir, "summary").toURI().toString(),
+                "-a", "Patient",
+                "-a", "A"
+        ));
+    }
+
+    private Set<Path> getSummaryFilesInPath(Path path) throws IOException {
+        Set<Path> pathSet = new HashSet<>();
+        if (path.toFile().exists()) {
+            pathSet = Files.list(path)
+                    .filter(x -> x.getFileName().toString().startsWith(HadoopPathOutputMetadataWriter.BATCH_SUMMARY_PREFIX))
+                    .collect(Collectors.toSet());
+        }
+        return pathSet;
+    }
+}
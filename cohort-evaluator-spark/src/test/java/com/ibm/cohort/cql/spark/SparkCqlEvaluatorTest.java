@@ -9,13 +9,16 @@ package com.ibm.cohort.cql.spark;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -23,6 +26,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -36,12 +40,15 @@ import java.util.stream.Collectors;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.spark.SparkException;
+import org.apache.spark.broadcast.Broadcast;
 import org.apache.spark.deploy.SparkHadoopUtil;
+import org.apache.spark.serializer.KryoSerializer;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.RowFactory;
 import org.apache.spark.sql.SparkSession;
 import org.apache.spark.sql.delta.DeltaLog;
+import org.apache.spark.sql.functions;
 import org.apache.spark.sql.types.DataTypes;
 import org.apache.spark.sql.types.StructType;
 import org.apache.spark.util.SerializableConfiguration;
@@ -60,14 +67,36 @@ import com.ibm.cohort.cql.evaluation.parameters.IntervalParameter;
 import com.ibm.cohort.cql.evaluation.parameters.Parameter;
 import com.ibm.cohort.cql.evaluation.parameters.StringParameter;
 import com.ibm.cohort.cql.library.CqlLibraryDescriptor;
+import com.ibm.cohort.cql.profiling.CqlProfileEntry;
 import com.ibm.cohort.cql.spark.aggregation.ContextDefinition;
 import com.ibm.cohort.cql.spark.aggregation.ContextDefinitions;
+import com.ibm.cohort.cql.spark.aggregation.OneToMany;
+import com.ibm.cohort.cql.spark.data.CodeFilteredDatasetRetriever;
 import com.ibm.cohort.cql.spark.data.DatasetRetriever;
 import com.ibm.cohort.cql.spark.data.DefaultDatasetRetriever;
 import com.ibm.cohort.cql.spark.data.FilteredDatasetRetriever;
 import com.ibm.cohort.cql.spark.data.Patient;
+import com.ibm.cohort.cql.spark.data.SparkTypeConverter;
+import com.ibm.cohort.cql.spark.errors.EvaluationErrorGroup;
+import com.ibm.cohort.cql.spark.evaluation.PartitionEvaluator;
+import com.ibm.cohort.cql.spark.evaluation.SharedEvaluationObjects;
+import com.ibm.cohort.cql.spark.evaluation.SharedObjectRegistry;
+import com.ibm.cohort.cql.spark.metadata.ContextExplanation;
+import com.ibm.cohort.cql.spark.metadata.ContextSkewStatistics;
+import com.ibm.cohort.cql.spark.metadata.CqlProfileReport;
+import com.ibm.cohort.cql.spark.metadata.DataTypeExplanation;
+import com.ibm.cohort.cql.spark.metadata.EvaluationStatistics;
 import com.ibm.cohort.cql.spark.metadata.EvaluationSummary;
+import com.ibm.cohort.cql.spark.metadata.ExplainReport;
+import com.ibm.cohort.cql.spark.metadata.HadoopPathContextCommitLog;
 import com.ibm.cohort.cql.spark.metadata.HadoopPathOutputMetadataWriter;
+import com.ibm.cohort.cql.spark.metadata.IncrementalStatistics;
+import com.ibm.cohort.cql.spark.metadata.SamplingSettings;
+import com.ibm.cohort.cql.spark.metadata.SharedDatasetStatistics;
+import com.ibm.cohort.cql.spark.metrics.CustomMetricSparkPlugin;
+import com.ibm.cohort.cql.spark.optimizer.DataTypeRequirementsProcessor;
+import com.ibm.cohort.cql.spark.util.SparkCqlKryoRegistrator;
+import com.ibm.cohort.cql.terminology.TerminologyIndex;
 import com.ibm.cohort.cql.translation.CqlToElmTranslator;
 import com.ibm.cohort.cql.util.EqualsStringMatcher;
 import com.ibm.cohort.cql.util.StringMatcher;
@@ -86,10 +115,7 @@ public class SparkCqlEvaluatorTest extends BaseSparkTest {
         this.evaluator = new SparkCqlEvaluator(args);
         this.spark = initializeSession(Java8API.ENABLED);
 
-        SparkCqlEvaluator.jobSpecification.remove();
-        SparkCqlEvaluator.libraryProvider.remove();
-        SparkCqlEvaluator.terminologyProvider.remove();
-        SparkCqlEvaluator.sparkOutputColumnEncoder.remove();
+        SharedObjectRegistry.clear();
     }
 
     /**
@@ -459,6 +485,783 @@ public class SparkCqlEvaluatorTest extends BaseSparkTest {
         checkEvaluationSummaryFieldsPopulated(summaryFilesAfter.iterator().next(), 5, false);
     }
 
+    @Test
+    public void testAllTypesEvaluationSuccessWithSortedContextGrouping() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-sorted/");
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+        File bFile = new File(outputDir, "B_cohort");
+        File cFile = new File(outputDir, "C_cohort");
+        File dFile = new File(outputDir, "D_cohort");
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "-o", "B=" + bFile.toURI().toString(),
+          "-o", "C=" + cFile.toURI().toString(),
+          "-o", "D=" + dFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts",
+          "--context-grouping", "SORT",
+          // force every context with more than one row to spill to disk
+          "--context-spill-threshold", "1"
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 100, "parquet");
+        validateOutputCountsAndColumns(aFile.toURI().toString(), new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), 572, "parquet");
+        validateOutputCountsAndColumns(bFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureB|cohort")), 575, "parquet");
+        validateOutputCountsAndColumns(cFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureC|cohort")), 600, "parquet");
+        validateOutputCountsAndColumns(dFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureD|cohort")), 567, "parquet");
+    }
+
+    @Test
+    public void testAllTypesEvaluationSuccessWithKryoRegistrationRequired() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-kryo/");
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+        File bFile = new File(outputDir, "B_cohort");
+        File cFile = new File(outputDir, "C_cohort");
+        File dFile = new File(outputDir, "D_cohort");
+
+        // The serializer is fixed when the SparkContext is created, so the
+        // shared test session is replaced by one that uses Kryo. The evaluator
+        // closes this session when it is done.
+        spark.stop();
+        DeltaLog.clearCache();
+        SparkSession.builder()
+                .appName("Local Application")
+                .master("local[4]")
+                .config("spark.sql.datetime.java8API.enabled", "true")
+                .config("spark.sql.sources.default", "delta")
+                .config("spark.serializer", KryoSerializer.class.getName())
+                .config("spark.kryo.registrator", SparkCqlKryoRegistrator.class.getName())
+                .config("spark.kryo.registrationRequired", "true")
+                .getOrCreate();
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "-o", "B=" + bFile.toURI().toString(),
+          "-o", "C=" + cFile.toURI().toString(),
+          "-o", "D=" + dFile.toURI().toString(),
+          "-n", "10",
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts"
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 100, "parquet");
+        validateOutputCountsAndColumns(aFile.toURI().toString(), new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), 572, "parquet");
+        validateOutputCountsAndColumns(bFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureB|cohort")), 575, "parquet");
+        validateOutputCountsAndColumns(cFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureC|cohort")), 600, "parquet");
+        validateOutputCountsAndColumns(dFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureD|cohort")), 567, "parquet");
+    }
+
+    @Test
+    public void testSkewStatisticsInSummary() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-skew/");
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File metadataDir = new File(outputDir, "skew_summary");
+
+        Set<Path> summaryFilesBefore = getSummaryFilesInPath(metadataDir.toPath());
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "-a", "Patient",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts",
+          "--detect-skew",
+          "--skew-sample-fraction", "1.0",
+          "--metadata-output-path", metadataDir.toURI().toString()
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 100, "parquet");
+
+        Set<Path> summaryFilesAfter = getSummaryFilesInPath(metadataDir.toPath());
+        summaryFilesAfter.removeAll(summaryFilesBefore);
+        assertEquals(1, summaryFilesAfter.size());
+
+        try(FileInputStream fileInputStream = new FileInputStream(summaryFilesAfter.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+
+            ContextSkewStatistics statistics = evaluationSummary.getSkewStatisticsPerContext().get("Patient");
+            assertNotNull(statistics);
+            assertEquals(1.0, statistics.getSampleFraction(), 0.0);
+            assertEquals(100, statistics.getSampledContexts());
+            assertTrue(statistics.getSampledRows() > 0);
+            assertTrue(statistics.getPartitions() > 0);
+        }
+    }
+
+    @Test
+    public void testSharedDatasetsInSummary() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-shared/");
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+        File bFile = new File(outputDir, "B_cohort");
+        File cFile = new File(outputDir, "C_cohort");
+        File dFile = new File(outputDir, "D_cohort");
+        File metadataDir = new File(outputDir, "shared_summary");
+
+        Set<Path> summaryFilesBefore = getSummaryFilesInPath(metadataDir.toPath());
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "-o", "B=" + bFile.toURI().toString(),
+          "-o", "C=" + cFile.toURI().toString(),
+          "-o", "D=" + dFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts",
+          "--enable-dataset-sharing",
+          "--shared-dataset-storage-level", "MEMORY_ONLY",
+          "--metadata-output-path", metadataDir.toURI().toString()
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 100, "parquet");
+        validateOutputCountsAndColumns(aFile.toURI().toString(), new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), 572, "parquet");
+        validateOutputCountsAndColumns(bFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureB|cohort")), 575, "parquet");
+        validateOutputCountsAndColumns(cFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureC|cohort")), 600, "parquet");
+        validateOutputCountsAndColumns(dFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureD|cohort")), 567, "parquet");
+
+        Set<Path> summaryFilesAfter = getSummaryFilesInPath(metadataDir.toPath());
+        summaryFilesAfter.removeAll(summaryFilesBefore);
+        assertEquals(1, summaryFilesAfter.size());
+
+        try(FileInputStream fileInputStream = new FileInputStream(summaryFilesAfter.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+
+            // Patient is evaluated first and reads every shared datatype
+            SharedDatasetStatistics patientStatistics = evaluationSummary.getSharedDatasetsPerContext().get("Patient");
+            assertNotNull(patientStatistics);
+            assertEquals("MEMORY_ONLY", patientStatistics.getStorageLevel());
+            assertEquals(Arrays.asList("A", "B", "C", "D"), patientStatistics.getSharedDataTypes());
+            assertEquals(0, patientStatistics.getInputScansAvoided());
+
+            for (String contextName : Arrays.asList("A", "B", "C", "D")) {
+                SharedDatasetStatistics statistics = evaluationSummary.getSharedDatasetsPerContext().get(contextName);
+                assertNotNull(statistics);
+                assertEquals(Collections.singletonList(contextName), statistics.getSharedDataTypes());
+                assertEquals(Collections.singletonList(contextName), statistics.getCachedDataTypes());
+                assertEquals(1, statistics.getInputScansAvoided());
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentContextsInSummary() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-concurrent/");
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+        File bFile = new File(outputDir, "B_cohort");
+        File cFile = new File(outputDir, "C_cohort");
+        File dFile = new File(outputDir, "D_cohort");
+        File metadataDir = new File(outputDir, "concurrent_summary");
+
+        Set<Path> summaryFilesBefore = getSummaryFilesInPath(metadataDir.toPath());
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "-o", "B=" + bFile.toURI().toString(),
+          "-o", "C=" + cFile.toURI().toString(),
+          "-o", "D=" + dFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts",
+          "--concurrent-contexts", "3",
+          "--metadata-output-path", metadataDir.toURI().toString()
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 100, "parquet");
+        validateOutputCountsAndColumns(aFile.toURI().toString(), new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), 572, "parquet");
+        validateOutputCountsAndColumns(bFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureB|cohort")), 575, "parquet");
+        validateOutputCountsAndColumns(cFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureC|cohort")), 600, "parquet");
+        validateOutputCountsAndColumns(dFile.toURI().toString(), new HashSet<>(Arrays.asList("id", "parameters", "MeasureD|cohort")), 567, "parquet");
+
+        Set<Path> summaryFilesAfter = getSummaryFilesInPath(metadataDir.toPath());
+        summaryFilesAfter.removeAll(summaryFilesBefore);
+        assertEquals(1, summaryFilesAfter.size());
+
+        try(FileInputStream fileInputStream = new FileInputStream(summaryFilesAfter.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+
+            assertEquals(5, evaluationSummary.getTotalContexts());
+
+            // each context keeps its own count even though the contexts overlap
+            Map<String, Long> expectedExecutions = new HashMap<>();
+            expectedExecutions.put("Patient", 100L);
+            expectedExecutions.put("A", 572L);
+            expectedExecutions.put("B", 575L);
+            expectedExecutions.put("C", 600L);
+            expectedExecutions.put("D", 567L);
+            assertEquals(expectedExecutions, evaluationSummary.getExecutionsPerContext());
+
+            assertEquals(expectedExecutions.keySet(), evaluationSummary.getRuntimeMillisPerContext().keySet());
+            for (Long runtime : evaluationSummary.getRuntimeMillisPerContext().values()) {
+                assertTrue(runtime > 0);
+            }
+
+            // each context reports its own progress and no context is left running
+            for (Map.Entry<String, Long> entry : expectedExecutions.entrySet()) {
+                assertEquals(entry.getValue(), CustomMetricSparkPlugin.getPerContextAccumGauge(entry.getKey()).getValue());
+            }
+            assertEquals(0, CustomMetricSparkPlugin.currentlyEvaluatingContextGauge.getValue().intValue());
+        }
+    }
+
+    @Test
+    public void testMemoizedRowValues() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-memoized/");
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts",
+          "--memoize-row-values",
+          "-a", "Patient",
+          "-a", "A"
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 100, "parquet");
+        validateOutputCountsAndColumns(aFile.toURI().toString(), new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), 572, "parquet");
+
+        assertTrue(CustomMetricSparkPlugin.rowValueConversionsGauge.getValue() > 0);
+    }
+
+    @Test
+    public void testEvaluationStatisticsInSummary() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-statistics/");
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+        File metadataDir = new File(outputDir, "statistics_summary");
+
+        Set<Path> summaryFilesBefore = getSummaryFilesInPath(metadataDir.toPath());
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts",
+          "--metadata-output-path", metadataDir.toURI().toString(),
+          "-a", "Patient",
+          "-a", "A"
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        Set<Path> summaryFilesAfter = getSummaryFilesInPath(metadataDir.toPath());
+        summaryFilesAfter.removeAll(summaryFilesBefore);
+        assertEquals(1, summaryFilesAfter.size());
+
+        try(FileInputStream fileInputStream = new FileInputStream(summaryFilesAfter.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+
+            Map<String, EvaluationStatistics> statisticsPerContext = evaluationSummary.getEvaluationStatisticsPerContext();
+            assertEquals(new HashSet<>(Arrays.asList("Patient", "A")), statisticsPerContext.keySet());
+
+            EvaluationStatistics statistics = statisticsPerContext.get("A");
+            assertEquals(572, statistics.getContextsEvaluated());
+            assertTrue(statistics.getInputRows() >= statistics.getContextsEvaluated());
+            assertTrue(statistics.getExpressionEvaluations() >= statistics.getContextsEvaluated());
+            assertEquals(0, statistics.getEvaluationErrors());
+            assertFalse(statistics.getRetrievesPerDataType().isEmpty());
+            assertEquals(100, statisticsPerContext.get("Patient").getContextsEvaluated());
+        }
+
+        assertTrue(CustomMetricSparkPlugin.contextEvaluationMicrosHistogram.getCount() > 0);
+        assertTrue(CustomMetricSparkPlugin.expressionEvaluationMicrosHistogram.getCount() > 0);
+    }
+
+    @Test
+    public void testContextSampling() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-sampling/");
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+        File metadataDir = new File(outputDir, "sampling_summary");
+
+        Set<Path> summaryFilesBefore = getSummaryFilesInPath(metadataDir.toPath());
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts",
+          "--metadata-output-path", metadataDir.toURI().toString(),
+          "--sample-size", "10",
+          "-a", "Patient",
+          "-a", "A"
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 10, "parquet");
+        validateOutputCountsAndColumns(aFile.toURI().toString(), new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), 10, "parquet");
+
+        Set<Path> summaryFilesAfter = getSummaryFilesInPath(metadataDir.toPath());
+        summaryFilesAfter.removeAll(summaryFilesBefore);
+        assertEquals(1, summaryFilesAfter.size());
+
+        try(FileInputStream fileInputStream = new FileInputStream(summaryFilesAfter.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+            assertEquals(new SamplingSettings(null, 10, 0), evaluationSummary.getSampling());
+            assertEquals(10, evaluationSummary.getEvaluationStatisticsPerContext().get("Patient").getContextsEvaluated());
+        }
+    }
+
+    @Test
+    public void testProfileReport() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-profile/");
+        FileUtils.deleteDirectory(outputDir);
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+        File metadataDir = new File(outputDir, "profile_summary");
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts",
+          "--metadata-output-path", metadataDir.toURI().toString(),
+          "--profile",
+          "-a", "Patient",
+          "-a", "A"
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        validateOutputCountsAndColumns(aFile.toURI().toString(), new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), 572, "parquet");
+
+        File[] reportFiles = metadataDir.listFiles((dir, name) -> name.startsWith(HadoopPathOutputMetadataWriter.PROFILE_REPORT_PREFIX));
+        assertNotNull(reportFiles);
+        assertEquals(1, reportFiles.length);
+
+        CqlProfileReport report = new ObjectMapper().readValue(reportFiles[0], CqlProfileReport.class);
+        assertFalse(report.getEntries().isEmpty());
+        assertTrue(report.getEntries().stream().anyMatch(e -> e.getType() == CqlProfileEntry.Type.EXPRESSION && e.getName().equals("cohort")));
+        assertTrue(report.getEntries().stream().anyMatch(e -> e.getType() == CqlProfileEntry.Type.RETRIEVE));
+
+        for (int i = 1; i < report.getEntries().size(); i++) {
+            assertTrue(report.getEntries().get(i - 1).getSelfNanos() >= report.getEntries().get(i).getSelfNanos());
+        }
+    }
+
+    @Test
+    public void testExplain() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-explain/");
+        FileUtils.deleteDirectory(outputDir);
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+        File metadataDir = new File(outputDir, "explain_summary");
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--metadata-output-path", metadataDir.toURI().toString(),
+          "--explain",
+          "-a", "Patient",
+          "-a", "A"
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        assertFalse(patientFile.exists());
+        assertFalse(aFile.exists());
+
+        File[] summaryFiles = metadataDir.listFiles((dir, name) -> name.startsWith(HadoopPathOutputMetadataWriter.BATCH_SUMMARY_PREFIX));
+        assertNotNull(summaryFiles);
+        assertEquals(0, summaryFiles.length);
+
+        File[] reportFiles = metadataDir.listFiles((dir, name) -> name.startsWith(HadoopPathOutputMetadataWriter.EXPLAIN_REPORT_PREFIX));
+        assertNotNull(reportFiles);
+        assertEquals(1, reportFiles.length);
+
+        ExplainReport report = new ObjectMapper().readValue(reportFiles[0], ExplainReport.class);
+        assertEquals(2, report.getContexts().size());
+
+        ContextExplanation patient = report.getContexts().stream().filter(c -> c.getContextName().equals("Patient")).findFirst().get();
+        assertEquals(3, patient.getJoins().size());
+        assertEquals(Arrays.asList("A", "B", "C", "D"), patient.getDataTypes().stream().map(DataTypeExplanation::getDataType).collect(Collectors.toList()));
+        assertTrue(patient.getPhysicalPlan().startsWith("combineByKey"));
+
+        ContextExplanation a = report.getContexts().stream().filter(c -> c.getContextName().equals("A")).findFirst().get();
+        assertEquals(new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), new HashSet<>(a.getOutputColumns()));
+        assertTrue(a.getEstimatedOutputRowBytes() > 0);
+        assertTrue(a.getEstimatedInputBytes() > 0);
+
+        DataTypeExplanation dataTypeA = a.getDataTypes().get(0);
+        assertTrue(dataTypeA.isRead());
+        assertTrue(dataTypeA.getRetainedColumns().contains("id_col"));
+        assertTrue(dataTypeA.getRetainedColumns().size() < dataTypeA.getAvailableColumns());
+        assertTrue(dataTypeA.getEstimatedBytes() <= dataTypeA.getAvailableEstimatedBytes());
+    }
+
+    @Test
+    public void testTargetOutputFileSize() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-target-file-size/");
+        FileUtils.deleteDirectory(outputDir);
+
+        File smallFilesDir = new File(outputDir, "small");
+        File largeFilesDir = new File(outputDir, "large");
+
+        String[][] runs = new String[][] {
+            { smallFilesDir.getPath(), "2k" },
+            { largeFilesDir.getPath(), "1g" }
+        };
+        for (String[] run : runs) {
+            File aFile = new File(run[0], "A_cohort");
+
+            String [] args = new String[] {
+              "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+              "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+              "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+              "-c", "src/test/resources/alltypes/cql",
+              "--input-format", "parquet",
+              "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+              "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+              "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+              "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+              "-o", "A=" + aFile.toURI().toString(),
+              "--output-format", "parquet",
+              "--target-output-file-size", run[1],
+              "-a", "A"
+            };
+
+            SparkCqlEvaluator.main(args);
+
+            validateOutputCountsAndColumns(aFile.toURI().toString(), new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), 572, "parquet");
+        }
+
+        assertEquals(1, countOutputFiles(new File(largeFilesDir, "A_cohort")));
+        assertTrue(countOutputFiles(new File(smallFilesDir, "A_cohort")) > 1);
+    }
+
+    @Test
+    public void testGetOutputPartitionCount() {
+        assertEquals(1, SparkCqlEvaluator.getOutputPartitionCount(0, 0, 1024));
+        assertEquals(1, SparkCqlEvaluator.getOutputPartitionCount(100, 1000, 1024));
+        assertEquals(2, SparkCqlEvaluator.getOutputPartitionCount(100, 1025, 1024));
+        assertEquals(10, SparkCqlEvaluator.getOutputPartitionCount(10, 1024 * 1024, 1024));
+        assertEquals(1000, SparkCqlEvaluator.getOutputPartitionCount(10000, 1000 * 1024, 1024));
+        assertEquals(10000, SparkCqlEvaluator.getOutputPartitionCount(10000, Long.MAX_VALUE, 1024));
+        assertThrows(IllegalArgumentException.class, () -> SparkCqlEvaluator.getOutputPartitionCount(10, 10, 0));
+    }
+
+    private long countOutputFiles(File outputDir) {
+        File[] files = outputDir.listFiles((dir, name) -> name.startsWith("part-"));
+        assertNotNull(files);
+        return files.length;
+    }
+
+    @Test
+    public void testIncrementalEvaluationCarriesForwardUnchangedContexts() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-incremental/");
+        FileUtils.deleteDirectory(outputDir);
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File stateDir = new File(outputDir, "state");
+        File metadataDir = new File(outputDir, "incremental_summary");
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "-a", "Patient",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--incremental-state-path", stateDir.toURI().toString(),
+          "--metadata-output-path", metadataDir.toURI().toString()
+        };
+
+        // the first run has no previous state and evaluates every context
+        SparkCqlEvaluator.main(args);
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 100, "parquet");
+        assertTrue(new File(stateDir, "Patient").exists());
+
+        Set<Path> summaryFiles = getSummaryFilesInPath(metadataDir.toPath());
+        assertEquals(1, summaryFiles.size());
+        try(FileInputStream fileInputStream = new FileInputStream(summaryFiles.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+            IncrementalStatistics statistics = evaluationSummary.getIncrementalStatisticsPerContext().get("Patient");
+            assertNotNull(statistics);
+            assertTrue(statistics.isFullRecompute());
+            assertEquals(100, statistics.getContextsEvaluated());
+            assertEquals(0, statistics.getContextsCarriedForward());
+            assertEquals(100L, evaluationSummary.getExecutionsPerContext().get("Patient").longValue());
+        }
+
+        // the second run sees the same input and carries every result forward
+        SparkCqlEvaluator.main(args);
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 100, "parquet");
+
+        Set<Path> summaryFilesAfter = getSummaryFilesInPath(metadataDir.toPath());
+        summaryFilesAfter.removeAll(summaryFiles);
+        assertEquals(1, summaryFilesAfter.size());
+        try(FileInputStream fileInputStream = new FileInputStream(summaryFilesAfter.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+            IncrementalStatistics statistics = evaluationSummary.getIncrementalStatisticsPerContext().get("Patient");
+            assertNotNull(statistics);
+            assertFalse(statistics.isFullRecompute());
+            assertEquals(0, statistics.getContextsEvaluated());
+            assertEquals(100, statistics.getContextsCarriedForward());
+            assertEquals(0, statistics.getContextsRemoved());
+            assertEquals(0L, evaluationSummary.getExecutionsPerContext().get("Patient").longValue());
+        }
+    }
+
+    @Test
+    public void testIncrementalEvaluationKeepsFingerprintsOfSuccessfulContexts() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-incremental-errors/");
+        FileUtils.deleteDirectory(outputDir);
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File stateDir = new File(outputDir, "state");
+        File metadataDir = new File(outputDir, "incremental_summary");
+
+        String [] args = new String[] {
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/throws-exception-cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "-a", "Patient",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--error-sample-size", "1",
+          "--incremental-state-path", stateDir.toURI().toString(),
+          "--metadata-output-path", metadataDir.toURI().toString()
+        };
+
+        // the failing contexts (more than one patient with several A rows) outnumber
+        // the error sample, yet only their fingerprints are left out of the state
+        SparkCqlEvaluator.main(args);
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "ThrowsException|cohort")), 100, "parquet");
+
+        Dataset<Row> results = spark.read().parquet(patientFile.toURI().toString());
+        List<Row> succeeded = results.filter(functions.col("`ThrowsException|cohort`").isNotNull()).select("pat_id").collectAsList();
+        long failed = 100 - succeeded.size();
+        assertTrue(failed > 1);
+        assertFalse(succeeded.isEmpty());
+
+        List<Row> fingerprinted = spark.read().parquet(new File(stateDir, "Patient").toURI().toString()).select("pat_id").collectAsList();
+        assertEquals(new HashSet<>(succeeded), new HashSet<>(fingerprinted));
+
+        // the next run evaluates only the failed contexts again
+        Set<Path> summaryFiles = getSummaryFilesInPath(metadataDir.toPath());
+        SparkCqlEvaluator.main(args);
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "ThrowsException|cohort")), 100, "parquet");
+
+        Set<Path> summaryFilesAfter = getSummaryFilesInPath(metadataDir.toPath());
+        summaryFilesAfter.removeAll(summaryFiles);
+        assertEquals(1, summaryFilesAfter.size());
+        try(FileInputStream fileInputStream = new FileInputStream(summaryFilesAfter.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+            IncrementalStatistics statistics = evaluationSummary.getIncrementalStatisticsPerContext().get("Patient");
+            assertFalse(statistics.isFullRecompute());
+            assertEquals(failed, statistics.getContextsEvaluated());
+            assertEquals(succeeded.size(), statistics.getContextsCarriedForward());
+        }
+    }
+
+    @Test
+    public void testResumeSkipsCommittedContexts() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes-resume/");
+        FileUtils.deleteDirectory(outputDir);
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+        File aFile = new File(outputDir, "A_cohort");
+        File metadataDir = new File(outputDir, "resume_summary");
+
+        List<String> args = new ArrayList<>(Arrays.asList(
+          "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+          "-j", "src/test/resources/alltypes/metadata/cql-jobs.json",
+          "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+          "-c", "src/test/resources/alltypes/cql",
+          "-a", "Patient",
+          "-a", "A",
+          "--input-format", "parquet",
+          "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+          "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+          "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+          "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+          "-o", "Patient=" + patientFile.toURI().toString(),
+          "-o", "A=" + aFile.toURI().toString(),
+          "--output-format", "parquet",
+          "--overwrite-output-for-contexts",
+          "--metadata-output-path", metadataDir.toURI().toString()
+        ));
+
+        SparkCqlEvaluator.main(args.toArray(new String[0]));
+
+        File commitsDir = new File(metadataDir, HadoopPathContextCommitLog.COMMITS_FOLDER);
+        assertTrue(new File(commitsDir, "Patient" + HadoopPathContextCommitLog.COMMIT_SUFFIX).exists());
+        assertTrue(new File(commitsDir, "A" + HadoopPathContextCommitLog.COMMIT_SUFFIX).exists());
+
+        // simulate a failure while the A context was being written after the
+        // Patient context was committed
+        FileUtils.deleteDirectory(aFile);
+        assertTrue(new File(commitsDir, "A" + HadoopPathContextCommitLog.COMMIT_SUFFIX).delete());
+
+        Set<Path> summaryFilesBefore = getSummaryFilesInPath(metadataDir.toPath());
+
+        args.add("--resume");
+        SparkCqlEvaluator.main(args.toArray(new String[0]));
+
+        validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "MeasureAB|cohort")), 100, "parquet");
+        validateOutputCountsAndColumns(aFile.toURI().toString(), new HashSet<>(Arrays.asList("id_col", "parameters", "MeasureA|cohort")), 572, "parquet");
+
+        Set<Path> summaryFilesAfter = getSummaryFilesInPath(metadataDir.toPath());
+        summaryFilesAfter.removeAll(summaryFilesBefore);
+        assertEquals(1, summaryFilesAfter.size());
+
+        try(FileInputStream fileInputStream = new FileInputStream(summaryFilesAfter.iterator().next().toFile())) {
+            EvaluationSummary evaluationSummary = new ObjectMapper().readValue(fileInputStream, EvaluationSummary.class);
+            assertEquals(Collections.singletonList("Patient"), evaluationSummary.getResumedContexts());
+            assertEquals(1, evaluationSummary.getTotalContexts());
+            assertEquals(100L, evaluationSummary.getExecutionsPerContext().get("Patient").longValue());
+            assertEquals(572L, evaluationSummary.getExecutionsPerContext().get("A").longValue());
+            assertFalse(evaluationSummary.getRuntimeMillisPerContext().containsKey("Patient"));
+        }
+    }
+
     /*
      * Some tests need to check for a batch summary file. The local Spark engine
      * will not respect a configured app id, so this utility function can be used
@@ -505,6 +1308,75 @@ public class SparkCqlEvaluatorTest extends BaseSparkTest {
         validateOutputCountsAndColumns(patientFile.toURI().toString(), new HashSet<>(Arrays.asList("pat_id", "parameters", "Parent|cohort")), 100, "parquet");
     }
     
+    @Test
+    public void testSharedObjectsAreReleasedAfterRun() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/released/");
+
+        SparkCqlEvaluatorArgs args = new SparkCqlEvaluatorArgs();
+        args.contextDefinitionPath = "src/test/resources/alltypes/metadata/context-definitions.json";
+        args.jobSpecPath = "src/test/resources/alltypes/metadata/cql-jobs.json";
+        args.modelInfoPaths = Arrays.asList("src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml");
+        args.cqlPath = "src/test/resources/alltypes/cql";
+        args.inputFormat = "parquet";
+        args.inputPaths = new HashMap<>();
+        args.inputPaths.put("A", new File(inputDir, "testdata/test-A.parquet").toURI().toString());
+        args.outputPaths = new HashMap<>();
+        args.outputPaths.put("A", new File(outputDir, "A_cohort").toURI().toString());
+        args.aggregationContexts = Arrays.asList("A");
+        args.outputPartitions = 1;
+        args.outputFormat = "parquet";
+        args.overwriteResults = true;
+        args.terminologyPath = "src/test/resources/fileSystemValueSets";
+
+        ReleaseRecordingEvaluator evaluator = new ReleaseRecordingEvaluator(args);
+        evaluator.run(System.out);
+
+        assertNotNull(evaluator.releasedLibrariesKey);
+        assertFalse(SharedObjectRegistry.remove(evaluator.releasedLibrariesKey));
+        assertNull(evaluator.broadcastLibraries);
+        assertThrows(SparkException.class, evaluator.releasedLibraries::value);
+
+        assertNotNull(evaluator.releasedTerminologyKey);
+        assertFalse(SharedObjectRegistry.remove(evaluator.releasedTerminologyKey));
+        assertNull(evaluator.broadcastTerminology);
+        assertThrows(SparkException.class, evaluator.releasedTerminology::value);
+
+        // a later run in the same JVM reads the job and the providers again
+        assertFalse(SharedObjectRegistry.remove(evaluator.getJobSpecificationKey()));
+        assertFalse(SharedObjectRegistry.remove(evaluator.getFilteredJobSpecificationKey()));
+        assertFalse(SharedObjectRegistry.remove(evaluator.getSparkOutputColumnEncoderKey()));
+        assertFalse(SharedObjectRegistry.remove(evaluator.getTranslatingLibraryProviderKey()));
+        assertFalse(SharedObjectRegistry.remove(evaluator.getFileSystemTerminologyProviderKey()));
+        assertFalse(SharedObjectRegistry.remove(evaluator.getExternalFunctionProviderKey()));
+    }
+
+    /**
+     * Records the broadcast libraries and terminology of a run before they
+     * are released.
+     */
+    private static class ReleaseRecordingEvaluator extends SparkCqlEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private transient Broadcast<Map<CqlLibraryDescriptor, String>> releasedLibraries;
+        private transient String releasedLibrariesKey;
+        private transient Broadcast<TerminologyIndex> releasedTerminology;
+        private transient String releasedTerminologyKey;
+
+        public ReleaseRecordingEvaluator(SparkCqlEvaluatorArgs args) {
+            super(args);
+        }
+
+        @Override
+        protected void releaseSharedObjects() {
+            releasedLibraries = broadcastLibraries;
+            releasedLibrariesKey = broadcastLibrariesKey;
+            releasedTerminology = broadcastTerminology;
+            releasedTerminologyKey = broadcastTerminologyKey;
+            super.releaseSharedObjects();
+        }
+    }
+
     @Test
     public void testColumnFilteringIsDisabled__usesDefaultRetriever() throws Exception {
         File inputDir = new File("src/test/resources/alltypes/");
@@ -579,6 +1451,71 @@ public class SparkCqlEvaluatorTest extends BaseSparkTest {
         assertTrue( retriever instanceof FilteredDatasetRetriever );
     }
 
+    @Test
+    public void testCodeFilterPushdownIsEnabled__usesCodeFilteredRetriever() throws Exception {
+        SparkCqlEvaluatorArgs args = newParentChildArgs();
+        args.enableCodeFilterPushdown = true;
+
+        SparkCqlEvaluator evaluator = new SparkCqlEvaluator(args);
+        evaluator.hadoopConfiguration = new SerializableConfiguration(SparkHadoopUtil.get().conf());
+
+        ContextDefinitions cd = evaluator.readContextDefinitions(args.contextDefinitionPath);
+        ContextDefinition c = cd.getContextDefinitionByName(args.aggregationContexts.iterator().next());
+        
+        spark = initializeSession(Java8API.ENABLED);
+        DatasetRetriever retriever = evaluator.getDatasetRetrieverForContext(spark, c);
+        assertTrue( retriever instanceof CodeFilteredDatasetRetriever );
+    }
+
+    @Test
+    public void testGetCodeFiltersForContext() throws Exception {
+        SparkCqlEvaluatorArgs args = newParentChildArgs();
+        args.enableCodeFilterPushdown = true;
+
+        SparkCqlEvaluator evaluator = new SparkCqlEvaluator(args);
+        evaluator.hadoopConfiguration = new SerializableConfiguration(SparkHadoopUtil.get().conf());
+
+        List<DataTypeRequirementsProcessor.DataTypeRequirements> requirements = evaluator.getDataTypeRequirements();
+
+        // The primary datatype is never filtered
+        ContextDefinitions cd = evaluator.readContextDefinitions(args.contextDefinitionPath);
+        ContextDefinition patientContext = cd.getContextDefinitionByName("Patient");
+        assertTrue( evaluator.getCodeFiltersForContext(patientContext, requirements).isEmpty() );
+        
+        OneToMany join = new OneToMany();
+        join.setRelatedDataType("A");
+        join.setRelatedKeyColumn("pat_id");
+        
+        ContextDefinition context = new ContextDefinition();
+        context.setName("B-Context");
+        context.setPrimaryDataType("B");
+        context.setPrimaryKeyColumn("pat_id");
+        context.setRelationships(Collections.singletonList(join));
+        
+        Map<String, Map<String, Set<String>>> codesByPathByDataType = evaluator.getCodeFiltersForContext(context, requirements);
+        assertEquals( Collections.singleton("A"), codesByPathByDataType.keySet() );
+        assertEquals( Collections.singletonMap("code_col", new HashSet<>(Arrays.asList("cd1", "cdA"))), codesByPathByDataType.get("A") );
+    }
+    
+    private SparkCqlEvaluatorArgs newParentChildArgs() {
+        File inputDir = new File("src/test/resources/alltypes/");
+
+        SparkCqlEvaluatorArgs args = new SparkCqlEvaluatorArgs();
+        args.contextDefinitionPath = "src/test/resources/alltypes/metadata/context-definitions.json";
+        args.jobSpecPath = "src/test/resources/alltypes/metadata/parent-child-jobs.json";
+        args.modelInfoPaths = Arrays.asList("src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml");
+        args.cqlPath = "src/test/resources/alltypes/cql";
+        args.inputFormat = "parquet";
+        args.inputPaths = new HashMap<>();
+        args.inputPaths.put("A", new File(inputDir, "testdata/test-A.parquet").toURI().toString());
+        args.inputPaths.put("B", new File(inputDir, "testdata/test-B.parquet").toURI().toString());
+        args.inputPaths.put("C", new File(inputDir, "testdata/test-C.parquet").toURI().toString());
+        args.inputPaths.put("D", new File(inputDir, "testdata/test-D.parquet").toURI().toString());
+        args.aggregationContexts = Arrays.asList("Patient");
+        args.outputFormat = "parquet";
+        return args;
+    }
+
     @Test
     public void testAnyColumnEvaluation() throws Exception {
         File inputDir = new File("src/test/resources/alltypes/");
@@ -1050,6 +1987,45 @@ public class SparkCqlEvaluatorTest extends BaseSparkTest {
         checkEvaluationSummaryFieldsPopulated(summaryFilesAfter.iterator().next(), 1, true);
     }
     
+    @Test
+    public void testCQLEngineErrorsAccumulatedWithBatchedExpressions() throws Exception {
+        File inputDir = new File("src/test/resources/alltypes/");
+        File outputDir = new File("target/output/alltypes/");
+
+        File patientFile = new File(outputDir, "Patient_cohort");
+
+        File metadataDir = new File(outputDir, "errors_accum_batched_run_summary");
+        Set<Path> summaryFilesBefore = getSummaryFilesInPath(metadataDir.toPath());
+
+        String [] args = new String[] {
+                "-d", "src/test/resources/alltypes/metadata/context-definitions.json",
+                "-j", "src/test/resources/alltypes/metadata/throws-exception-cql-jobs.json",
+                "-m", "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml",
+                "-c", "src/test/resources/alltypes/cql",
+                "--input-format", "parquet",
+                "-i", "A=" + new File(inputDir, "testdata/test-A.parquet").toURI().toString(),
+                "-i", "B=" + new File(inputDir, "testdata/test-B.parquet").toURI().toString(),
+                "-i", "C=" + new File(inputDir, "testdata/test-C.parquet").toURI().toString(),
+                "-i", "D=" + new File(inputDir, "testdata/test-D.parquet").toURI().toString(),
+                "-o", "Patient=" + patientFile.toURI().toString(),
+                "-n", "10",
+                "--batch-expressions",
+                "--correlation-id", "Spark1234",
+                "--overwrite-output-for-contexts",
+                "--metadata-output-path", metadataDir.toURI().toString()
+        };
+
+        SparkCqlEvaluator.main(args);
+
+        assertFalse(new File(metadataDir, HadoopPathOutputMetadataWriter.SUCCESS_MARKER).exists());
+
+        Set<Path> summaryFilesAfter = getSummaryFilesInPath(metadataDir.toPath());
+        summaryFilesAfter.removeAll(summaryFilesBefore);
+        assertEquals(1, summaryFilesAfter.size());
+
+        checkEvaluationSummaryFieldsPopulated(summaryFilesAfter.iterator().next(), 1, true);
+    }
+    
     private void checkEvaluationSummaryFieldsPopulated(Path summaryPath, int totalContexts, boolean hasErrors) throws IOException {
         try(FileInputStream fileInputStream = new FileInputStream(summaryPath.toFile())) {
             ObjectMapper mapper = new ObjectMapper();
@@ -1066,9 +2042,13 @@ public class SparkCqlEvaluatorTest extends BaseSparkTest {
 
             if (hasErrors) {
                 assertTrue(CollectionUtils.isNotEmpty(evaluationSummary.getErrorList()));
+                assertTrue(CollectionUtils.isNotEmpty(evaluationSummary.getErrorGroups()));
+                long errorCount = evaluationSummary.getErrorGroups().stream().mapToLong(EvaluationErrorGroup::getCount).sum();
+                assertTrue(errorCount >= evaluationSummary.getErrorList().size());
             }
             else {
                 assertTrue(CollectionUtils.isEmpty(evaluationSummary.getErrorList()));
+                assertTrue(CollectionUtils.isEmpty(evaluationSummary.getErrorGroups()));
             }
         }
     }
@@ -1301,6 +2281,35 @@ public class SparkCqlEvaluatorTest extends BaseSparkTest {
         assertEquals(3, (int) requests.getEvaluations().get(2).getId());
     }
     
+    @Test
+    public void testPartitionEvaluatorDoesNotSerializeEvaluator() throws Exception {
+        evaluator.args.jobSpecPath = "src/test/resources/column-mapping-validation/metadata/cql-jobs.json";
+        evaluator.hadoopConfiguration = new SerializableConfiguration(SparkHadoopUtil.get().conf());
+        evaluator.typeConverter = new SparkTypeConverter(false);
+
+        PartitionEvaluator partitionEvaluator = evaluator.newPartitionEvaluator("Patient", new StructType(), null, null, ZonedDateTime.now());
+
+        List<Class<?>> written = new ArrayList<>();
+        try (ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream()) {
+            {
+                enableReplaceObject(true);
+            }
+
+            @Override
+            protected Object replaceObject(Object obj) {
+                written.add(obj.getClass());
+                return obj;
+            }
+        }) {
+            out.writeObject(partitionEvaluator);
+        }
+
+        assertTrue(written.contains(PartitionEvaluator.class));
+        assertTrue(written.contains(SharedEvaluationObjects.class));
+        assertFalse(written.stream().anyMatch(SparkCqlEvaluator.class::isAssignableFrom));
+        assertFalse(written.contains(SparkCqlEvaluatorArgs.class));
+    }
+
     @Test
     public void testReadCqlJobsInvalid() throws Exception {
         evaluator.hadoopConfiguration = new SerializableConfiguration(SparkHadoopUtil.get().conf());
@@ -11,9 +11,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.RowFactory;
@@ -28,6 +30,9 @@ import org.junit.Test;
 import com.ibm.cohort.cql.spark.BaseSparkTest;
 import com.ibm.cohort.cql.spark.data.DatasetRetriever;
 import com.ibm.cohort.cql.spark.data.TestDatasetRetriever;
+import com.ibm.cohort.cql.spark.metadata.ContextJoinPlan;
+import com.ibm.cohort.cql.spark.metadata.ContextSkewStatistics;
+import com.ibm.cohort.cql.spark.metadata.JoinStrategy;
 
 import scala.Tuple2;
 
@@ -229,6 +234,140 @@ public class ContextRetrieverTest extends BaseSparkTest {
         assertOutput(expected, actual);
     }
 
+    @Test
+    public void retrieveSortedContext_oneToManyJoin() {
+        Dataset<Row> primaryDataset = newDataset(
+                primaryInputSchema,
+                RowFactory.create(3, 3, "primary3"),
+                RowFactory.create(1, 1, "primary1"),
+                RowFactory.create(2, 2, "primary2")
+        );
+
+        Dataset<Row> directRelatedDataset = newDataset(
+                directRelatedInputSchema,
+                RowFactory.create(2, "direct21"),
+                RowFactory.create(1, "direct11"),
+                RowFactory.create(3, "direct31"),
+                RowFactory.create(1, "direct12"),
+                RowFactory.create(99, "unrelated1")
+        );
+
+        Map<String, Dataset<Row>> datasets = new HashMap<>();
+        datasets.put(PRIMARY_PATH, primaryDataset);
+        datasets.put(DIRECT_RELATED_PATH, directRelatedDataset);
+
+        DatasetRetriever datasetRetriever = new TestDatasetRetriever(datasets);
+        ContextRetriever contextRetriever = new ContextRetriever(inputPaths, datasetRetriever);
+
+        ContextDefinition contextDefinition = newContextDefinition(
+                PRIMARY_NAME,
+                PRIMARY_DATA_TYPE,
+                PRIMARY_KEY_COLUMN,
+                Collections.singletonList(directJoin)
+        );
+
+        List<List<Tuple2<Object, Row>>> partitions = contextRetriever.retrieveSortedContext(contextDefinition).glom().collect();
+
+        Map<Object, Integer> partitionByContext = new HashMap<>();
+        int rowCount = 0;
+        for (int i = 0; i < partitions.size(); i++) {
+            Object previousKey = null;
+            for (Tuple2<Object, Row> row : partitions.get(i)) {
+                // Rows are sorted by context within a partition
+                if (previousKey != null) {
+                    Assert.assertTrue((Integer) previousKey <= (Integer) row._1());
+                }
+                previousKey = row._1();
+
+                // All rows for a context are in the same partition
+                Integer previousPartition = partitionByContext.put(row._1(), i);
+                Assert.assertTrue(previousPartition == null || previousPartition == i);
+                rowCount++;
+            }
+        }
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), partitionByContext.keySet());
+        Assert.assertEquals(7, rowCount);
+    }
+
+    @Test
+    public void retrieveContext_hotKeyIsolated() {
+        Dataset<Row> primaryDataset = newDataset(
+                primaryInputSchema,
+                RowFactory.create(1, 1, "primary1"),
+                RowFactory.create(2, 2, "primary2"),
+                RowFactory.create(3, 3, "primary3")
+        );
+
+        List<Row> relatedRows = new ArrayList<>();
+        relatedRows.add(RowFactory.create(2, "direct21"));
+        relatedRows.add(RowFactory.create(3, "direct31"));
+        for (int i = 0; i < 50; i++) {
+            relatedRows.add(RowFactory.create(1, "direct1" + i));
+        }
+        Dataset<Row> directRelatedDataset = spark.createDataFrame(relatedRows, directRelatedInputSchema);
+
+        Map<String, Dataset<Row>> datasets = new HashMap<>();
+        datasets.put(PRIMARY_PATH, primaryDataset);
+        datasets.put(DIRECT_RELATED_PATH, directRelatedDataset);
+
+        DatasetRetriever datasetRetriever = new TestDatasetRetriever(datasets);
+        HotKeyDetector hotKeyDetector = new HotKeyDetector(1.0, 2.0, 10, 0);
+        ContextRetriever contextRetriever = new ContextRetriever(inputPaths, datasetRetriever, hotKeyDetector);
+
+        ContextDefinition contextDefinition = newContextDefinition(
+                PRIMARY_NAME,
+                PRIMARY_DATA_TYPE,
+                PRIMARY_KEY_COLUMN,
+                Collections.singletonList(directJoin)
+        );
+
+        int persistedBefore = spark.sparkContext().getPersistentRDDs().size();
+        JavaPairRDD<Object, List<Row>> grouped = contextRetriever.retrieveContext(contextDefinition);
+        // the joined data stays persisted for the grouping job after sampling
+        Assert.assertEquals(persistedBefore + 1, spark.sparkContext().getPersistentRDDs().size());
+
+        ContextSkewStatistics statistics = contextRetriever.getSkewStatistics(PRIMARY_NAME);
+        Assert.assertNotNull(statistics);
+        Assert.assertEquals(Collections.singletonList("1"), statistics.getHotContextValues());
+        Assert.assertEquals(grouped.getNumPartitions(), statistics.getPartitions());
+
+        // The hot context is alone in the last partition
+        List<List<Tuple2<Object, List<Row>>>> partitions = grouped.glom().collect();
+        List<Tuple2<Object, List<Row>>> hotPartition = partitions.get(partitions.size() - 1);
+        Assert.assertEquals(1, hotPartition.size());
+        Assert.assertEquals(1, hotPartition.get(0)._1());
+        Assert.assertEquals(51, hotPartition.get(0)._2().size());
+
+        Assert.assertEquals(3, grouped.count());
+
+        contextRetriever.release(PRIMARY_NAME);
+        Assert.assertEquals(persistedBefore, spark.sparkContext().getPersistentRDDs().size());
+    }
+
+    @Test
+    public void retrieveContext_noSkewStatisticsWhenDisabled() {
+        Dataset<Row> primaryDataset = newDataset(
+                primaryInputSchema,
+                RowFactory.create(1, 1, "primary1")
+        );
+
+        Map<String, Dataset<Row>> datasets = new HashMap<>();
+        datasets.put(PRIMARY_PATH, primaryDataset);
+
+        ContextRetriever contextRetriever = new ContextRetriever(inputPaths, new TestDatasetRetriever(datasets));
+
+        ContextDefinition contextDefinition = newContextDefinition(
+                PRIMARY_NAME,
+                PRIMARY_DATA_TYPE,
+                PRIMARY_KEY_COLUMN,
+                Collections.singletonList(directJoin)
+        );
+
+        contextRetriever.retrieveContext(contextDefinition);
+        Assert.assertNull(contextRetriever.getSkewStatistics(PRIMARY_NAME));
+    }
+
     @Test
     public void retrieveContext_oneToManyJoinOnAltKey() {
         Dataset<Row> primaryDataset = newDataset(
@@ -472,6 +611,208 @@ public class ContextRetrieverTest extends BaseSparkTest {
         assertOutput(expected, actual);
     }
 
+    @Test
+    public void explainContext_oneToManyJoin() {
+        Dataset<Row> primaryDataset = newDataset(
+                primaryInputSchema,
+                RowFactory.create(1, 1, "primary1")
+        );
+
+        Dataset<Row> directRelatedDataset = newDataset(
+                directRelatedInputSchema,
+                RowFactory.create(1, "direct11")
+        );
+
+        Map<String, Dataset<Row>> datasets = new HashMap<>();
+        datasets.put(PRIMARY_PATH, primaryDataset);
+        datasets.put(DIRECT_RELATED_PATH, directRelatedDataset);
+
+        DatasetRetriever datasetRetriever = new TestDatasetRetriever(datasets);
+        ContextRetriever contextRetriever = new ContextRetriever(inputPaths, datasetRetriever);
+
+        ContextDefinition contextDefinition = newContextDefinition(
+                PRIMARY_NAME,
+                PRIMARY_DATA_TYPE,
+                PRIMARY_KEY_COLUMN,
+                Collections.singletonList(directJoin)
+        );
+
+        String combined = contextRetriever.explainContext(contextDefinition, ContextGroupingStrategy.COMBINE);
+        Assert.assertTrue(combined, combined.startsWith("combineByKey by context value using a hash partitioner over the union of 2 input(s)"));
+        Assert.assertTrue(combined, combined.contains("Input 1 keyed by " + PRIMARY_KEY_COLUMN + ":"));
+        Assert.assertTrue(combined, combined.contains("Input 2 keyed by " + ContextRetriever.JOIN_CONTEXT_VALUE_IDX + ":"));
+        Assert.assertTrue(combined, combined.contains("Join"));
+
+        String sorted = contextRetriever.explainContext(contextDefinition, ContextGroupingStrategy.SORT);
+        Assert.assertTrue(sorted, sorted.startsWith("repartitionAndSortWithinPartitions by context value"));
+    }
+
+    @Test
+    public void retrieveContext_coPartitionedGrouping() {
+        Dataset<Row> primaryDataset = newDataset(
+                primaryInputSchema,
+                RowFactory.create(1, 1, "primary1"),
+                RowFactory.create(2, 2, "primary2"),
+                RowFactory.create(3, 3, "primary3")
+        );
+
+        Dataset<Row> directRelatedDataset = newDataset(
+                directRelatedInputSchema,
+                RowFactory.create(1, "direct11"),
+                RowFactory.create(3, "direct31"),
+                RowFactory.create(99, "unrelated1")
+        );
+
+        Map<String, Dataset<Row>> datasets = new HashMap<>();
+        datasets.put(PRIMARY_PATH, primaryDataset);
+        datasets.put(DIRECT_RELATED_PATH, directRelatedDataset);
+
+        DatasetRetriever datasetRetriever = new TestDatasetRetriever(datasets);
+
+        ContextDefinition contextDefinition = newContextDefinition(
+                PRIMARY_NAME,
+                PRIMARY_DATA_TYPE,
+                PRIMARY_KEY_COLUMN,
+                Collections.singletonList(directJoin)
+        );
+
+        List<Tuple2<Object, List<Row>>> expected = Arrays.asList(
+                new Tuple2<>(1, Arrays.asList(
+                        newRow(primaryOutputSchema, 1, 1, "primary1", PRIMARY_DATA_TYPE),
+                        newRow(directRelatedOutputSchema, 1, "direct11", DIRECT_RELATED_DATA_TYPE, 1)
+                )),
+                new Tuple2<>(2, Arrays.asList(
+                        newRow(primaryOutputSchema, 2, 2, "primary2", PRIMARY_DATA_TYPE)
+                )),
+                new Tuple2<>(3, Arrays.asList(
+                        newRow(primaryOutputSchema, 3, 3, "primary3", PRIMARY_DATA_TYPE),
+                        newRow(directRelatedOutputSchema, 3, "direct31", DIRECT_RELATED_DATA_TYPE, 3)
+                ))
+        );
+
+        // Force a sort-merge join so that the joined rows are hash partitioned by context value
+        String broadcastThreshold = spark.conf().get("spark.sql.autoBroadcastJoinThreshold");
+        String shufflePartitions = spark.conf().get("spark.sql.shuffle.partitions");
+        spark.conf().set("spark.sql.autoBroadcastJoinThreshold", "-1");
+        spark.conf().set("spark.sql.shuffle.partitions", "4");
+        try {
+            ContextRetriever contextRetriever = new ContextRetriever(inputPaths, datasetRetriever, null, null, null, true);
+            JavaPairRDD<Object, List<Row>> grouped = contextRetriever.retrieveContext(contextDefinition);
+            assertOutput(expected, grouped.collect());
+            Assert.assertEquals(4, grouped.getNumPartitions());
+
+            ContextJoinPlan joinPlan = contextRetriever.getJoinPlan(PRIMARY_NAME);
+            Assert.assertEquals(ContextJoinPlan.GROUPING_CO_PARTITIONED, joinPlan.getGrouping());
+            Assert.assertEquals(4, joinPlan.getPartitions());
+            Assert.assertFalse(joinPlan.isPrimaryPartitionedByContext());
+            Assert.assertEquals(1, joinPlan.getJoins().size());
+            Assert.assertTrue(joinPlan.getJoins().get(0).isPartitionedByContext());
+            Assert.assertEquals(Collections.singletonList("SortMergeJoin"), joinPlan.getJoins().get(0).getPhysicalJoins());
+
+            String explained = contextRetriever.explainContext(contextDefinition, ContextGroupingStrategy.COMBINE);
+            Assert.assertTrue(explained, explained.startsWith("sortWithinPartitions and merge by context value of 4 co-partitioned partitions"));
+            explained = contextRetriever.explainContext(contextDefinition, ContextGroupingStrategy.SORT);
+            Assert.assertTrue(explained, explained.startsWith("sortWithinPartitions and merge by context value of 4 co-partitioned partitions"));
+
+            // The sorted rows are not shuffled again and the rows of each context
+            // value are contiguous, so they can be streamed one context at a time
+            JavaPairRDD<Object, Row> sorted = contextRetriever.retrieveSortedContext(contextDefinition);
+            Assert.assertEquals(4, sorted.getNumPartitions());
+            Comparator<Object> comparator = new ContextKeyComparator();
+            List<Tuple2<Object, List<Row>>> sortedContexts = new ArrayList<>();
+            for (List<Tuple2<Object, Row>> partition : sorted.glom().collect()) {
+                for (int i = 0; i < partition.size(); i++) {
+                    Tuple2<Object, Row> row = partition.get(i);
+                    if (i == 0 || comparator.compare(partition.get(i - 1)._1(), row._1()) < 0) {
+                        sortedContexts.add(new Tuple2<Object, List<Row>>(row._1(), new ArrayList<>()));
+                    }
+                    else {
+                        Assert.assertEquals(partition.get(i - 1)._1(), row._1());
+                    }
+                    sortedContexts.get(sortedContexts.size() - 1)._2().add(row._2());
+                }
+            }
+            assertOutput(expected, sortedContexts);
+
+            ContextRetriever shuffleRetriever = new ContextRetriever(inputPaths, datasetRetriever, null, null, null, false);
+            assertOutput(expected, shuffleRetriever.retrieveContext(contextDefinition).collect());
+            Assert.assertEquals(ContextJoinPlan.GROUPING_SHUFFLE, shuffleRetriever.getJoinPlan(PRIMARY_NAME).getGrouping());
+        }
+        finally {
+            spark.conf().set("spark.sql.autoBroadcastJoinThreshold", broadcastThreshold);
+            spark.conf().set("spark.sql.shuffle.partitions", shufflePartitions);
+        }
+    }
+
+    @Test
+    public void retrieveContext_broadcastJoinThreshold() {
+        Dataset<Row> primaryDataset = newDataset(
+                primaryInputSchema,
+                RowFactory.create(1, 1, "primary1"),
+                RowFactory.create(2, 2, "primary2")
+        );
+
+        Dataset<Row> assocDataset = newDataset(
+                assocInputSchema,
+                RowFactory.create(1, 21),
+                RowFactory.create(2, 22)
+        );
+
+        Dataset<Row> indirectRelatedDataset = newDataset(
+                indirectRelatedInputSchema,
+                RowFactory.create(21, "indirect21"),
+                RowFactory.create(22, "indirect22")
+        );
+
+        Map<String, Dataset<Row>> datasets = new HashMap<>();
+        datasets.put(PRIMARY_PATH, primaryDataset);
+        datasets.put(ASSOC_PATH, assocDataset);
+        datasets.put(INDIRECT_RELATED_PATH, indirectRelatedDataset);
+
+        DatasetRetriever datasetRetriever = new TestDatasetRetriever(datasets);
+
+        ContextDefinition contextDefinition = newContextDefinition(
+                PRIMARY_NAME,
+                PRIMARY_DATA_TYPE,
+                PRIMARY_KEY_COLUMN,
+                Collections.singletonList(indirectJoin)
+        );
+
+        List<Tuple2<Object, List<Row>>> expected = Arrays.asList(
+                new Tuple2<>(1, Arrays.asList(
+                        newRow(primaryOutputSchema, 1, 1, "primary1", PRIMARY_DATA_TYPE),
+                        newRow(indirectRelatedOutputSchema, 21, "indirect21", INDIRECT_RELATED_DATA_TYPE, 1)
+                )),
+                new Tuple2<>(2, Arrays.asList(
+                        newRow(primaryOutputSchema, 2, 2, "primary2", PRIMARY_DATA_TYPE),
+                        newRow(indirectRelatedOutputSchema, 22, "indirect22", INDIRECT_RELATED_DATA_TYPE, 2)
+                ))
+        );
+
+        // Spark would not broadcast on its own, so every broadcast comes from the threshold
+        String broadcastThreshold = spark.conf().get("spark.sql.autoBroadcastJoinThreshold");
+        spark.conf().set("spark.sql.autoBroadcastJoinThreshold", "-1");
+        try {
+            ContextRetriever contextRetriever = new ContextRetriever(inputPaths, datasetRetriever, null, null, Long.MAX_VALUE, true);
+            assertOutput(expected, contextRetriever.retrieveContext(contextDefinition).collect());
+
+            ContextJoinPlan joinPlan = contextRetriever.getJoinPlan(PRIMARY_NAME);
+            Assert.assertEquals(ContextJoinPlan.GROUPING_SHUFFLE, joinPlan.getGrouping());
+            JoinStrategy joinStrategy = joinPlan.getJoins().get(0);
+            Assert.assertEquals(INDIRECT_RELATED_DATA_TYPE, joinStrategy.getRelatedDataType());
+            Assert.assertEquals(ASSOC_DATA_TYPE, joinStrategy.getAssociationDataType());
+            Assert.assertEquals(Arrays.asList(ASSOC_DATA_TYPE, INDIRECT_RELATED_DATA_TYPE), joinStrategy.getBroadcastDataTypes());
+            Assert.assertEquals(Arrays.asList("BroadcastHashJoin(BuildRight)", "BroadcastHashJoin(BuildRight)"), joinStrategy.getPhysicalJoins());
+
+            ContextRetriever smallThresholdRetriever = new ContextRetriever(inputPaths, datasetRetriever, null, null, 0L, true);
+            assertOutput(expected, smallThresholdRetriever.retrieveContext(contextDefinition).collect());
+            Assert.assertTrue(smallThresholdRetriever.getJoinPlan(PRIMARY_NAME).getJoins().get(0).getBroadcastDataTypes().isEmpty());
+        }
+        finally {
+            spark.conf().set("spark.sql.autoBroadcastJoinThreshold", broadcastThreshold);
+        }
+    }
+
     @Test
     public void retrieveContext_unexpectedJoinType() {
         Dataset<Row> primaryDataset = newDataset(
@@ -0,0 +1,108 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+
+public class ContextSamplerTest extends BaseSparkTest {
+
+    private static final String KEY_COLUMN = "id";
+
+    private static SparkSession spark;
+
+    @BeforeClass
+    public static void initialize() {
+        spark = initializeSession();
+    }
+
+    @Test
+    public void testSampleFraction() {
+        Dataset<Row> dataset = newDataset(1000, 2);
+
+        Set<Integer> tenPercent = sampledKeys(new ContextSampler(0.1, null, 0).sample(dataset, KEY_COLUMN));
+        Assert.assertTrue(String.valueOf(tenPercent.size()), tenPercent.size() > 50 && tenPercent.size() < 150);
+        Assert.assertEquals(tenPercent, sampledKeys(new ContextSampler(0.1, null, 0).sample(dataset, KEY_COLUMN)));
+
+        Set<Integer> twentyPercent = sampledKeys(new ContextSampler(0.2, null, 0).sample(dataset, KEY_COLUMN));
+        Assert.assertTrue(twentyPercent.containsAll(tenPercent));
+
+        Set<Integer> all = sampledKeys(new ContextSampler(1.0, null, 0).sample(dataset, KEY_COLUMN));
+        Assert.assertEquals(1000, all.size());
+    }
+
+    @Test
+    public void testSampleFractionKeepsAllRowsOfSelectedContexts() {
+        Dataset<Row> dataset = newDataset(100, 3);
+
+        List<Row> rows = new ContextSampler(0.5, null, 0).sample(dataset, KEY_COLUMN).collectAsList();
+        Set<Integer> keys = rows.stream().map(row -> row.<Integer>getAs(KEY_COLUMN)).collect(Collectors.toSet());
+        Assert.assertEquals(keys.size() * 3, rows.size());
+    }
+
+    @Test
+    public void testSampleSize() {
+        Dataset<Row> dataset = newDataset(1000, 2);
+
+        Set<Integer> ten = sampledKeys(new ContextSampler(null, 10, 0).sample(dataset, KEY_COLUMN));
+        Assert.assertEquals(10, ten.size());
+        Assert.assertEquals(ten, sampledKeys(new ContextSampler(null, 10, 0).sample(dataset, KEY_COLUMN)));
+
+        Set<Integer> twenty = sampledKeys(new ContextSampler(null, 20, 0).sample(dataset, KEY_COLUMN));
+        Assert.assertEquals(20, twenty.size());
+        Assert.assertTrue(twenty.containsAll(ten));
+
+        Set<Integer> otherSeed = sampledKeys(new ContextSampler(null, 10, 1).sample(dataset, KEY_COLUMN));
+        Assert.assertEquals(10, otherSeed.size());
+        Assert.assertNotEquals(ten, otherSeed);
+
+        Assert.assertEquals(1000, sampledKeys(new ContextSampler(null, 5000, 0).sample(dataset, KEY_COLUMN)).size());
+    }
+
+    @Test
+    public void testInvalidSettings() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> new ContextSampler(null, null, 0));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new ContextSampler(0.5, 10, 0));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new ContextSampler(0.0, null, 0));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new ContextSampler(1.5, null, 0));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new ContextSampler(null, 0, 0));
+    }
+
+    private Set<Integer> sampledKeys(Dataset<Row> sample) {
+        return sample.collectAsList().stream().map(row -> row.<Integer>getAs(KEY_COLUMN)).collect(Collectors.toSet());
+    }
+
+    private Dataset<Row> newDataset(int contexts, int rowsPerContext) {
+        StructType schema = DataTypes.createStructType(Arrays.asList(
+                DataTypes.createStructField(KEY_COLUMN, DataTypes.IntegerType, false),
+                DataTypes.createStructField("value", DataTypes.IntegerType, false)
+        ));
+
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < contexts; i++) {
+            for (int j = 0; j < rowsPerContext; j++) {
+                rows.add(RowFactory.create(i, j));
+            }
+        }
+        return spark.createDataFrame(rows, schema);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+import com.ibm.cohort.cql.spark.metadata.ContextSkewStatistics;
+
+import scala.Tuple2;
+
+@SuppressWarnings("serial")
+public class HotKeyDetectorTest extends BaseSparkTest {
+
+    private static SparkSession spark;
+
+    @BeforeClass
+    public static void initialize() {
+        spark = initializeSession();
+    }
+
+    @Test
+    public void testDetectHotKey() {
+        List<Tuple2<Object, Row>> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(new Tuple2<>(i, RowFactory.create(i)));
+        }
+        for (int i = 0; i < 200; i++) {
+            rows.add(new Tuple2<>(99, RowFactory.create(99)));
+        }
+
+        HotKeyDetector detector = new HotKeyDetector(1.0, 5.0, 10, 0);
+        HotKeyDetector.Result result = detector.detect(toPairRDD(rows));
+
+        Assert.assertEquals(Collections.singletonList(99), result.getHotKeys());
+
+        ContextSkewStatistics statistics = result.getStatistics();
+        Assert.assertEquals(220, statistics.getSampledRows());
+        Assert.assertEquals(21, statistics.getSampledContexts());
+        Assert.assertEquals(200, statistics.getEstimatedMaxRowsPerContext());
+        Assert.assertEquals(1, statistics.getHotContexts());
+        Assert.assertEquals(200, statistics.getEstimatedHotContextRows());
+        Assert.assertEquals(Collections.singletonList("99"), statistics.getHotContextValues());
+    }
+
+    @Test
+    public void testNoHotKeysInUniformData() {
+        List<Tuple2<Object, Row>> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(new Tuple2<>(i, RowFactory.create(i)));
+            rows.add(new Tuple2<>(i, RowFactory.create(i)));
+        }
+
+        HotKeyDetector detector = new HotKeyDetector(1.0, 2.0, 10, 0);
+        HotKeyDetector.Result result = detector.detect(toPairRDD(rows));
+
+        Assert.assertTrue(result.getHotKeys().isEmpty());
+        Assert.assertEquals(1.0, result.getStatistics().getSkewRatio(), 0.0);
+        Assert.assertEquals(0, result.getStatistics().getHotContexts());
+    }
+
+    @Test
+    public void testMaxHotKeys() {
+        List<Tuple2<Object, Row>> rows = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            rows.add(new Tuple2<>(i, RowFactory.create(i)));
+        }
+        for (int i = 0; i < 100; i++) {
+            rows.add(new Tuple2<>(100, RowFactory.create(100)));
+        }
+        for (int i = 0; i < 200; i++) {
+            rows.add(new Tuple2<>(200, RowFactory.create(200)));
+        }
+
+        HotKeyDetector detector = new HotKeyDetector(1.0, 5.0, 1, 0);
+        HotKeyDetector.Result result = detector.detect(toPairRDD(rows));
+
+        Assert.assertEquals(Collections.singletonList(200), result.getHotKeys());
+    }
+
+    @Test
+    public void testInvalidSampleFraction() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> new HotKeyDetector(0, 5.0, 1, 0));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new HotKeyDetector(1.5, 5.0, 1, 0));
+    }
+
+    private JavaPairRDD<Object, Row> toPairRDD(List<Tuple2<Object, Row>> rows) {
+        return new JavaSparkContext(spark.sparkContext()).parallelizePairs(rows, 4);
+    }
+}
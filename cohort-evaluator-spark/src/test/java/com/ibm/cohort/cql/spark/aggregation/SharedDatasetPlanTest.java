@@ -0,0 +1,85 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SharedDatasetPlanTest {
+
+    @Test
+    public void testSharedDataTypes() {
+        ContextDefinition patient = context("Patient", "Patient", oneToMany("Encounter"), manyToMany("Claim", "PatientClaim"));
+        ContextDefinition encounter = context("Encounter", "Encounter", oneToMany("Procedure"));
+        ContextDefinition claim = context("Claim", "Claim", oneToMany("ClaimLine"));
+
+        SharedDatasetPlan plan = new SharedDatasetPlan(Arrays.asList(patient, encounter, claim));
+        assertTrue(plan.hasSharedDataTypes());
+
+        Map<String, Integer> expectedUses = new HashMap<>();
+        expectedUses.put("Encounter", 2);
+        expectedUses.put("Claim", 2);
+        assertEquals(expectedUses, plan.getSharedDataTypeUses());
+
+        assertEquals(new HashSet<>(Arrays.asList("Encounter", "Claim")), plan.getSharedDataTypes("Patient"));
+        assertEquals(Collections.singleton("Encounter"), plan.getSharedDataTypes("Encounter"));
+        assertEquals(Collections.singleton("Claim"), plan.getSharedDataTypes("Claim"));
+        assertEquals(Collections.emptySet(), plan.getSharedDataTypes("Unknown"));
+    }
+
+    @Test
+    public void testNoSharedDataTypes() {
+        ContextDefinition patient = context("Patient", "Patient", oneToMany("Encounter"));
+        ContextDefinition claim = context("Claim", "Claim", oneToMany("ClaimLine"));
+
+        SharedDatasetPlan plan = new SharedDatasetPlan(Arrays.asList(patient, claim));
+        assertFalse(plan.hasSharedDataTypes());
+        assertTrue(plan.getSharedDataTypeUses().isEmpty());
+        assertTrue(plan.getSharedDataTypes("Patient").isEmpty());
+    }
+
+    @Test
+    public void testGetDataTypesIncludesAssociation() {
+        ContextDefinition patient = context("Patient", "Patient", manyToMany("Claim", "PatientClaim"));
+        assertEquals(new HashSet<>(Arrays.asList("Patient", "Claim", "PatientClaim")), SharedDatasetPlan.getDataTypes(patient));
+    }
+
+    private ContextDefinition context(String name, String primaryDataType, Join... joins) {
+        ContextDefinition definition = new ContextDefinition();
+        definition.setName(name);
+        definition.setPrimaryDataType(primaryDataType);
+        definition.setPrimaryKeyColumn("id");
+        definition.setRelationships(Arrays.asList(joins));
+        return definition;
+    }
+
+    private Join oneToMany(String relatedDataType) {
+        OneToMany join = new OneToMany();
+        join.setRelatedDataType(relatedDataType);
+        join.setRelatedKeyColumn("id");
+        return join;
+    }
+
+    private Join manyToMany(String relatedDataType, String associationDataType) {
+        ManyToMany join = new ManyToMany();
+        join.setRelatedDataType(relatedDataType);
+        join.setRelatedKeyColumn("id");
+        join.setAssociationDataType(associationDataType);
+        join.setAssociationOneKeyColumn("one_id");
+        join.setAssociationManyKeyColumn("many_id");
+        return join;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SkewAwarePartitionerTest {
+
+    @Test
+    public void testHotKeysReceiveDedicatedPartitions() {
+        SkewAwarePartitioner partitioner = new SkewAwarePartitioner(4, Arrays.asList("hot1", "hot2"));
+
+        Assert.assertEquals(6, partitioner.numPartitions());
+        Assert.assertEquals(4, partitioner.getPartition("hot1"));
+        Assert.assertEquals(5, partitioner.getPartition("hot2"));
+    }
+
+    @Test
+    public void testOtherKeysAreHashPartitioned() {
+        SkewAwarePartitioner partitioner = new SkewAwarePartitioner(4, Collections.singletonList("hot"));
+
+        for (int i = -10; i <= 10; i++) {
+            int partition = partitioner.getPartition(i);
+            Assert.assertTrue(partition >= 0 && partition < 4);
+            Assert.assertEquals(Math.floorMod(i, 4), partition);
+        }
+        Assert.assertEquals(0, partitioner.getPartition(null));
+    }
+
+    @Test
+    public void testDuplicateHotKeys() {
+        SkewAwarePartitioner partitioner = new SkewAwarePartitioner(2, Arrays.asList("hot", "hot"));
+
+        Assert.assertEquals(3, partitioner.numPartitions());
+        Assert.assertEquals(1, partitioner.getHotPartitions());
+    }
+
+    @Test
+    public void testInvalidBasePartitions() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> new SkewAwarePartitioner(0, Collections.emptyList()));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.serializer.JavaSerializer;
+import org.apache.spark.serializer.SerializerInstance;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import scala.Tuple2;
+
+public class SortedContextIteratorTest {
+
+    private final SerializerInstance serializer = new JavaSerializer(new SparkConf()).newInstance();
+
+    @Test
+    public void testContiguousRowsAreGrouped() {
+        List<Tuple2<Object, Row>> sortedRows = Arrays.asList(
+                new Tuple2<>(1, RowFactory.create(1, "a")),
+                new Tuple2<>(1, RowFactory.create(1, "b")),
+                new Tuple2<>(2, RowFactory.create(2, "c")),
+                new Tuple2<>(3, RowFactory.create(3, "d")),
+                new Tuple2<>(3, RowFactory.create(3, "e")),
+                new Tuple2<>(3, RowFactory.create(3, "f"))
+        );
+
+        SortedContextIterator iterator = new SortedContextIterator(sortedRows.iterator(), () -> new SpillableRowBuffer(2, serializer, null));
+
+        List<Object> keys = new ArrayList<>();
+        List<List<Row>> groups = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Tuple2<Object, Iterable<Row>> next = iterator.next();
+            keys.add(next._1());
+
+            List<Row> rows = new ArrayList<>();
+            next._2().forEach(rows::add);
+            groups.add(rows);
+        }
+
+        Assert.assertEquals(Arrays.asList(1, 2, 3), keys);
+        Assert.assertEquals(Arrays.asList(RowFactory.create(1, "a"), RowFactory.create(1, "b")), groups.get(0));
+        Assert.assertEquals(Collections.singletonList(RowFactory.create(2, "c")), groups.get(1));
+        Assert.assertEquals(Arrays.asList(RowFactory.create(3, "d"), RowFactory.create(3, "e"), RowFactory.create(3, "f")), groups.get(2));
+    }
+
+    @Test
+    public void testPreviousBufferClosedOnNext() {
+        List<Tuple2<Object, Row>> sortedRows = Arrays.asList(
+                new Tuple2<>("a", RowFactory.create("a")),
+                new Tuple2<>("b", RowFactory.create("b"))
+        );
+
+        SortedContextIterator iterator = new SortedContextIterator(sortedRows.iterator(), () -> new SpillableRowBuffer(10, serializer, null));
+
+        SpillableRowBuffer first = (SpillableRowBuffer) iterator.next()._2();
+        Assert.assertEquals(1, first.size());
+
+        iterator.next();
+        Assert.assertEquals(0, first.size());
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testCloseReleasesCurrentBuffer() {
+        List<Tuple2<Object, Row>> sortedRows = Arrays.asList(
+                new Tuple2<>("a", RowFactory.create("a")),
+                new Tuple2<>("b", RowFactory.create("b"))
+        );
+
+        SortedContextIterator iterator = new SortedContextIterator(sortedRows.iterator(), () -> new SpillableRowBuffer(10, serializer, null));
+
+        SpillableRowBuffer first = (SpillableRowBuffer) iterator.next()._2();
+        Assert.assertEquals(1, first.size());
+
+        iterator.close();
+        Assert.assertEquals(0, first.size());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testEmptyInput() {
+        SortedContextIterator iterator = new SortedContextIterator(Collections.<Tuple2<Object, Row>>emptyIterator(), () -> new SpillableRowBuffer(10, serializer, null));
+        Assert.assertFalse(iterator.hasNext());
+        iterator.next();
+    }
+}
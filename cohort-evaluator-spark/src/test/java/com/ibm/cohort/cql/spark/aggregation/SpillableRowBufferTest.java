@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.serializer.JavaSerializer;
+import org.apache.spark.serializer.SerializerInstance;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpillableRowBufferTest {
+
+    private final SerializerInstance serializer = new JavaSerializer(new SparkConf()).newInstance();
+
+    @Test
+    public void testRowsBelowThresholdStayInMemory() {
+        try (SpillableRowBuffer buffer = new SpillableRowBuffer(10, serializer, null)) {
+            buffer.add(RowFactory.create(1, "a"));
+            buffer.add(RowFactory.create(2, "b"));
+
+            Assert.assertFalse(buffer.isSpilled());
+            Assert.assertEquals(2, buffer.size());
+            Assert.assertEquals(Arrays.asList(RowFactory.create(1, "a"), RowFactory.create(2, "b")), toList(buffer));
+        }
+    }
+
+    @Test
+    public void testRowsAboveThresholdAreSpilled() {
+        try (SpillableRowBuffer buffer = new SpillableRowBuffer(2, serializer, null)) {
+            List<Row> expected = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                Row row = RowFactory.create(i, "row" + i);
+                expected.add(row);
+                buffer.add(row);
+            }
+
+            Assert.assertTrue(buffer.isSpilled());
+            Assert.assertEquals(5, buffer.size());
+
+            // the buffer can be iterated more than once
+            Assert.assertEquals(expected, toList(buffer));
+            Assert.assertEquals(expected, toList(buffer));
+        }
+    }
+
+    @Test
+    public void testCloseReleasesRows() {
+        SpillableRowBuffer buffer = new SpillableRowBuffer(1, serializer, null);
+        buffer.add(RowFactory.create(1));
+        buffer.add(RowFactory.create(2));
+        buffer.close();
+
+        Assert.assertFalse(buffer.isSpilled());
+        Assert.assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testExhaustedReadersAreClosed() {
+        try (SpillableRowBuffer buffer = new SpillableRowBuffer(1, serializer, null)) {
+            buffer.add(RowFactory.create(1));
+            buffer.add(RowFactory.create(2));
+            buffer.add(RowFactory.create(3));
+
+            Iterator<Row> partial = buffer.iterator();
+            partial.next();
+            Assert.assertEquals(1, buffer.getOpenReaderCount());
+
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(3, toList(buffer).size());
+            }
+            Assert.assertEquals(1, buffer.getOpenReaderCount());
+        }
+    }
+
+    @Test
+    public void testSpillFileIsRemovedOnClose() throws IOException {
+        File spillDirectory = Files.createTempDirectory("spill-test").toFile();
+        try {
+            SpillableRowBuffer buffer = new SpillableRowBuffer(1, serializer, spillDirectory);
+            buffer.add(RowFactory.create(1));
+            buffer.add(RowFactory.create(2));
+            Assert.assertEquals(1, spillDirectory.list().length);
+
+            buffer.close();
+            Assert.assertEquals(0, spillDirectory.list().length);
+        } finally {
+            spillDirectory.delete();
+        }
+    }
+
+    private List<Row> toList(Iterable<Row> rows) {
+        List<Row> list = new ArrayList<>();
+        rows.forEach(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.aggregation;
+
+import static org.mockito.Mockito.mock;
+
+import java.lang.ref.WeakReference;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.serializer.JavaSerializer;
+import org.apache.spark.serializer.SerializerInstance;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+
+import com.ibm.cohort.cql.spark.data.SparkDataRow;
+import com.ibm.cohort.cql.spark.data.SparkTypeConverter;
+import com.ibm.cohort.datarow.engine.DataRowRetrieveProvider;
+import com.ibm.cohort.datarow.model.DataRow;
+
+public class SpilledDataTypeRowsTest {
+
+    private static final String CONDITION = "Condition";
+    private static final String ENCOUNTER = "Encounter";
+    private static final int ROW_COUNT = 20000;
+    private static final int CODE_COUNT = 100;
+    private static final LocalDate START_DATE = LocalDate.of(2000, 1, 1);
+
+    private static final StructType SCHEMA = new StructType()
+            .add(ContextRetriever.SOURCE_FACT_IDX, DataTypes.StringType)
+            .add("id", DataTypes.IntegerType)
+            .add("code", DataTypes.StringType)
+            .add("onset", DataTypes.DateType);
+
+    private final SerializerInstance serializer = new JavaSerializer(new SparkConf()).newInstance();
+    private final SparkTypeConverter typeConverter = new SparkTypeConverter(false);
+
+    private final List<WeakReference<DataRow>> converted = new ArrayList<>();
+    private final Function<Row, DataRow> dataRowFactory = row -> {
+        DataRow result = new SparkDataRow(typeConverter, row);
+        converted.add(new WeakReference<>(result));
+        return result;
+    };
+
+    @Test
+    public void testDataTypesAreRecordedWithoutConversion() {
+        try (SpillableRowBuffer buffer = newSpilledBuffer()) {
+            Map<String, Integer> expected = new HashMap<>();
+            expected.put(CONDITION, ROW_COUNT / 2);
+            expected.put(ENCOUNTER, ROW_COUNT / 2);
+            Assert.assertEquals(expected, buffer.getDataTypeCounts());
+
+            SpilledDataTypeRows conditions = new SpilledDataTypeRows(buffer, CONDITION, dataRowFactory);
+            Assert.assertEquals(0, converted.size());
+
+            int count = 0;
+            for (Object obj : conditions) {
+                Assert.assertEquals(CONDITION, ((DataRow) obj).getValue(ContextRetriever.SOURCE_FACT_IDX));
+                count++;
+            }
+            Assert.assertEquals(ROW_COUNT / 2, count);
+            Assert.assertEquals(ROW_COUNT / 2, converted.size());
+            Assert.assertEquals(0, buffer.getOpenReaderCount());
+        }
+    }
+
+    @Test
+    public void testSelectPositions() {
+        try (SpillableRowBuffer buffer = newSpilledBuffer()) {
+            SpilledDataTypeRows encounters = new SpilledDataTypeRows(buffer, ENCOUNTER, dataRowFactory);
+
+            Assert.assertEquals(Arrays.asList(1, 1, 5, 9999), ids(encounters.select(new int[] { 0, 0, 2, 4999 })));
+            Assert.assertEquals(Collections.emptyList(), ids(encounters.select(new int[0])));
+            Assert.assertEquals(4, converted.size());
+
+            // reading stops after the last position, which closes the reader
+            Assert.assertEquals(Arrays.asList(3), ids(encounters.select(new int[] { 1 })));
+            Assert.assertEquals(0, buffer.getOpenReaderCount());
+        }
+    }
+
+    @Test
+    public void testFilteredRetrieveOfSpilledContextDoesNotKeepRows() {
+        try (SpillableRowBuffer buffer = newSpilledBuffer()) {
+            Map<String, Iterable<Object>> data = new HashMap<>();
+            for (String dataType : buffer.getDataTypeCounts().keySet()) {
+                data.put(dataType, new SpilledDataTypeRows(buffer, dataType, dataRowFactory));
+            }
+            DataRowRetrieveProvider retrieveProvider = new DataRowRetrieveProvider(data, mock(TerminologyProvider.class));
+
+            Interval dateRange = new Interval(new Date(START_DATE), true, new Date(START_DATE.plusDays(ROW_COUNT / 2 - 1)), true);
+            List<Integer> ids = ids(retrieveProvider.retrieve("Patient", "id", null, CONDITION, null, "code",
+                    Arrays.asList(new Code().withCode("c7")), null, "onset", null, null, dateRange));
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < ROW_COUNT; i += 2) {
+                if ((i / 2) % CODE_COUNT == 7) {
+                    expected.add(i);
+                }
+            }
+            Assert.assertEquals(expected, ids);
+            // the indexes are built with one conversion of each condition
+            Assert.assertEquals(ROW_COUNT / 2 + expected.size(), converted.size());
+
+            // the indexes are reused and only the matching rows are converted
+            converted.clear();
+            dateRange = new Interval(new Date(START_DATE), true, new Date(START_DATE.plusDays(299)), true);
+            ids = ids(retrieveProvider.retrieve("Patient", "id", null, CONDITION, null, "code",
+                    Arrays.asList(new Code().withCode("c3"), new Code().withCode("c4")), null, "onset", null, null, dateRange));
+            Assert.assertEquals(Arrays.asList(6, 8, 206, 208, 406, 408), ids);
+            Assert.assertEquals(ids.size(), converted.size());
+            Assert.assertEquals(0, buffer.getOpenReaderCount());
+
+            // neither the retrieve provider nor the buffer hold on to the converted rows
+            Assert.assertEquals(0, reachableRows());
+        }
+    }
+
+    private SpillableRowBuffer newSpilledBuffer() {
+        SpillableRowBuffer buffer = new SpillableRowBuffer(1, serializer, null);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            boolean isCondition = i % 2 == 0;
+            buffer.add(new GenericRowWithSchema(new Object[] {
+                    isCondition ? CONDITION : ENCOUNTER,
+                    i,
+                    "c" + ((i / 2) % CODE_COUNT),
+                    java.sql.Date.valueOf(START_DATE.plusDays(i / 2))
+            }, SCHEMA));
+        }
+        Assert.assertTrue(buffer.isSpilled());
+        return buffer;
+    }
+
+    private List<Integer> ids(Iterable<Object> rows) {
+        List<Integer> ids = new ArrayList<>();
+        for (Object obj : rows) {
+            ids.add((Integer) ((DataRow) obj).getValue("id"));
+        }
+        return ids;
+    }
+
+    private int reachableRows() {
+        int reachable = converted.size();
+        for (int attempt = 0; attempt < 10 && reachable > 0; attempt++) {
+            System.gc();
+            reachable = (int) converted.stream().filter(ref -> ref.get() != null).count();
+        }
+        return reachable;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.functions;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+
+public class CodeFilteredDatasetRetrieverTest extends BaseSparkTest {
+    private static final long serialVersionUID = 1L;
+    private SparkSession spark;
+    private DefaultDatasetRetriever defaultRetriever;
+    private String path;
+
+    @Before
+    public void setUp() {
+        this.spark = initializeSession(Java8API.ENABLED);
+        this.defaultRetriever = new DefaultDatasetRetriever(spark, "parquet");
+        this.path = new File("src/test/resources/alltypes/testdata/test-A.parquet").toURI().toString();
+    }
+
+    @Test
+    public void testCodeFiltering() {
+        Set<String> codes = new HashSet<>(Arrays.asList("cd1", "cdA"));
+        
+        Dataset<Row> baseline = defaultRetriever.readDataset("A", path);
+        long expectedCount = baseline.filter(functions.col("code_col").isin(codes.toArray())).count();
+        assertTrue( expectedCount > 0 );
+        assertTrue( expectedCount < baseline.count() );
+        
+        CodeFilteredDatasetRetriever retriever = new CodeFilteredDatasetRetriever(defaultRetriever,
+                Collections.singletonMap("A", Collections.singletonMap("code_col", codes)));
+        Dataset<Row> filtered = retriever.readDataset("A", path);
+        
+        assertEquals( expectedCount, filtered.count() );
+        for( Row row : filtered.collectAsList() ) {
+            assertTrue( codes.contains(row.getAs("code_col")) );
+        }
+    }
+    
+    @Test
+    public void testCodeFilteringMultiplePathsAreCombinedWithOr() {
+        Dataset<Row> baseline = defaultRetriever.readDataset("A", path);
+        long expectedCount = baseline.filter(functions.col("code_col").isin("cd1").or(functions.col("code_col2").isin("cd2"))).count();
+        
+        Map<String,Set<String>> codesByPath = new HashMap<>();
+        codesByPath.put("code_col", Collections.singleton("cd1"));
+        codesByPath.put("code_col2", Collections.singleton("cd2"));
+        
+        CodeFilteredDatasetRetriever retriever = new CodeFilteredDatasetRetriever(defaultRetriever, Collections.singletonMap("A", codesByPath));
+        assertEquals( expectedCount, retriever.readDataset("A", path).count() );
+    }
+    
+    @Test
+    public void testCodeFilteringLargeCodeSetUsesSemiJoin() {
+        Set<String> codes = new HashSet<>(Arrays.asList("cd1", "cdA"));
+        for( int i = 0; i < CodeFilteredDatasetRetriever.MAX_IN_LIST_CODES; i++ ) {
+            codes.add("unused-" + i);
+        }
+        
+        Dataset<Row> baseline = defaultRetriever.readDataset("A", path);
+        long expectedCount = baseline.filter(functions.col("code_col").isin("cd1", "cdA")).count();
+        
+        CodeFilteredDatasetRetriever retriever = new CodeFilteredDatasetRetriever(defaultRetriever,
+                Collections.singletonMap("A", Collections.singletonMap("code_col", codes)));
+        Dataset<Row> filtered = retriever.readDataset("A", path);
+        
+        assertEquals( expectedCount, filtered.count() );
+        assertEquals( Arrays.asList(baseline.schema().fieldNames()), Arrays.asList(filtered.schema().fieldNames()) );
+    }
+    
+    @Test
+    public void testUnfilteredDataTypeIsUnchanged() {
+        CodeFilteredDatasetRetriever retriever = new CodeFilteredDatasetRetriever(defaultRetriever,
+                Collections.singletonMap("B", Collections.singletonMap("code_col", Collections.singleton("cd1"))));
+        
+        assertEquals( defaultRetriever.readDataset("A", path).count(), retriever.readDataset("A", path).count() );
+    }
+    
+    @Test
+    public void testMissingCodeColumnDisablesFiltering() {
+        CodeFilteredDatasetRetriever retriever = new CodeFilteredDatasetRetriever(defaultRetriever,
+                Collections.singletonMap("A", Collections.singletonMap("not_a_column", Collections.singleton("cd1"))));
+        
+        List<Row> expected = defaultRetriever.readDataset("A", path).collectAsList();
+        assertEquals( expected.size(), retriever.readDataset("A", path).count() );
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+
+public class CsvRowReaderTest extends BaseSparkTest {
+    private static final long serialVersionUID = 1L;
+
+    private static final StructType MODEL_SCHEMA = new StructType()
+            .add("id", DataTypes.StringType)
+            .add("boolean_col", DataTypes.BooleanType)
+            .add("integer_col", DataTypes.IntegerType)
+            .add("decimal_col", DataTypes.createDecimalType(28, 8))
+            .add("date_col", DataTypes.DateType)
+            .add("timestamp_col", DataTypes.TimestampType)
+            .add("missing_col", DataTypes.StringType);
+
+    private SparkSession spark;
+    private File outputDir;
+
+    @Before
+    public void setUp() throws Exception {
+        this.spark = initializeSession(Java8API.DISABLED);
+        this.outputDir = new File("target/output/csv-row-reader/");
+        FileUtils.deleteDirectory(outputDir);
+    }
+
+    @Test
+    public void testColumnsAreTypedWithSchema() throws Exception {
+        File file = new File(outputDir, "part-00000.csv");
+        FileUtils.write(file, String.join("\n",
+                "id,boolean_col,integer_col,decimal_col,date_col,timestamp_col,extra_col",
+                "1,true,2,12.5,2021-03-04,2021-03-04T05:06:07.123Z,\"a, b\"",
+                "2,false,-2,-0.01,1969-12-31,1969-12-31 23:59:59.5,",
+                "3,,,,,,"), StandardCharsets.UTF_8);
+
+        String path = outputDir.toURI().toString();
+        CsvRowReader reader = new CsvRowReader(new Configuration(), null, Collections.singletonMap(path, MODEL_SCHEMA));
+
+        StructType schema = reader.readSchema(path);
+        StructType expectedSchema = new StructType()
+                .add("id", DataTypes.StringType)
+                .add("boolean_col", DataTypes.BooleanType)
+                .add("integer_col", DataTypes.IntegerType)
+                .add("decimal_col", DataTypes.createDecimalType(28, 8))
+                .add("date_col", DataTypes.DateType)
+                .add("timestamp_col", DataTypes.TimestampType)
+                .add("extra_col", DataTypes.StringType);
+        assertEquals(expectedSchema, schema);
+
+        List<Row> expected = Arrays.asList(
+                row(schema, "1", true, 2, new BigDecimal("12.5"), Date.valueOf("2021-03-04"),
+                        Timestamp.from(Instant.parse("2021-03-04T05:06:07.123Z")), "a, b"),
+                row(schema, "2", false, -2, new BigDecimal("-0.01"), Date.valueOf("1969-12-31"),
+                        Timestamp.valueOf("1969-12-31 23:59:59.5"), null),
+                row(schema, "3", null, null, null, null, null, null));
+        assertEquals(expected, reader.read(path, schema));
+
+        StructType projection = new StructType()
+                .add("id", DataTypes.StringType)
+                .add("missing_col", DataTypes.StringType);
+        assertEquals(Arrays.asList(row(projection, "1", null), row(projection, "2", null), row(projection, "3", null)),
+                reader.read(path, projection));
+    }
+
+    @Test
+    public void testUntypedPathIsReadAsStrings() throws Exception {
+        File file = new File(outputDir, "part-00000.csv");
+        FileUtils.write(file, "id,integer_col\n1,2\n", StandardCharsets.UTF_8);
+
+        String path = outputDir.toURI().toString();
+        CsvRowReader reader = new CsvRowReader(new Configuration(), null, null);
+
+        StructType schema = reader.readSchema(path);
+        assertEquals(new StructType().add("id", DataTypes.StringType).add("integer_col", DataTypes.StringType), schema);
+        assertEquals(Arrays.asList(row(schema, "1", "2")), reader.read(path, schema));
+    }
+
+    @Test
+    public void testReaderMatchesSparkWrittenFile() throws Exception {
+        String parquetPath = new File("src/test/resources/alltypes/testdata/test-D.parquet").toURI().toString();
+        String csvPath = new File(outputDir, "test-D").toURI().toString();
+        spark.read().parquet(parquetPath).write().option("header", "true").csv(csvPath);
+
+        StructType parquetSchema = new ParquetRowReader(new Configuration(), null).readSchema(parquetPath);
+        CsvRowReader reader = new CsvRowReader(new Configuration(), null, Collections.singletonMap(csvPath, parquetSchema));
+        StructType schema = reader.readSchema(csvPath);
+        assertEquals(parquetSchema, schema);
+
+        List<Row> expected = spark.read().parquet(parquetPath).orderBy("id").collectAsList();
+        List<Row> actual = spark.createDataFrame(reader.read(csvPath, schema), schema).orderBy("id").collectAsList();
+        assertEquals(expected, actual);
+    }
+
+    private Row row(StructType schema, Object... values) {
+        return new GenericRowWithSchema(values, schema);
+    }
+}
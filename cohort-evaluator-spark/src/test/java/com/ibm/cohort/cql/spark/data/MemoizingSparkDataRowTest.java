@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.Metadata;
+import org.apache.spark.sql.types.MetadataBuilder;
+import org.junit.Test;
+import org.opencds.cqf.cql.engine.runtime.Code;
+
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+import com.ibm.cohort.datarow.model.ConversionCounter;
+
+public class MemoizingSparkDataRowTest extends BaseSparkTest {
+    private static final long serialVersionUID = 1L;
+
+    @Test
+    public void testValuesConvertedOnce() {
+        Java8API useJava8API = Java8API.ENABLED;
+        SparkSession session = initializeSession(useJava8API);
+
+        Metadata codeMetadata = new MetadataBuilder()
+                .putBoolean(MetadataUtils.IS_CODE_COL, Boolean.TRUE)
+                .putString(MetadataUtils.SYSTEM_COL, "system")
+                .build();
+
+        List<CodeWithMetadataPOJO> data = new ArrayList<>();
+        data.add(new CodeWithMetadataPOJO("123", "http://snomed.info/sct", null));
+
+        Dataset<Row> df = session.createDataFrame(data, CodeWithMetadataPOJO.class);
+        df = df.withColumn("code", df.col("codeStr"), codeMetadata);
+
+        SparkSchemaAccessor accessor = new SparkSchemaAccessor(new SparkTypeConverter(useJava8API.getValue()), df.schema());
+        ConversionCounter counter = new ConversionCounter();
+        MemoizingSparkDataRow row = new MemoizingSparkDataRow(accessor, df.head(), counter);
+
+        Code code = (Code) row.getValue("code");
+        assertEquals("123", code.getCode());
+        assertEquals("http://snomed.info/sct", code.getSystem());
+        assertSame(code, row.getValue("code"));
+        assertSame(code, row.getValue("code"));
+
+        assertNull(row.getValue("display"));
+        assertNull(row.getValue("display"));
+
+        assertEquals(2, counter.getConversions());
+        assertEquals(3, counter.getReuses());
+
+        assertThrows(IllegalArgumentException.class, () -> row.getValue("unknown"));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+
+public class ParquetRowWriteSupportTest extends BaseSparkTest {
+    private static final long serialVersionUID = 1L;
+
+    private static final StructType SCHEMA = new StructType()
+            .add("id", DataTypes.StringType, false)
+            .add("boolean_col", DataTypes.BooleanType)
+            .add("short_col", DataTypes.ShortType)
+            .add("integer_col", DataTypes.IntegerType)
+            .add("long_col", DataTypes.LongType)
+            .add("double_col", DataTypes.DoubleType)
+            .add("small_decimal_col", DataTypes.createDecimalType(9, 2))
+            .add("decimal_col", DataTypes.createDecimalType(18, 4))
+            .add("large_decimal_col", DataTypes.createDecimalType(28, 8))
+            .add("date_col", DataTypes.DateType)
+            .add("timestamp_col", DataTypes.TimestampType);
+
+    private SparkSession spark;
+    private File outputDir;
+
+    @Before
+    public void setUp() throws Exception {
+        this.spark = initializeSession(Java8API.DISABLED);
+        this.outputDir = new File("target/output/parquet-row-write-support/");
+        FileUtils.deleteDirectory(outputDir);
+    }
+
+    @Test
+    public void testRowsRoundTripThroughReaderAndSpark() throws Exception {
+        List<Row> rows = Arrays.asList(
+                row("1", true, (short) 1, 2, 3L, 4.5, new BigDecimal("123.45"), new BigDecimal("-12345.6789"),
+                        new BigDecimal("-12345678901234567890.12345678"), Date.valueOf("2021-03-04"),
+                        Timestamp.valueOf("2021-03-04 05:06:07.123456")),
+                row("2", false, (short) -1, -2, -3L, -4.5, new BigDecimal("-0.01"), new BigDecimal("0.0001"),
+                        new BigDecimal("0.00000001"), Date.valueOf("1969-12-31"),
+                        Timestamp.valueOf("1969-12-31 23:59:59.999999")),
+                row("3", null, null, null, null, null, null, null, null, null, null)
+        );
+
+        File file = new File(outputDir, "part-00000.parquet");
+        try (ParquetWriter<Row> writer = ParquetRowWriteSupport.builder(new Path(file.toURI()), SCHEMA).build()) {
+            for (Row row : rows) {
+                writer.write(row);
+            }
+        }
+
+        ParquetRowReader reader = new ParquetRowReader(new Configuration(), null);
+        assertEquals(SCHEMA, reader.readSchema(outputDir.toURI().toString()));
+        assertEquals(rows, reader.read(outputDir.toURI().toString(), SCHEMA));
+
+        assertEquals(rows, spark.read().parquet(outputDir.toURI().toString()).orderBy("id").collectAsList());
+    }
+
+    @Test
+    public void testReaderMatchesSparkForSparkWrittenFile() throws Exception {
+        String path = new File("src/test/resources/alltypes/testdata/test-A.parquet").toURI().toString();
+
+        ParquetRowReader reader = new ParquetRowReader(new Configuration(), null);
+        StructType schema = reader.readSchema(path);
+        List<Row> expected = spark.read().parquet(path).collectAsList();
+
+        assertEquals(expected.get(0).schema().fieldNames().length, schema.fieldNames().length);
+        assertEquals(expected, reader.read(path, schema));
+    }
+
+    private Row row(Object... values) {
+        return new GenericRowWithSchema(values, SCHEMA);
+    }
+}
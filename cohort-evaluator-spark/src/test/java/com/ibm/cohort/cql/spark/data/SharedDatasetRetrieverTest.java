@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+
+public class SharedDatasetRetrieverTest extends BaseSparkTest {
+    private static final long serialVersionUID = 1L;
+    private SparkSession spark;
+    private String pathA;
+    private String pathB;
+
+    @Before
+    public void setUp() {
+        this.spark = initializeSession(Java8API.ENABLED);
+        this.pathA = new File("src/test/resources/alltypes/testdata/test-A.parquet").toURI().toString();
+        this.pathB = new File("src/test/resources/alltypes/testdata/test-B.parquet").toURI().toString();
+    }
+
+    @Test
+    public void testSharedDatasetIsReadOnceAndReleasedAfterLastUse() {
+        SharedDatasetRetriever retriever = new SharedDatasetRetriever(new DefaultDatasetRetriever(spark, "parquet"),
+                Collections.singletonMap("A", 2), StorageLevel.MEMORY_ONLY());
+
+        assertFalse(retriever.isPersisted("A"));
+        Dataset<Row> first = retriever.readDataset("A", pathA);
+        assertTrue(retriever.isPersisted("A"));
+        assertEquals(StorageLevel.MEMORY_ONLY(), first.storageLevel());
+
+        Dataset<Row> second = retriever.readDataset("A", pathA);
+        assertSame(first, second);
+
+        retriever.release(Collections.singleton("A"));
+        assertTrue(retriever.isPersisted("A"));
+
+        retriever.release(Collections.singleton("A"));
+        assertFalse(retriever.isPersisted("A"));
+        assertEquals(StorageLevel.NONE(), first.storageLevel());
+    }
+
+    @Test
+    public void testUnsharedDatasetIsNotPersisted() {
+        SharedDatasetRetriever retriever = new SharedDatasetRetriever(new DefaultDatasetRetriever(spark, "parquet"),
+                Collections.singletonMap("A", 2), StorageLevel.MEMORY_ONLY());
+
+        Dataset<Row> first = retriever.readDataset("B", pathB);
+        assertFalse(retriever.isPersisted("B"));
+        assertEquals(StorageLevel.NONE(), first.storageLevel());
+        assertNotSame(first, retriever.readDataset("B", pathB));
+    }
+
+    @Test
+    public void testReleaseAll() {
+        SharedDatasetRetriever retriever = new SharedDatasetRetriever(new DefaultDatasetRetriever(spark, "parquet"),
+                Collections.singletonMap("A", 2), StorageLevel.MEMORY_AND_DISK());
+
+        Dataset<Row> dataset = retriever.readDataset("A", pathA);
+        retriever.releaseAll();
+        assertFalse(retriever.isPersisted("A"));
+        assertEquals(StorageLevel.NONE(), dataset.storageLevel());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Test;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+
+import com.ibm.cohort.datarow.exception.UnsupportedConversionException;
+
+public class SparkOutputConverterTest {
+    private static final StructType SCHEMA = new StructType()
+            .add("string", DataTypes.StringType)
+            .add("integer", DataTypes.IntegerType)
+            .add("long", DataTypes.LongType)
+            .add("boolean", DataTypes.BooleanType)
+            .add("decimal", DataTypes.createDecimalType(28, 8))
+            .add("date", DataTypes.DateType)
+            .add("datetime", DataTypes.TimestampType)
+            .add("binary", DataTypes.BinaryType);
+
+    @Test
+    public void testConvertMatchesGenericConversion() {
+        for (boolean useJava8API : new boolean[] { true, false }) {
+            SparkTypeConverter typeConverter = new SparkTypeConverter(useJava8API);
+            SparkOutputConverter converter = new SparkOutputConverter(typeConverter, SCHEMA);
+
+            Object[] values = new Object[] {
+                "text",
+                Integer.valueOf(10),
+                Long.valueOf(20),
+                Boolean.TRUE,
+                new BigDecimal("1.5"),
+                new Date(LocalDate.of(2021, 1, 2)),
+                new DateTime(OffsetDateTime.of(2021, 1, 2, 3, 4, 5, 0, ZoneOffset.UTC)),
+                "unexpected"
+            };
+
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(typeConverter.toSparkType(values[i]), converter.convert(i, values[i]));
+                assertNull(converter.convert(i, null));
+            }
+        }
+    }
+
+    @Test
+    public void testUnexpectedTypesUseGenericConversion() {
+        SparkTypeConverter typeConverter = new SparkTypeConverter(true);
+        SparkOutputConverter converter = new SparkOutputConverter(typeConverter, SCHEMA);
+
+        assertEquals(Integer.valueOf(5), converter.convert(0, Integer.valueOf(5)));
+        assertEquals(BigDecimal.valueOf(2.5), converter.convert(4, Double.valueOf(2.5)));
+        assertEquals(typeConverter.toSparkType(new Code().withCode("123")), converter.convert(1, new Code().withCode("123")));
+        assertThrows(UnsupportedConversionException.class, () -> converter.convert(2, new Object()));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.Metadata;
+import org.apache.spark.sql.types.MetadataBuilder;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Test;
+import org.opencds.cqf.cql.engine.runtime.Code;
+
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+
+public class SparkSchemaAccessorTest extends BaseSparkTest {
+    private static final long serialVersionUID = 1L;
+
+    @Test
+    public void testFieldIndexesAndNames() {
+        StructType schema = new StructType()
+                .add("id", DataTypes.StringType)
+                .add("count", DataTypes.IntegerType)
+                .add("flag", DataTypes.BooleanType);
+
+        SparkSchemaAccessor accessor = new SparkSchemaAccessor(new SparkTypeConverter(true), schema);
+
+        assertEquals(0, accessor.getField("id").getIndex());
+        assertEquals(1, accessor.getField("count").getIndex());
+        assertEquals(2, accessor.getField("flag").getIndex());
+        assertFalse(accessor.getField("id").isCode());
+
+        Set<String> names = accessor.getFieldNames();
+        assertEquals(Arrays.asList("id", "count", "flag"), new ArrayList<>(names));
+        assertSame(names, accessor.getFieldNames());
+        assertThrows(UnsupportedOperationException.class, () -> names.add("other"));
+
+        assertThrows(IllegalArgumentException.class, () -> accessor.getField("unknown"));
+    }
+
+    @Test
+    public void testCodeColumnResolvedOnce() {
+        Java8API useJava8API = Java8API.ENABLED;
+        SparkSession session = initializeSession(useJava8API);
+
+        Metadata codeMetadata = new MetadataBuilder()
+                .putBoolean(MetadataUtils.IS_CODE_COL, Boolean.TRUE)
+                .putString(MetadataUtils.SYSTEM_COL, "system")
+                .putString(MetadataUtils.DISPLAY_COL, "display")
+                .build();
+
+        List<CodeWithMetadataPOJO> data = new ArrayList<>();
+        data.add(new CodeWithMetadataPOJO("123", "http://snomed.info/sct", "First"));
+        data.add(new CodeWithMetadataPOJO("456", "http://loinc.org", "Second"));
+
+        Dataset<Row> df = session.createDataFrame(data, CodeWithMetadataPOJO.class);
+        df = df.withColumn("code", df.col("codeStr"), codeMetadata);
+
+        SparkSchemaAccessor accessor = new SparkSchemaAccessor(new SparkTypeConverter(useJava8API.getValue()), df.schema());
+        assertTrue(accessor.getField("code").isCode());
+
+        List<Row> rows = df.collectAsList();
+        for (int i = 0; i < rows.size(); i++) {
+            Code code = (Code) new SparkDataRow(accessor, rows.get(i)).getValue("code");
+            assertEquals(data.get(i).getCodeStr(), code.getCode());
+            assertEquals(data.get(i).getSystem(), code.getSystem());
+            assertEquals(data.get(i).getDisplay(), code.getDisplay());
+        }
+    }
+
+    @Test
+    public void testCacheReusesAccessorForEqualSchemas() {
+        SparkSchemaAccessorCache cache = new SparkSchemaAccessorCache(new SparkTypeConverter(true));
+
+        StructType first = new StructType().add("id", DataTypes.StringType);
+        StructType same = new StructType().add("id", DataTypes.StringType);
+        StructType other = new StructType().add("id", DataTypes.LongType);
+
+        SparkSchemaAccessor accessor = cache.getAccessor(first);
+        assertSame(accessor, cache.getAccessor(first));
+        assertSame(accessor, cache.getAccessor(same));
+        assertEquals(1, cache.size());
+
+        assertTrue(accessor != cache.getAccessor(other));
+        assertEquals(2, cache.size());
+        assertSame(accessor, cache.getAccessor(first));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequest;
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequests;
+import com.ibm.cohort.cql.evaluation.parameters.IntegerParameter;
+import com.ibm.cohort.cql.library.CqlLibraryDescriptor;
+import com.ibm.cohort.cql.spark.data.SparkOutputColumnEncoder;
+import com.ibm.cohort.cql.spark.util.EncodedParametersCache;
+
+public class ContextEvaluationPlanTest {
+
+    private static final SparkOutputColumnEncoder ENCODER = (request, define) -> request.getDescriptor().getLibraryId() + "|" + define;
+
+    @Test
+    public void testPlanColumnsAndParameterGroups() {
+        CqlEvaluationRequest first = makeEvaluationRequest(1, "Patient", "Lib1", "A", 10);
+        CqlEvaluationRequest second = makeEvaluationRequest(2, "Patient", "Lib1", "B", 20);
+        CqlEvaluationRequest otherContext = makeEvaluationRequest(3, "Claim", "Lib1", "A", 10);
+
+        CqlEvaluationRequests requests = new CqlEvaluationRequests();
+        requests.setEvaluations(Arrays.asList(first, second, otherContext));
+
+        StructType schema = new StructType()
+                .add("id", DataTypes.StringType)
+                .add("parameters", DataTypes.StringType)
+                .add("Lib1|B", DataTypes.BooleanType)
+                .add("Lib1|A", DataTypes.BooleanType);
+
+        EncodedParametersCache cache = new EncodedParametersCache().setRowGroupingDisabled(false);
+        ContextEvaluationPlan plan = new ContextEvaluationPlan("Patient", schema, requests, ENCODER, cache);
+
+        assertEquals(2, plan.getRequestPlans().size());
+        assertEquals(2, plan.getParameterGroups().size());
+
+        ContextEvaluationPlan.RequestPlan firstPlan = plan.getRequestPlans().get(0);
+        assertEquals(0, firstPlan.getParameterGroup());
+        assertEquals(Integer.valueOf(3), firstPlan.getColumnIndex("A"));
+        assertNull(firstPlan.getColumnIndex("B"));
+
+        ContextEvaluationPlan.RequestPlan secondPlan = plan.getRequestPlans().get(1);
+        assertEquals(1, secondPlan.getParameterGroup());
+        assertEquals(Integer.valueOf(2), secondPlan.getColumnIndex("B"));
+
+        Object[][] rows = plan.newResultRows("123");
+        assertEquals(2, rows.length);
+        assertArrayEquals(new Object[] { "123", cache.getKeyParametersColumnData(first), null, null }, rows[0]);
+        assertArrayEquals(new Object[] { "123", cache.getKeyParametersColumnData(second), null, null }, rows[1]);
+    }
+
+    @Test
+    public void testFailedColumnIsNotAnOutputColumn() {
+        CqlEvaluationRequest request = makeEvaluationRequest(1, "Patient", "Lib1", ContextEvaluationPlan.FAILED_COLUMN, 10);
+
+        CqlEvaluationRequests requests = new CqlEvaluationRequests();
+        requests.setEvaluations(Arrays.asList(request));
+
+        StructType schema = new StructType()
+                .add("id", DataTypes.StringType)
+                .add("parameters", DataTypes.StringType);
+        ContextEvaluationPlan plan = new ContextEvaluationPlan("Patient", schema, requests, (r, define) -> define, new EncodedParametersCache());
+        assertEquals(-1, plan.getFailedColumnIndex());
+
+        plan = new ContextEvaluationPlan("Patient", ContextEvaluationPlan.withFailedColumn(schema), requests, (r, define) -> define, new EncodedParametersCache());
+        assertEquals(2, plan.getFailedColumnIndex());
+        assertNull(plan.getRequestPlans().get(0).getColumnIndex(ContextEvaluationPlan.FAILED_COLUMN));
+        assertEquals(3, plan.newResultRows("123")[0].length);
+    }
+
+    @Test
+    public void testEvaluationContextGroups() {
+        CqlEvaluationRequest first = makeEvaluationRequest(1, "Patient", "Lib1", "A", 10);
+        CqlEvaluationRequest differentParams = makeEvaluationRequest(2, "Patient", "Lib1", "A", 20);
+        CqlEvaluationRequest second = makeEvaluationRequest(3, "Patient", "Lib1", "B", 10);
+        CqlEvaluationRequest differentLibrary = makeEvaluationRequest(4, "Patient", "Lib2", "A", 10);
+
+        CqlEvaluationRequests requests = new CqlEvaluationRequests();
+        requests.setEvaluations(Arrays.asList(first, differentParams, second, differentLibrary));
+
+        StructType schema = new StructType()
+                .add("id", DataTypes.StringType)
+                .add("parameters", DataTypes.StringType);
+
+        ContextEvaluationPlan plan = new ContextEvaluationPlan("Patient", schema, requests, ENCODER, new EncodedParametersCache());
+
+        List<List<CqlEvaluationRequest>> groups = plan.getEvaluationContextGroups().stream()
+                .map(group -> group.stream().map(ContextEvaluationPlan.RequestPlan::getRequest).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        assertEquals(3, groups.size());
+        assertEquals(Arrays.asList(first, second), groups.get(0));
+        assertEquals(Collections.singletonList(differentParams), groups.get(1));
+        assertEquals(Collections.singletonList(differentLibrary), groups.get(2));
+
+        // row grouping is disabled, so everything lands in a single output row
+        assertEquals(1, plan.getParameterGroups().size());
+    }
+
+    private CqlEvaluationRequest makeEvaluationRequest(int id, String contextName, String libraryName, String expression, int parameterValue) {
+        CqlEvaluationRequest cqlEvaluationRequest = new CqlEvaluationRequest();
+        cqlEvaluationRequest.setId(id);
+        cqlEvaluationRequest.setContextKey(contextName);
+        cqlEvaluationRequest.setContextValue("NA");
+
+        CqlLibraryDescriptor descriptor = new CqlLibraryDescriptor();
+        descriptor.setLibraryId(libraryName);
+        descriptor.setVersion("1.0.0");
+        cqlEvaluationRequest.setDescriptor(descriptor);
+
+        cqlEvaluationRequest.setExpressionsByNames(Collections.singleton(expression));
+        cqlEvaluationRequest.setParameters(Collections.singletonMap("P1", new IntegerParameter(parameterValue)));
+
+        return cqlEvaluationRequest;
+    }
+}
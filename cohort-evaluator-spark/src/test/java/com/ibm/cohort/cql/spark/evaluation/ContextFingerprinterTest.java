@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.junit.Test;
+
+public class ContextFingerprinterTest {
+
+    @Test
+    public void testFingerprintIgnoresRowOrder() {
+        Row first = RowFactory.create("A", 1, "x");
+        Row second = RowFactory.create("B", 2, null);
+
+        assertEquals(ContextFingerprinter.fingerprint(Arrays.asList(first, second)),
+                ContextFingerprinter.fingerprint(Arrays.asList(second, first)));
+    }
+
+    @Test
+    public void testFingerprintDetectsChanges() {
+        long base = ContextFingerprinter.fingerprint(Arrays.asList(RowFactory.create("A", 1, "x"), RowFactory.create("B", 2, null)));
+
+        // changed value
+        assertNotEquals(base, ContextFingerprinter.fingerprint(Arrays.asList(RowFactory.create("A", 1, "y"), RowFactory.create("B", 2, null))));
+        // null versus empty string
+        assertNotEquals(base, ContextFingerprinter.fingerprint(Arrays.asList(RowFactory.create("A", 1, "x"), RowFactory.create("B", 2, ""))));
+        // value moved between columns
+        assertNotEquals(ContextFingerprinter.fingerprint(RowFactory.create("ab", "c")), ContextFingerprinter.fingerprint(RowFactory.create("a", "bc")));
+        // duplicated row
+        assertNotEquals(base, ContextFingerprinter.fingerprint(Arrays.asList(RowFactory.create("A", 1, "x"), RowFactory.create("A", 1, "x"), RowFactory.create("B", 2, null))));
+        // removed row
+        assertNotEquals(base, ContextFingerprinter.fingerprint(Collections.singletonList(RowFactory.create("A", 1, "x"))));
+    }
+
+    @Test
+    public void testFingerprintOfBinaryValues() {
+        assertEquals(ContextFingerprinter.fingerprint(RowFactory.create((Object) new byte[] { 1, 2 })),
+                ContextFingerprinter.fingerprint(RowFactory.create((Object) new byte[] { 1, 2 })));
+        assertNotEquals(ContextFingerprinter.fingerprint(RowFactory.create((Object) new byte[] { 1, 2 })),
+                ContextFingerprinter.fingerprint(RowFactory.create((Object) new byte[] { 2, 1 })));
+    }
+
+    @Test
+    public void testJobFingerprint() {
+        String fingerprint = ContextFingerprinter.jobFingerprint(Arrays.asList("library v1", "{\"P1\":1}"));
+
+        assertEquals(64, fingerprint.length());
+        assertEquals(fingerprint, ContextFingerprinter.jobFingerprint(Arrays.asList("library v1", "{\"P1\":1}")));
+        assertNotEquals(fingerprint, ContextFingerprinter.jobFingerprint(Arrays.asList("library v2", "{\"P1\":1}")));
+        assertNotEquals(fingerprint, ContextFingerprinter.jobFingerprint(Arrays.asList("library v1", null)));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+
+import scala.Tuple2;
+
+public class IncrementalContextPlanTest extends BaseSparkTest {
+    private static final long serialVersionUID = 1L;
+    private static final StructType SCHEMA = IncrementalContextPlan.getFingerprintSchema(
+            DataTypes.createStructField("id", DataTypes.StringType, false));
+
+    private SparkSession spark;
+
+    @Before
+    public void setUp() {
+        this.spark = initializeSession(Java8API.ENABLED);
+    }
+
+    @Test
+    public void testChangedNewUnchangedAndRemovedContexts() {
+        Dataset<Row> previous = fingerprints(
+                RowFactory.create("unchanged", 1L, "job"),
+                RowFactory.create("changed", 2L, "job"),
+                RowFactory.create("removed", 3L, "job"));
+        Dataset<Row> current = fingerprints(
+                RowFactory.create("unchanged", 1L, "job"),
+                RowFactory.create("changed", 20L, "job"),
+                RowFactory.create("new", 4L, "job"));
+
+        IncrementalContextPlan plan = new IncrementalContextPlan(current, previous, "job");
+        assertFalse(plan.isFullRecompute());
+        assertEquals("id", plan.getKeyColumn());
+        assertEquals(new HashSet<>(Arrays.asList("changed", "new")), new HashSet<>(plan.collectChangedKeys()));
+        assertEquals(new HashSet<>(Arrays.asList("unchanged")), keys(plan.getUnchangedKeys()));
+        assertEquals(1, plan.getRemovedCount());
+
+        Dataset<Row> previousResults = spark.createDataFrame(Arrays.asList(
+                RowFactory.create("unchanged", true),
+                RowFactory.create("changed", false),
+                RowFactory.create("removed", true)),
+                new StructType().add("id", DataTypes.StringType).add("cohort", DataTypes.BooleanType));
+        assertEquals(new HashSet<>(Arrays.asList("unchanged")), keys(plan.selectCarriedForward(previousResults)));
+    }
+
+    @Test
+    public void testNoPreviousFingerprintsIsFullRecompute() {
+        Dataset<Row> current = fingerprints(
+                RowFactory.create("a", 1L, "job"),
+                RowFactory.create("b", 2L, "job"));
+
+        IncrementalContextPlan plan = new IncrementalContextPlan(current, null, "job");
+        assertTrue(plan.isFullRecompute());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(plan.collectChangedKeys()));
+        assertEquals(0, plan.getUnchangedKeys().count());
+        assertEquals(0, plan.getRemovedCount());
+    }
+
+    @Test
+    public void testChangedJobFingerprintIsFullRecompute() {
+        Dataset<Row> previous = fingerprints(
+                RowFactory.create("a", 1L, "old"));
+        Dataset<Row> current = fingerprints(
+                RowFactory.create("a", 1L, "new"));
+
+        IncrementalContextPlan plan = new IncrementalContextPlan(current, previous, "new");
+        assertTrue(plan.isFullRecompute());
+        assertEquals(Arrays.asList("a"), plan.collectChangedKeys());
+    }
+
+    @Test
+    public void testChangedKeyTypeIsFullRecompute() {
+        StructType intSchema = IncrementalContextPlan.getFingerprintSchema(
+                DataTypes.createStructField("id", DataTypes.IntegerType, false));
+        Dataset<Row> previous = spark.createDataFrame(Arrays.asList(RowFactory.create(1, 1L, "job")), intSchema);
+        Dataset<Row> current = fingerprints(RowFactory.create("1", 1L, "job"));
+
+        IncrementalContextPlan plan = new IncrementalContextPlan(current, previous, "job");
+        assertTrue(plan.isFullRecompute());
+    }
+
+    @Test
+    public void testFilterChanged() {
+        Dataset<Row> previous = fingerprints(
+                RowFactory.create("unchanged", 1L, "job"),
+                RowFactory.create("changed", 2L, "job"));
+        Dataset<Row> current = fingerprints(
+                RowFactory.create("unchanged", 1L, "job"),
+                RowFactory.create("changed", 20L, "job"),
+                RowFactory.create("new", 4L, "job"));
+        IncrementalContextPlan plan = new IncrementalContextPlan(current, previous, "job");
+
+        JavaSparkContext jsc = JavaSparkContext.fromSparkContext(spark.sparkContext());
+        JavaPairRDD<Object, Integer> rows = jsc.parallelizePairs(Arrays.asList(
+                new Tuple2<Object, Integer>("unchanged", 1),
+                new Tuple2<Object, Integer>("changed", 2),
+                new Tuple2<Object, Integer>("new", 3),
+                new Tuple2<Object, Integer>("changed", 4)), 2);
+
+        List<Tuple2<Object, Integer>> joined = plan.filterChanged(rows).collect();
+        assertEquals(new HashSet<>(Arrays.asList(
+                new Tuple2<Object, Integer>("changed", 2),
+                new Tuple2<Object, Integer>("new", 3),
+                new Tuple2<Object, Integer>("changed", 4))), new HashSet<>(joined));
+        assertEquals(3, joined.size());
+
+        // Partitioned input is filtered in place and keeps the order of its rows
+        JavaPairRDD<Object, Integer> partitioned = rows.partitionBy(new HashPartitioner(3));
+        List<List<Tuple2<Object, Integer>>> expected = partitioned.glom().collect().stream()
+                .map(partition -> partition.stream().filter(row -> !row._1().equals("unchanged")).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        assertEquals(expected, plan.filterChanged(partitioned).glom().collect());
+    }
+
+    @Test
+    public void testFilterChangedFullRecomputeReturnsInput() {
+        IncrementalContextPlan plan = new IncrementalContextPlan(fingerprints(RowFactory.create("a", 1L, "job")), null, "job");
+
+        JavaPairRDD<Object, Integer> rows = JavaSparkContext.fromSparkContext(spark.sparkContext())
+                .parallelizePairs(Arrays.asList(new Tuple2<Object, Integer>("a", 1)));
+        assertTrue(rows == plan.filterChanged(rows));
+    }
+
+    private Dataset<Row> fingerprints(Row... rows) {
+        return spark.createDataFrame(Arrays.asList(rows), SCHEMA);
+    }
+
+    private Set<Object> keys(Dataset<Row> dataset) {
+        List<Row> rows = dataset.collectAsList();
+        return rows.stream().map(row -> row.get(0)).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.evaluation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedObjectRegistryTest {
+
+    @Before
+    @After
+    public void clear() {
+        SharedObjectRegistry.clear();
+    }
+
+    @Test
+    public void testKeyDependsOnConfiguration() {
+        String key = SharedObjectRegistry.getKey("Provider", "path", Arrays.asList("a", "b"), true);
+        assertEquals(key, SharedObjectRegistry.getKey("Provider", "path", Arrays.asList("a", "b"), true));
+        assertNotEquals(key, SharedObjectRegistry.getKey("Provider", "path", Arrays.asList("a", "b"), false));
+        assertNotEquals(key, SharedObjectRegistry.getKey("Provider", "other", Arrays.asList("a", "b"), true));
+        assertNotEquals(key, SharedObjectRegistry.getKey("Other", "path", Arrays.asList("a", "b"), true));
+        assertNotEquals(SharedObjectRegistry.getKey("Provider", null, "a"), SharedObjectRegistry.getKey("Provider", "a", null));
+    }
+
+    @Test
+    public void testConcurrentRequestsCreateOnce() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Object>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                tasks.add(() -> {
+                    start.await();
+                    return SharedObjectRegistry.get("key", () -> {
+                        created.incrementAndGet();
+                        Thread.sleep(50);
+                        return new Object();
+                    });
+                });
+            }
+
+            List<Future<Object>> futures = new ArrayList<>();
+            for (Callable<Object> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+
+            Object expected = futures.get(0).get();
+            for (Future<Object> future : futures) {
+                assertSame(expected, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, created.get());
+        assertEquals(1, SharedObjectRegistry.size());
+    }
+
+    @Test
+    public void testFailedCreationIsRetried() throws Exception {
+        assertThrows(IOException.class, () -> SharedObjectRegistry.get("key", () -> {
+            throw new IOException("Failed");
+        }));
+        assertEquals(0, SharedObjectRegistry.size());
+
+        assertEquals("value", SharedObjectRegistry.get("key", () -> "value"));
+        assertEquals("value", SharedObjectRegistry.get("key", () -> "other"));
+        assertEquals(1, SharedObjectRegistry.size());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        assertEquals("value", SharedObjectRegistry.get("key", () -> "value"));
+        assertTrue(SharedObjectRegistry.remove("key"));
+        assertFalse(SharedObjectRegistry.remove("key"));
+        assertFalse(SharedObjectRegistry.remove(null));
+        assertEquals(0, SharedObjectRegistry.size());
+
+        assertEquals("other", SharedObjectRegistry.get("key", () -> "other"));
+    }
+}
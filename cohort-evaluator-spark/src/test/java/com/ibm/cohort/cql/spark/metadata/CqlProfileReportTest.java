@@ -0,0 +1,42 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.cohort.cql.profiling.CqlProfileEntry;
+
+public class CqlProfileReportTest {
+	@Test
+	public void testEntriesRankedBySelfTime() throws Exception {
+		CqlProfileEntry fast = new CqlProfileEntry(CqlProfileEntry.Type.EXPRESSION, "Lib", "Fast");
+		fast.record(5_000_000, 1_000_000);
+		CqlProfileEntry slow = new CqlProfileEntry(CqlProfileEntry.Type.EXPRESSION, "Lib", "Slow");
+		slow.record(4_000_000, 4_000_000);
+		CqlProfileEntry retrieve = new CqlProfileEntry(CqlProfileEntry.Type.RETRIEVE, "Lib", "[Condition]");
+		retrieve.record(3_000_000, 3_000_000);
+
+		CqlProfileReport report = new CqlProfileReport("app-1", Arrays.asList(fast, slow, retrieve));
+		assertEquals(Arrays.asList(slow, retrieve, fast), report.getEntries());
+		assertEquals(8_000_000, report.getProfiledNanos());
+
+		String formatted = report.format(2);
+		assertTrue(formatted.contains("top 2 of 3"));
+		assertTrue(formatted.contains("Lib.Slow"));
+		assertTrue(formatted.contains("Lib.[Condition]"));
+		assertFalse(formatted.contains("Lib.Fast"));
+
+		ObjectMapper mapper = new ObjectMapper();
+		assertEquals(report, mapper.readValue(mapper.writeValueAsString(report), CqlProfileReport.class));
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.metadata;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class HadoopPathContextCommitLogTest {
+
+	@Test
+	public void testCommitReadAndRemove() {
+		String outputPath = "target/output/metadata/testcommit";
+		HadoopPathContextCommitLog commitLog = new HadoopPathContextCommitLog(new Path(outputPath), new Configuration());
+		commitLog.removeCommit("Patient");
+		assertNull(commitLog.getCommit("Patient"));
+
+		ContextCommit commit = new ContextCommit();
+		commit.setContextName("Patient");
+		commit.setOutputPath("file:/tmp/Patient_cohort");
+		commit.setExecutions(100);
+		commit.setRuntimeMillis(1234);
+		commit.setSpecFingerprint("abc");
+		commit.setApplicationId("id123");
+		commit.setCommitTimeMillis(5678);
+		commitLog.commit(commit);
+
+		File commitFile = new File(new File(outputPath, HadoopPathContextCommitLog.COMMITS_FOLDER), "Patient" + HadoopPathContextCommitLog.COMMIT_SUFFIX);
+		assertTrue(commitFile.exists());
+		assertEquals(commit, commitLog.getCommit("Patient"));
+
+		// a second commit replaces the first
+		commit.setExecutions(50);
+		commitLog.commit(commit);
+		assertEquals(50, commitLog.getCommit("Patient").getExecutions());
+
+		commitLog.removeCommit("Patient");
+		assertFalse(commitFile.exists());
+		assertNull(commitLog.getCommit("Patient"));
+	}
+}
@@ -6,7 +6,10 @@
 
 package com.ibm.cohort.cql.spark.metrics;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
 
@@ -19,4 +22,24 @@ public class CustomSparkMetricTest {
 		assertNotNull(plug.executorPlugin());
 
 	}
+
+	@Test
+	public void testPerContextAccumGauge() {
+		LongAccumulatorGauge gauge = CustomMetricSparkPlugin.getPerContextAccumGauge("GaugeContext1");
+		assertSame(gauge, CustomMetricSparkPlugin.getPerContextAccumGauge("GaugeContext1"));
+		assertNotSame(gauge, CustomMetricSparkPlugin.getPerContextAccumGauge("GaugeContext2"));
+		assertEquals(Long.valueOf(0), gauge.getValue());
+	}
+
+	@Test
+	public void testIntGauge() {
+		IntGauge gauge = new IntGauge();
+		gauge.increment();
+		gauge.increment();
+		assertEquals(Integer.valueOf(2), gauge.getValue());
+		gauge.decrement();
+		assertEquals(Integer.valueOf(1), gauge.getValue());
+		gauge.setValue(0);
+		assertEquals(Integer.valueOf(0), gauge.getValue());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.cohort.cql.spark.errors.EvaluationErrorGroup;
+
+public class EvaluationErrorAccumulatorTest {
+
+	@Test
+	public void testCountsAreExactAndSamplesAreBounded() {
+		EvaluationErrorAccumulator accumulator = new EvaluationErrorAccumulator(5);
+		assertTrue(accumulator.isZero());
+		for (int i = 0; i < 1000; i++) {
+			accumulator.addError("A", i, "Lib", "Lib|Define", new RuntimeException("failure " + i));
+		}
+		accumulator.addError("A", 7, "Lib", "Lib|Define", new IllegalArgumentException("bad argument"));
+		assertFalse(accumulator.isZero());
+
+		List<EvaluationErrorGroup> groups = accumulator.value();
+		assertEquals(2, groups.size());
+
+		EvaluationErrorGroup first = groups.get(0);
+		assertEquals("A", first.getContextName());
+		assertEquals("Lib", first.getLibraryId());
+		assertEquals("Lib|Define", first.getOutputColumn());
+		assertEquals(RuntimeException.class.getName(), first.getExceptionClass());
+		assertEquals(1000, first.getCount());
+		assertEquals(5, first.getSamples().size());
+		assertTrue(first.isSampleTruncated());
+
+		EvaluationErrorGroup second = groups.get(1);
+		assertEquals(IllegalArgumentException.class.getName(), second.getExceptionClass());
+		assertEquals(1, second.getCount());
+		assertEquals("bad argument", second.getSamples().get(0).getException());
+		assertFalse(second.isSampleTruncated());
+
+		assertEquals(6, accumulator.getSampledErrors().size());
+	}
+
+	@Test
+	public void testMergedSampleDoesNotDependOnOrder() {
+		EvaluationErrorAccumulator single = new EvaluationErrorAccumulator(3);
+		EvaluationErrorAccumulator even = new EvaluationErrorAccumulator(3);
+		EvaluationErrorAccumulator odd = new EvaluationErrorAccumulator(3);
+		for (int i = 0; i < 100; i++) {
+			single.addError("A", "id-" + i, "Lib", "Define", new RuntimeException());
+			(i % 2 == 0 ? even : odd).addError("A", "id-" + (99 - i), "Lib", "Define", new RuntimeException());
+		}
+
+		EvaluationErrorAccumulator merged = (EvaluationErrorAccumulator) odd.copy();
+		merged.merge(even);
+
+		assertEquals(single.value(), merged.value());
+		assertEquals(100, merged.value().get(0).getCount());
+	}
+
+	@Test
+	public void testRepeatedContextIdIsSampledOnce() {
+		EvaluationErrorAccumulator accumulator = new EvaluationErrorAccumulator(5);
+		accumulator.addError("A", 1, "Lib", "First", new RuntimeException());
+		accumulator.addError("A", 2, "Lib", "First", new RuntimeException());
+		accumulator.addError("A", 2, "Lib", "First", new RuntimeException());
+		accumulator.addError("A", 3, "Lib", "Second", new RuntimeException());
+		accumulator.addError("B", 4, "Lib", "First", new RuntimeException());
+
+		assertEquals(3, accumulator.value().get(0).getCount());
+		assertEquals(2, accumulator.value().get(0).getSamples().size());
+		assertEquals(4, accumulator.getSampledErrors().size());
+
+		accumulator.reset();
+		assertTrue(accumulator.isZero());
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.spark.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ibm.cohort.cql.spark.metadata.EvaluationStatistics;
+
+public class EvaluationStatisticsAccumulatorTest {
+
+	@Test
+	public void testMergeAddsStatisticsPerContext() {
+		EvaluationStatisticsAccumulator first = new EvaluationStatisticsAccumulator();
+		first.getStatistics("A").recordContext(3, 100);
+		first.getStatistics("A").recordExpression(40);
+		first.getStatistics("A").recordRetrieve("Observation");
+
+		EvaluationStatisticsAccumulator second = new EvaluationStatisticsAccumulator();
+		second.getStatistics("A").recordContext(5, 50);
+		second.getStatistics("A").recordRetrieve("Observation");
+		second.getStatistics("B").recordError();
+
+		first.merge(second);
+
+		EvaluationStatistics a = first.value().get("A");
+		assertEquals(2, a.getContextsEvaluated());
+		assertEquals(8, a.getInputRows());
+		assertEquals(5, a.getMaxInputRowsPerContext());
+		assertEquals(150, a.getContextEvaluationMicros());
+		assertEquals(100, a.getMaxContextEvaluationMicros());
+		assertEquals(1, a.getExpressionEvaluations());
+		assertEquals(Long.valueOf(2), a.getRetrievesPerDataType().get("Observation"));
+		assertEquals(1, first.value().get("B").getEvaluationErrors());
+	}
+
+	@Test
+	public void testCopyIsIndependent() {
+		EvaluationStatisticsAccumulator accumulator = new EvaluationStatisticsAccumulator();
+		assertTrue(accumulator.isZero());
+		accumulator.getStatistics("A").recordContext(1, 10);
+		assertFalse(accumulator.isZero());
+
+		EvaluationStatisticsAccumulator copy = (EvaluationStatisticsAccumulator) accumulator.copy();
+		assertEquals(accumulator.value(), copy.value());
+
+		copy.getStatistics("A").recordContext(1, 10);
+		assertEquals(1, accumulator.value().get("A").getContextsEvaluated());
+
+		accumulator.reset();
+		assertTrue(accumulator.isZero());
+		assertEquals(2, copy.value().get("A").getContextsEvaluated());
+	}
+}
@@ -84,6 +84,27 @@ public abstract class BaseDataTypeRequirementsProcessorTest {
         return pathsByDataType;
     }
 
+    protected Map<String, DataTypeCodeFilter> runCodeFilterTest(String cqlPath, String modelInfoPath,
+            Set<String> expressions, Predicate<CqlLibraryDescriptor> libraryFilter)
+            throws IOException, FileNotFoundException {
+        CqlToElmTranslator translator = createCqlTranslator(modelInfoPath);
+        CqlLibraryProvider sourceProvider = createLibrarySourceProvider(cqlPath, translator);
+
+        DataTypeRequirementsProcessor requirementsProcessor = new DataTypeRequirementsProcessor(translator);
+
+        Map<String, DataTypeCodeFilter> codeFiltersByDataType = new HashMap<>();
+        for (CqlLibraryDescriptor cld : sourceProvider.listLibraries()) {
+            if (libraryFilter == null || libraryFilter.test(cld)) {
+                Map<String, DataTypeCodeFilter> newFilters = requirementsProcessor
+                        .getDataRequirements(sourceProvider, cld, expressions).getCodeFiltersByDataType();
+
+                newFilters.forEach((key, value) -> codeFiltersByDataType.merge(key, value, DataTypeCodeFilter::merge));
+            }
+        }
+
+        return codeFiltersByDataType;
+    }
+
     protected Map<String, Set<StringMatcher>> runPatternTest(String cqlPath, String modelInfoPath,
             Set<String> expressions) throws IOException, FileNotFoundException {
         return runPatternTest(cqlPath, modelInfoPath, expressions, null);
@@ -7,6 +7,8 @@
 package com.ibm.cohort.cql.spark.optimizer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -155,6 +157,36 @@ public class DataTypeRequirementsProcessorTest extends BaseDataTypeRequirementsP
         assertEquals( expectations, reqsByDataType );
     }
 
+    @Test
+    public void testCodeFiltersFromConcept() throws Exception {
+        String basePath = "src/test/resources/alltypes";
+        
+        Map<String,DataTypeCodeFilter> filtersByDataType = runCodeFilterTest(basePath + "/cql", basePath + "/modelinfo/alltypes-modelinfo-1.0.0.xml",
+                Collections.singleton("cohort"), (cld) -> cld.getLibraryId().equals("MeasureAB"));
+        
+        assertEquals( new HashSet<>(Arrays.asList("A", "B")), filtersByDataType.keySet() );
+        
+        DataTypeCodeFilter aFilter = filtersByDataType.get("A");
+        assertTrue( aFilter.isComplete() );
+        assertEquals( Collections.singletonMap("code_col", new HashSet<>(Arrays.asList("cd1", "cdA"))), aFilter.getCodesByPath() );
+        assertTrue( aFilter.getValueSetsByPath().isEmpty() );
+        
+        // [B] is not filtered by code
+        assertFalse( filtersByDataType.get("B").isComplete() );
+    }
+    
+    @Test
+    public void testCodeFiltersFromValueSet() throws Exception {
+        Map<String,DataTypeCodeFilter> filtersByDataType = runCodeFilterTest("src/test/resources/column-filtering/retrieve-with-code-filter",
+                "src/test/resources/alltypes/modelinfo/alltypes-modelinfo-1.0.0.xml", null, (cld) -> cld.getLibraryId().equals("Parent"));
+        
+        DataTypeCodeFilter aFilter = filtersByDataType.get("A");
+        assertTrue( aFilter.isComplete() );
+        assertEquals( new HashSet<>(Arrays.asList("code_col", "code_col2")), aFilter.getCodePaths() );
+        assertEquals( Collections.singleton("urn:oid:123"), aFilter.getValueSetsByPath().get("code_col") );
+        assertEquals( Collections.singleton("urn:oid:123"), aFilter.getValueSetsByPath().get("code_col2") );
+    }
+
 // This test case only matters if the user is allowed to pass non-null expression
 // lists and that is currently blocked.
 //    @Test
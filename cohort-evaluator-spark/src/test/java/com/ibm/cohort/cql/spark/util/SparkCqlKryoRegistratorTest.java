@@ -0,0 +1,191 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.spark.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.spark.SparkConf;
+import org.apache.spark.serializer.KryoSerializer;
+import org.apache.spark.serializer.SerializerInstance;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.util.SerializableConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequest;
+import com.ibm.cohort.cql.evaluation.CqlEvaluationRequests;
+import com.ibm.cohort.cql.evaluation.CqlExpressionConfiguration;
+import com.ibm.cohort.cql.evaluation.parameters.CodeParameter;
+import com.ibm.cohort.cql.evaluation.parameters.ConceptParameter;
+import com.ibm.cohort.cql.evaluation.parameters.DateParameter;
+import com.ibm.cohort.cql.evaluation.parameters.IntegerParameter;
+import com.ibm.cohort.cql.evaluation.parameters.IntervalParameter;
+import com.ibm.cohort.cql.evaluation.parameters.Parameter;
+import com.ibm.cohort.cql.evaluation.parameters.QuantityParameter;
+import com.ibm.cohort.cql.evaluation.parameters.RatioParameter;
+import com.ibm.cohort.cql.library.CqlLibraryDescriptor;
+import com.ibm.cohort.cql.spark.aggregation.ContextDefinition;
+import com.ibm.cohort.cql.spark.aggregation.Join;
+import com.ibm.cohort.cql.spark.aggregation.OneToMany;
+import com.ibm.cohort.cql.spark.data.SparkDataRow;
+import com.ibm.cohort.cql.spark.data.SparkTypeConverter;
+import com.ibm.cohort.cql.spark.errors.EvaluationError;
+
+import scala.Tuple2;
+import scala.reflect.ClassTag;
+import scala.reflect.ClassTag$;
+
+public class SparkCqlKryoRegistratorTest {
+    private static final ClassTag<Object> OBJECT_TAG = ClassTag$.MODULE$.apply(Object.class);
+
+    private static final StructType SCHEMA = new StructType()
+            .add("id", DataTypes.IntegerType)
+            .add("name", DataTypes.StringType)
+            .add("birth_date", DataTypes.DateType)
+            .add("weight", DataTypes.createDecimalType(10, 2));
+
+    private SerializerInstance serializer;
+
+    @Before
+    public void setUp() {
+        SparkConf conf = new SparkConf(false)
+                .set("spark.kryo.registrationRequired", "true")
+                .set("spark.kryo.registrator", SparkCqlKryoRegistrator.class.getName());
+        serializer = new KryoSerializer(conf).newInstance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T value) {
+        return (T) serializer.deserialize(serializer.serialize(value, OBJECT_TAG), OBJECT_TAG);
+    }
+
+    private Row newRow(int id, String name) {
+        return new GenericRowWithSchema(new Object[] { id, name, LocalDate.of(1980, 1, id), new BigDecimal("70.25") }, SCHEMA);
+    }
+
+    @Test
+    public void testContextRows() {
+        List<Row> rows = new ArrayList<>(Arrays.asList(newRow(1, "first"), newRow(2, null)));
+        Tuple2<Object, List<Row>> rowsByContext = new Tuple2<>("context", rows);
+
+        Tuple2<Object, List<Row>> actual = roundTrip(rowsByContext);
+        assertEquals("context", actual._1());
+        assertEquals(rows, actual._2());
+        assertEquals(SCHEMA, actual._2().get(0).schema());
+        assertSame(actual._2().get(0).schema(), actual._2().get(1).schema());
+
+        Row other = roundTrip(newRow(3, "third"));
+        assertSame(actual._2().get(0).schema(), other.schema());
+    }
+
+    @Test
+    public void testSparkDataRow() {
+        SparkDataRow dataRow = roundTrip(new SparkDataRow(new SparkTypeConverter(true), newRow(1, "first")));
+        assertEquals(1, dataRow.getValue("id"));
+        assertEquals("first", dataRow.getValue("name"));
+        assertEquals(newRow(1, "first"), dataRow.getRow());
+    }
+
+    @Test
+    public void testEvaluationError() {
+        EvaluationError error = new EvaluationError("Patient", 123, "Lib|Define", "failure");
+        assertEquals(error, roundTrip(error));
+    }
+
+    @Test
+    public void testEvaluationRequests() {
+        Map<String, Parameter> parameters = new HashMap<>();
+        parameters.put("Measurement Period", new IntervalParameter(new DateParameter("2020-01-01"), true, new DateParameter("2021-01-01"), false));
+        parameters.put("Concept", new ConceptParameter("display", new CodeParameter("system", "value", "display", "version")));
+        parameters.put("Ratio", new RatioParameter(new QuantityParameter("1", "mg"), new QuantityParameter("2", "ml")));
+        parameters.put("Count", new IntegerParameter(10));
+
+        CqlEvaluationRequest request = new CqlEvaluationRequest();
+        request.setId(1);
+        request.setDescriptor(new CqlLibraryDescriptor().setLibraryId("Lib").setVersion("1.0.0").setFormat(CqlLibraryDescriptor.Format.CQL));
+        CqlExpressionConfiguration expression = new CqlExpressionConfiguration();
+        expression.setName("Define");
+        request.setExpressions(new HashSet<>(Arrays.asList(expression)));
+        request.setParameters(parameters);
+        request.setContextKey("Patient");
+
+        CqlEvaluationRequests requests = new CqlEvaluationRequests();
+        requests.setGlobalParameters(new HashMap<>());
+        requests.getGlobalParameters().put("Count", new IntegerParameter(5));
+        requests.setEvaluations(new ArrayList<>(Arrays.asList(request)));
+
+        CqlEvaluationRequests actual = roundTrip(requests);
+        assertEquals(requests.getGlobalParameters(), actual.getGlobalParameters());
+        assertEquals(requests.getEvaluations(), actual.getEvaluations());
+    }
+
+    @Test
+    public void testContextDefinition() {
+        Join join = new OneToMany();
+        join.setPrimaryDataTypeColumn("id");
+        join.setRelatedDataType("Encounter");
+        join.setRelatedKeyColumn("patient_id");
+
+        ContextDefinition context = new ContextDefinition();
+        context.setName("Patient");
+        context.setPrimaryDataType("Patient");
+        context.setPrimaryKeyColumn("id");
+        context.setRelationships(new ArrayList<>(Arrays.asList(join)));
+
+        assertEquals(context, roundTrip(context));
+    }
+
+    @Test
+    public void testEncodedParametersCache() {
+        CqlEvaluationRequest request = new CqlEvaluationRequest();
+        request.setParameters(new HashMap<>());
+        request.getParameters().put("Count", new IntegerParameter(10));
+
+        EncodedParametersCache cache = new EncodedParametersCache().setRowGroupingDisabled(false);
+        EncodedParametersCache actual = roundTrip(cache);
+        assertEquals(cache.getKeyParametersColumnData(request), actual.getKeyParametersColumnData(request));
+    }
+
+    @Test
+    public void testHadoopConfiguration() {
+        Configuration configuration = new Configuration(false);
+        configuration.set("fs.test.setting", "value");
+
+        SerializableConfiguration actual = roundTrip(new SerializableConfiguration(configuration));
+        assertEquals("value", actual.value().get("fs.test.setting"));
+    }
+
+    @Test
+    public void testUnregisteredClassIsRejected() {
+        boolean failed = false;
+        try {
+            roundTrip(new Unregistered());
+        } catch (IllegalArgumentException ex) {
+            failed = ex.getMessage().contains(Unregistered.class.getName());
+        }
+        assertTrue(failed);
+    }
+
+    private static class Unregistered implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
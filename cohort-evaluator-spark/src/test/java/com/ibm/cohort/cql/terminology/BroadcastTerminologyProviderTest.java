@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.cql.terminology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.SparkSession;
+import org.junit.Test;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+
+import com.ibm.cohort.cql.library.BroadcastCqlLibraryProvider;
+import com.ibm.cohort.cql.library.CqlLibraryDescriptor;
+import com.ibm.cohort.cql.library.CqlLibraryDescriptor.Format;
+import com.ibm.cohort.cql.library.HadoopBasedCqlLibraryProvider;
+import com.ibm.cohort.cql.spark.BaseSparkTest;
+import com.ibm.cohort.cql.translation.CqlToElmTranslator;
+import com.ibm.cohort.cql.translation.TranslatingCqlLibraryProvider;
+
+public class BroadcastTerminologyProviderTest extends BaseSparkTest {
+	private static final long serialVersionUID = 1L;
+
+	private static final String TEST_CODE = "10901-7";
+	private static final String TEST_SYSTEM = "http://snomed.info/sct";
+	private static final String TEST_CODE_MULTIPLE_CODE_SYSTEMS = "10901-8";
+
+	private static final ValueSetInfo TEST = new ValueSetInfo().withId("urn:oid:Test");
+	private static final ValueSetInfo TEST_XML = new ValueSetInfo().withId("http://cts.nlm.nih.gov/fhir/ValueSet/TestXml");
+	private static final ValueSetInfo MISSING = new ValueSetInfo().withId("urn:oid:Missing");
+
+	private CqlTerminologyProvider createFileSystemProvider() {
+		return new R4FileSystemFhirTerminologyProvider(new Path("src/test/resources/fileSystemValueSets"), new Configuration());
+	}
+
+	private TerminologyIndex buildIndex() {
+		TranslatingCqlLibraryProvider libraryProvider = new TranslatingCqlLibraryProvider(
+				new HadoopBasedCqlLibraryProvider(new Path("src/test/resources/terminology/cql"), new Configuration()),
+				new CqlToElmTranslator());
+		CqlLibraryDescriptor descriptor = new CqlLibraryDescriptor()
+				.setLibraryId("ValueSets")
+				.setVersion("1.0.0")
+				.setFormat(Format.ELM);
+		Map<CqlLibraryDescriptor, String> elm = BroadcastCqlLibraryProvider.collectElm(libraryProvider, Collections.singletonList(descriptor));
+
+		return BroadcastTerminologyProvider.buildIndex(createFileSystemProvider(), elm.values());
+	}
+
+	private Code code(String code, String system) {
+		return new Code().withCode(code).withSystem(system);
+	}
+
+	private void assertSameCodes(Iterable<Code> expected, Iterable<Code> actual) {
+		List<String> expectedCodes = new ArrayList<>();
+		expected.forEach(c -> expectedCodes.add(c.getCode() + "|" + c.getSystem() + "|" + c.getDisplay() + "|" + c.getVersion()));
+		List<String> actualCodes = new ArrayList<>();
+		actual.forEach(c -> actualCodes.add(c.getCode() + "|" + c.getSystem() + "|" + c.getDisplay() + "|" + c.getVersion()));
+		assertEquals(expectedCodes, actualCodes);
+	}
+
+	@Test
+	public void testBuildIndexSkipsMissingValueSets() {
+		TerminologyIndex index = buildIndex();
+
+		assertEquals(2, index.getValueSetCount());
+		assertTrue(index.contains(TEST));
+		assertTrue(index.contains(TEST_XML));
+		assertFalse(index.contains(MISSING));
+		assertThrows(IllegalArgumentException.class, () -> index.in(code(TEST_CODE, TEST_SYSTEM), MISSING));
+	}
+
+	@Test
+	public void testIndexMatchesFileSystemProvider() {
+		CqlTerminologyProvider fileSystemProvider = createFileSystemProvider();
+		TerminologyIndex index = buildIndex();
+
+		for (ValueSetInfo valueSet : new ValueSetInfo[] { TEST, TEST_XML }) {
+			assertSameCodes(fileSystemProvider.expand(valueSet), index.expand(valueSet));
+
+			assertTrue(index.in(code(TEST_CODE, TEST_SYSTEM), valueSet));
+			assertTrue(index.in(code(TEST_CODE, null), valueSet));
+			assertTrue(index.in(code(TEST_CODE_MULTIPLE_CODE_SYSTEMS, "http://loinc.org"), valueSet));
+			assertFalse(index.in(code(TEST_CODE, "bad system"), valueSet));
+			assertFalse(index.in(code("Bad_Code", TEST_SYSTEM), valueSet));
+			assertFalse(index.in(code("Bad_Code", null), valueSet));
+			assertThrows(IllegalArgumentException.class, () -> index.in(code(TEST_CODE_MULTIPLE_CODE_SYSTEMS, null), valueSet));
+		}
+	}
+
+	@Test
+	public void testSerializedIndex() {
+		TerminologyIndex index = SerializationUtils.roundtrip(buildIndex());
+
+		assertTrue(index.in(code(TEST_CODE, TEST_SYSTEM), TEST));
+		assertFalse(index.in(code(TEST_CODE, "bad system"), TEST));
+		assertSameCodes(createFileSystemProvider().expand(TEST_XML), index.expand(TEST_XML));
+	}
+
+	@Test
+	public void testBroadcastProviderFallback() {
+		SparkSession spark = initializeSession();
+
+		CqlTerminologyProvider fileSystemProvider = createFileSystemProvider();
+		TerminologyIndex index = new TerminologyIndex.Builder()
+				.addValueSet(TEST, fileSystemProvider.expand(TEST))
+				.build();
+		Broadcast<TerminologyIndex> broadcast = JavaSparkContext.fromSparkContext(spark.sparkContext()).broadcast(index);
+
+		AtomicInteger fallbackCount = new AtomicInteger();
+		CqlTerminologyProvider provider = new BroadcastTerminologyProvider(broadcast, () -> {
+			fallbackCount.incrementAndGet();
+			return fileSystemProvider;
+		});
+
+		assertTrue(provider.in(code(TEST_CODE, TEST_SYSTEM), TEST));
+		assertSameCodes(fileSystemProvider.expand(TEST), provider.expand(TEST));
+		assertEquals(0, fallbackCount.get());
+
+		assertTrue(provider.in(code(TEST_CODE, TEST_SYSTEM), TEST_XML));
+		assertEquals(1, fallbackCount.get());
+	}
+}
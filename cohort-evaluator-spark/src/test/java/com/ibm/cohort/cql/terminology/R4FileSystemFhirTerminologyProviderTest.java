@@ -11,14 +11,22 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.spark.deploy.SparkHadoopUtil;
+import org.cqframework.cql.elm.execution.VersionedIdentifier;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -239,4 +247,56 @@ public class R4FileSystemFhirTerminologyProviderTest {
 
 		provider.lookup(code, info);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void concurrentRequestsLoadEachValueSetOnce() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger loads = new AtomicInteger();
+		R4FileSystemFhirTerminologyProvider blockingProvider = new R4FileSystemFhirTerminologyProvider(
+				new Path("src/test/resources/fileSystemValueSets"), SparkHadoopUtil.get().conf()) {
+			@Override
+			protected ValueSetCodes loadValueSet(VersionedIdentifier valueSetIdentifier) {
+				loads.incrementAndGet();
+				if (valueSetIdentifier.getVersion() == null) {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+				return super.loadValueSet(valueSetIdentifier);
+			}
+		};
+
+		ValueSetInfo blockedInfo = new ValueSetInfo().withId(setId);
+		ValueSetInfo otherInfo = new ValueSetInfo().withId(setId).withVersion(TEST_SYSTEM_VERSION1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(5);
+		try {
+			List<Future<Iterable<Code>>> blocked = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				blocked.add(executor.submit(() -> blockingProvider.expand(blockedInfo)));
+			}
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			// a ValueSet with a different identifier does not wait for the blocked load
+			Future<Iterable<Code>> other = executor.submit(() -> blockingProvider.expand(otherInfo));
+			assertEquals(4, count(other.get(10, TimeUnit.SECONDS)));
+
+			release.countDown();
+			for (Future<Iterable<Code>> future : blocked) {
+				assertEquals(4, count(future.get(10, TimeUnit.SECONDS)));
+			}
+			assertEquals(2, loads.get());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	private long count(Iterable<Code> codes) {
+		return StreamSupport.stream(codes.spliterator(), false).count();
+	}
+}
@@ -8,12 +8,12 @@ package com.ibm.cohort.cql.evaluation;
 
 import java.lang.reflect.Field;
 import java.time.ZonedDateTime;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -48,6 +48,7 @@ public class CqlContextFactory {
         final public CqlLibraryDescriptor topLevelLibrary;
         final public ZonedDateTime evaluationDateTime;
         final public Map<String,Parameter> parameters;
+        final public boolean profiling;
 
         public ContextCacheKey(
             CqlLibraryProvider libraryProvider,
@@ -56,12 +57,24 @@ public class CqlContextFactory {
             ExternalFunctionProvider externalFunctionProvider,
             ZonedDateTime evaluationDateTime,
             Map<String, Parameter> parameters ) {
+            this(libraryProvider, topLevelLibrary, terminologyProvider, externalFunctionProvider, evaluationDateTime, parameters, false);
+        }
+
+        public ContextCacheKey(
+            CqlLibraryProvider libraryProvider,
+            CqlLibraryDescriptor topLevelLibrary,
+            CqlTerminologyProvider terminologyProvider,
+            ExternalFunctionProvider externalFunctionProvider,
+            ZonedDateTime evaluationDateTime,
+            Map<String, Parameter> parameters,
+            boolean profiling ) {
             this.libraryProvider = libraryProvider;
             this.topLevelLibrary = topLevelLibrary;
             this.terminologyProvider = terminologyProvider;
             this.externalFunctionProvider = externalFunctionProvider;
             this.evaluationDateTime = evaluationDateTime;
             this.parameters = parameters;
+            this.profiling = profiling;
         }
 
         @Override
@@ -76,7 +89,8 @@ public class CqlContextFactory {
                         Objects.equals( terminologyProvider, k2.terminologyProvider ) &&
                         Objects.equals( externalFunctionProvider, k2.externalFunctionProvider ) &&
                         Objects.equals( evaluationDateTime, k2.evaluationDateTime ) &&
-                        Objects.equals( parameters, k2.parameters );
+                        Objects.equals( parameters, k2.parameters ) &&
+                        profiling == k2.profiling;
 
             }
 
@@ -85,13 +99,31 @@ public class CqlContextFactory {
 
         @Override
         public int hashCode() {
-            return Objects.hash(topLevelLibrary, libraryProvider, terminologyProvider, externalFunctionProvider, evaluationDateTime, parameters);
+            return Objects.hash(topLevelLibrary, libraryProvider, terminologyProvider, externalFunctionProvider, evaluationDateTime, parameters, profiling);
         }
     }
 
     public static boolean DEFAULT_CACHE_EXPRESSIONS = true;
 
-    private static ConcurrentMap<ContextCacheKey, Context> CONTEXT_CACHE = new ConcurrentHashMap<>();
+    /**
+     * CQL Context objects hold the state of an evaluation and cannot be used
+     * by more than one thread at a time, so each thread keeps its own cache.
+     * This allows the library and terminology providers in the cache key to be
+     * shared between threads.
+     *
+     * The cache of a thread is discarded the next time the thread creates a
+     * context after {@link #invalidateContextCaches()} is called, which releases
+     * the providers of the cached contexts.
+     */
+    private static final ThreadLocal<ContextCache> CONTEXT_CACHE = ThreadLocal.withInitial(ContextCache::new);
+
+    private static final AtomicLong CACHE_GENERATION = new AtomicLong();
+
+    private static class ContextCache extends HashMap<ContextCacheKey, Context> {
+        private static final long serialVersionUID = 1L;
+
+        private long generation = CACHE_GENERATION.get();
+    }
 
     /**
      * Controls whether or not the CQL engine caches the result of each expression.
@@ -100,12 +132,29 @@ public class CqlContextFactory {
      */
     private boolean cacheExpressions = DEFAULT_CACHE_EXPRESSIONS;
 
+    /**
+     * Controls whether libraries are loaded with node types that record the
+     * evaluation time of each expression definition and retrieve in the
+     * {@link com.ibm.cohort.cql.profiling.CqlProfiler} of the evaluating thread.
+     */
+    private boolean profiling;
+
     private ExternalFunctionProvider externalFunctionProvider;
 
     public CqlContextFactory() {
 
     }
 
+    /**
+     * Discard the cached contexts of every thread, e.g. when the library and
+     * terminology providers that they were created with are no longer used.
+     * Each thread drops its cache the next time it creates a context.
+     */
+    public static void invalidateContextCaches() {
+        CACHE_GENERATION.incrementAndGet();
+        CONTEXT_CACHE.remove();
+    }
+
     public boolean isCacheExpressions() {
         return cacheExpressions;
     }
@@ -114,6 +163,14 @@ public class CqlContextFactory {
         this.cacheExpressions = cacheExpressions;
     }
 
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
 
     public void setExternalFunctionProvider(ExternalFunctionProvider externalFunctionProvider) {
         this.externalFunctionProvider = externalFunctionProvider;
@@ -152,8 +209,15 @@ public class CqlContextFactory {
                 terminologyProvider,
                 this.externalFunctionProvider,
                 evaluationDateTime,
-                parameters);
-        Context cqlContext = CONTEXT_CACHE.computeIfAbsent( key, k -> {
+                parameters,
+                this.profiling);
+        ContextCache contextCache = CONTEXT_CACHE.get();
+        long generation = CACHE_GENERATION.get();
+        if (contextCache.generation != generation) {
+            contextCache.clear();
+            contextCache.generation = generation;
+        }
+        Context cqlContext = contextCache.computeIfAbsent( key, k -> {
             return this.createContext(k);
         } );
 
@@ -190,7 +254,7 @@ public class CqlContextFactory {
      * @throws CqlLibraryDeserializationException if the specified library cannot be loaded
      */
     protected Context createContext(ContextCacheKey contextKey) throws CqlLibraryDeserializationException {
-        LibraryLoader libraryLoader = new ProviderBasedLibraryLoader(contextKey.libraryProvider);
+        LibraryLoader libraryLoader = new ProviderBasedLibraryLoader(contextKey.libraryProvider, contextKey.profiling);
 
         VersionedIdentifier vid = new VersionedIdentifier().withId(contextKey.topLevelLibrary.getLibraryId())
                 .withVersion(contextKey.topLevelLibrary.getVersion());
@@ -12,6 +12,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -33,6 +34,7 @@ public class CqlEvaluator {
     private CqlDataProvider dataProvider;
     private CqlTerminologyProvider terminologyProvider;
     private ExternalFunctionProvider externalFunctionProvider;
+    private boolean profiling;
     
     public List<Pair<CqlEvaluationRequest,CqlEvaluationResult>> evaluate( CqlEvaluationRequests requests ) {
         return evaluate(requests, DEFAULT_CQL_DEBUG);
@@ -92,8 +94,39 @@ public class CqlEvaluator {
     public CqlEvaluationResult evaluate(CqlLibraryDescriptor topLevelLibrary, Map<String, Parameter> parameters,
             Pair<String, String> context, Set<String> expressions, CqlDebug debug, ZonedDateTime batchDateTime)
             throws CqlLibraryDeserializationException {
+        return evaluate(topLevelLibrary, parameters, context, expressions, debug, batchDateTime, null);
+    }
+
+    /**
+     * Evaluate one or more expressions against a single CQL context. All of the
+     * expressions share the same expression cache, so defines and retrieves that
+     * are referenced by more than one of the requested expressions are only
+     * evaluated once.
+     *
+     * @param topLevelLibrary   Library containing the expressions to evaluate
+     * @param parameters        Optional input parameters for the CQL evaluation
+     * @param context           Name-Value pair of context name + context value
+     * @param expressions       Expressions to evaluate. If null, all expressions in
+     *                          the top level library are evaluated.
+     * @param debug             Debug configuration
+     * @param batchDateTime     Date and time that will be considered "now" during
+     *                          CQL evaluation
+     * @param errorHandler      Optional callback that receives the expression name and
+     *                          failure for each expression that cannot be evaluated.
+     *                          When provided, a failing expression is omitted from the
+     *                          results and evaluation continues with the remaining
+     *                          expressions. When null, the first failure is rethrown.
+     * @return evaluation results keyed by expression name
+     * @throws CqlLibraryDeserializationException if the specified library cannot be
+     *                                            loaded
+     */
+    public CqlEvaluationResult evaluate(CqlLibraryDescriptor topLevelLibrary, Map<String, Parameter> parameters,
+            Pair<String, String> context, Set<String> expressions, CqlDebug debug, ZonedDateTime batchDateTime,
+            BiConsumer<String, Throwable> errorHandler)
+            throws CqlLibraryDeserializationException {
         CqlContextFactory contextFactory = new CqlContextFactory();
         contextFactory.setExternalFunctionProvider(this.externalFunctionProvider);
+        contextFactory.setProfiling(this.profiling);
 
         Context cqlContext = contextFactory.createContext(libraryProvider, topLevelLibrary,
                 terminologyProvider, dataProvider, batchDateTime, context, parameters, debug);
@@ -104,8 +137,15 @@ public class CqlEvaluator {
         
         Map<String,Object> results = new HashMap<>();
         for( String expression : expressions ) {
-            Object result = cqlContext.resolveExpressionRef(expression).evaluate(cqlContext);
-            results.put(expression, result);
+            try {
+                Object result = cqlContext.resolveExpressionRef(expression).evaluate(cqlContext);
+                results.put(expression, result);
+            } catch( RuntimeException | Error th ) {
+                if( errorHandler == null ) {
+                    throw th;
+                }
+                errorHandler.accept(expression, th);
+            }
         }
         
         if( context != null ) {
@@ -148,4 +188,20 @@ public class CqlEvaluator {
         return this;
     }
 
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * @param profiling true if the evaluation time of each expression definition
+     *                  and retrieve should be recorded in the
+     *                  {@link com.ibm.cohort.cql.profiling.CqlProfiler} of the
+     *                  evaluating thread
+     * @return this evaluator
+     */
+    public CqlEvaluator setProfiling(boolean profiling) {
+        this.profiling = profiling;
+        return this;
+    }
+
 }
@@ -16,9 +16,20 @@ import com.ibm.cohort.cql.library.CqlLibraryDescriptor.Format;
 public class ProviderBasedLibraryLoader implements LibraryLoader {
 
     private CqlLibraryProvider backingProvider;
+    private boolean profiling;
     
     public ProviderBasedLibraryLoader(CqlLibraryProvider backingProvider) {
+        this(backingProvider, false);
+    }
+
+    /**
+     * @param backingProvider Provider of the ELM libraries
+     * @param profiling       true if the libraries should be deserialized with
+     *                        node types that record their evaluation time
+     */
+    public ProviderBasedLibraryLoader(CqlLibraryProvider backingProvider, boolean profiling) {
         this.backingProvider = backingProvider;
+        this.profiling = profiling;
     }
     
     @Override
@@ -46,7 +57,7 @@ public class ProviderBasedLibraryLoader implements LibraryLoader {
     protected Library deserializeLibrary(CqlLibrary cqlLibrary) throws CqlLibraryDeserializationException {
         Library library;
         try { 
-            library = OptimizedCqlLibraryReader.read(cqlLibrary.getContentAsStream());
+            library = OptimizedCqlLibraryReader.read(cqlLibrary.getContentAsStream(), profiling);
         } catch( Exception ex ) {
             throw new CqlLibraryDeserializationException(ex);
         }
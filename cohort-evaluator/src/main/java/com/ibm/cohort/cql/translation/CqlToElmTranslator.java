@@ -36,6 +36,8 @@ public class CqlToElmTranslator {
 
     private CustomModelInfoProvider modelInfoProvider = new CustomModelInfoProvider();
     
+    private boolean dateRangeOptimizationEnabled = false;
+    
     public void registerModelInfo(Reader modelInfoXML) {
         modelInfoProvider.addModel(modelInfoXML);
     }
@@ -89,12 +91,33 @@ public class CqlToElmTranslator {
         return new CqlTranslationResult(translatedLibrary, dependencies);
     }
 
+    /**
+     * When enabled, query where clauses that compare a date property of a
+     * retrieved item to a date interval (e.g. <code>where E.date during
+     * "Measurement Period"</code>) are translated into date-filtered retrieves.
+     * This should only be used with retrieve providers that support date range
+     * filtering.
+     * 
+     * @param dateRangeOptimizationEnabled true to enable date range optimization
+     */
+    public void setDateRangeOptimizationEnabled(boolean dateRangeOptimizationEnabled) {
+        this.dateRangeOptimizationEnabled = dateRangeOptimizationEnabled;
+    }
+    
+    public boolean isDateRangeOptimizationEnabled() {
+        return dateRangeOptimizationEnabled;
+    }
+
     public CqlTranslatorOptions getOptions() {
-        return CqlTranslatorOptions.defaultOptions()
+        CqlTranslatorOptions options = CqlTranslatorOptions.defaultOptions()
                  .withOptions(CqlTranslator.Options.EnableResultTypes)
                  .withAnalyzeDataRequirements(true)
                  .withCollapseDataRequirements(true)
                  ;
+        if( dateRangeOptimizationEnabled ) {
+            options = options.withOptions(CqlTranslator.Options.EnableDateRangeOptimization);
+        }
+        return options;
     }
     
     public Options[] getOptionsArray() {
@@ -7,25 +7,31 @@
 package com.ibm.cohort.cql.translation;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.ibm.cohort.cql.library.CqlLibrary;
 import com.ibm.cohort.cql.library.CqlLibraryDescriptor;
 import com.ibm.cohort.cql.library.CqlLibraryDescriptor.Format;
 import com.ibm.cohort.cql.library.CqlLibraryProvider;
 
+/**
+ * Library provider that translates CQL libraries to ELM on first use. The
+ * provider is thread-safe and each library is translated at most once, even
+ * when several threads request it at the same time, so a single instance can
+ * be shared by all of the threads of a process.
+ */
 public class TranslatingCqlLibraryProvider implements CqlLibraryProvider {
     private final CqlLibraryProvider backingLibraryProvider;
     private final CqlToElmTranslator translator;
     
     // Cache of libraries that have already been translated
-    private Map<CqlLibraryDescriptor, CqlLibrary> translations;
+    private final ConcurrentMap<CqlLibraryDescriptor, CqlLibrary> translations;
     
     public TranslatingCqlLibraryProvider(CqlLibraryProvider backingProvider, CqlToElmTranslator translator) {
         this.backingLibraryProvider = backingProvider;
         this.translator = translator;
-        this.translations = new HashMap<>();
+        this.translations = new ConcurrentHashMap<>();
     }
     
     @Override
@@ -7,6 +7,8 @@
 package com.ibm.cohort.cql.evaluation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -92,6 +94,14 @@ public class CqlContextFactoryTest {
                 expectedDebug ? CqlDebug.DEBUG : CqlDebug.NONE);
         
         verify(cqlContextFactory, times(1)).createContext(any(ContextCacheKey.class));
+
+        // The context is created again once the caches are invalidated
+        CqlContextFactory.invalidateContextCaches();
+        cqlContextFactory.createContext(translatingProvider, topLevelLibrary, terminologyProvider,
+                dataProvider2, expectedEvaluationDateTime, contextData, expectedParams,
+                expectedDebug ? CqlDebug.DEBUG : CqlDebug.NONE);
+
+        verify(cqlContextFactory, times(2)).createContext(any(ContextCacheKey.class));
     }
     
     @Test
@@ -115,5 +125,9 @@ public class CqlContextFactoryTest {
         map.put(k1, "Hello,World");
         
         assertEquals( "Hello,World", map.get(k2) );
+        
+        CqlContextFactory.ContextCacheKey profiled = new CqlContextFactory.ContextCacheKey(libraryProvider, topLevelLibrary, terminologyProvider, null, evaluationDateTime, parameters, true);
+        assertNotEquals(k1, profiled);
+        assertNull(map.get(profiled));
     }
 }
@@ -9,6 +9,7 @@ package com.ibm.cohort.cql.evaluation;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -189,4 +190,44 @@ public class CqlEvaluatorTest {
         assertEquals(1, result.getExpressionResults().size());
         assertEquals(false, result.getExpressionResults().get("OtherThing"));
     }
+    
+    @Test
+    public void testEvaluationErrorHandler() {
+        CqlLibraryDescriptor libraryDescriptor = new CqlLibraryDescriptor()
+                .setLibraryId("Sample")
+                .setVersion("1.0.0")
+                .setFormat(Format.CQL);
+        
+        CqlLibrary library = new CqlLibrary()
+                .setDescriptor(libraryDescriptor)
+                .setContent("library \"Sample\" version '1.0.0'\ndefine \"Something\":1<10\ndefine \"Fails\": singleton from {1, 2}\ndefine \"OtherThing\":10<1");
+        
+        CqlTerminologyProvider terminologyProvider = mock(CqlTerminologyProvider.class);
+        CqlDataProvider dataProvider = mock(CqlDataProvider.class); 
+        
+        CqlLibraryProvider libraryProvider = mock(CqlLibraryProvider.class);
+        when(libraryProvider.getLibrary(libraryDescriptor)).thenReturn(library);
+        
+        CqlToElmTranslator translator = new CqlToElmTranslator();
+        TranslatingCqlLibraryProvider translatingProvider = new TranslatingCqlLibraryProvider(libraryProvider, translator);
+        
+        CqlEvaluator evaluator = new CqlEvaluator()
+                .setTerminologyProvider(terminologyProvider)
+                .setDataProvider(dataProvider)
+                .setLibraryProvider(translatingProvider);
+        
+        Map<String,Throwable> errors = new HashMap<>();
+        CqlEvaluationResult result = evaluator.evaluate(libraryDescriptor, null, null,
+                new HashSet<>(Arrays.asList("Something", "Fails", "OtherThing")), CqlDebug.NONE, null, errors::put);
+        assertNotNull(result);
+        assertEquals(2, result.getExpressionResults().size());
+        assertEquals(true, result.getExpressionResults().get("Something"));
+        assertEquals(false, result.getExpressionResults().get("OtherThing"));
+        
+        assertEquals(1, errors.size());
+        assertNotNull(errors.get("Fails"));
+        
+        assertThrows(RuntimeException.class, () -> evaluator.evaluate(libraryDescriptor, null, null,
+                new HashSet<>(Arrays.asList("Something", "Fails")), CqlDebug.NONE, null, null));
+    }
 }
@@ -7,12 +7,15 @@
 package com.ibm.cohort.cql.translation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.Reader;
 
+import org.cqframework.cql.cql2elm.CqlTranslator;
 import org.cqframework.cql.cql2elm.CqlTranslatorException;
 import org.junit.Test;
 
@@ -67,4 +70,15 @@ public class CqlToElmTranslatorTest {
         CqlTranslationResult result = translator.translate(primaryLibrary, sourceProvider);
         assertEquals(1, result.getDependencies().size());
     }
+    
+    @Test
+    public void testDateRangeOptimizationOption() {
+        CqlToElmTranslator translator = new CqlToElmTranslator();
+        assertFalse( translator.getOptions().getOptions().contains(CqlTranslator.Options.EnableDateRangeOptimization) );
+        
+        translator.setDateRangeOptimizationEnabled(true);
+        assertTrue( translator.isDateRangeOptimizationEnabled() );
+        assertTrue( translator.getOptions().getOptions().contains(CqlTranslator.Options.EnableDateRangeOptimization) );
+        assertTrue( translator.getOptions().getOptions().contains(CqlTranslator.Options.EnableResultTypes) );
+    }
 }
@@ -7,11 +7,18 @@
 package com.ibm.cohort.cql.translation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -48,4 +55,38 @@ public class TranslatingCqlLibraryProviderTest {
         assertEquals( Format.ELM, library.getDescriptor().getFormat() );
         assertTrue( library.getContent().startsWith("<?xml") );
     }
+
+    @Test
+    public void testConcurrentLoadSharesTranslation() throws Exception {
+        CqlToElmTranslator translator = new CqlToElmTranslator();
+        try( Reader modelInfoXML = new FileReader("src/test/resources/modelinfo/mock-modelinfo-1.0.0.xml") ) {
+            translator.registerModelInfo(modelInfoXML);
+        }
+
+        CqlLibraryProvider backingProvider = new DirectoryBasedCqlLibraryProvider(new File("src/test/resources/cql"));
+        CqlLibraryProvider provider = new TranslatingCqlLibraryProvider(backingProvider, translator);
+
+        CqlLibraryDescriptor descriptor = new CqlLibraryDescriptor()
+                .setLibraryId("CohortHelpers")
+                .setVersion("1.0.0")
+                .setFormat(Format.ELM);
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<CqlLibrary>> tasks = new ArrayList<>();
+            for( int i = 0; i < threads; i++ ) {
+                tasks.add(() -> provider.getLibrary(descriptor));
+            }
+
+            List<Future<CqlLibrary>> results = executor.invokeAll(tasks);
+            CqlLibrary expected = results.get(0).get();
+            assertEquals( Format.ELM, expected.getDescriptor().getFormat() );
+            for( Future<CqlLibrary> result : results ) {
+                assertSame( expected, result.get() );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -6,11 +6,16 @@
 
 package com.ibm.cohort.datarow.engine;
 
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.opencds.cqf.cql.engine.retrieve.RetrieveProvider;
 import org.opencds.cqf.cql.engine.runtime.Code;
@@ -25,9 +30,22 @@ import com.ibm.cohort.datarow.model.DataRow;
  * This is an implementation of the CQL RetrieveProvider interface for input
  * data that is a Map of <code>dataType</code> strings to lists of
  * <code>DataRow</code> objects. Retrieval is optionally filtered by the
- * <code>codePath</code> when provided. Codes are indexed on first use for
- * faster retrieval on subsequent data operations. Date range filtering is not
- * supported.
+ * <code>codePath</code> and/or the <code>dateRange</code> when provided. Codes
+ * and dates are indexed on first use for faster retrieval on subsequent data
+ * operations. Date filtering uses either the <code>datePath</code> or the
+ * <code>dateLowPath</code> and <code>dateHighPath</code> of the retrieve and
+ * returns the same rows as the CQL <code>included in</code> operator. See
+ * {@link DateRangeIndex} for the details of date range matching.
+ *
+ * Every index of a datatype is built from a single pass over the rows of that
+ * datatype, which is kept for as long as the data is in use. This allows code
+ * and date matches to be combined by row identity even when the rows are
+ * provided by an Iterable that creates new row objects on each iteration.
+ *
+ * Rows that are provided as {@link StreamingRows} are never kept. Their
+ * indexes hold the positions of the rows instead, the code and date indexes
+ * that a retrieve needs are built together in one pass over the rows, and the
+ * rows that match are read back from the stream by position.
  */
 public class DataRowRetrieveProvider implements RetrieveProvider {
 
@@ -35,31 +53,72 @@ public class DataRowRetrieveProvider implements RetrieveProvider {
      * Map of datatype to list of rows for that datatype. Aggregation by "context"
      * is assumed to be done ahead of this data being used for retrieval.
      */
-    private final Map<String, ? extends Iterable<Object>> data;
+    private Map<String, ? extends Iterable<Object>> data;
 
     private Map<String, Map<String, Map<Object, List<Object>>>> indexes;
 
+    private Map<String, Map<String, DateRangeIndex>> dateIndexes;
+
+    private Map<String, List<Object>> indexedRows;
+
+    private Map<String, Map<String, Map<Object, int[]>>> positionIndexes;
+
     private TerminologyProvider terminologyProvider;
 
+    private ZoneOffset evaluationOffset = OffsetDateTime.now().getOffset();
+
     public DataRowRetrieveProvider(Map<String, ? extends Iterable<Object>> data,
             TerminologyProvider terminologyProvider) {
         this.data = data;
         this.indexes = new HashMap<>();
+        this.dateIndexes = new HashMap<>();
+        this.indexedRows = new HashMap<>();
+        this.positionIndexes = new HashMap<>();
         this.terminologyProvider = terminologyProvider;
     }
 
+    /**
+     * Replace the data that is used for retrieval and discard any indexes that
+     * were calculated for the previous data. This allows a single provider
+     * instance to be reused for the evaluation of many contexts.
+     *
+     * @param data Map of datatype to list of rows for that datatype
+     */
+    public void setData(Map<String, ? extends Iterable<Object>> data) {
+        this.data = data;
+        this.indexes.clear();
+        this.dateIndexes.clear();
+        this.indexedRows.clear();
+        this.positionIndexes.clear();
+    }
+
+    /**
+     * Set the time zone offset of the CQL evaluation, which is used to compare
+     * Date values with DateTime values when rows are filtered by date. The
+     * default is the current offset of the system time zone, which is the offset
+     * the CQL engine uses when no evaluation date and time is provided.
+     *
+     * @param evaluationOffset Time zone offset of the CQL evaluation
+     */
+    public void setEvaluationOffset(ZoneOffset evaluationOffset) {
+        if (!evaluationOffset.equals(this.evaluationOffset)) {
+            this.evaluationOffset = evaluationOffset;
+            this.dateIndexes.clear();
+        }
+    }
+
     @Override
     public Iterable<Object> retrieve(String context, String contextPath, Object contextValue, String dataType,
             String templateId, String codePath, Iterable<Code> codes, String valueSet, String datePath,
             String dateLowPath, String dateHighPath, Interval dateRange) {
         Iterable<Object> result;
 
-        // Fast fail for an unsupported operation scenario
-        if (datePath != null || dateLowPath != null || dateHighPath != null) {
-            throw new UnsupportedOperationException("Date-based filtering is not supported at this time.");
+        Iterable<Object> allRows = data.get(dataType);
+        if (allRows instanceof StreamingRows) {
+            return retrieveStreaming((StreamingRows) allRows, dataType, codePath, codes, valueSet, datePath,
+                    dateLowPath, dateHighPath, dateRange);
         }
 
-        Iterable<Object> allRows = data.get(dataType);
         if (codePath != null) {
             // Calculate an index of code to matching rows based on the dataType and
             // codePath
@@ -67,17 +126,12 @@ public class DataRowRetrieveProvider implements RetrieveProvider {
                     key -> new HashMap<>());
             Map<Object, List<Object>> indexedRows = codePathToCodeMap.computeIfAbsent(codePath, key -> {
                 Map<Object, List<Object>> codeMap = new HashMap<>();
-                if (allRows != null) {
-                    for (Object obj : allRows) {
+                List<Object> rows = getIndexedRows(dataType, allRows);
+                if (rows != null) {
+                    for (Object obj : rows) {
                         DataRow row = (DataRow) obj;
-                        Object code = row.getValue(codePath);
+                        CodeKey code = toCodeKey(row.getValue(codePath));
                         if( code != null ) {
-                            if (code instanceof Code) {
-                                code = new CodeKey((Code) code);
-                            } else {
-                                code = new CodeKey().withCode(String.valueOf(code));
-                            }
-    
                             List<Object> list = codeMap.computeIfAbsent(code, codeKey -> new ArrayList<>());
                             list.add(row);
                         }
@@ -86,29 +140,242 @@ public class DataRowRetrieveProvider implements RetrieveProvider {
                 return codeMap;
             });
 
-            if (valueSet != null) {
-                // expand the valueset into codes
-                ValueSetInfo valueSetInfo = new ValueSetInfo().withId(valueSet);
-                codes = terminologyProvider.expand(valueSetInfo);
+            List<Object> allMatches = new ArrayList<>();
+            for (Code codeToCheck : getCodes(dataType, codePath, codes, valueSet)) {
+                CodeKey indexKey = new CodeKey(codeToCheck);
+                List<Object> matches = indexedRows.get(indexKey);
+                if (matches != null) {
+                    allMatches.addAll(matches);
+                }
             }
-            if (codes != null) {
-                List<Object> allMatches = new ArrayList<>();
-                for (Code codeToCheck : codes) {
-                    CodeKey indexKey = new CodeKey(codeToCheck);
-                    List<Object> matches = indexedRows.get(indexKey);
-                    if (matches != null) {
-                        allMatches.addAll(matches);
+            result = allMatches;
+        } else {
+            result = (allRows != null) ? allRows : Collections.emptyList();
+        }
+
+        if (dateRange != null && (datePath != null || dateLowPath != null || dateHighPath != null)) {
+            result = filterByDate(result, dataType, allRows, datePath, dateLowPath, dateHighPath, dateRange, codePath != null);
+        }
+
+        return result;
+    }
+
+    /**
+     * Retrieve rows that are streamed from their source. The code and date
+     * indexes that the retrieve needs and that do not exist yet are built in a
+     * single pass over the rows, and only the positions of the rows are kept.
+     *
+     * @return all rows when the retrieve is not filtered, otherwise the rows at
+     *         the matching positions
+     */
+    protected Iterable<Object> retrieveStreaming(StreamingRows allRows, String dataType, String codePath,
+            Iterable<Code> codes, String valueSet, String datePath, String dateLowPath, String dateHighPath,
+            Interval dateRange) {
+        boolean isDateFiltered = dateRange != null && (datePath != null || dateLowPath != null || dateHighPath != null);
+        if (codePath == null && !isDateFiltered) {
+            return allRows;
+        }
+
+        Map<String, Map<Object, int[]>> codePathToPositions = positionIndexes.computeIfAbsent(dataType, key -> new HashMap<>());
+        Map<String, DateRangeIndex> datePathToIndex = dateIndexes.computeIfAbsent(dataType, key -> new HashMap<>());
+        String dateIndexKey = (datePath != null) ? datePath : dateLowPath + "|" + dateHighPath;
+
+        Map<Object, int[]> codeIndex = (codePath != null) ? codePathToPositions.get(codePath) : null;
+        DateRangeIndex dateIndex = isDateFiltered ? datePathToIndex.get(dateIndexKey) : null;
+
+        Map<Object, PositionList> newCodeIndex = (codePath != null && codeIndex == null) ? new HashMap<>() : null;
+        DateRangeIndex newDateIndex = (isDateFiltered && dateIndex == null)
+                ? DateRangeIndex.forPositions(datePath, dateLowPath, dateHighPath, evaluationOffset)
+                : null;
+        if (newCodeIndex != null || newDateIndex != null) {
+            int position = 0;
+            for (Object obj : allRows) {
+                if (newCodeIndex != null) {
+                    CodeKey code = toCodeKey(((DataRow) obj).getValue(codePath));
+                    if (code != null) {
+                        newCodeIndex.computeIfAbsent(code, key -> new PositionList()).add(position);
                     }
                 }
-                result = allMatches;
-            } else {
-                throw new IllegalArgumentException(String.format(
-                        "No codes found for filtered retrieve of dataType %s, codePath %s", dataType, codePath));
+                if (newDateIndex != null) {
+                    newDateIndex.add(obj, position);
+                }
+                position++;
+            }
+
+            if (newCodeIndex != null) {
+                codeIndex = new HashMap<>();
+                for (Map.Entry<Object, PositionList> entry : newCodeIndex.entrySet()) {
+                    codeIndex.put(entry.getKey(), entry.getValue().toArray());
+                }
+                codePathToPositions.put(codePath, codeIndex);
+            }
+            if (newDateIndex != null) {
+                newDateIndex.complete();
+                dateIndex = newDateIndex;
+                datePathToIndex.put(dateIndexKey, dateIndex);
+            }
+        }
+
+        int[] positions = null;
+        if (codePath != null) {
+            PositionList matches = new PositionList();
+            for (Code codeToCheck : getCodes(dataType, codePath, codes, valueSet)) {
+                int[] codeMatches = codeIndex.get(new CodeKey(codeToCheck));
+                if (codeMatches != null) {
+                    matches.addAll(codeMatches);
+                }
             }
+            positions = matches.toArray();
+            Arrays.sort(positions);
+        }
+        if (isDateFiltered) {
+            int[] dateMatches = dateIndex.findPositions(dateRange);
+            positions = (positions != null) ? intersect(positions, dateMatches) : dateMatches;
+        }
+
+        return allRows.select(positions);
+    }
+
+    /**
+     * @param positions    Sorted positions, which may contain duplicates
+     * @param dateMatches  Sorted positions without duplicates
+     * @return the positions that are also date matches
+     */
+    private static int[] intersect(int[] positions, int[] dateMatches) {
+        PositionList result = new PositionList();
+        int j = 0;
+        for (int position : positions) {
+            while (j < dateMatches.length && dateMatches[j] < position) {
+                j++;
+            }
+            if (j < dateMatches.length && dateMatches[j] == position) {
+                result.add(position);
+            }
+        }
+        return result.toArray();
+    }
+
+    /**
+     * @return the codes of a filtered retrieve, which are expanded from the
+     *         value set when one is provided
+     */
+    private Iterable<Code> getCodes(String dataType, String codePath, Iterable<Code> codes, String valueSet) {
+        if (valueSet != null) {
+            // expand the valueset into codes
+            ValueSetInfo valueSetInfo = new ValueSetInfo().withId(valueSet);
+            codes = terminologyProvider.expand(valueSetInfo);
+        }
+        if (codes == null) {
+            throw new IllegalArgumentException(String.format(
+                    "No codes found for filtered retrieve of dataType %s, codePath %s", dataType, codePath));
+        }
+        return codes;
+    }
+
+    private static CodeKey toCodeKey(Object code) {
+        CodeKey result = null;
+        if (code instanceof Code) {
+            result = new CodeKey((Code) code);
+        } else if (code != null) {
+            result = new CodeKey().withCode(String.valueOf(code));
+        }
+        return result;
+    }
+
+    /**
+     * Growable list of row positions.
+     */
+    private static class PositionList {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        void add(int position) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+
+        void addAll(int[] positions) {
+            if (size + positions.length > values.length) {
+                values = Arrays.copyOf(values, Math.max(size * 2, size + positions.length));
+            }
+            System.arraycopy(positions, 0, values, size, positions.length);
+            size += positions.length;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Apply a date range filter to the rows that were selected for a retrieve.
+     *
+     * @param selected     Rows that match the other retrieve criteria
+     * @param dataType     Data type of the rows
+     * @param allRows      All rows of the data type
+     * @param datePath     Path of the date value of each row or null when the low
+     *                     and high paths are used
+     * @param dateLowPath  Path of the start of the date range of each row
+     * @param dateHighPath Path of the end of the date range of each row
+     * @param dateRange    Date range to match
+     * @param isFiltered   true when selected is a subset of allRows
+     * @return rows from selected that match the date range
+     */
+    protected Iterable<Object> filterByDate(Iterable<Object> selected, String dataType, Iterable<Object> allRows,
+            String datePath, String dateLowPath, String dateHighPath, Interval dateRange, boolean isFiltered) {
+        String indexKey = (datePath != null) ? datePath : dateLowPath + "|" + dateHighPath;
+
+        Map<String, DateRangeIndex> datePathToIndex = dateIndexes.computeIfAbsent(dataType, key -> new HashMap<>());
+        List<Object> rows = getIndexedRows(dataType, allRows);
+        DateRangeIndex index = datePathToIndex.computeIfAbsent(indexKey, key -> (datePath != null)
+                ? DateRangeIndex.forDatePath(rows, datePath, evaluationOffset)
+                : DateRangeIndex.forDateLowHighPaths(rows, dateLowPath, dateHighPath, evaluationOffset));
+
+        List<Object> dateMatches = index.find(dateRange);
+
+        Iterable<Object> result;
+        if (isFiltered) {
+            // Intersect with the code matches. Row identity is used because
+            // DataRow implementations are not required to implement equals. Both
+            // sets of matches come from the same indexed rows.
+            Set<Object> dateMatchSet = Collections.newSetFromMap(new IdentityHashMap<>());
+            dateMatchSet.addAll(dateMatches);
+
+            List<Object> bothMatches = new ArrayList<>();
+            for (Object row : selected) {
+                if (dateMatchSet.contains(row)) {
+                    bothMatches.add(row);
+                }
+            }
+            result = bothMatches;
         } else {
-            result = (allRows != null) ? allRows : Collections.emptyList();
+            result = dateMatches;
         }
+        return result;
+    }
 
+    /**
+     * Get the rows of a datatype that all of its indexes are built from. Rows
+     * that are not already provided as a List are read once and kept until the
+     * data is replaced.
+     *
+     * @param dataType Data type of the rows
+     * @param allRows  All rows of the data type
+     * @return rows to index or null when there are no rows for the data type
+     */
+    protected List<Object> getIndexedRows(String dataType, Iterable<Object> allRows) {
+        List<Object> result;
+        if (allRows == null || allRows instanceof List) {
+            result = (List<Object>) allRows;
+        } else {
+            result = indexedRows.computeIfAbsent(dataType, key -> {
+                List<Object> rows = new ArrayList<>();
+                allRows.forEach(rows::add);
+                return rows;
+            });
+        }
         return result;
     }
 }
@@ -0,0 +1,453 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.datarow.engine;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.runtime.Precision;
+
+import com.ibm.cohort.datarow.exception.UnsupportedConversionException;
+import com.ibm.cohort.datarow.model.DataRow;
+
+/**
+ * Index of the rows of a single datatype that answers the date range of a
+ * retrieve with the same result as the CQL clause
+ * <code>where X.date included in dateRange</code> (or <code>during</code>),
+ * which the CQL translator removes when it moves the date criteria into the
+ * retrieve.
+ *
+ * The date of each row is either a single value from a date path, an interval
+ * value from a date path, or the interval between the values of a low and a high
+ * date path. A single value is treated as an interval that starts and ends with
+ * that value. A row matches when the start of its interval is on or after the
+ * start of the query interval and the end of its interval is on or before the
+ * end of the query interval. Open interval bounds are replaced by the adjacent
+ * value at the precision of the bound.
+ *
+ * Values are compared the way CQL compares them. Each value covers a range of
+ * epoch milliseconds at its precision (seconds and milliseconds are treated as
+ * a single precision). Dates and values without a time zone offset are
+ * interpreted in the time zone offset of the evaluation, which is how CQL
+ * converts a Date to a DateTime. Two values with different ranges compare as
+ * unknown when one range contains the other, e.g. a Date that is compared to a
+ * DateTime on the same day, and an unknown comparison does not match. Rows
+ * without a date, and rows with a null bound that is not open, never match.
+ *
+ * Rows are sorted by the start of their interval. Lookups use binary search to
+ * find the rows that start within the query interval and only check the end of
+ * those rows. Matches are returned in the original order of the rows.
+ *
+ * An index of {@link StreamingRows} only keeps the position of each row, so
+ * the rows can be indexed while they are streamed without holding them in
+ * memory, and the matches are returned as positions.
+ */
+public class DateRangeIndex {
+
+    private final String datePath;
+    private final String dateLowPath;
+    private final String dateHighPath;
+    private final ZoneOffset evaluationOffset;
+    private final boolean keepRows;
+
+    private List<long[][]> pendingIntervals = new ArrayList<>();
+    private List<Integer> pendingPositions = new ArrayList<>();
+    private List<Object> pendingRows = new ArrayList<>();
+
+    private long[] lowStarts;
+    private long[] lowEnds;
+    private long[] highStarts;
+    private long[] highEnds;
+    private int[] positions;
+    private Object[] rows;
+
+    /**
+     * Index the rows by the value of a single date path.
+     *
+     * @param rows             Rows to index
+     * @param datePath         Path of the date value in each row
+     * @param evaluationOffset Time zone offset of the CQL evaluation
+     * @return index of the rows
+     */
+    public static DateRangeIndex forDatePath(Iterable<Object> rows, String datePath, ZoneOffset evaluationOffset) {
+        return new DateRangeIndex(rows, datePath, null, null, evaluationOffset);
+    }
+
+    /**
+     * Index the rows by the closed date interval described by a pair of date
+     * paths.
+     *
+     * @param rows             Rows to index
+     * @param dateLowPath      Path of the start of the date interval in each row
+     * @param dateHighPath     Path of the end of the date interval in each row
+     * @param evaluationOffset Time zone offset of the CQL evaluation
+     * @return index of the rows
+     */
+    public static DateRangeIndex forDateLowHighPaths(Iterable<Object> rows, String dateLowPath, String dateHighPath,
+            ZoneOffset evaluationOffset) {
+        return new DateRangeIndex(rows, null, dateLowPath, dateHighPath, evaluationOffset);
+    }
+
+    /**
+     * Create an empty index that only keeps the positions of the rows. Rows are
+     * added with {@link #add(Object, int)} while they are streamed and the
+     * index is usable once {@link #complete()} is called.
+     *
+     * @param datePath         Path of the date value in each row or null when
+     *                         the low and high paths are used
+     * @param dateLowPath      Path of the start of the date interval in each row
+     * @param dateHighPath     Path of the end of the date interval in each row
+     * @param evaluationOffset Time zone offset of the CQL evaluation
+     * @return empty index
+     */
+    static DateRangeIndex forPositions(String datePath, String dateLowPath, String dateHighPath, ZoneOffset evaluationOffset) {
+        return new DateRangeIndex(datePath, dateLowPath, dateHighPath, evaluationOffset, false);
+    }
+
+    protected DateRangeIndex(Iterable<Object> allRows, String datePath, String dateLowPath, String dateHighPath,
+            ZoneOffset evaluationOffset) {
+        this(datePath, dateLowPath, dateHighPath, evaluationOffset, true);
+
+        if (allRows != null) {
+            int position = 0;
+            for (Object obj : allRows) {
+                add(obj, position++);
+            }
+        }
+        complete();
+    }
+
+    private DateRangeIndex(String datePath, String dateLowPath, String dateHighPath, ZoneOffset evaluationOffset,
+            boolean keepRows) {
+        this.datePath = datePath;
+        this.dateLowPath = dateLowPath;
+        this.dateHighPath = dateHighPath;
+        this.evaluationOffset = evaluationOffset;
+        this.keepRows = keepRows;
+    }
+
+    /**
+     * Add a row to an index that is being built.
+     *
+     * @param obj      Data row
+     * @param position Position of the row in the original order of the rows
+     */
+    void add(Object obj, int position) {
+        DataRow row = (DataRow) obj;
+
+        long[][] interval;
+        if (datePath != null) {
+            interval = toInterval(row.getValue(datePath));
+        } else {
+            interval = toInterval(dateLowPath != null ? row.getValue(dateLowPath) : null, true,
+                    dateHighPath != null ? row.getValue(dateHighPath) : null, true);
+        }
+
+        if (interval != null) {
+            pendingIntervals.add(interval);
+            pendingPositions.add(position);
+            if (keepRows) {
+                pendingRows.add(row);
+            }
+        }
+    }
+
+    /**
+     * Sort the rows that were added to the index.
+     */
+    void complete() {
+        List<long[][]> intervals = pendingIntervals;
+        Integer[] order = new Integer[intervals.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> intervals.get(i)[0][0]));
+
+        this.lowStarts = new long[order.length];
+        this.lowEnds = new long[order.length];
+        this.highStarts = new long[order.length];
+        this.highEnds = new long[order.length];
+        this.positions = new int[order.length];
+        this.rows = keepRows ? new Object[order.length] : null;
+        for (int i = 0; i < order.length; i++) {
+            long[][] interval = intervals.get(order[i]);
+            lowStarts[i] = interval[0][0];
+            lowEnds[i] = interval[0][1];
+            highStarts[i] = interval[1][0];
+            highEnds[i] = interval[1][1];
+            positions[i] = pendingPositions.get(order[i]);
+            if (keepRows) {
+                rows[i] = pendingRows.get(order[i]);
+            }
+        }
+
+        pendingIntervals = null;
+        pendingPositions = null;
+        pendingRows = null;
+    }
+
+    /**
+     * @return number of rows that have date information
+     */
+    public int size() {
+        return positions.length;
+    }
+
+    /**
+     * Find the rows whose date value or date interval is included in the provided
+     * interval.
+     *
+     * @param dateRange Interval of Date or DateTime values. A null bound that is
+     *                  open is unbounded and a null bound that is closed is
+     *                  unknown, so nothing matches.
+     * @return matching rows in their original order
+     */
+    public List<Object> find(Interval dateRange) {
+        if (!keepRows) {
+            throw new IllegalStateException("The index only contains the positions of the rows");
+        }
+
+        List<Integer> matches = findMatches(dateRange);
+        List<Object> result = new ArrayList<>(matches.size());
+        for (int i : matches) {
+            result.add(rows[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Find the positions of the rows whose date value or date interval is
+     * included in the provided interval.
+     *
+     * @param dateRange Interval of Date or DateTime values
+     * @return positions of the matching rows in ascending order
+     * @see #find(Interval)
+     */
+    public int[] findPositions(Interval dateRange) {
+        List<Integer> matches = findMatches(dateRange);
+        int[] result = new int[matches.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = positions[matches.get(i)];
+        }
+        return result;
+    }
+
+    /**
+     * @return indexes into the sorted arrays of the matching rows, in the
+     *         original order of the rows
+     */
+    private List<Integer> findMatches(Interval dateRange) {
+        long[] queryLow = null;
+        long[] queryHigh = null;
+        boolean isUnknown = false;
+        if (dateRange.getLow() != null) {
+            queryLow = toRange(dateRange.getLow(), dateRange.getLowClosed() ? 0 : 1);
+        } else {
+            isUnknown = dateRange.getLowClosed();
+        }
+        if (dateRange.getHigh() != null) {
+            queryHigh = toRange(dateRange.getHigh(), dateRange.getHighClosed() ? 0 : -1);
+        } else {
+            isUnknown |= dateRange.getHighClosed();
+        }
+
+        List<Integer> matches = new ArrayList<>();
+        if (!isUnknown) {
+            // A row that is included starts on or after the start of the query and
+            // no later than the end of the query.
+            int start = (queryLow != null) ? lowerBound(lowStarts, queryLow[0]) : 0;
+            int end = (queryHigh != null) ? upperBound(lowStarts, queryHigh[1]) : lowStarts.length;
+
+            for (int i = start; i < end; i++) {
+                if ((queryLow == null || isLessOrEqual(queryLow[0], queryLow[1], lowStarts[i], lowEnds[i]))
+                        && (queryHigh == null || isLessOrEqual(highStarts[i], highEnds[i], queryHigh[0], queryHigh[1]))) {
+                    matches.add(i);
+                }
+            }
+            matches.sort(Comparator.comparingInt(i -> positions[i]));
+        }
+        return matches;
+    }
+
+    /**
+     * Compare two values that are described by the range of epoch milliseconds
+     * that they cover.
+     *
+     * @return true when the first value is known to be less than or equal to the
+     *         second value and false when it is greater or unknown
+     */
+    private static boolean isLessOrEqual(long start1, long end1, long start2, long end2) {
+        return end1 < start2 || (start1 == start2 && end1 == end2);
+    }
+
+    /**
+     * @param keys  sorted keys
+     * @param value value to find
+     * @return index of the first key that is greater than or equal to value
+     */
+    private static int lowerBound(long[] keys, long value) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param keys  sorted keys
+     * @param value value to find
+     * @return index of the first key that is greater than value
+     */
+    private static int upperBound(long[] keys, long value) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Convert the date value of a row to a closed interval.
+     *
+     * @param value Single date value or Interval of date values
+     * @return ranges of the start and end of the interval or null when the row
+     *         cannot match any date range
+     */
+    protected long[][] toInterval(Object value) {
+        long[][] result;
+        if (value instanceof Interval) {
+            Interval interval = (Interval) value;
+            result = toInterval(interval.getLow(), interval.getLowClosed(), interval.getHigh(), interval.getHighClosed());
+        } else if (value != null) {
+            long[] range = toRange(value, 0);
+            result = new long[][] { range, range };
+        } else {
+            result = null;
+        }
+        return result;
+    }
+
+    private long[][] toInterval(Object low, boolean lowClosed, Object high, boolean highClosed) {
+        long[][] result = null;
+        // a null bound is unbounded when it is open and unknown when it is closed
+        if ((low != null || !lowClosed) && (high != null || !highClosed)) {
+            long[] lowRange = (low != null) ? toRange(low, lowClosed ? 0 : 1) : new long[] { Long.MIN_VALUE, Long.MIN_VALUE };
+            long[] highRange = (high != null) ? toRange(high, highClosed ? 0 : -1) : new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+            result = new long[][] { lowRange, highRange };
+        }
+        return result;
+    }
+
+    /**
+     * Convert a date value to the range of epoch milliseconds that it covers.
+     *
+     * @param value Date value. CQL Date and DateTime types as well as the common
+     *              Java date and time types are supported.
+     * @param shift Number of units of the precision of the value to move the
+     *              value by, which is used to close an open interval bound
+     * @return start and end of the covered range (inclusive)
+     */
+    protected long[] toRange(Object value, int shift) {
+        OffsetDateTime start;
+        ChronoUnit unit;
+        if (value instanceof Date) {
+            Date date = (Date) value;
+            start = date.getDate().atStartOfDay().atOffset(evaluationOffset);
+            unit = toChronoUnit(date.getPrecision());
+        } else if (value instanceof DateTime) {
+            DateTime dateTime = (DateTime) value;
+            start = dateTime.getDateTime();
+            unit = toChronoUnit(dateTime.getPrecision());
+        } else if (value instanceof LocalDate) {
+            start = ((LocalDate) value).atStartOfDay().atOffset(evaluationOffset);
+            unit = ChronoUnit.DAYS;
+        } else if (value instanceof java.sql.Date) {
+            start = ((java.sql.Date) value).toLocalDate().atStartOfDay().atOffset(evaluationOffset);
+            unit = ChronoUnit.DAYS;
+        } else if (value instanceof java.util.Date) {
+            start = ((java.util.Date) value).toInstant().atOffset(evaluationOffset);
+            unit = ChronoUnit.MILLIS;
+        } else if (value instanceof Instant) {
+            start = ((Instant) value).atOffset(evaluationOffset);
+            unit = ChronoUnit.MILLIS;
+        } else if (value instanceof OffsetDateTime) {
+            start = (OffsetDateTime) value;
+            unit = ChronoUnit.MILLIS;
+        } else if (value instanceof ZonedDateTime) {
+            start = ((ZonedDateTime) value).toOffsetDateTime();
+            unit = ChronoUnit.MILLIS;
+        } else if (value instanceof LocalDateTime) {
+            start = ((LocalDateTime) value).atOffset(evaluationOffset);
+            unit = ChronoUnit.MILLIS;
+        } else {
+            throw new UnsupportedConversionException(
+                    String.format("Type %s is not supported for date range filtering", value.getClass().getName()));
+        }
+
+        start = start.plus(shift, unit);
+        long startMillis = start.toInstant().toEpochMilli();
+        long endMillis = start.plus(1, unit).toInstant().toEpochMilli() - 1;
+        return new long[] { startMillis, endMillis };
+    }
+
+    private static ChronoUnit toChronoUnit(Precision precision) {
+        // CQL compares seconds and milliseconds as a single precision
+        ChronoUnit unit;
+        if (precision == null) {
+            unit = ChronoUnit.MILLIS;
+        } else {
+            switch (precision) {
+            case YEAR:
+                unit = ChronoUnit.YEARS;
+                break;
+            case MONTH:
+                unit = ChronoUnit.MONTHS;
+                break;
+            case WEEK:
+                unit = ChronoUnit.WEEKS;
+                break;
+            case DAY:
+                unit = ChronoUnit.DAYS;
+                break;
+            case HOUR:
+                unit = ChronoUnit.HOURS;
+                break;
+            case MINUTE:
+                unit = ChronoUnit.MINUTES;
+                break;
+            default:
+                unit = ChronoUnit.MILLIS;
+                break;
+            }
+        }
+        return unit;
+    }
+}
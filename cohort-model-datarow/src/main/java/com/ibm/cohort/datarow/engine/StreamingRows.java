@@ -0,0 +1,30 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.datarow.engine;
+
+/**
+ * Rows of a single datatype that are read again from their source, e.g. a file
+ * on local disk, each time they are iterated and that are too large to be kept
+ * in memory. Every iteration must return the rows in the same order.
+ *
+ * {@link DataRowRetrieveProvider} indexes these rows by their position in that
+ * order instead of keeping the rows, and reads the rows that match a filtered
+ * retrieve back with {@link #select(int[])}.
+ */
+public interface StreamingRows extends Iterable<Object> {
+
+    /**
+     * Select rows by position.
+     *
+     * @param positions Positions of the rows in iteration order, sorted in
+     *                  ascending order. A position that is repeated selects
+     *                  the row once for each occurrence.
+     * @return the selected rows, which are read again from the source each time
+     *         they are iterated
+     */
+    Iterable<Object> select(int[] positions);
+}
@@ -0,0 +1,49 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.datarow.model;
+
+/**
+ * Tracks how many field values were converted by memoizing data rows and how
+ * many reads were answered from an already converted value. The counter is
+ * not thread-safe and is intended to be shared by the rows that are evaluated
+ * on a single thread.
+ */
+public class ConversionCounter {
+
+    private long conversions;
+    private long reuses;
+
+    public void recordConversion() {
+        conversions++;
+    }
+
+    public void recordReuse() {
+        reuses++;
+    }
+
+    /**
+     * @return number of field values that were converted
+     */
+    public long getConversions() {
+        return conversions;
+    }
+
+    /**
+     * @return number of field reads that reused a converted value
+     */
+    public long getReuses() {
+        return reuses;
+    }
+
+    /**
+     * Reset both counts to zero.
+     */
+    public void reset() {
+        conversions = 0;
+        reuses = 0;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.datarow.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DataRow decorator that converts each field value of the wrapped row at most
+ * once. Data rows that convert their values on read (e.g. from a storage
+ * format into the CQL Runtime typesystem) otherwise repeat the conversion every
+ * time an expression reads the field. Converted values are kept in a
+ * {@link ValueSlots} array indexed by field ordinal.
+ *
+ * The field ordinals are shared by all rows with the same field names and
+ * should be calculated once using {@link #getOrdinals(Collection)}. Reads of
+ * fields that have no ordinal are passed through to the wrapped row.
+ *
+ * Memoized values are shared by every reader of the row, so they must not be
+ * modified.
+ */
+public class MemoizingDataRow implements DataRow {
+
+    private final DataRow delegate;
+    private final Map<String, Integer> ordinals;
+    private final ValueSlots values;
+
+    /**
+     * @param delegate Data row that performs the value conversion
+     * @param ordinals Field ordinals of the rows with the field names of the
+     *                 delegate
+     * @param counter  Counter that tracks conversions and reuse or null
+     */
+    public MemoizingDataRow(DataRow delegate, Map<String, Integer> ordinals, ConversionCounter counter) {
+        this.delegate = delegate;
+        this.ordinals = ordinals;
+        this.values = new ValueSlots(ordinals.size(), counter);
+    }
+
+    /**
+     * Assign an ordinal to each field name.
+     *
+     * @param fieldNames Field names of a row
+     * @return immutable map of field name to ordinal
+     */
+    public static Map<String, Integer> getOrdinals(Collection<String> fieldNames) {
+        Map<String, Integer> result = new HashMap<>(fieldNames.size() * 2);
+        for (String fieldName : fieldNames) {
+            result.putIfAbsent(fieldName, result.size());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    public DataRow getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Object getValue(String fieldName) {
+        Object result;
+        Integer ordinal = ordinals.get(fieldName);
+        if (ordinal == null) {
+            result = delegate.getValue(fieldName);
+        } else {
+            result = values.lookup(ordinal);
+            if (result == ValueSlots.MISSING) {
+                result = delegate.getValue(fieldName);
+                values.store(ordinal, result);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Set<String> getFieldNames() {
+        return delegate.getFieldNames();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
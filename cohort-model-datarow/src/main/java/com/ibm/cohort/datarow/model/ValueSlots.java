@@ -0,0 +1,70 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.datarow.model;
+
+/**
+ * Compact per-row storage for converted field values indexed by field
+ * ordinal. The slot array is only allocated when the first value is stored,
+ * so rows that are never read do not pay for it. Converted null values are
+ * stored as a marker so that they are not converted again.
+ */
+public class ValueSlots {
+
+    /**
+     * Returned by {@link #lookup(int)} when no value was stored for an ordinal.
+     */
+    public static final Object MISSING = new Object();
+
+    private static final Object NULL_VALUE = new Object();
+
+    private final int size;
+    private final ConversionCounter counter;
+    private Object[] slots;
+
+    /**
+     * @param size    Number of fields in the row
+     * @param counter Counter that is updated on each lookup and store or null
+     *                if no counting is needed
+     */
+    public ValueSlots(int size, ConversionCounter counter) {
+        this.size = size;
+        this.counter = counter;
+    }
+
+    /**
+     * @param ordinal Field ordinal
+     * @return stored value, which may be null, or {@link #MISSING} if no value
+     *         was stored for the ordinal
+     */
+    public Object lookup(int ordinal) {
+        Object result = MISSING;
+        if (slots != null) {
+            Object stored = slots[ordinal];
+            if (stored != null) {
+                result = (stored == NULL_VALUE) ? null : stored;
+                if (counter != null) {
+                    counter.recordReuse();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param ordinal Field ordinal
+     * @param value   Converted value, which may be null
+     */
+    public void store(int ordinal, Object value) {
+        if (slots == null) {
+            slots = new Object[size];
+        }
+        slots[ordinal] = (value == null) ? NULL_VALUE : value;
+        if (counter != null) {
+            counter.recordConversion();
+        }
+    }
+}
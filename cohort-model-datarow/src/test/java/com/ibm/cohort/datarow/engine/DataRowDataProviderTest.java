@@ -11,16 +11,25 @@ import static org.junit.Assert.assertEquals;
 import java.io.File;
 import java.io.FileReader;
 import java.io.Reader;
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.junit.Test;
+import org.opencds.cqf.cql.engine.runtime.Date;
 import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
 
 import com.ibm.cohort.cql.data.CompositeCqlDataProvider;
 import com.ibm.cohort.cql.data.CqlDataProvider;
+import com.ibm.cohort.cql.evaluation.CqlDebug;
 import com.ibm.cohort.cql.evaluation.CqlEvaluationResult;
 import com.ibm.cohort.cql.evaluation.CqlEvaluator;
 import com.ibm.cohort.cql.library.CqlLibraryDescriptor;
@@ -31,6 +40,7 @@ import com.ibm.cohort.cql.terminology.CqlTerminologyProvider;
 import com.ibm.cohort.cql.terminology.UnsupportedTerminologyProvider;
 import com.ibm.cohort.cql.translation.CqlToElmTranslator;
 import com.ibm.cohort.cql.translation.TranslatingCqlLibraryProvider;
+import com.ibm.cohort.datarow.model.DataRow;
 import com.ibm.cohort.datarow.model.SimpleDataRow;
 
 public class DataRowDataProviderTest {
@@ -72,4 +82,92 @@ public class DataRowDataProviderTest {
         Object perDefineResult = result.getExpressionResults().get("IsFemale");
         assertEquals( Boolean.TRUE, perDefineResult );
     }
+
+    @Test
+    public void testDateRangeOptimizationDoesNotChangeResults() throws Exception {
+        Map<String, List<String>> expected = new TreeMap<>();
+        expected.put("Dates In Date Period", Arrays.asList("1", "2"));
+        expected.put("Dates In DateTime Period", Arrays.asList("1"));
+        expected.put("DateTimes In Date Period", Arrays.asList("1", "2"));
+        expected.put("DateTimes In DateTime Period", Arrays.asList("1", "2"));
+        expected.put("Periods In DateTime Period", Arrays.asList("1"));
+
+        Map<String, List<String>> unoptimized = evaluateDateRanges(false);
+        Map<String, List<String>> optimized = evaluateDateRanges(true);
+
+        assertEquals(expected, unoptimized);
+        assertEquals(unoptimized, optimized);
+    }
+
+    private Map<String, List<String>> evaluateDateRanges(boolean dateRangeOptimizationEnabled) throws Exception {
+        CqlLibraryProvider backingProvider = new DirectoryBasedCqlLibraryProvider(new File("src/test/resources/cql"));
+
+        CqlToElmTranslator translator = new CqlToElmTranslator();
+        translator.setDateRangeOptimizationEnabled(dateRangeOptimizationEnabled);
+        try (Reader r = new FileReader(new File("src/test/resources/modelinfo/mock-modelinfo-1.0.0.xml"))) {
+            translator.registerModelInfo(r);
+        }
+        CqlLibraryProvider libraryProvider = new TranslatingCqlLibraryProvider(backingProvider, translator);
+
+        CqlLibraryDescriptor topLevelLibrary = new CqlLibraryDescriptor().setLibraryId("DateRangeLibrary")
+                .setVersion("1.0.0").setFormat(Format.CQL);
+
+        CqlTerminologyProvider terminologyProvider = new UnsupportedTerminologyProvider();
+
+        // Evaluate with an offset other than UTC so that Date values are compared
+        // with DateTime values in the time zone of the evaluation
+        ZonedDateTime batchDateTime = ZonedDateTime.of(2021, 6, 1, 0, 0, 0, 0, ZoneOffset.ofHours(5));
+
+        List<Object> encounters = new ArrayList<>();
+        // inside of every period
+        encounters.add(encounter("1", LocalDate.of(2020, 6, 1), OffsetDateTime.of(2020, 6, 1, 10, 0, 0, 0, ZoneOffset.UTC),
+                OffsetDateTime.of(2020, 6, 1, 10, 0, 0, 0, ZoneOffset.UTC), OffsetDateTime.of(2020, 6, 2, 10, 0, 0, 0, ZoneOffset.UTC)));
+        // admitted on the first day of the periods, which is uncertain for the
+        // DateTime period, started on January 2nd in the evaluation time zone,
+        // and only partly within the periods
+        encounters.add(encounter("2", LocalDate.of(2020, 1, 1), OffsetDateTime.of(2020, 1, 1, 22, 0, 0, 0, ZoneOffset.UTC),
+                OffsetDateTime.of(2019, 12, 15, 0, 0, 0, 0, ZoneOffset.UTC), OffsetDateTime.of(2020, 1, 15, 0, 0, 0, 0, ZoneOffset.UTC)));
+        // after the periods in the evaluation time zone, but not in UTC
+        encounters.add(encounter("3", LocalDate.of(2021, 1, 1), OffsetDateTime.of(2020, 12, 31, 20, 0, 0, 0, ZoneOffset.UTC),
+                null, null));
+
+        Map<String, Iterable<Object>> data = new HashMap<>();
+        data.put("Encounter", encounters);
+
+        DataRowRetrieveProvider retrieveProvider = new DataRowRetrieveProvider(data, terminologyProvider);
+        retrieveProvider.setEvaluationOffset(batchDateTime.getOffset());
+
+        CqlDataProvider dataProvider = new CompositeCqlDataProvider(new DataRowModelResolver(SimpleDataRow.class), retrieveProvider);
+
+        CqlEvaluator evaluator = new CqlEvaluator()
+                .setLibraryProvider(libraryProvider)
+                .setTerminologyProvider(terminologyProvider)
+                .setDataProvider(dataProvider);
+
+        CqlEvaluationResult result = evaluator.evaluate(topLevelLibrary, null, null, null, CqlDebug.NONE, batchDateTime);
+
+        Map<String, List<String>> ids = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : result.getExpressionResults().entrySet()) {
+            if (entry.getValue() instanceof Iterable) {
+                List<String> rowIds = new ArrayList<>();
+                for (Object row : (Iterable<?>) entry.getValue()) {
+                    rowIds.add((String) ((DataRow) row).getValue("id"));
+                }
+                ids.put(entry.getKey(), rowIds);
+            }
+        }
+        return ids;
+    }
+
+    private DataRow encounter(String id, LocalDate admitDate, OffsetDateTime startTime, OffsetDateTime periodStart,
+            OffsetDateTime periodEnd) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("admitDate", new Date(admitDate));
+        row.put("startTime", new DateTime(startTime));
+        if (periodStart != null) {
+            row.put("period", new Interval(new DateTime(periodStart), true, new DateTime(periodEnd), true));
+        }
+        return new SimpleDataRow(row);
+    }
 }
@@ -11,6 +11,7 @@ import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.*;
 
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -22,8 +23,12 @@ import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
 import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Date;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
 import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
 
+import com.ibm.cohort.datarow.exception.UnsupportedConversionException;
 import com.ibm.cohort.datarow.model.DataRow;
 import com.ibm.cohort.datarow.model.SimpleDataRow;
 
@@ -39,6 +44,7 @@ public class DataRowRetrieveProviderTest {
     public static final String FIELD_GENDER_CODE = "gender_code";
     public static final String FIELD_AGE = "age";
     public static final String FIELD_BIRTH_DATE = "birth_date";
+    public static final String FIELD_PERIOD = "period";
 
     public static final String GENDER_FEMALE = "female";
     public static final String GENDER_MALE = "male";
@@ -165,6 +171,25 @@ public class DataRowRetrieveProviderTest {
         assertEquals(0, count(rows));
     }
 
+    @Test
+    public void testSetDataClearsIndexes() {
+        List<Code> codes = Arrays.asList(GENDER_MALE).stream().map(this::code)
+                .collect(Collectors.toList());
+        
+        data.put(DATATYPE_PERSON, makePeopleTestData());
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                FIELD_GENDER, codes, null, null, null, null, null);
+        assertEquals(1, count(rows));
+        
+        Map<String, Iterable<Object>> newData = new HashMap<>();
+        newData.put(DATATYPE_PERSON, Arrays.asList(person("1", GENDER_MALE, 20), person("2", GENDER_MALE, 30)));
+        retrieveProvider.setData(newData);
+        
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                FIELD_GENDER, codes, null, null, null, null, null);
+        assertEquals(2, count(rows));
+    }
+
     @Test
     public void testRetrieveFilterByValueSet() {
         String valueSetId = "urn:oid:allowed-genders";
@@ -193,26 +218,302 @@ public class DataRowRetrieveProviderTest {
     }
     
     @Test
-    public void testRetrieveFilterByDateFilteringUnsupported() {
-        String valueSetId = "urn:oid:allowed-genders";
-        when(termProvider.expand(argThat(a -> a.getId().equals(valueSetId)))).thenReturn(null);
+    public void testRetrieveFilterByDatePath() {
+        data.put(DATATYPE_PERSON, makePeopleTestData());
 
+        Interval dateRange = new Interval(new Date(now.minusYears(50)), true, new Date(now.minusYears(40)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(42, 43), ages(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_openBoundaries() {
+        data.put(DATATYPE_PERSON, makePeopleTestData());
+
+        Interval dateRange = new Interval(new Date(now.minusYears(43)), false, new Date(now.minusYears(8)), false);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(42), ages(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_unboundedRange() {
+        data.put(DATATYPE_PERSON, makePeopleTestData());
+
+        Interval dateRange = new Interval(null, false, new Date(now.minusYears(43)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(65, 43), ages(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_unknownBoundary() {
+        data.put(DATATYPE_PERSON, makePeopleTestData());
+
+        // A closed null boundary is unknown, so no row is known to be included
+        Interval dateRange = new Interval(null, true, new Date(now.minusYears(43)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(0, count(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_dateTimeDataIsUncertainAtDatePrecision() {
         List<Object> people = makePeopleTestData();
+        Map<String, Object> values = new HashMap<>();
+        values.put(FIELD_PERSON_ID, "999");
+        values.put(FIELD_AGE, 30);
+        values.put(FIELD_BIRTH_DATE, new DateTime(now.minusYears(30).atTime(13, 30).atOffset(ZoneOffset.UTC)));
+        people.add(new SimpleDataRow(values));
         data.put(DATATYPE_PERSON, people);
+        retrieveProvider.setEvaluationOffset(ZoneOffset.UTC);
 
-        // datePath
-        assertThrows(UnsupportedOperationException.class, () -> retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID,
-                null, DATATYPE_PERSON, null, FIELD_GENDER, null, valueSetId, FIELD_BIRTH_DATE, null, null, null));
-        
-        // dateLowPath
-        assertThrows(UnsupportedOperationException.class, () -> retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID,
-                null, DATATYPE_PERSON, null, FIELD_GENDER, null, valueSetId, null, FIELD_BIRTH_DATE, null, null));
-        
-        // dateHighPath
-        assertThrows(UnsupportedOperationException.class, () -> retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID,
-                null, DATATYPE_PERSON, null, FIELD_GENDER, null, valueSetId, null, null, FIELD_BIRTH_DATE, null));
+        // Whether a time on the boundary day is within the day range is unknown
+        Interval dateRange = new Interval(new Date(now.minusYears(30)), true, new Date(now.minusYears(30)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(0, count(rows));
+
+        dateRange = new Interval(new Date(now.minusYears(31)), true, new Date(now.minusYears(29)), true);
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(30), ages(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_dateOnBoundaryOfDateTimeRange() {
+        data.put(DATATYPE_PERSON, makePeopleTestData());
+        retrieveProvider.setEvaluationOffset(ZoneOffset.UTC);
+
+        // A date on the day of a DateTime boundary is not known to be included
+        Interval dateRange = new Interval(new DateTime(now.minusYears(42).atTime(12, 0).atOffset(ZoneOffset.UTC)), true,
+                new DateTime(now.atTime(12, 0).atOffset(ZoneOffset.UTC)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(8), ages(rows));
+
+        dateRange = new Interval(new DateTime(now.minusYears(42).minusDays(1).atTime(12, 0).atOffset(ZoneOffset.UTC)), true,
+                new DateTime(now.atTime(12, 0).atOffset(ZoneOffset.UTC)), true);
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(42, 8), ages(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_dateUsesEvaluationOffset() {
+        data.put(DATATYPE_PERSON, makePeopleTestData());
+        LocalDate birthDate = now.minusYears(42);
+
+        // 20:00 UTC on the day before the birth date is 01:00 on the birth date at UTC+05:00
+        Interval dateRange = new Interval(new DateTime(birthDate.minusDays(1).atTime(20, 0).atOffset(ZoneOffset.UTC)), true,
+                new DateTime(birthDate.plusDays(1).atTime(20, 0).atOffset(ZoneOffset.UTC)), true);
+
+        retrieveProvider.setEvaluationOffset(ZoneOffset.ofHours(5));
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(0, count(rows));
+
+        retrieveProvider.setEvaluationOffset(ZoneOffset.UTC);
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(42), ages(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_intervalValuesMustBeIncluded() {
+        List<Object> people = new ArrayList<>();
+        for (Object obj : makePeopleTestData()) {
+            Map<String, Object> values = copyValues((DataRow) obj);
+            LocalDate birthDate = (LocalDate) values.get(FIELD_BIRTH_DATE);
+            values.put(FIELD_PERIOD, new Interval(new Date(birthDate), true, new Date(birthDate.plusYears(5)), true));
+            people.add(new SimpleDataRow(values));
+        }
+        data.put(DATATYPE_PERSON, people);
+
+        // Only the periods of the 43 and 42 year olds are completely within the range
+        Interval dateRange = new Interval(new Date(now.minusYears(45)), true, new Date(now.minusYears(36)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_PERIOD, null, null, dateRange);
+        assertEquals(Arrays.asList(42, 43), ages(rows));
+
+        dateRange = new Interval(new Date(now.minusYears(45)), true, new Date(now.minusYears(37)), false);
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_PERIOD, null, null, dateRange);
+        assertEquals(Arrays.asList(43), ages(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_noDateRange() {
+        List<Object> people = makePeopleTestData();
+        data.put(DATATYPE_PERSON, people);
+
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, null);
+        assertEquals(people.size(), count(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_unknownDataType() {
+        data.put(DATATYPE_PERSON, makePeopleTestData());
+
+        Interval dateRange = new Interval(new Date(now.minusYears(50)), true, new Date(now), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, "unknown", null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(0, count(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePath_nullDatesAreExcluded() {
+        List<Object> people = makePeopleTestData();
+        Map<String, Object> values = new HashMap<>();
+        values.put(FIELD_PERSON_ID, "999");
+        values.put(FIELD_AGE, 30);
+        people.add(new SimpleDataRow(values));
+        data.put(DATATYPE_PERSON, people);
+
+        Interval dateRange = new Interval(new Date(now.minusYears(100)), true, new Date(now), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(4, count(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePathAndCodes() {
+        data.put(DATATYPE_PERSON, makePeopleTestData());
+
+        List<Code> codes = Arrays.asList(GENDER_FEMALE).stream().map(this::code)
+                .collect(Collectors.toList());
+
+        Interval dateRange = new Interval(new Date(now.minusYears(70)), true, new Date(now.minusYears(40)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                FIELD_GENDER, codes, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(65, 42), ages(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDatePathAndCodes_newRowsOnEachIteration() {
+        List<Object> people = makePeopleTestData();
+        // Rows that are read from disk are new objects each time they are iterated
+        Iterable<Object> lazyPeople = () -> people.stream()
+                .map(row -> (Object) new SimpleDataRow(copyValues((DataRow) row)))
+                .iterator();
+        data.put(DATATYPE_PERSON, lazyPeople);
+
+        List<Code> codes = Arrays.asList(GENDER_FEMALE).stream().map(this::code)
+                .collect(Collectors.toList());
+
+        Interval dateRange = new Interval(new Date(now.minusYears(70)), true, new Date(now.minusYears(40)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                FIELD_GENDER, codes, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(65, 42), ages(rows));
+
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                FIELD_GENDER, codes, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(65, 42), ages(rows));
+    }
+
+    @Test
+    public void testRetrieveStreamingRows() {
+        CountingStreamingRows people = new CountingStreamingRows(makePeopleTestData());
+        data.put(DATATYPE_PERSON, people);
+
+        List<Code> codes = Arrays.asList(GENDER_FEMALE).stream().map(this::code)
+                .collect(Collectors.toList());
+
+        // the code and date indexes are built together in one pass
+        Interval dateRange = new Interval(new Date(now.minusYears(70)), true, new Date(now.minusYears(40)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                FIELD_GENDER, codes, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(1, people.iterations);
+        assertEquals(Arrays.asList(65, 42), ages(rows));
+        assertEquals(Arrays.asList(0, 1), people.selected);
+
+        // the existing indexes are reused for different codes
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                FIELD_GENDER, Arrays.asList(code(GENDER_MALE), code(GENDER_FEMALE)), null, null, null, null, null);
+        assertEquals(Arrays.asList(65, 42, 43, 8), ages(rows));
+        assertEquals(1, people.iterations);
+
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, FIELD_BIRTH_DATE, null, null, dateRange);
+        assertEquals(Arrays.asList(65, 42, 43), ages(rows));
+        assertEquals(1, people.iterations);
+
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, null, null, null, null);
+        assertEquals(people, rows);
+
+        retrieveProvider.setData(data);
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                FIELD_GENDER, Arrays.asList(code(GENDER_MALE)), null, null, null, null, null);
+        assertEquals(Arrays.asList(43), ages(rows));
+        assertEquals(2, people.iterations);
+    }
+
+    @Test
+    public void testRetrieveFilterByDateLowHighPaths() {
+        List<Object> people = makePeopleTestData();
+        data.put(DATATYPE_PERSON, people);
+
+        Interval dateRange = new Interval(new Date(now.minusYears(50)), true, new Date(now.minusYears(40)), true);
+        Iterable<Object> rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, null, FIELD_BIRTH_DATE, FIELD_BIRTH_DATE, dateRange);
+        assertEquals(Arrays.asList(42, 43), ages(rows));
+
+        // Without a high date, the end of each person's range is unknown
+        dateRange = new Interval(new Date(now.minusYears(100)), true, new Date(now), true);
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, null, FIELD_BIRTH_DATE, null, dateRange);
+        assertEquals(0, count(rows));
+
+        // Without a low date, the start of each person's range is unknown
+        rows = retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID, null, DATATYPE_PERSON, null,
+                null, null, null, null, null, FIELD_BIRTH_DATE, dateRange);
+        assertEquals(0, count(rows));
+    }
+
+    @Test
+    public void testRetrieveFilterByDate_unsupportedType() {
+        data.put(DATATYPE_PERSON, makePeopleTestData());
+
+        Interval dateRange = new Interval(new Date(now.minusYears(50)), true, new Date(now), true);
+        assertThrows(UnsupportedConversionException.class, () -> retrieveProvider.retrieve(CONTEXT_CLAIM, FIELD_PERSON_ID,
+                null, DATATYPE_PERSON, null, null, null, null, FIELD_GENDER, null, null, dateRange));
     }
     
+    /**
+     * Rows that are new objects on each iteration and that count the full
+     * iterations and the selected positions.
+     */
+    protected class CountingStreamingRows implements StreamingRows {
+        private final List<Object> rows;
+        int iterations = 0;
+        List<Integer> selected = new ArrayList<>();
+
+        public CountingStreamingRows(List<Object> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            iterations++;
+            return rows.stream()
+                    .map(row -> (Object) new SimpleDataRow(copyValues((DataRow) row)))
+                    .iterator();
+        }
+
+        @Override
+        public Iterable<Object> select(int[] positions) {
+            List<Object> result = new ArrayList<>();
+            for (int position : positions) {
+                selected.add(position);
+                result.add(new SimpleDataRow(copyValues((DataRow) rows.get(position))));
+            }
+            return result;
+        }
+    }
+
     protected List<Object> makePeopleTestData() {
         return makePeopleTestData("789");
     }
@@ -236,10 +537,26 @@ public class DataRowRetrieveProviderTest {
         return new SimpleDataRow(person);
     }
 
+    protected Map<String, Object> copyValues(DataRow row) {
+        Map<String, Object> values = new HashMap<>();
+        for (String fieldName : row.getFieldNames()) {
+            values.put(fieldName, row.getValue(fieldName));
+        }
+        return values;
+    }
+
     protected Code code(String code) {
         return new Code().withCode(code);
     }
 
+    protected List<Integer> ages(Iterable<Object> rows) {
+        List<Integer> ages = new ArrayList<>();
+        for (Object obj : rows) {
+            ages.add((Integer) ((DataRow) obj).getValue(FIELD_AGE));
+        }
+        return ages;
+    }
+
     protected int count(Iterable<Object> rows) {
         int count = 0;
         Iterator<Object> it;
@@ -0,0 +1,98 @@
+/*
+ * (C) Copyright IBM Corp. 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.cohort.datarow.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class MemoizingDataRowTest {
+
+    private static class CountingDataRow implements DataRow {
+        private final Map<String, Object> fields;
+        private final Map<String, Integer> reads = new HashMap<>();
+
+        public CountingDataRow(Map<String, Object> fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public Object getValue(String fieldName) {
+            reads.merge(fieldName, 1, Integer::sum);
+            return fields.get(fieldName);
+        }
+
+        @Override
+        public Set<String> getFieldNames() {
+            return fields.keySet();
+        }
+
+        public int getReads(String fieldName) {
+            return reads.getOrDefault(fieldName, 0);
+        }
+    }
+
+    @Test
+    public void testValuesConvertedOnce() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", "123");
+        fields.put("date", new StringBuilder("2020-01-01"));
+        fields.put("empty", null);
+
+        CountingDataRow delegate = new CountingDataRow(fields);
+        ConversionCounter counter = new ConversionCounter();
+        MemoizingDataRow row = new MemoizingDataRow(delegate, MemoizingDataRow.getOrdinals(fields.keySet()), counter);
+
+        Object first = row.getValue("date");
+        for (int i = 0; i < 5; i++) {
+            assertSame(first, row.getValue("date"));
+            assertEquals("123", row.getValue("id"));
+            assertNull(row.getValue("empty"));
+        }
+
+        assertEquals(1, delegate.getReads("date"));
+        assertEquals(1, delegate.getReads("id"));
+        assertEquals(1, delegate.getReads("empty"));
+        assertEquals(3, counter.getConversions());
+        assertEquals(13, counter.getReuses());
+        assertEquals(fields.keySet(), row.getFieldNames());
+
+        counter.reset();
+        assertEquals(0, counter.getConversions());
+        assertEquals(0, counter.getReuses());
+    }
+
+    @Test
+    public void testUnknownFieldPassedThrough() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", "123");
+
+        CountingDataRow delegate = new CountingDataRow(fields);
+        MemoizingDataRow row = new MemoizingDataRow(delegate, MemoizingDataRow.getOrdinals(fields.keySet()), null);
+
+        assertNull(row.getValue("unknown"));
+        assertNull(row.getValue("unknown"));
+        assertEquals(2, delegate.getReads("unknown"));
+    }
+
+    @Test
+    public void testGetOrdinals() {
+        Map<String, Integer> ordinals = MemoizingDataRow.getOrdinals(Arrays.asList("a", "b", "a", "c"));
+        assertEquals(3, ordinals.size());
+        assertEquals(Integer.valueOf(0), ordinals.get("a"));
+        assertEquals(Integer.valueOf(1), ordinals.get("b"));
+        assertEquals(Integer.valueOf(2), ordinals.get("c"));
+    }
+}
@@ -19,6 +19,7 @@ import org.cqframework.cql.elm.execution.Library;
 public class OptimizedCqlLibraryReader {
 	private static JAXBContext context;
 	private static Unmarshaller unmarshaller;
+	private static final ThreadLocal<Boolean> PROFILING = ThreadLocal.withInitial(() -> Boolean.FALSE);
 
 	private OptimizedCqlLibraryReader() {
 	}
@@ -48,4 +49,27 @@ public class OptimizedCqlLibraryReader {
 
         return ((JAXBElement<Library>)result).getValue();
     }
+
+    /**
+     * Read a library whose expression definitions and retrieves report their
+     * evaluation time to the {@link com.ibm.cohort.cql.profiling.CqlProfiler}
+     * of the evaluating thread when <code>profiling</code> is true.
+     *
+     * @param stream    ELM library content
+     * @param profiling true if the library should be read with profiling node types
+     * @return deserialized library
+     * @throws JAXBException on any deserialization error
+     */
+    public static synchronized Library read(InputStream stream, boolean profiling) throws JAXBException {
+        PROFILING.set(profiling);
+        try {
+            return read(stream);
+        } finally {
+            PROFILING.remove();
+        }
+    }
+
+    static boolean isProfiling() {
+        return PROFILING.get();
+    }
 }
@@ -16,6 +16,8 @@ import org.opencds.cqf.cql.engine.elm.execution.ObjectFactoryEx;
 import com.ibm.cohort.annotations.Generated;
 import com.ibm.cohort.cql.evaluator.ShortAndEvaluator;
 import com.ibm.cohort.cql.evaluator.ShortOrEvaluator;
+import com.ibm.cohort.cql.profiling.ProfilingExpressionDefEvaluator;
+import com.ibm.cohort.cql.profiling.ProfilingRetrieveEvaluator;
 
 @SuppressWarnings("RedundantMethodOverride")
 @Generated
@@ -32,6 +34,17 @@ public class OptimizedObjectFactory extends ObjectFactoryEx {
 		return new ShortOrEvaluator();
 	}
 
+	// Profiling node types are only created while a library is read for profiling
+	@Override
+	public ExpressionDef createExpressionDef() {
+		return OptimizedCqlLibraryReader.isProfiling() ? new ProfilingExpressionDefEvaluator() : super.createExpressionDef();
+	}
+
+	@Override
+	public Retrieve createRetrieve() {
+		return OptimizedCqlLibraryReader.isProfiling() ? new ProfilingRetrieveEvaluator() : super.createRetrieve();
+	}
+
 	// The JAXB implementations does not recursively search the superclass for annotations
 	@Override
 	@XmlElementDecl(namespace = "urn:hl7-org:elm:r1", name = "library")
@@ -333,11 +346,6 @@ public class OptimizedObjectFactory extends ObjectFactoryEx {
 		return super.createExpand();
 	}
 
-	@Override
-	public ExpressionDef createExpressionDef() {
-		return super.createExpressionDef();
-	}
-
 	@Override
 	public ExpressionRef createExpressionRef() {
 		return super.createExpressionRef();
@@ -743,11 +751,6 @@ public class OptimizedObjectFactory extends ObjectFactoryEx {
 		return super.createReplaceMatches();
 	}
 
-	@Override
-	public Retrieve createRetrieve() {
-		return super.createRetrieve();
-	}
-
 	@Override
 	public Round createRound() {
 		return super.createRound();
@@ -0,0 +1,173 @@
+/*
+ * (C) Copyright IBM Corp. 2021, 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.profiling;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Evaluation time of a single expression definition or retrieve of a CQL
+ * library, added up over every evaluation that was profiled.
+ */
+public class CqlProfileEntry implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public enum Type {
+		EXPRESSION, RETRIEVE
+	}
+
+	private Type type;
+	private String libraryName;
+	private String name;
+	private long invocations;
+	private long totalNanos;
+	private long selfNanos;
+	private long maxNanos;
+
+	public CqlProfileEntry() {
+	}
+
+	public CqlProfileEntry(Type type, String libraryName, String name) {
+		this.type = type;
+		this.libraryName = libraryName;
+		this.name = name;
+	}
+
+	/**
+	 * @param type        Type of the profiled node
+	 * @param libraryName Name of the library that contains the node
+	 * @param name        Name of the expression or description of the retrieve
+	 * @return key that identifies the node in a profile
+	 */
+	public static String getKey(Type type, String libraryName, String name) {
+		return type + "|" + libraryName + "|" + name;
+	}
+
+	public String toKey() {
+		return getKey(type, libraryName, name);
+	}
+
+	/**
+	 * Record a single evaluation.
+	 *
+	 * @param total Time spent in the evaluation including nested profiled nodes
+	 * @param self  Time spent in the evaluation excluding nested profiled nodes
+	 */
+	public void record(long total, long self) {
+		invocations++;
+		totalNanos += total;
+		selfNanos += self;
+		maxNanos = Math.max(maxNanos, total);
+	}
+
+	/**
+	 * Add the evaluations of another entry for the same node to this entry.
+	 *
+	 * @param other Entry to add
+	 */
+	public void merge(CqlProfileEntry other) {
+		invocations += other.invocations;
+		totalNanos += other.totalNanos;
+		selfNanos += other.selfNanos;
+		maxNanos = Math.max(maxNanos, other.maxNanos);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	public String getLibraryName() {
+		return libraryName;
+	}
+
+	public void setLibraryName(String libraryName) {
+		this.libraryName = libraryName;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return number of evaluations, including evaluations that were answered
+	 *         from the expression cache
+	 */
+	public long getInvocations() {
+		return invocations;
+	}
+
+	public void setInvocations(long invocations) {
+		this.invocations = invocations;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public void setTotalNanos(long totalNanos) {
+		this.totalNanos = totalNanos;
+	}
+
+	/**
+	 * @return time spent in this node, excluding the time of the expression
+	 *         definitions and retrieves that it evaluated
+	 */
+	public long getSelfNanos() {
+		return selfNanos;
+	}
+
+	public void setSelfNanos(long selfNanos) {
+		this.selfNanos = selfNanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	public void setMaxNanos(long maxNanos) {
+		this.maxNanos = maxNanos;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		CqlProfileEntry that = (CqlProfileEntry) o;
+		return invocations == that.invocations
+				&& totalNanos == that.totalNanos
+				&& selfNanos == that.selfNanos
+				&& maxNanos == that.maxNanos
+				&& type == that.type
+				&& Objects.equals(libraryName, that.libraryName)
+				&& Objects.equals(name, that.name);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(type, libraryName, name, invocations, totalNanos, selfNanos, maxNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "CqlProfileEntry{" +
+				"type=" + type +
+				", libraryName='" + libraryName + '\'' +
+				", name='" + name + '\'' +
+				", invocations=" + invocations +
+				", totalNanos=" + totalNanos +
+				", selfNanos=" + selfNanos +
+				", maxNanos=" + maxNanos +
+				'}';
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * (C) Copyright IBM Corp. 2021, 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.profiling;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencds.cqf.cql.engine.execution.Context;
+
+/**
+ * Collects the evaluation time of the profiling node types that are created
+ * when a library is read with
+ * {@link com.ibm.cohort.cql.OptimizedCqlLibraryReader#read(java.io.InputStream, boolean)}.
+ *
+ * A CQL context is only evaluated by one thread at a time, so each thread
+ * records into its own profiler without synchronization. The time of a node
+ * is reported both in total and as self time, which excludes the time of the
+ * profiled nodes that were evaluated while the node was active.
+ */
+public class CqlProfiler {
+
+	private static final ThreadLocal<CqlProfiler> PROFILER = ThreadLocal.withInitial(CqlProfiler::new);
+
+	private final Map<String, CqlProfileEntry> entries = new HashMap<>();
+	private long[] nestedNanos = new long[16];
+	private int depth;
+
+	/**
+	 * @return profiler of the current thread
+	 */
+	public static CqlProfiler getInstance() {
+		return PROFILER.get();
+	}
+
+	/**
+	 * Start the evaluation of a profiled node. Every call must be followed by
+	 * a call to {@link #exit(CqlProfileEntry.Type, String, String, long)}.
+	 */
+	public void enter() {
+		if (depth == nestedNanos.length) {
+			nestedNanos = Arrays.copyOf(nestedNanos, depth * 2);
+		}
+		nestedNanos[depth++] = 0;
+	}
+
+	/**
+	 * Finish the evaluation of the most recently entered node.
+	 *
+	 * @param type        Type of the node
+	 * @param libraryName Name of the library that contains the node
+	 * @param name        Name of the expression or description of the retrieve
+	 * @param totalNanos  Time spent evaluating the node
+	 */
+	public void exit(CqlProfileEntry.Type type, String libraryName, String name, long totalNanos) {
+		long selfNanos = totalNanos - nestedNanos[--depth];
+		if (depth > 0) {
+			nestedNanos[depth - 1] += totalNanos;
+		}
+		entries.computeIfAbsent(CqlProfileEntry.getKey(type, libraryName, name), key -> new CqlProfileEntry(type, libraryName, name))
+				.record(totalNanos, selfNanos);
+	}
+
+	/**
+	 * Remove and return the entries that were recorded since the last call.
+	 *
+	 * @return profile entries keyed by {@link CqlProfileEntry#toKey()}
+	 */
+	public Map<String, CqlProfileEntry> drain() {
+		Map<String, CqlProfileEntry> result = new HashMap<>(entries);
+		entries.clear();
+		return result;
+	}
+
+	/**
+	 * @param context CQL context that is evaluating a profiled node
+	 * @return name of the library that is currently being evaluated
+	 */
+	static String getLibraryName(Context context) {
+		return context.getCurrentLibrary().getIdentifier().getId();
+	}
+}
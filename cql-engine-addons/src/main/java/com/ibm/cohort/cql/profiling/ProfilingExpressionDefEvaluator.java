@@ -0,0 +1,29 @@
+/*
+ * (C) Copyright IBM Corp. 2021, 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.profiling;
+
+import org.opencds.cqf.cql.engine.elm.execution.ExpressionDefEvaluator;
+import org.opencds.cqf.cql.engine.execution.Context;
+
+/**
+ * Expression definition that reports the time of each evaluation to the
+ * {@link CqlProfiler} of the evaluating thread.
+ */
+public class ProfilingExpressionDefEvaluator extends ExpressionDefEvaluator {
+
+	@Override
+	public Object evaluate(Context context) {
+		CqlProfiler profiler = CqlProfiler.getInstance();
+		String libraryName = CqlProfiler.getLibraryName(context);
+		profiler.enter();
+		long start = System.nanoTime();
+		try {
+			return super.evaluate(context);
+		} finally {
+			profiler.exit(CqlProfileEntry.Type.EXPRESSION, libraryName, getName(), System.nanoTime() - start);
+		}
+	}
+}
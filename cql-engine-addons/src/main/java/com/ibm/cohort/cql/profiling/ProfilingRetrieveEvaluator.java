@@ -0,0 +1,46 @@
+/*
+ * (C) Copyright IBM Corp. 2021, 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.profiling;
+
+import org.cqframework.cql.elm.execution.ValueSetRef;
+import org.opencds.cqf.cql.engine.elm.execution.RetrieveEvaluator;
+import org.opencds.cqf.cql.engine.execution.Context;
+
+/**
+ * Retrieve that reports the time of each evaluation to the
+ * {@link CqlProfiler} of the evaluating thread. Retrieves are identified by
+ * their datatype and, when filtered by a value set, the value set name, e.g.
+ * <code>[Condition: "Diabetes"]</code>.
+ */
+public class ProfilingRetrieveEvaluator extends RetrieveEvaluator {
+
+	private transient String description;
+
+	@Override
+	public Object evaluate(Context context) {
+		CqlProfiler profiler = CqlProfiler.getInstance();
+		String libraryName = CqlProfiler.getLibraryName(context);
+		profiler.enter();
+		long start = System.nanoTime();
+		try {
+			return super.evaluate(context);
+		} finally {
+			profiler.exit(CqlProfileEntry.Type.RETRIEVE, libraryName, getDescription(), System.nanoTime() - start);
+		}
+	}
+
+	protected String getDescription() {
+		if (description == null) {
+			StringBuilder sb = new StringBuilder("[");
+			sb.append(getDataType() != null ? getDataType().getLocalPart() : "?");
+			if (getCodes() instanceof ValueSetRef) {
+				sb.append(": \"").append(((ValueSetRef) getCodes()).getName()).append('"');
+			}
+			description = sb.append(']').toString();
+		}
+		return description;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright IBM Corp. 2021, 2021
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.ibm.cohort.cql.profiling;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.cqframework.cql.elm.execution.Library;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencds.cqf.cql.engine.execution.Context;
+
+import com.ibm.cohort.cql.OptimizedCqlLibraryReader;
+import com.ibm.cohort.translator.provider.InJVMCqlTranslationProvider;
+
+public class CqlProfilerTest {
+
+	private String elm;
+
+	@Before
+	public void setUp() throws Exception {
+		InJVMCqlTranslationProvider provider = new InJVMCqlTranslationProvider();
+		elm = provider.translate(this.getClass().getClassLoader().getResourceAsStream("cql/profiling.cql"));
+		CqlProfiler.getInstance().drain();
+	}
+
+	@Test
+	public void testProfiledDefinitions() throws Exception {
+		Library library = OptimizedCqlLibraryReader.read(new ByteArrayInputStream(elm.getBytes(StandardCharsets.UTF_8)), true);
+		Context context = new Context(library);
+
+		assertEquals(5, context.resolveExpressionRef("Top").evaluate(context));
+
+		Map<String, CqlProfileEntry> profile = CqlProfiler.getInstance().drain();
+		CqlProfileEntry top = profile.get(CqlProfileEntry.getKey(CqlProfileEntry.Type.EXPRESSION, "profiling", "Top"));
+		CqlProfileEntry middle = profile.get(CqlProfileEntry.getKey(CqlProfileEntry.Type.EXPRESSION, "profiling", "Middle"));
+		CqlProfileEntry base = profile.get(CqlProfileEntry.getKey(CqlProfileEntry.Type.EXPRESSION, "profiling", "Base"));
+		assertNotNull(top);
+		assertNotNull(middle);
+		assertNotNull(base);
+
+		assertEquals(1, top.getInvocations());
+		assertEquals(1, middle.getInvocations());
+		assertTrue(base.getInvocations() >= 1);
+
+		assertTrue(top.getTotalNanos() >= middle.getTotalNanos());
+		assertTrue(top.getSelfNanos() <= top.getTotalNanos() - middle.getTotalNanos());
+		assertTrue(middle.getSelfNanos() <= middle.getTotalNanos());
+
+		assertTrue(CqlProfiler.getInstance().drain().isEmpty());
+	}
+
+	@Test
+	public void testProfilingDisabledByDefault() throws Exception {
+		Library library = OptimizedCqlLibraryReader.read(elm);
+		assertThat(library.getStatements().getDef().get(0), not(instanceOf(ProfilingExpressionDefEvaluator.class)));
+
+		Context context = new Context(library);
+		context.resolveExpressionRef("Top").evaluate(context);
+		assertTrue(CqlProfiler.getInstance().drain().isEmpty());
+	}
+
+	@Test
+	public void testSelfTimeExcludesNestedNodes() {
+		CqlProfiler profiler = new CqlProfiler();
+		profiler.enter();
+		profiler.enter();
+		profiler.exit(CqlProfileEntry.Type.RETRIEVE, "lib", "[Condition]", 30);
+		profiler.exit(CqlProfileEntry.Type.EXPRESSION, "lib", "Outer", 100);
+
+		Map<String, CqlProfileEntry> profile = profiler.drain();
+		CqlProfileEntry outer = profile.get(CqlProfileEntry.getKey(CqlProfileEntry.Type.EXPRESSION, "lib", "Outer"));
+		assertEquals(100, outer.getTotalNanos());
+		assertEquals(70, outer.getSelfNanos());
+
+		CqlProfileEntry retrieve = profile.get(CqlProfileEntry.getKey(CqlProfileEntry.Type.RETRIEVE, "lib", "[Condition]"));
+		assertEquals(30, retrieve.getTotalNanos());
+		assertEquals(30, retrieve.getSelfNanos());
+	}
+}